@@ -0,0 +1,158 @@
+package org.bm.benchmarks;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Compare the results of a JMH run with a baseline, both written with
+ * {@code -rf json}:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar org.bm.benchmarks.BaselineComparison baseline.json current.json [threshold %]
+ * </pre>
+ *
+ * Each benchmark is printed with its score in both runs and its change. The
+ * exit code is 1 if a benchmark is slower than the baseline by more than the
+ * threshold, 10 % by default, beyond the error of both scores. The files are
+ * read with Gson.
+ *
+ * @author morinb
+ */
+public class BaselineComparison {
+
+   /**
+    * The allocation per operation measured by {@code -prof gc}, named with a
+    * leading middle dot before JMH 1.36.
+    */
+   private static final String[] ALLOCATION = { "gc.alloc.rate.norm", "\u00b7gc.alloc.rate.norm" };
+
+   public static void main(String[] args) throws IOException {
+      if (args.length < 2) {
+         System.err.println("Usage: BaselineComparison baseline.json current.json [threshold %]");
+         System.exit(2);
+      }
+      double threshold = args.length > 2 ? Double.parseDouble(args[2]) / 100 : 0.1;
+      Map<String, JsonObject> baseline = results(args[0]);
+      Map<String, JsonObject> current = results(args[1]);
+
+      int regressions = 0;
+      for (Map.Entry<String, JsonObject> entry : current.entrySet()) {
+         JsonObject result = entry.getValue();
+         JsonObject reference = baseline.get(entry.getKey());
+         JsonObject metric = result.getAsJsonObject("primaryMetric");
+         double score = number(metric.get("score"));
+         String unit = metric.get("scoreUnit").getAsString();
+         StringBuilder line = new StringBuilder(entry.getKey()).append(": ").append(format(score)).append(' ')
+            .append(unit);
+
+         if (null == reference) {
+            line.append(" (new)");
+         } else {
+            JsonObject referenceMetric = reference.getAsJsonObject("primaryMetric");
+            double referenceScore = number(referenceMetric.get("score"));
+            double change = (score - referenceScore) / referenceScore;
+            line.append(" instead of ").append(format(referenceScore));
+            line.append(String.format(" (%+.1f %%)", 100 * change));
+
+            // The throughputs are better higher, the times lower.
+            boolean higherIsBetter = "thrpt".equals(result.get("mode").getAsString());
+            double loss = higherIsBetter ? -change : change;
+            double error = (error(metric) + error(referenceMetric)) / referenceScore;
+            if (loss > threshold && loss > error) {
+               line.append(" REGRESSION");
+               regressions++;
+            }
+            line.append(allocation(result, reference));
+         }
+         System.out.println(line);
+      }
+      for (String key : baseline.keySet()) {
+         if (!current.containsKey(key)) {
+            System.out.println(key + ": missing");
+         }
+      }
+
+      System.exit(regressions > 0 ? 1 : 0);
+   }
+
+   /**
+    * @return the results of a run by benchmark, mode and parameters.
+    */
+   private static Map<String, JsonObject> results(String file) throws IOException {
+      Map<String, JsonObject> results = new LinkedHashMap<>();
+      try (Reader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+         for (JsonElement item : JsonParser.parseReader(reader).getAsJsonArray()) {
+            JsonObject result = item.getAsJsonObject();
+            String key = result.get("benchmark").getAsString() + " " + result.get("mode").getAsString();
+            if (result.has("params")) {
+               key += " " + result.get("params");
+            }
+            results.put(key, result);
+         }
+      }
+      return results;
+   }
+
+   private static String allocation(JsonObject result, JsonObject reference) {
+      JsonObject metric = allocation(result);
+      JsonObject referenceMetric = allocation(reference);
+      if (null == metric || null == referenceMetric) {
+         return "";
+      }
+      return ", allocated " + format(number(metric.get("score"))) + " B/op instead of "
+         + format(number(referenceMetric.get("score")));
+   }
+
+   private static JsonObject allocation(JsonObject result) {
+      JsonObject metrics = result.getAsJsonObject("secondaryMetrics");
+      if (null != metrics) {
+         for (String name : ALLOCATION) {
+            if (metrics.has(name)) {
+               return metrics.getAsJsonObject(name);
+            }
+         }
+      }
+      return null;
+   }
+
+   private static double number(JsonElement value) {
+      // JMH writes "NaN" for the error of a single iteration.
+      if (null == value || !value.isJsonPrimitive() || !value.getAsJsonPrimitive().isNumber()) {
+         return Double.NaN;
+      }
+      return value.getAsDouble();
+   }
+
+   private static double error(JsonObject metric) {
+      double error = number(metric.get("scoreError"));
+      return Double.isNaN(error) ? 0 : error;
+   }
+
+   private static String format(double value) {
+      return String.format("%.3f", value);
+   }
+}
@@ -0,0 +1,110 @@
+package org.bm.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.bm.FormulaCompute;
+import org.bm.analysis.exception.MathematicalAnalysisException;
+import org.bm.compiler.CompiledFormula;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * A formula over many rows: a row at a time, by blocks of columns with the
+ * kernels in use (see {@link org.bm.compiler.BatchKernelsFactory}), and by
+ * blocks on all the cores.
+ *
+ * @author morinb
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+
+   private static final int ROWS = 100000;
+
+   @Param({ "SHORT", "LONG", "VARIABLES" })
+   public FormulaCorpus.Kind kind;
+
+   private CompiledFormula formula;
+
+   private double[][] columns;
+
+   private double[] row;
+
+   private double[] out;
+
+   private ForkJoinPool pool;
+
+   @Setup
+   public void setUp() throws MathematicalAnalysisException {
+      formula = FormulaCompute.compile(FormulaCorpus.generate(kind, 1, FormulaCorpus.SEED)[0]);
+      Random random = new Random(FormulaCorpus.SEED);
+      columns = new double[formula.getSlotCount()][ROWS];
+      for (double[] column : columns) {
+         for (int i = 0; i < ROWS; i++) {
+            column[i] = 1 + random.nextDouble();
+         }
+      }
+      row = new double[columns.length];
+      out = new double[ROWS];
+      pool = new ForkJoinPool();
+   }
+
+   @TearDown
+   public void tearDown() {
+      pool.shutdown();
+   }
+
+   @Benchmark
+   public double[] rowByRow() {
+      for (int i = 0; i < ROWS; i++) {
+         for (int slot = 0; slot < row.length; slot++) {
+            row[slot] = columns[slot][i];
+         }
+         out[i] = formula.evaluate(row);
+      }
+      return out;
+   }
+
+   @Benchmark
+   public double[] columnar() {
+      formula.evaluate(columns, out, 0, ROWS);
+      return out;
+   }
+
+   @Benchmark
+   public double[] parallel() throws MathematicalAnalysisException {
+      formula.evaluate(columns, out, 0, ROWS, pool);
+      return out;
+   }
+}
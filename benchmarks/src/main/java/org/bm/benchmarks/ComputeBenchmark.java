@@ -0,0 +1,102 @@
+package org.bm.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bm.FormulaCompute;
+import org.bm.analysis.exception.MathematicalAnalysisException;
+import org.bm.compiler.CompiledFormula;
+import org.bm.utils.FunctionRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * A formula from its text to its result: interpreted each time, computed
+ * through the cache of compiled formulas, compiled, and evaluated once
+ * compiled.
+ *
+ * @author morinb
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComputeBenchmark {
+
+   @Param({ "SHORT", "LONG", "NESTED", "VARIABLES" })
+   public FormulaCorpus.Kind kind;
+
+   private String[] formulas;
+
+   private Map<String, String> variables;
+
+   private CompiledFormula[] compiled;
+
+   private double[][] values;
+
+   private int next;
+
+   @Setup
+   public void setUp() throws MathematicalAnalysisException {
+      formulas = FormulaCorpus.generate(kind, ParseBenchmark.CORPUS_SIZE, FormulaCorpus.SEED);
+      variables = FormulaCorpus.variables();
+      compiled = new CompiledFormula[formulas.length];
+      values = new double[formulas.length][];
+      for (int i = 0; i < formulas.length; i++) {
+         compiled[i] = FormulaCompute.compile(formulas[i]);
+         values[i] = FormulaCorpus.values(compiled[i].getVariables());
+      }
+   }
+
+   @Benchmark
+   public String interpret() throws MathematicalAnalysisException {
+      return FormulaCompute.interpret(formulas[next()], variables, FunctionRegistry.getDefault(), false);
+   }
+
+   @Benchmark
+   public String compute() throws MathematicalAnalysisException {
+      return FormulaCompute.compute(formulas[next()], variables, false);
+   }
+
+   @Benchmark
+   public CompiledFormula compile() throws MathematicalAnalysisException {
+      return FormulaCompute.compile(formulas[next()]);
+   }
+
+   @Benchmark
+   public double evaluate() {
+      int i = next();
+      return compiled[i].evaluate(values[i]);
+   }
+
+   private int next() {
+      next = (next + 1) % formulas.length;
+      return next;
+   }
+}
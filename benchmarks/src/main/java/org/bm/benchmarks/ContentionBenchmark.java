@@ -0,0 +1,97 @@
+package org.bm.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.bm.FormulaCompute;
+import org.bm.analysis.exception.MathematicalAnalysisException;
+import org.bm.cache.FormulaCache;
+import org.bm.cache.impl.FormulaCacheDefaultImpl;
+import org.bm.compiler.CompiledFormula;
+import org.bm.utils.FunctionRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * All the threads of the machine computing formulas at once: hitting the
+ * shared cache, missing a cache too small for the formulas, and evaluating
+ * the same compiled formulas.
+ *
+ * @author morinb
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(Threads.MAX)
+@Fork(1)
+public class ContentionBenchmark {
+
+   private static final int FORMULAS = 1024;
+
+   private String[] formulas;
+
+   private Map<String, String> variables;
+
+   private FormulaCache smallCache;
+
+   private CompiledFormula[] compiled;
+
+   private double[][] values;
+
+   @Setup
+   public void setUp() throws MathematicalAnalysisException {
+      formulas = FormulaCorpus.generate(FormulaCorpus.Kind.SHORT, FORMULAS, FormulaCorpus.SEED);
+      variables = FormulaCorpus.variables();
+      smallCache = new FormulaCacheDefaultImpl(FORMULAS / 8, FormulaCompute.DEFAULT_CACHE_WEIGHT);
+      compiled = new CompiledFormula[FORMULAS];
+      values = new double[FORMULAS][];
+      for (int i = 0; i < FORMULAS; i++) {
+         compiled[i] = FormulaCompute.compile(formulas[i]);
+         values[i] = FormulaCorpus.values(compiled[i].getVariables());
+      }
+   }
+
+   @Benchmark
+   public String computeCached() throws MathematicalAnalysisException {
+      return FormulaCompute.compute(formulas[ThreadLocalRandom.current().nextInt(FORMULAS)], variables, false);
+   }
+
+   @Benchmark
+   public String computeEvicting() throws MathematicalAnalysisException {
+      String formula = formulas[ThreadLocalRandom.current().nextInt(FORMULAS)];
+      return smallCache.get(formula, FunctionRegistry.getDefault()).evaluate(variables);
+   }
+
+   @Benchmark
+   public double evaluateShared() {
+      int i = ThreadLocalRandom.current().nextInt(FORMULAS);
+      return compiled[i].evaluate(values[i]);
+   }
+}
@@ -0,0 +1,160 @@
+package org.bm.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Generate the formulas the benchmarks run on. The same seed always gives the
+ * same formulas, so that runs on different versions can be compared.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar org.bm.benchmarks.FormulaCorpus LONG 10 42
+ * </pre>
+ *
+ * @author morinb
+ */
+public class FormulaCorpus {
+
+   public static final long SEED = 42;
+
+   /**
+    * The number of variables of the corpus, named {@code v0} to {@code v63}.
+    */
+   public static final int VARIABLES = 64;
+
+   private static final String[] OPERATORS = { "+", "-", "*", "/", "+", "*" };
+
+   private static final String[] FUNCTIONS = { "sqrt", "log", "exp" };
+
+   public enum Kind {
+      /**
+       * 3 to 6 operands, mostly numbers.
+       */
+      SHORT,
+      /**
+       * 200 operands.
+       */
+      LONG,
+      /**
+       * 40 levels of parentheses and functions.
+       */
+      NESTED,
+      /**
+       * 30 operands, all of them variables.
+       */
+      VARIABLES
+   }
+
+   public static String[] generate(Kind kind, int count, long seed) {
+      Random random = new Random(seed);
+      String[] formulas = new String[count];
+      for (int i = 0; i < count; i++) {
+         switch (kind) {
+            case SHORT:
+               formulas[i] = flat(random, 3 + random.nextInt(4), 0.2);
+               break;
+            case LONG:
+               formulas[i] = flat(random, 200, 0.5);
+               break;
+            case NESTED:
+               formulas[i] = nested(random, 40);
+               break;
+            default:
+               formulas[i] = flat(random, 30, 1.0);
+               break;
+         }
+      }
+      return formulas;
+   }
+
+   /**
+    * @return the values of all the variables of the corpus, between 1 and 2.
+    */
+   public static Map<String, String> variables() {
+      Map<String, String> variables = new HashMap<>();
+      Random random = new Random(SEED);
+      for (int i = 0; i < VARIABLES; i++) {
+         variables.put("v" + i, Double.toString(1 + random.nextInt(1000) / 1000.0));
+      }
+      return variables;
+   }
+
+   /**
+    * @return the values of the variables of the corpus, by their index.
+    */
+   public static double[] values(String[] names) {
+      Map<String, String> variables = variables();
+      double[] values = new double[names.length];
+      for (int i = 0; i < names.length; i++) {
+         values[i] = Double.parseDouble(variables.get(names[i]));
+      }
+      return values;
+   }
+
+   public static void main(String[] args) {
+      Kind kind = args.length > 0 ? Kind.valueOf(args[0]) : Kind.SHORT;
+      int count = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+      long seed = args.length > 2 ? Long.parseLong(args[2]) : SEED;
+      for (String formula : generate(kind, count, seed)) {
+         System.out.println(formula);
+      }
+   }
+
+   private static String flat(Random random, int operands, double variableRatio) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < operands; i++) {
+         if (i > 0) {
+            sb.append(' ').append(OPERATORS[random.nextInt(OPERATORS.length)]).append(' ');
+         }
+         String operand = operand(random, variableRatio);
+         int choice = random.nextInt(20);
+         if (choice == 0) {
+            sb.append(FUNCTIONS[random.nextInt(FUNCTIONS.length)]).append('(').append(operand).append(')');
+         } else if (choice == 1) {
+            sb.append(operand).append("^2");
+         } else {
+            sb.append(operand);
+         }
+      }
+      return sb.toString();
+   }
+
+   private static String nested(Random random, int depth) {
+      String formula = operand(random, 0.5);
+      for (int i = 0; i < depth; i++) {
+         String operator = OPERATORS[random.nextInt(OPERATORS.length)];
+         if (i % 5 == 4) {
+            formula = FUNCTIONS[random.nextInt(FUNCTIONS.length)] + "(" + formula + ")";
+         } else if (random.nextBoolean()) {
+            formula = "(" + formula + " " + operator + " " + operand(random, 0.5) + ")";
+         } else {
+            formula = "(" + operand(random, 0.5) + " " + operator + " " + formula + ")";
+         }
+      }
+      return formula;
+   }
+
+   private static String operand(Random random, double variableRatio) {
+      if (random.nextDouble() < variableRatio) {
+         return "v" + random.nextInt(VARIABLES);
+      }
+      return random.nextBoolean() ? Integer.toString(1 + random.nextInt(99)) : Double.toString(
+         1 + random.nextInt(9999) / 100.0);
+   }
+}
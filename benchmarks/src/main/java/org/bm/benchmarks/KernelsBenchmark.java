@@ -0,0 +1,122 @@
+package org.bm.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.bm.compiler.BatchKernels;
+import org.bm.compiler.OpCode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * The kernels of the Vector API against the scalar loops, on a block of the
+ * size used by {@link org.bm.compiler.CompiledFormula} over columns. The
+ * vector kernels are built with Java 17 and are loaded by name, so that the
+ * benchmarks still build for Java 8.
+ *
+ * @author morinb
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class KernelsBenchmark {
+
+   private static final int ROWS = 512;
+
+   public enum Kernels {
+      SCALAR("org.bm.compiler.impl.BatchKernelsDefaultImpl"), VECTOR("org.bm.compiler.impl.BatchKernelsVectorImpl");
+
+      private final String className;
+
+      Kernels(String className) {
+         this.className = className;
+      }
+   }
+
+   @Param({ "SCALAR", "VECTOR" })
+   public Kernels kernels;
+
+   private BatchKernels instance;
+
+   private double[] a;
+
+   private double[] b;
+
+   private double[] out;
+
+   @Setup
+   public void setUp() throws ReflectiveOperationException {
+      instance = (BatchKernels) Class.forName(kernels.className).getDeclaredConstructor().newInstance();
+      Random random = new Random(FormulaCorpus.SEED);
+      a = new double[ROWS];
+      b = new double[ROWS];
+      for (int i = 0; i < ROWS; i++) {
+         a[i] = 1 + random.nextDouble();
+         b[i] = 1 + random.nextDouble();
+      }
+      out = new double[ROWS];
+   }
+
+   @Benchmark
+   public double[] addition() {
+      instance.binary(OpCode.ADDITION, a, 0, b, 0, out, ROWS);
+      return out;
+   }
+
+   @Benchmark
+   public double[] multiplication() {
+      instance.binary(OpCode.MULTIPLICATION, a, 0, b, 0, out, ROWS);
+      return out;
+   }
+
+   @Benchmark
+   public double[] division() {
+      instance.binary(OpCode.DIVISION, a, 0, b, 0, out, ROWS);
+      return out;
+   }
+
+   @Benchmark
+   public double[] power() {
+      instance.binary(OpCode.POWER, a, 0, b, 0, out, ROWS);
+      return out;
+   }
+
+   @Benchmark
+   public double[] sqrt() {
+      instance.unary(OpCode.SQRT, a, 0, out, ROWS);
+      return out;
+   }
+
+   @Benchmark
+   public double[] exp() {
+      instance.unary(OpCode.EXP, a, 0, out, ROWS);
+      return out;
+   }
+}
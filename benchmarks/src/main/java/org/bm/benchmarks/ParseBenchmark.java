@@ -0,0 +1,115 @@
+package org.bm.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bm.analysis.Analyzer;
+import org.bm.analysis.exception.MathematicalAnalysisException;
+import org.bm.analysis.impl.AnalyzerDefaultImpl;
+import org.bm.parser.RPNParser;
+import org.bm.parser.RPNParserFactory;
+import org.bm.utils.FunctionRegistry;
+import org.bm.writer.Writer;
+import org.bm.writer.impl.StringWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * The stages of the interpretation of a formula, one at a time: its parsing
+ * into postfix notation by the shunting-yard algorithm, the writing of the
+ * postfix tokens, and the analysis of the postfix notation.
+ *
+ * @author morinb
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+   /**
+    * The number of formulas cycled through, so that a single formula does
+    * not get all the branches predicted.
+    */
+   static final int CORPUS_SIZE = 64;
+
+   @Param({ "SHORT", "LONG", "NESTED", "VARIABLES" })
+   public FormulaCorpus.Kind kind;
+
+   private String[] formulas;
+
+   private List<List<String>> tokens;
+
+   private String[] postfix;
+
+   private RPNParser parser;
+
+   private Writer<String> writer;
+
+   private Analyzer analyzer;
+
+   private int next;
+
+   @Setup
+   public void setUp() throws MathematicalAnalysisException {
+      FunctionRegistry registry = FunctionRegistry.getDefault();
+      formulas = FormulaCorpus.generate(kind, CORPUS_SIZE, FormulaCorpus.SEED);
+      parser = RPNParserFactory.getParser(false, FormulaCorpus.variables(), registry);
+      writer = new StringWriter();
+      analyzer = new AnalyzerDefaultImpl(registry);
+
+      tokens = new ArrayList<>(CORPUS_SIZE);
+      postfix = new String[CORPUS_SIZE];
+      for (int i = 0; i < CORPUS_SIZE; i++) {
+         tokens.add(parser.parse(formulas[i]));
+         postfix[i] = writer.write(tokens.get(i));
+      }
+   }
+
+   @Benchmark
+   public List<String> parse() throws MathematicalAnalysisException {
+      return parser.parse(formulas[next()]);
+   }
+
+   @Benchmark
+   public String write() {
+      return writer.write(tokens.get(next()));
+   }
+
+   @Benchmark
+   public String analyze() throws MathematicalAnalysisException {
+      return analyzer.compute(postfix[next()]);
+   }
+
+   private int next() {
+      next = (next + 1) % CORPUS_SIZE;
+      return next;
+   }
+}
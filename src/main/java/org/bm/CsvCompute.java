@@ -0,0 +1,96 @@
+package org.bm;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.bm.analysis.exception.MathematicalAnalysisException;
+import org.bm.pipeline.ColumnFileWriter;
+import org.bm.pipeline.CsvPipeline;
+import org.bm.utils.FunctionRegistry;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Apply formulas to the rows of a CSV file from the command line:
+ *
+ * <pre>
+ * java org.bm.CsvCompute [-s separator] input.csv output.csv formula...
+ * </pre>
+ *
+ * or to convert a CSV file into a column file, or to apply formulas to a
+ * column file:
+ *
+ * <pre>
+ * java org.bm.CsvCompute [-s separator] -convert input.csv output.col
+ * java org.bm.CsvCompute -columns input.col output.col formula...
+ * </pre>
+ *
+ * @see CsvPipeline
+ * @author morinb
+ */
+public class CsvCompute {
+
+   private static final String USAGE = "Usage: CsvCompute [-s separator] input.csv output.csv formula...\n"
+      + "       CsvCompute [-s separator] -convert input.csv output.col\n"
+      + "       CsvCompute -columns input.col output.col formula...";
+
+   public static void main(String[] args) {
+      char separator = ',';
+      int first = 0;
+      if (args.length > 1 && "-s".equals(args[0])) {
+         if (args[1].length() != 1) {
+            exit("The separator must be a single character.");
+         }
+         separator = args[1].charAt(0);
+         first = 2;
+      }
+      String mode = args.length > first ? args[first] : "";
+      boolean convert = "-convert".equals(mode);
+      boolean columns = "-columns".equals(mode);
+      if (convert || columns) {
+         first++;
+      }
+      if (convert ? args.length - first != 2 : args.length - first < 3) {
+         exit(USAGE);
+      }
+
+      String[] formulas = Arrays.copyOfRange(args, first + 2, args.length);
+      try {
+         long rows;
+         if (convert) {
+            rows = ColumnFileWriter.fromCsv(Paths.get(args[first]), Paths.get(args[first + 1]), separator,
+               CsvPipeline.BLOCK_SIZE);
+         } else {
+            CsvPipeline pipeline = new CsvPipeline(formulas, FunctionRegistry.getDefault(), separator,
+               CsvPipeline.DEFAULT_WINDOW_SIZE);
+            if (columns) {
+               rows = pipeline.runColumns(Paths.get(args[first]), Paths.get(args[first + 1]));
+            } else {
+               rows = pipeline.run(Paths.get(args[first]), Paths.get(args[first + 1]));
+            }
+         }
+         System.out.println(rows + " rows " + (convert ? "converted." : "computed."));
+      } catch (IOException | MathematicalAnalysisException | IllegalArgumentException e) {
+         exit(e.getMessage());
+      }
+   }
+
+   private static void exit(String message) {
+      System.err.println(message);
+      System.exit(1);
+   }
+}
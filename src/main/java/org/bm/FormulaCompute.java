@@ -1,13 +1,30 @@
 package org.bm;
 
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.bm.analysis.Analyzer;
 import org.bm.analysis.exception.MathematicalAnalysisException;
 import org.bm.analysis.impl.AnalyzerDefaultImpl;
+import org.bm.cache.FormulaCache;
+import org.bm.cache.impl.FormulaCacheDefaultImpl;
+import org.bm.compiler.CompiledFormula;
+import org.bm.compiler.FormulaCompiler;
+import org.bm.compiler.FormulaOptimizer;
+import org.bm.compiler.impl.FormulaCompilerDefaultImpl;
+import org.bm.compiler.impl.FormulaOptimizerDefaultImpl;
+import org.bm.events.FormulaEvent;
+import org.bm.events.FormulaEventType;
+import org.bm.metrics.Metrics;
+import org.bm.metrics.Stage;
+import org.bm.parser.ParseContext;
+import org.bm.parser.ParseTracer;
 import org.bm.parser.RPNParser;
 import org.bm.parser.RPNParserFactory;
+import org.bm.parser.impl.LoggingParseTracer;
+import org.bm.parser.lexer.Lexer;
+import org.bm.parser.lexer.TokenType;
+import org.bm.utils.FunctionRegistry;
 import org.bm.writer.Writer;
 import org.bm.writer.impl.StringWriter;
 
@@ -30,16 +47,192 @@ import org.bm.writer.impl.StringWriter;
  */
 public class FormulaCompute {
 
+   /**
+    * The default maximum number of formulas of the cache.
+    */
+   public static final int DEFAULT_CACHE_SIZE = 10000;
+
+   /**
+    * The default maximum memory used by the formulas of the cache, in bytes.
+    */
+   public static final long DEFAULT_CACHE_WEIGHT = 64L * 1024 * 1024;
+
+   /**
+    * The parser, writer and analyzer of the default registry, shared by all
+    * the threads: they have no state of their own.
+    */
+   private static final RPNParser PARSER = RPNParserFactory.getParser(FunctionRegistry.getDefault());
+
+   private static final Writer<String> WRITER = new StringWriter();
+
+   private static final Analyzer ANALYZER = new AnalyzerDefaultImpl(FunctionRegistry.getDefault());
+
+   private static volatile FormulaCache cache = new FormulaCacheDefaultImpl(DEFAULT_CACHE_SIZE, DEFAULT_CACHE_WEIGHT);
+
    public static String compute(String formula, Map<String, String> variables, boolean verbose)
       throws MathematicalAnalysisException {
-      if (null == variables) {
-         variables = new HashMap<>();
+      return compute(formula, variables, FunctionRegistry.getDefault(), verbose);
+   }
+
+   /**
+    * Compute a formula. The formula is compiled once and kept in the cache
+    * (see {@link #getCache()}), unless verbose, where each step of its parsing
+    * is logged, or unless a variable has the name of a function: the variable
+    * is then read instead of the function, as when interpreting.
+    */
+   public static String compute(String formula, Map<String, String> variables, FunctionRegistry registry,
+      boolean verbose) throws MathematicalAnalysisException {
+      if (verbose || isSingleToken(formula, registry) || registry.isShadowed(variables)) {
+         // A single token is given back as written, not as a double. The
+         // cached formulas are compiled without the variables, where a
+         // variable shadowing a function would be read as the function.
+         return interpret(formula, variables, registry, verbose);
+      }
+      return cache.get(formula, registry).evaluate(variables);
+   }
+
+   /**
+    * Compute a formula by parsing it and interpreting its postfix notation,
+    * without the cache. Its parsing, writing and analysis are measured by
+    * {@link Metrics#getDefault()}.
+    */
+   public static String interpret(String formula, Map<String, String> variables, FunctionRegistry registry,
+      boolean verbose) throws MathematicalAnalysisException {
+      Analyzer analyzer = FunctionRegistry.getDefault() == registry ? ANALYZER : new AnalyzerDefaultImpl(registry);
+
+      Metrics metrics = Metrics.getDefault();
+      List<String> tokens = parse(formula, new ParseContext(variables, tracer(verbose)), registry, metrics);
+
+      Stage stage = Stage.WRITE;
+      long start = metrics.start();
+      try {
+         String postfix = WRITER.write(tokens);
+         metrics.record(stage, formula, start);
+
+         stage = Stage.ANALYZE;
+         start = metrics.start();
+         String result = analyzer.compute(postfix);
+         metrics.record(stage, formula, start);
+         return result;
+      } catch (MathematicalAnalysisException e) {
+         metrics.recordError(stage, formula, e);
+         throw e;
       }
+   }
 
-      RPNParser parser = RPNParserFactory.getParser(verbose, variables);
-      Writer<String> stringWriter = new StringWriter();
-      Analyzer analyzer = new AnalyzerDefaultImpl();
+   /**
+    * Parse and optimize a formula once, so that it can be evaluated many times with
+    * {@link CompiledFormula#evaluate(Map)}. All the non numeric tokens which
+    * are neither operators nor functions are variables, bound at evaluation.
+    *
+    * @param formula
+    *            in infix notation.
+    * @return the compiled formula, which can be shared between threads.
+    * @throws MathematicalAnalysisException
+    *             if the formula cannot be parsed.
+    */
+   public static CompiledFormula compile(String formula) throws MathematicalAnalysisException {
+      return compile(formula, false);
+   }
+
+   public static CompiledFormula compile(String formula, boolean verbose) throws MathematicalAnalysisException {
+      return compile(formula, FunctionRegistry.getDefault(), verbose);
+   }
+
+   /**
+    * @param registry
+    *            the operators and functions the formula may use, including
+    *            the ones registered by the application.
+    * @see #compile(String)
+    */
+   public static CompiledFormula compile(String formula, FunctionRegistry registry, boolean verbose)
+      throws MathematicalAnalysisException {
+      return compile(formula, new FormulaCompilerDefaultImpl(registry), registry, verbose);
+   }
+
+   /**
+    * Compile a formula whose variables have the given slots, so that formulas
+    * compiled with the same slots can be evaluated with the same array or
+    * {@link org.bm.compiler.Bindings}.
+    *
+    * @param slots
+    *            the name of the variable of each slot.
+    * @throws MathematicalAnalysisException
+    *             if the formula cannot be parsed, or if it uses a variable
+    *             without slot.
+    * @see #compile(String)
+    */
+   public static CompiledFormula compile(String formula, FunctionRegistry registry, String[] slots, boolean verbose)
+      throws MathematicalAnalysisException {
+      return compile(formula, new FormulaCompilerDefaultImpl(registry, slots), registry, verbose);
+   }
+
+   /**
+    * @return the cache of the formulas compiled by
+    *         {@link #compute(String, Map, boolean)}.
+    */
+   public static FormulaCache getCache() {
+      return cache;
+   }
+
+   /**
+    * Replace the cache, i.e. to change its maximum size or weight.
+    */
+   public static void setCache(FormulaCache formulaCache) {
+      if (null == formulaCache) {
+         throw new IllegalArgumentException("The cache must not be null.");
+      }
+      cache = formulaCache;
+   }
+
+   /**
+    * Parse, compile and optimize a formula, measured by
+    * {@link Metrics#getDefault()}.
+    */
+   private static CompiledFormula compile(String formula, FormulaCompiler compiler, FunctionRegistry registry,
+      boolean verbose) throws MathematicalAnalysisException {
+      FormulaOptimizer optimizer = new FormulaOptimizerDefaultImpl(verbose);
+
+      Metrics metrics = Metrics.getDefault();
+      ParseContext context = verbose ? new ParseContext(null, tracer(verbose)) : ParseContext.EMPTY;
+      List<String> tokens = parse(formula, context, registry, metrics);
+
+      FormulaEvent event = FormulaEventType.COMPILE.begin();
+      long start = metrics.start();
+      try {
+         CompiledFormula compiled = optimizer.optimize(compiler.compile(formula, tokens));
+         metrics.record(Stage.COMPILE, formula, start);
+         if (null != event) {
+            event.commit(formula, compiled.getOpcodes().length, compiled.getSlotCount());
+         }
+         return compiled;
+      } catch (MathematicalAnalysisException e) {
+         metrics.recordError(Stage.COMPILE, formula, e);
+         throw e;
+      }
+   }
+
+   private static List<String> parse(String formula, ParseContext context, FunctionRegistry registry,
+      Metrics metrics) throws MathematicalAnalysisException {
+      RPNParser parser = FunctionRegistry.getDefault() == registry ? PARSER : RPNParserFactory.getParser(registry);
+      long start = metrics.start();
+      try {
+         List<String> tokens = parser.parse(formula, context);
+         metrics.record(Stage.PARSE, formula, start);
+         return tokens;
+      } catch (MathematicalAnalysisException e) {
+         metrics.recordError(Stage.PARSE, formula, e);
+         throw e;
+      }
+   }
+
+   private static ParseTracer tracer(boolean verbose) {
+      return verbose ? new LoggingParseTracer() : null;
+   }
 
-      return analyzer.compute(stringWriter.write(parser.parse(formula)));
+   private static boolean isSingleToken(String formula, FunctionRegistry registry) {
+      Lexer lexer = new Lexer(formula, registry);
+      TokenType type = lexer.next();
+      return (TokenType.NUMBER == type || TokenType.IDENTIFIER == type) && TokenType.END == lexer.next();
    }
 }
@@ -1,14 +1,14 @@
 package org.bm.analysis.impl;
 
-import java.util.Deque;
-import java.util.LinkedList;
 import java.util.StringTokenizer;
 
 import org.bm.analysis.Analyzer;
 import org.bm.analysis.exception.MathematicalAnalysisException;
-import org.bm.utils.ComputeUtils;
-import org.bm.utils.Function;
+import org.bm.events.FormulaEvent;
+import org.bm.events.FormulaEventType;
+import org.bm.utils.FunctionRegistry;
 import org.bm.utils.Operator;
+import org.bm.utils.Symbol;
 
 /**
  * Copyright 2012 B. MORIN
@@ -25,67 +25,79 @@ import org.bm.utils.Operator;
  * License for the specific language governing permissions and limitations under
  * the License.
  * 
+ * The analyzer has no state of its own: it can be shared between threads.
+ * 
  * @author morinb
  */
 public class AnalyzerDefaultImpl implements Analyzer {
 
+   /**
+    * The operators and functions known by the analyzer.
+    */
+   private final FunctionRegistry registry;
+
+   public AnalyzerDefaultImpl() {
+      this(FunctionRegistry.getDefault());
+   }
+
+   public AnalyzerDefaultImpl(FunctionRegistry registry) {
+      this.registry = registry;
+   }
+
    @Override
    public String compute(String formula) throws MathematicalAnalysisException {
-      Deque<String> stack = new LinkedList<>();
       StringTokenizer st = new StringTokenizer(formula, " ");
+      int nbTokens = st.countTokens();
 
-      while (st.hasMoreTokens()) {
-         String token = st.nextToken();
-
-         if (ComputeUtils.isFunction(token)) {
-            Function f = Function.get(token);
-            int nbArgs = f.getNbArgs();
-
-            if (stack.size() < nbArgs) {
-               throw new MathematicalAnalysisException("The function " + f.getName()
-                  + " needs more arguments than the ones supplied.");
-            }
-            String[] args = new String[nbArgs];
-            for (int i = 0; i < nbArgs; i++) {
-               args[i] = stack.pop();
-            }
+      if (nbTokens == 1) {
+         String token = formula.trim();
+         if (null == registry.get(token)) {
+            // Nothing to compute, the token is the result as is.
+            return token;
+         }
+      }
 
-            String result = f.compute(args);
-            stack.push(result);
+      FormulaEvent event = FormulaEventType.EVALUATE.begin();
+      double[] stack = new double[nbTokens];
+      int size = 0;
 
-         } else if (ComputeUtils.isOperator(token)) {
-            Operator operator = Operator.get(token);
-            int nbArgs = operator.getNbArgs();
+      while (st.hasMoreTokens()) {
+         String token = st.nextToken();
+         Symbol symbol = registry.get(token);
 
-            if (Operator.SUBSTRACTION.equals(operator) && stack.size() == Operator.OPPOSITE.getNbArgs()) {
+         if (null != symbol) {
+            if (Operator.SUBSTRACTION == symbol.getOperator() && size == Operator.OPPOSITE.getNbArgs()) {
                // So we've got a "-", but with only 1 argument, so it means it's not the substraction operator but the minus one.
-               operator = Operator.OPPOSITE;
-               nbArgs = Operator.OPPOSITE.getNbArgs();
+               symbol = registry.get(Operator.OPPOSITE.getValue());
             }
+            int nbArgs = symbol.getNbArgs();
 
-            if (stack.size() < nbArgs) {
-               throw new MathematicalAnalysisException("The operator " + operator.getValue()
-                  + " needs more arguments than the ones supplied.");
+            if (size < nbArgs) {
+               throw new MathematicalAnalysisException("The " + (symbol.isOperator() ? "operator " : "function ")
+                  + symbol.getName() + " needs more arguments than the ones supplied.");
             }
-
-            String[] args = new String[nbArgs];
-            for (int i = 0; i < nbArgs; i++) {
-               args[i] = stack.pop();
-            }
-
-            String result = operator.compute(args);
-            stack.push(result);
+            size -= nbArgs;
+            stack[size] = symbol.compute(stack, size);
+            size++;
 
          } else {
-            stack.push(token);
+            try {
+               stack[size++] = Double.parseDouble(token);
+            } catch (NumberFormatException e) {
+               throw new MathematicalAnalysisException("The token " + token + " is not a number.", e);
+            }
 
          }
 
       }
 
-      if (stack.size() != 1) {
+      if (size != 1) {
          throw new MathematicalAnalysisException("Some token are still on the stack, though all the formula has been analyzed.");
       }
-      return stack.pop();
+      if (null != event) {
+         // The variables have been replaced by their values when parsing.
+         event.commit(formula, nbTokens, 0);
+      }
+      return Double.toString(stack[0]);
    }
 }
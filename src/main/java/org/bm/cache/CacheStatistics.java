@@ -0,0 +1,90 @@
+package org.bm.cache;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * The counters of a {@link FormulaCache} at a given time.
+ *
+ * @author morinb
+ */
+public final class CacheStatistics {
+
+   private final long hitCount;
+
+   private final long missCount;
+
+   private final long evictionCount;
+
+   private final long size;
+
+   private final long weight;
+
+   public CacheStatistics(long hitCount, long missCount, long evictionCount, long size, long weight) {
+      this.hitCount = hitCount;
+      this.missCount = missCount;
+      this.evictionCount = evictionCount;
+      this.size = size;
+      this.weight = weight;
+   }
+
+   /**
+    * @return the number of lookups which found the formula, including the
+    *         ones which waited for another thread to compile it.
+    */
+   public long getHitCount() {
+      return hitCount;
+   }
+
+   /**
+    * @return the number of lookups which compiled the formula.
+    */
+   public long getMissCount() {
+      return missCount;
+   }
+
+   public long getEvictionCount() {
+      return evictionCount;
+   }
+
+   /**
+    * @return the number of formulas in the cache.
+    */
+   public long getSize() {
+      return size;
+   }
+
+   /**
+    * @return the estimated memory used by the formulas in the cache, in bytes.
+    */
+   public long getWeight() {
+      return weight;
+   }
+
+   /**
+    * @return the ratio of the lookups which found the formula, 1 if there was
+    *         no lookup.
+    */
+   public double getHitRate() {
+      long requestCount = hitCount + missCount;
+      return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+   }
+
+   @Override
+   public String toString() {
+      return "hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount + ", size=" + size
+         + ", weight=" + weight;
+   }
+}
@@ -0,0 +1,55 @@
+package org.bm.cache;
+
+import org.bm.analysis.exception.MathematicalAnalysisException;
+import org.bm.compiler.CompiledFormula;
+import org.bm.utils.FunctionRegistry;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * A bounded cache of compiled formulas, keyed by the text of the formula and
+ * the registry of its functions. Implementations are thread-safe.
+ *
+ * @author morinb
+ */
+public interface FormulaCache {
+
+   /**
+    * Give the compiled formula, compiling it if it is not in the cache. Texts
+    * which only differ by their spaces are the same formula: they give the
+    * same compiled formula, whose text ({@link CompiledFormula#getFormula()})
+    * is the one it was first compiled from.
+    *
+    * @param formula
+    *            in infix notation.
+    * @param registry
+    *            the operators and functions the formula may use.
+    * @return the compiled formula.
+    * @throws MathematicalAnalysisException
+    *             if the formula cannot be compiled.
+    */
+   public abstract CompiledFormula get(String formula, FunctionRegistry registry) throws MathematicalAnalysisException;
+
+   /**
+    * @return a snapshot of the counters of the cache.
+    */
+   public abstract CacheStatistics getStatistics();
+
+   /**
+    * Remove all the formulas from the cache. The counters are kept.
+    */
+   public abstract void clear();
+}
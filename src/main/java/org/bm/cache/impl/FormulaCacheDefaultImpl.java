@@ -0,0 +1,502 @@
+package org.bm.cache.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.bm.FormulaCompute;
+import org.bm.analysis.exception.MathematicalAnalysisException;
+import org.bm.cache.CacheStatistics;
+import org.bm.cache.FormulaCache;
+import org.bm.compiler.CompiledFormula;
+import org.bm.events.FormulaEvent;
+import org.bm.events.FormulaEventType;
+import org.bm.parser.lexer.Lexer;
+import org.bm.parser.lexer.TokenType;
+import org.bm.utils.FunctionRegistry;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * A cache evicting its formulas in segmented LRU order: a formula enters the
+ * probation segment, and moves to the protected segment when it is used
+ * again. The least recently used formula of the probation segment is evicted
+ * first, so that formulas used once do not push out the ones used often.
+ *
+ * The formulas are held by a concurrent map, read without lock. The eviction
+ * order is split into stripes, each one with its own lock, share of the
+ * maximum size and counters: a thread only locks the stripe of the formula it
+ * looks up, and does not wait for the lock to record that it used a formula,
+ * skipping the record instead. Threads compiling the same formula at the same
+ * time share a single compilation.
+ *
+ * The weight of a formula is an estimate of the memory it uses.
+ *
+ * @author morinb
+ */
+public class FormulaCacheDefaultImpl implements FormulaCache {
+
+   /**
+    * The share of each stripe held by the protected segment, in percent.
+    */
+   private static final int PROTECTED_PERCENT = 80;
+
+   private static final int MAX_STRIPES = 64;
+
+   /**
+    * The maximum size of a stripe should not be less than this number, or the
+    * eviction order would be meaningless.
+    */
+   private static final int MIN_STRIPE_SIZE = 16;
+
+   /**
+    * The maximum number of texts of a formula, other than its normalized one,
+    * found without being normalized.
+    */
+   private static final int MAX_ALIASES = 4;
+
+   /**
+    * The estimated memory used by an alias, besides its text.
+    */
+   private static final int ALIAS_WEIGHT = 64;
+
+   private final ConcurrentMap<Key, Entry> entries;
+
+   private final Stripe[] stripes;
+
+   /**
+    * @param maximumSize
+    *            the maximum number of formulas.
+    * @param maximumWeight
+    *            the maximum estimated memory used by the formulas, in bytes.
+    */
+   public FormulaCacheDefaultImpl(int maximumSize, long maximumWeight) {
+      if (maximumSize <= 0 || maximumWeight <= 0) {
+         throw new IllegalArgumentException("The maximum size and weight must be positive.");
+      }
+      int count = 1;
+      while (count < MAX_STRIPES && maximumSize / (count * 2) >= MIN_STRIPE_SIZE) {
+         count *= 2;
+      }
+      entries = new ConcurrentHashMap<>(Math.min(maximumSize, 1024), 0.75f, count);
+      stripes = new Stripe[count];
+      for (int i = 0; i < count; i++) {
+         stripes[i] = new Stripe(Math.max(1, maximumSize / count), Math.max(1, maximumWeight / count));
+      }
+   }
+
+   @Override
+   public CompiledFormula get(final String formula, final FunctionRegistry registry)
+      throws MathematicalAnalysisException {
+      // The text as given is looked up first, so that a hit does not read the
+      // formula: it is normalized only if not found.
+      Key raw = new Key(registry, formula);
+      Entry entry = entries.get(raw);
+      if (null != entry) {
+         Stripe stripe = stripeOf(entry.key);
+         stripe.hits.incrementAndGet();
+         stripe.recordAccess(entry);
+         return valueOf(entry);
+      }
+
+      Key key = new Key(registry, normalize(formula, registry));
+      Stripe stripe = stripeOf(key);
+
+      entry = key.equals(raw) ? null : entries.get(key);
+      if (null == entry) {
+         Entry created = new Entry(key, new FutureTask<>(new Callable<CompiledFormula>() {
+            @Override
+            public CompiledFormula call() throws MathematicalAnalysisException {
+               return FormulaCompute.compile(formula, registry, false);
+            }
+         }));
+         entry = entries.putIfAbsent(key, created);
+         if (null == entry) {
+            stripe.misses.incrementAndGet();
+            FormulaEvent event = FormulaEventType.CACHE_MISS.begin();
+            created.task.run();
+            CompiledFormula compiled = valueOf(created);
+            if (null != event) {
+               event.commit(formula, compiled.getOpcodes().length, compiled.getSlotCount());
+            }
+            stripe.add(created, weigh(compiled), entries);
+            stripe.alias(created, raw, entries);
+            return compiled;
+         }
+      }
+
+      stripe.hits.incrementAndGet();
+      stripe.recordAccess(entry);
+      CompiledFormula compiled = valueOf(entry);
+      stripe.alias(entry, raw, entries);
+      return compiled;
+   }
+
+   @Override
+   public CacheStatistics getStatistics() {
+      long hits = 0;
+      long misses = 0;
+      long evictions = 0;
+      long size = 0;
+      long weight = 0;
+      for (Stripe stripe : stripes) {
+         hits += stripe.hits.get();
+         misses += stripe.misses.get();
+         evictions += stripe.evictions.get();
+         stripe.lock.lock();
+         try {
+            size += stripe.size;
+            weight += stripe.weight;
+         } finally {
+            stripe.lock.unlock();
+         }
+      }
+      return new CacheStatistics(hits, misses, evictions, size, weight);
+   }
+
+   @Override
+   public void clear() {
+      for (Stripe stripe : stripes) {
+         stripe.lock.lock();
+      }
+      try {
+         for (Stripe stripe : stripes) {
+            stripe.clear(entries);
+         }
+         // The formulas being compiled are not added once compiled.
+         entries.clear();
+      } finally {
+         for (Stripe stripe : stripes) {
+            stripe.lock.unlock();
+         }
+      }
+   }
+
+   private Stripe stripeOf(Key key) {
+      return stripes[key.hash & (stripes.length - 1)];
+   }
+
+   /**
+    * Wait for the formula to be compiled, by this thread or another one.
+    */
+   private CompiledFormula valueOf(Entry entry) throws MathematicalAnalysisException {
+      boolean interrupted = false;
+      try {
+         while (true) {
+            try {
+               return entry.task.get();
+            } catch (InterruptedException e) {
+               interrupted = true;
+            } catch (ExecutionException e) {
+               // The next lookup compiles the formula again.
+               entries.remove(entry.key, entry);
+               Throwable cause = e.getCause();
+               if (cause instanceof MathematicalAnalysisException) {
+                  throw (MathematicalAnalysisException) cause;
+               }
+               if (cause instanceof RuntimeException) {
+                  throw (RuntimeException) cause;
+               }
+               if (cause instanceof Error) {
+                  throw (Error) cause;
+               }
+               throw new IllegalStateException(cause);
+            }
+         }
+      } finally {
+         if (interrupted) {
+            Thread.currentThread().interrupt();
+         }
+      }
+   }
+
+   /**
+    * @return the formula rewritten with its tokens separated by a single
+    *         space, so that i.e. "a+b" and "a + b" are cached once.
+    */
+   static String normalize(String formula, FunctionRegistry registry) {
+      Lexer lexer = new Lexer(formula, registry);
+      StringBuilder normalized = new StringBuilder(formula.length());
+      while (lexer.next() != TokenType.END) {
+         if (normalized.length() > 0) {
+            normalized.append(' ');
+         }
+         normalized.append(formula, lexer.getStart(), lexer.getEnd());
+      }
+      return normalized.toString();
+   }
+
+   /**
+    * @return an estimate of the memory used by the compiled formula and its
+    *         entry, in bytes.
+    */
+   static long weigh(CompiledFormula compiled) {
+      long weight = 160 + 2L * compiled.getFormula().length();
+      weight += 16 + 8L * compiled.getOpcodes().length;
+      weight += 16 + 8L * compiled.getConstants().length;
+      for (String variable : compiled.getVariables()) {
+         weight += 48 + 2L * variable.length();
+      }
+      return weight;
+   }
+
+   private static final class Key {
+      private final FunctionRegistry registry;
+
+      private final String formula;
+
+      private final int hash;
+
+      Key(FunctionRegistry registry, String formula) {
+         this.registry = registry;
+         this.formula = formula;
+         int h = 31 * System.identityHashCode(registry) + formula.hashCode();
+         // Spread the bits used to pick the stripe.
+         this.hash = h ^ (h >>> 16);
+      }
+
+      @Override
+      public int hashCode() {
+         return hash;
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+         if (!(obj instanceof Key)) {
+            return false;
+         }
+         Key other = (Key) obj;
+         return registry == other.registry && formula.equals(other.formula);
+      }
+   }
+
+   /**
+    * A formula of the cache, linked into the eviction order of its stripe once
+    * compiled.
+    */
+   private static final class Entry {
+      private final Key key;
+
+      private final FutureTask<CompiledFormula> task;
+
+      /**
+       * The other texts of the formula, mapped to this entry as well.
+       */
+      private List<Key> aliases;
+
+      private long weight;
+
+      private boolean linked;
+
+      private boolean protectedSegment;
+
+      private Entry previous;
+
+      private Entry next;
+
+      Entry(Key key, FutureTask<CompiledFormula> task) {
+         this.key = key;
+         this.task = task;
+      }
+   }
+
+   /**
+    * A share of the cache: the eviction order of its formulas, from the least
+    * recently used, and its counters.
+    */
+   private static final class Stripe {
+      private final ReentrantLock lock = new ReentrantLock();
+
+      private final AtomicLong hits = new AtomicLong();
+
+      private final AtomicLong misses = new AtomicLong();
+
+      private final AtomicLong evictions = new AtomicLong();
+
+      private final int maximumSize;
+
+      private final long maximumWeight;
+
+      private final int maximumProtectedSize;
+
+      private final long maximumProtectedWeight;
+
+      /**
+       * Sentinels of the two circular lists.
+       */
+      private final Entry probation = sentinel();
+
+      private final Entry protectedHead = sentinel();
+
+      private int size;
+
+      private long weight;
+
+      private int protectedSize;
+
+      private long protectedWeight;
+
+      Stripe(int maximumSize, long maximumWeight) {
+         this.maximumSize = maximumSize;
+         this.maximumWeight = maximumWeight;
+         this.maximumProtectedSize = (int) ((long) maximumSize * PROTECTED_PERCENT / 100);
+         this.maximumProtectedWeight = maximumWeight * PROTECTED_PERCENT / 100;
+      }
+
+      /**
+       * Insert a new formula in the probation segment, and evict formulas
+       * until the stripe fits its maximum.
+       */
+      void add(Entry entry, long entryWeight, ConcurrentMap<Key, Entry> entries) {
+         lock.lock();
+         try {
+            if (entries.get(entry.key) != entry) {
+               // Removed by clear() while being compiled.
+               return;
+            }
+            entry.weight = entryWeight;
+            link(probation, entry);
+            size++;
+            weight += entryWeight;
+
+            while (size > maximumSize || weight > maximumWeight) {
+               Entry victim = probation.next != probation ? probation.next : protectedHead.next;
+               remove(victim, entries);
+               evictions.incrementAndGet();
+            }
+         } finally {
+            lock.unlock();
+         }
+      }
+
+      /**
+       * Map another text of the formula to its entry, unless the entry has
+       * been removed or already has enough aliases.
+       */
+      void alias(Entry entry, Key alias, ConcurrentMap<Key, Entry> entries) {
+         if (alias.equals(entry.key)) {
+            return;
+         }
+         lock.lock();
+         try {
+            if (!entry.linked || (null != entry.aliases && entry.aliases.size() >= MAX_ALIASES)
+               || null != entries.putIfAbsent(alias, entry)) {
+               return;
+            }
+            if (null == entry.aliases) {
+               entry.aliases = new ArrayList<>(MAX_ALIASES);
+            }
+            entry.aliases.add(alias);
+            long aliasWeight = ALIAS_WEIGHT + 2L * alias.formula.length();
+            entry.weight += aliasWeight;
+            weight += aliasWeight;
+            if (entry.protectedSegment) {
+               protectedWeight += aliasWeight;
+            }
+         } finally {
+            lock.unlock();
+         }
+      }
+
+      /**
+       * Move the formula to the most recently used end of the protected
+       * segment, unless another thread holds the lock.
+       */
+      void recordAccess(Entry entry) {
+         if (!lock.tryLock()) {
+            return;
+         }
+         try {
+            if (!entry.linked) {
+               return;
+            }
+            unlink(entry);
+            link(protectedHead, entry);
+            while (protectedSize > maximumProtectedSize || protectedWeight > maximumProtectedWeight) {
+               Entry demoted = protectedHead.next;
+               if (demoted == entry) {
+                  break;
+               }
+               unlink(demoted);
+               link(probation, demoted);
+            }
+         } finally {
+            lock.unlock();
+         }
+      }
+
+      /**
+       * Remove all the formulas of the stripe, whose lock is held.
+       */
+      void clear(ConcurrentMap<Key, Entry> entries) {
+         for (Entry head : new Entry[] { probation, protectedHead }) {
+            while (head.next != head) {
+               remove(head.next, entries);
+            }
+         }
+      }
+
+      private void remove(Entry entry, ConcurrentMap<Key, Entry> entries) {
+         unlink(entry);
+         size--;
+         weight -= entry.weight;
+         entries.remove(entry.key, entry);
+         if (null != entry.aliases) {
+            for (Key alias : entry.aliases) {
+               entries.remove(alias, entry);
+            }
+         }
+      }
+
+      private void link(Entry head, Entry entry) {
+         entry.previous = head.previous;
+         entry.next = head;
+         head.previous.next = entry;
+         head.previous = entry;
+         entry.linked = true;
+         entry.protectedSegment = head == protectedHead;
+         if (entry.protectedSegment) {
+            protectedSize++;
+            protectedWeight += entry.weight;
+         }
+      }
+
+      private void unlink(Entry entry) {
+         entry.previous.next = entry.next;
+         entry.next.previous = entry.previous;
+         entry.previous = null;
+         entry.next = null;
+         entry.linked = false;
+         if (entry.protectedSegment) {
+            protectedSize--;
+            protectedWeight -= entry.weight;
+         }
+      }
+
+      private static Entry sentinel() {
+         Entry sentinel = new Entry(null, null);
+         sentinel.previous = sentinel;
+         sentinel.next = sentinel;
+         return sentinel;
+      }
+   }
+}
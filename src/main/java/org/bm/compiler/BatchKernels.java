@@ -0,0 +1,49 @@
+package org.bm.compiler;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * The loops which apply the built-in operators and functions to the rows of a
+ * block, when a formula is evaluated over columns (see
+ * {@link CompiledFormula#evaluate(double[][], double[], int, int)}). An
+ * implementation may use SIMD instructions, i.e. the Vector API of a recent
+ * JDK, and is found by {@link BatchKernelsFactory}.
+ *
+ * @author morinb
+ */
+public interface BatchKernels {
+
+   /**
+    * Compute {@code result[i] = a[aOffset + i] op b[bOffset + i]} for the
+    * first {@code length} rows. The result may be the first operand.
+    *
+    * @param opcode
+    *            one of {@link OpCode#ADDITION}, {@link OpCode#SUBSTRACTION},
+    *            {@link OpCode#MULTIPLICATION}, {@link OpCode#MODULO},
+    *            {@link OpCode#DIVISION} or {@link OpCode#POWER}.
+    */
+   void binary(int opcode, double[] a, int aOffset, double[] b, int bOffset, double[] result, int length);
+
+   /**
+    * Compute {@code result[i] = op(a[aOffset + i])} for the first
+    * {@code length} rows. The result may be the operand.
+    *
+    * @param opcode
+    *            one of {@link OpCode#OPPOSITE}, {@link OpCode#SQRT},
+    *            {@link OpCode#LOG} or {@link OpCode#EXP}.
+    */
+   void unary(int opcode, double[] a, int aOffset, double[] result, int length);
+}
@@ -0,0 +1,79 @@
+package org.bm.compiler;
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+import org.apache.log4j.Logger;
+import org.bm.compiler.impl.BatchKernelsDefaultImpl;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Give the kernels used to evaluate formulas over columns. The system property
+ * {@value #KERNELS_PROPERTY} may name the class of the kernels. Otherwise the
+ * first kernels declared in a {@code META-INF/services/org.bm.compiler.BatchKernels}
+ * file which can be loaded are used, so that kernels built on the Vector API
+ * are picked up when their jar and the {@code jdk.incubator.vector} module
+ * are present. The default kernels are plain loops, which the JIT vectorizes
+ * where the processor allows it.
+ *
+ * @author morinb
+ */
+public class BatchKernelsFactory {
+   public static final String KERNELS_PROPERTY = "org.bm.compiler.kernels";
+
+   private static final Logger logger = Logger.getLogger(BatchKernelsFactory.class);
+
+   private static volatile BatchKernels kernels;
+
+   public static BatchKernels getKernels() {
+      BatchKernels result = kernels;
+      if (null == result) {
+         result = loadKernels();
+         kernels = result;
+      }
+      return result;
+   }
+
+   private static BatchKernels loadKernels() {
+      String className = System.getProperty(KERNELS_PROPERTY);
+      if (null != className) {
+         try {
+            return (BatchKernels) Class.forName(className.trim()).getDeclaredConstructor().newInstance();
+         } catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+            logger.warn("The kernels " + className + " cannot be loaded, the default ones are used.", e);
+            return new BatchKernelsDefaultImpl();
+         }
+      }
+
+      Iterator<BatchKernels> providers = ServiceLoader.load(BatchKernels.class).iterator();
+      while (true) {
+         try {
+            if (!providers.hasNext()) {
+               break;
+            }
+            return providers.next();
+         } catch (ServiceConfigurationError | LinkageError e) {
+            // i.e. the Vector API is not available on this JVM.
+            if (logger.isDebugEnabled()) {
+               logger.debug("Some kernels cannot be loaded.", e);
+            }
+         }
+      }
+      return new BatchKernelsDefaultImpl();
+   }
+}
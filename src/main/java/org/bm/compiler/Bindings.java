@@ -0,0 +1,137 @@
+package org.bm.compiler;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * The values of the variables of compiled formulas, by slot. The slot of a
+ * name is looked up once, then the values are set by slot, and the formula
+ * reads them from the array without hashing nor parsing:
+ *
+ * <pre>
+ * Bindings bindings = compiled.newBindings();
+ * int a = bindings.getSlot(&quot;a&quot;);
+ * for (double value : values) {
+ *    bindings.set(a, value);
+ *    compiled.evaluate(bindings);
+ * }
+ * </pre>
+ *
+ * Bindings can be reused, but not shared between threads.
+ *
+ * @author morinb
+ */
+public final class Bindings {
+
+   private final String[] names;
+
+   private final Map<String, Integer> slots;
+
+   private final double[] values;
+
+   private final boolean[] bound;
+
+   /**
+    * The variables of the last formula found to have the same slots.
+    */
+   private String[] checkedLayout;
+
+   /**
+    * @param names
+    *            the name of the variable of each slot.
+    */
+   public Bindings(String[] names) {
+      this.names = names.clone();
+      this.slots = new HashMap<>();
+      for (int i = 0; i < names.length; i++) {
+         if (null != slots.put(names[i], i)) {
+            throw new IllegalArgumentException("The variable " + names[i] + " has more than one slot.");
+         }
+      }
+      this.values = new double[names.length];
+      this.bound = new boolean[names.length];
+   }
+
+   /**
+    * @return the slot of the variable, -1 if there is no such variable.
+    */
+   public int getSlot(String name) {
+      Integer slot = slots.get(name);
+      return null == slot ? -1 : slot;
+   }
+
+   public Bindings set(int slot, double value) {
+      values[slot] = value;
+      bound[slot] = true;
+      return this;
+   }
+
+   /**
+    * @throws IllegalArgumentException
+    *             if there is no such variable.
+    */
+   public Bindings set(String name, double value) {
+      int slot = getSlot(name);
+      if (slot < 0) {
+         throw new IllegalArgumentException("There is no variable " + name + ".");
+      }
+      return set(slot, value);
+   }
+
+   public double get(int slot) {
+      return values[slot];
+   }
+
+   public boolean isBound(int slot) {
+      return bound[slot];
+   }
+
+   /**
+    * Unbind all the variables.
+    */
+   public void clear() {
+      Arrays.fill(values, 0.0);
+      Arrays.fill(bound, false);
+   }
+
+   /**
+    * @return the values, indexed by slot. The array is the one of the
+    *         bindings, not a copy.
+    */
+   public double[] getValues() {
+      return values;
+   }
+
+   /**
+    * @return the name of the variable of each slot.
+    */
+   public String[] getNames() {
+      return names.clone();
+   }
+
+   boolean hasLayout(String[] variables) {
+      if (checkedLayout != variables) {
+         if (!Arrays.equals(names, variables)) {
+            return false;
+         }
+         checkedLayout = variables;
+      }
+      return true;
+   }
+}
@@ -0,0 +1,756 @@
+package org.bm.compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bm.FormulaCompute;
+import org.bm.analysis.exception.MathematicalAnalysisException;
+import org.bm.events.FormulaEvent;
+import org.bm.events.FormulaEventType;
+import org.bm.metrics.Metrics;
+import org.bm.metrics.Stage;
+import org.bm.utils.FunctionRegistry;
+import org.bm.utils.Symbol;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * A formula translated once into a program of resolved instructions (see
+ * {@link OpCode}), which can then be evaluated many times with different
+ * variable values, without parsing the formula again.
+ *
+ * The program is checked when compiled: every operator and function has its
+ * arguments, and exactly one value is left on the stack.
+ *
+ * Instances are immutable, and can be shared between threads.
+ *
+ * @author morinb
+ */
+public final class CompiledFormula implements DoubleEvaluator {
+
+   /**
+    * The number of rows evaluated at once by
+    * {@link #evaluate(double[][], double[], int, int)}.
+    */
+   static final int BLOCK_SIZE = 512;
+
+   /**
+    * The number of rows evaluated by a worker at once, when the rows are
+    * evaluated in parallel: 64 KB of each column, which stays in the cache of
+    * its core.
+    */
+   static final int CHUNK_SIZE = 16 * BLOCK_SIZE;
+
+   private final String formula;
+
+   private final FunctionRegistry registry;
+
+   private final int[] opcodes;
+
+   private final int[] operands;
+
+   private final double[] constants;
+
+   private final String[] variables;
+
+   /**
+    * The maximum depth of the operand stack while running the program.
+    */
+   private final int maxDepth;
+
+   /**
+    * The number of scratch slots the program stores shared sub formulas in.
+    */
+   private final int scratchSlots;
+
+   /**
+    * The indexes of the variables read by the program, in increasing order.
+    */
+   private final int[] usedSlots;
+
+   /**
+    * The arrays are owned by the new instance, and must not be modified
+    * afterwards.
+    */
+   public CompiledFormula(String formula, FunctionRegistry registry, int[] opcodes, int[] operands, double[] constants,
+      String[] variables, int maxDepth) {
+      this(formula, registry, opcodes, operands, constants, variables, maxDepth, 0);
+   }
+
+   /**
+    * @param scratchSlots
+    *            the number of slots used by {@link OpCode#LOAD} and
+    *            {@link OpCode#STORE}.
+    */
+   public CompiledFormula(String formula, FunctionRegistry registry, int[] opcodes, int[] operands, double[] constants,
+      String[] variables, int maxDepth, int scratchSlots) {
+      this.formula = formula;
+      this.registry = registry;
+      this.opcodes = opcodes;
+      this.operands = operands;
+      this.constants = constants;
+      this.variables = variables;
+      this.maxDepth = maxDepth;
+      this.scratchSlots = scratchSlots;
+      this.usedSlots = usedSlots(opcodes, operands, variables.length);
+   }
+
+   /**
+    * @return the formula, in infix notation, this program was compiled from.
+    */
+   public String getFormula() {
+      return formula;
+   }
+
+   /**
+    * @return the operators and functions the formula was compiled with.
+    */
+   public FunctionRegistry getRegistry() {
+      return registry;
+   }
+
+   /**
+    * @return the names of the variables, one per slot: the value of the
+    *         variable at index i is expected at index i of the array given to
+    *         {@link #evaluate(double[])}. The program may not read all of them
+    *         (see {@link #getUsedSlots()}).
+    */
+   public String[] getVariables() {
+      return variables.clone();
+   }
+
+   /**
+    * @return the number of slots of the array given to
+    *         {@link #evaluate(double[])}.
+    */
+   public int getSlotCount() {
+      return variables.length;
+   }
+
+   /**
+    * @return the slot of the variable, -1 if the formula has no such variable.
+    */
+   public int getSlot(String variable) {
+      for (int i = 0; i < variables.length; i++) {
+         if (variables[i].equals(variable)) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * @return the slots the program reads, in increasing order: only these ones
+    *         must be filled before evaluating the formula.
+    */
+   public int[] getUsedSlots() {
+      return usedSlots.clone();
+   }
+
+   /**
+    * @return new bindings for the slots of the formula, to be filled then
+    *         given to {@link #evaluate(Bindings)}.
+    */
+   public Bindings newBindings() {
+      return new Bindings(variables);
+   }
+
+   /**
+    * @return the opcodes of the program (see {@link OpCode}).
+    */
+   public int[] getOpcodes() {
+      return opcodes.clone();
+   }
+
+   /**
+    * @return the operand of each instruction of the program.
+    */
+   public int[] getOperands() {
+      return operands.clone();
+   }
+
+   /**
+    * @return the constants used by the program.
+    */
+   public double[] getConstants() {
+      return constants.clone();
+   }
+
+   /**
+    * @return the maximum depth of the operand stack while running the program.
+    */
+   public int getMaxDepth() {
+      return maxDepth;
+   }
+
+   public int getScratchSlots() {
+      return scratchSlots;
+   }
+
+   /**
+    * Evaluate the formula.
+    *
+    * @param bindings
+    *            the value of each variable. A value may itself be a formula.
+    * @return the result, as {@link FormulaCompute#compute} would return it.
+    * @throws MathematicalAnalysisException
+    *             if a variable has no value, or if its value is not a number.
+    */
+   public String evaluate(Map<String, String> bindings) throws MathematicalAnalysisException {
+      return Double.toString(evaluateAsDouble(bindings));
+   }
+
+   /**
+    * Evaluate the formula on a primitive operand stack: only the variables
+    * values are converted from String. The binding of the variables and the
+    * evaluation are measured by {@link Metrics#getDefault()}.
+    *
+    * @see #evaluate(Map)
+    */
+   public double evaluateAsDouble(Map<String, String> bindings) throws MathematicalAnalysisException {
+      Metrics metrics = Metrics.getDefault();
+      long start = metrics.start();
+      double[] values;
+      try {
+         values = bind(bindings);
+      } catch (MathematicalAnalysisException e) {
+         metrics.recordError(Stage.RESOLVE, formula, e);
+         throw e;
+      }
+      metrics.record(Stage.RESOLVE, formula, start);
+
+      FormulaEvent event = FormulaEventType.EVALUATE.begin();
+      start = metrics.start();
+      double result = evaluate(values);
+      metrics.record(Stage.EVALUATE, formula, start);
+      if (null != event) {
+         event.commit(formula, opcodes.length, variables.length);
+      }
+      return result;
+   }
+
+   /**
+    * Compute the value of every variable of the formula.
+    *
+    * @param bindings
+    *            the value of each variable. A value may itself be a formula,
+    *            computed once even if several variables depend on it.
+    * @return the values, indexed as {@link #getVariables()}.
+    * @throws MathematicalAnalysisException
+    *             if a variable has no value, or if the values of the
+    *             variables depend on each other in a cycle.
+    */
+   public double[] bind(Map<String, String> bindings) throws MathematicalAnalysisException {
+      VariableResolver resolver = new VariableResolver(bindings, registry);
+      double[] values = new double[variables.length];
+      for (int slot : usedSlots) {
+         values[slot] = resolver.valueOf(variables[slot]);
+      }
+      return values;
+   }
+
+   /**
+    * Run the program, on the stack of the calling thread (see
+    * {@link EvaluationContext#current()}).
+    *
+    * @param values
+    *            the value of each variable, indexed as {@link #getVariables()}.
+    * @return the result.
+    */
+   @Override
+   public double evaluate(double[] values) {
+      return evaluate(values, EvaluationContext.current());
+   }
+
+   /**
+    * Evaluate the formula on the stack of the given context, without
+    * allocating anything, unless the stack is already in use by a formula
+    * calling this one through a function.
+    *
+    * @see #evaluate(double[])
+    */
+   public double evaluate(double[] values, EvaluationContext context) {
+      int stackSize = maxDepth + scratchSlots;
+      double[] stack = context.acquire(stackSize);
+      if (null == stack) {
+         return evaluate(values, new double[stackSize]);
+      }
+      try {
+         return evaluate(values, stack);
+      } finally {
+         context.release();
+      }
+   }
+
+   private double evaluate(double[] values, double[] stack) {
+      // The scratch slots follow the operand stack.
+      int size = 0;
+
+      for (int pc = 0; pc < opcodes.length; pc++) {
+         int opcode = opcodes[pc];
+
+         switch (opcode) {
+            case OpCode.CONSTANT:
+               stack[size++] = constants[operands[pc]];
+               break;
+
+            case OpCode.VARIABLE:
+               stack[size++] = values[operands[pc]];
+               break;
+
+            case OpCode.LOAD:
+               stack[size++] = stack[maxDepth + operands[pc]];
+               break;
+
+            case OpCode.STORE:
+               stack[maxDepth + operands[pc]] = stack[size - 1];
+               break;
+
+            case OpCode.ADDITION:
+               size--;
+               stack[size - 1] = stack[size - 1] + stack[size];
+               break;
+
+            case OpCode.SUBSTRACTION:
+               size--;
+               stack[size - 1] = stack[size - 1] - stack[size];
+               break;
+
+            case OpCode.OPPOSITE:
+               stack[size - 1] = -stack[size - 1];
+               break;
+
+            case OpCode.MULTIPLICATION:
+               size--;
+               stack[size - 1] = stack[size - 1] * stack[size];
+               break;
+
+            case OpCode.MODULO:
+               size--;
+               stack[size - 1] = stack[size - 1] % stack[size];
+               break;
+
+            case OpCode.DIVISION:
+               size--;
+               stack[size - 1] = stack[size - 1] / stack[size];
+               break;
+
+            case OpCode.POWER:
+               size--;
+               stack[size - 1] = Math.pow(stack[size - 1], stack[size]);
+               break;
+
+            case OpCode.SQRT:
+               stack[size - 1] = Math.sqrt(stack[size - 1]);
+               break;
+
+            case OpCode.LOG:
+               stack[size - 1] = Math.log10(stack[size - 1]);
+               break;
+
+            case OpCode.EXP:
+               stack[size - 1] = Math.exp(stack[size - 1]);
+               break;
+
+            default: {
+               Symbol symbol = registry.get(opcode);
+               size -= symbol.getNbArgs();
+               stack[size] = symbol.compute(stack, size);
+               size++;
+               break;
+            }
+         }
+      }
+
+      return stack[0];
+   }
+
+   /**
+    * Bound the results of the formula, when each variable is in a range: i.e.
+    * to tell from the minimum and maximum of the variables over a block of
+    * rows that no row of the block can be selected by the formula. The
+    * functions registered by the application are not known, so that their
+    * results are not bounded.
+    *
+    * @param ranges
+    *            the range of each variable, by slot. The unused slots may be
+    *            null.
+    * @return a range holding the result for any values in the ranges, unless
+    *         this result is NaN.
+    * @see Interval
+    */
+   public Interval evaluate(Interval[] ranges) {
+      Interval[] stack = new Interval[maxDepth + scratchSlots];
+      int size = 0;
+
+      for (int pc = 0; pc < opcodes.length; pc++) {
+         int opcode = opcodes[pc];
+
+         switch (opcode) {
+            case OpCode.CONSTANT:
+               stack[size++] = Interval.of(constants[operands[pc]]);
+               break;
+
+            case OpCode.VARIABLE:
+               stack[size++] = ranges[operands[pc]];
+               break;
+
+            case OpCode.LOAD:
+               stack[size++] = stack[maxDepth + operands[pc]];
+               break;
+
+            case OpCode.STORE:
+               stack[maxDepth + operands[pc]] = stack[size - 1];
+               break;
+
+            case OpCode.ADDITION:
+               size--;
+               stack[size - 1] = stack[size - 1].add(stack[size]);
+               break;
+
+            case OpCode.SUBSTRACTION:
+               size--;
+               stack[size - 1] = stack[size - 1].subtract(stack[size]);
+               break;
+
+            case OpCode.OPPOSITE:
+               stack[size - 1] = stack[size - 1].negate();
+               break;
+
+            case OpCode.MULTIPLICATION:
+               size--;
+               stack[size - 1] = stack[size - 1].multiply(stack[size]);
+               break;
+
+            case OpCode.MODULO:
+               size--;
+               stack[size - 1] = stack[size - 1].modulo(stack[size]);
+               break;
+
+            case OpCode.DIVISION:
+               size--;
+               stack[size - 1] = stack[size - 1].divide(stack[size]);
+               break;
+
+            case OpCode.POWER:
+               size--;
+               stack[size - 1] = stack[size - 1].pow(stack[size]);
+               break;
+
+            case OpCode.SQRT:
+               stack[size - 1] = stack[size - 1].sqrt();
+               break;
+
+            case OpCode.LOG:
+               stack[size - 1] = stack[size - 1].log10();
+               break;
+
+            case OpCode.EXP:
+               stack[size - 1] = stack[size - 1].exp();
+               break;
+
+            default:
+               size -= registry.get(opcode).getNbArgs();
+               stack[size++] = Interval.ENTIRE;
+               break;
+         }
+      }
+
+      return stack[0];
+   }
+
+   /**
+    * Evaluate the formula with values bound by slot.
+    *
+    * @param bindings
+    *            created by {@link #newBindings()}, or for the same variables.
+    * @return the result.
+    * @throws MathematicalAnalysisException
+    *             if a slot the program reads is not bound.
+    */
+   public double evaluate(Bindings bindings) throws MathematicalAnalysisException {
+      if (!bindings.hasLayout(variables)) {
+         throw new IllegalArgumentException("The bindings are not for the variables of " + formula);
+      }
+      for (int slot : usedSlots) {
+         if (!bindings.isBound(slot)) {
+            throw new MathematicalAnalysisException("The variable " + variables[slot] + " has no value.");
+         }
+      }
+      return evaluate(bindings.getValues());
+   }
+
+   /**
+    * Evaluate the formula over many rows, stored by column. The program runs
+    * one instruction at a time over a block of rows, so that each operator is
+    * a loop the JIT can unroll and vectorize, instead of a dispatch per row.
+    *
+    * @param columns
+    *            the values of each variable, indexed by slot then by row.
+    *            Only the columns of the used slots are read (see
+    *            {@link #getUsedSlots()}).
+    * @param out
+    *            receives the result of each row.
+    * @param from
+    *            the first row, inclusive.
+    * @param to
+    *            the last row, exclusive.
+    * @see BatchKernelsFactory
+    */
+   public void evaluate(double[][] columns, double[] out, int from, int to) {
+      evaluate(columns, out, from, to, BatchKernelsFactory.getKernels());
+   }
+
+   /**
+    * @param kernels
+    *            the loops applying the built-in operators and functions.
+    * @see #evaluate(double[][], double[], int, int)
+    */
+   public void evaluate(double[][] columns, double[] out, int from, int to, BatchKernels kernels) {
+      if (from < 0 || to > out.length || from > to) {
+         throw new IndexOutOfBoundsException("Rows " + from + " to " + to + " out of " + out.length);
+      }
+      if (from == to) {
+         return;
+      }
+
+      evaluate(columns, out, from, to, kernels, new Block(Math.min(BLOCK_SIZE, to - from)));
+   }
+
+   /**
+    * Evaluate the formula over many rows in parallel. The rows are split in
+    * chunks, which the workers take in turn, each with its own buffers. The
+    * chunks start at multiples of {@value #CHUNK_SIZE} rows, but for the
+    * first one, so that two workers only write next to each other at those
+    * rows, whatever the first row. Each
+    * row is computed as by {@link #evaluate(double[][], double[], int, int)},
+    * so the results do not depend on the number of workers.
+    *
+    * @param pool
+    *            runs as many workers as its parallelism.
+    * @throws MathematicalAnalysisException
+    *             if interrupted while waiting for the workers.
+    * @see #evaluate(double[][], double[], int, int)
+    */
+   public void evaluate(double[][] columns, double[] out, int from, int to, ForkJoinPool pool)
+      throws MathematicalAnalysisException {
+      evaluate(columns, out, from, to, pool, pool.getParallelism());
+   }
+
+   /**
+    * @param executor
+    *            runs the workers.
+    * @param workers
+    *            the maximum number of workers.
+    * @see #evaluate(double[][], double[], int, int, ForkJoinPool)
+    */
+   public void evaluate(final double[][] columns, final double[] out, final int from, final int to,
+      ExecutorService executor, int workers) throws MathematicalAnalysisException {
+      if (from < 0 || to > out.length || from > to) {
+         throw new IndexOutOfBoundsException("Rows " + from + " to " + to + " out of " + out.length);
+      }
+      // CHUNK_SIZE is a power of two.
+      final int first = from & -CHUNK_SIZE;
+      final int chunks = (int) ((to - (long) first + CHUNK_SIZE - 1) / CHUNK_SIZE);
+      workers = Math.min(workers, chunks);
+      if (workers <= 1) {
+         evaluate(columns, out, from, to);
+         return;
+      }
+
+      final BatchKernels kernels = BatchKernelsFactory.getKernels();
+      final AtomicInteger nextChunk = new AtomicInteger();
+      List<Callable<Void>> tasks = new ArrayList<>(workers);
+      for (int i = 0; i < workers; i++) {
+         tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+               Block block = new Block(BLOCK_SIZE);
+               for (int chunk = nextChunk.getAndIncrement(); chunk < chunks; chunk = nextChunk.getAndIncrement()) {
+                  int start = first + chunk * CHUNK_SIZE;
+                  int end = to - start > CHUNK_SIZE ? start + CHUNK_SIZE : to;
+                  evaluate(columns, out, Math.max(start, from), end, kernels, block);
+               }
+               return null;
+            }
+         });
+      }
+
+      try {
+         for (Future<Void> future : executor.invokeAll(tasks)) {
+            future.get();
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new MathematicalAnalysisException("Interrupted while evaluating the formula " + formula + ".", e);
+      } catch (ExecutionException e) {
+         if (e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+         }
+         throw (Error) e.getCause();
+      }
+   }
+
+   private void evaluate(double[][] columns, double[] out, int from, int to, BatchKernels kernels, Block block) {
+      // The stack holds references to columns and slots, or to the buffer
+      // owned by its position, from the given offsets.
+      double[][] buffers = block.buffers;
+      double[][] slots = block.slots;
+      double[][] arrays = block.arrays;
+      int[] offsets = block.offsets;
+      int blockSize = block.size;
+
+      for (int start = from; start < to; start += blockSize) {
+         int length = Math.min(blockSize, to - start);
+         int size = 0;
+
+         for (int pc = 0; pc < opcodes.length; pc++) {
+            int opcode = opcodes[pc];
+            switch (opcode) {
+               case OpCode.CONSTANT:
+                  Arrays.fill(buffers[size], 0, length, constants[operands[pc]]);
+                  arrays[size] = buffers[size];
+                  offsets[size++] = 0;
+                  break;
+
+               case OpCode.VARIABLE:
+                  arrays[size] = columns[operands[pc]];
+                  offsets[size++] = start;
+                  break;
+
+               case OpCode.LOAD:
+                  arrays[size] = slots[operands[pc]];
+                  offsets[size++] = 0;
+                  break;
+
+               case OpCode.STORE:
+                  System.arraycopy(arrays[size - 1], offsets[size - 1], slots[operands[pc]], 0, length);
+                  break;
+
+               case OpCode.ADDITION:
+               case OpCode.SUBSTRACTION:
+               case OpCode.MULTIPLICATION:
+               case OpCode.MODULO:
+               case OpCode.DIVISION:
+               case OpCode.POWER:
+                  size--;
+                  kernels.binary(opcode, arrays[size - 1], offsets[size - 1], arrays[size], offsets[size],
+                     buffers[size - 1], length);
+                  arrays[size - 1] = buffers[size - 1];
+                  offsets[size - 1] = 0;
+                  break;
+
+               case OpCode.OPPOSITE:
+               case OpCode.SQRT:
+               case OpCode.LOG:
+               case OpCode.EXP:
+                  kernels.unary(opcode, arrays[size - 1], offsets[size - 1], buffers[size - 1], length);
+                  arrays[size - 1] = buffers[size - 1];
+                  offsets[size - 1] = 0;
+                  break;
+
+               default: {
+                  Symbol symbol = registry.get(opcode);
+                  size -= symbol.getNbArgs();
+                  function(symbol, arrays, offsets, size, block.args, buffers[size], length);
+                  arrays[size] = buffers[size];
+                  offsets[size++] = 0;
+                  break;
+               }
+            }
+         }
+
+         System.arraycopy(arrays[0], offsets[0], out, start, length);
+      }
+   }
+
+   /**
+    * Apply a function registered by the application to the rows of a block,
+    * one row at a time.
+    *
+    * @param first
+    *            the position in the stack of the first argument.
+    */
+   private static void function(Symbol symbol, double[][] arrays, int[] offsets, int first, double[] args,
+      double[] result, int length) {
+      int nbArgs = symbol.getNbArgs();
+      for (int i = 0; i < length; i++) {
+         for (int arg = 0; arg < nbArgs; arg++) {
+            args[arg] = arrays[first + arg][offsets[first + arg] + i];
+         }
+         result[i] = symbol.compute(args, 0);
+      }
+   }
+
+   private static int[] usedSlots(int[] opcodes, int[] operands, int slotCount) {
+      boolean[] used = new boolean[slotCount];
+      int count = 0;
+      for (int pc = 0; pc < opcodes.length; pc++) {
+         if (opcodes[pc] == OpCode.VARIABLE && !used[operands[pc]]) {
+            used[operands[pc]] = true;
+            count++;
+         }
+      }
+      int[] slots = new int[count];
+      count = 0;
+      for (int slot = 0; slot < slotCount; slot++) {
+         if (used[slot]) {
+            slots[count++] = slot;
+         }
+      }
+      return slots;
+   }
+
+   @Override
+   public String toString() {
+      return formula;
+   }
+
+   /**
+    * The buffers used to evaluate the formula over a block of rows, reused
+    * from one block to the next.
+    */
+   private final class Block {
+      final int size;
+
+      final double[][] buffers;
+
+      final double[][] slots;
+
+      final double[][] arrays;
+
+      final int[] offsets;
+
+      final double[] args;
+
+      Block(int size) {
+         this.size = size;
+         this.buffers = new double[maxDepth][size];
+         this.slots = new double[scratchSlots][size];
+         this.arrays = new double[maxDepth][];
+         this.offsets = new int[maxDepth];
+         this.args = new double[maxDepth];
+      }
+   }
+}
@@ -0,0 +1,72 @@
+package org.bm.compiler;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * The stack a thread evaluates compiled formulas on, allocated once and grown
+ * to the deepest formula, so that evaluating a formula allocates nothing (see
+ * {@link CompiledFormula#evaluate(double[], EvaluationContext)}).
+ *
+ * A context belongs to a single thread: {@link #current()} gives the one of
+ * the calling thread.
+ *
+ * @author morinb
+ */
+public final class EvaluationContext {
+
+   private static final ThreadLocal<EvaluationContext> CONTEXT = new ThreadLocal<EvaluationContext>() {
+      @Override
+      protected EvaluationContext initialValue() {
+         return new EvaluationContext();
+      }
+   };
+
+   private double[] stack = new double[16];
+
+   /**
+    * Whether a formula is being evaluated on the stack, i.e. when a function
+    * registered by the application evaluates another formula.
+    */
+   private boolean busy;
+
+   /**
+    * @return the context of the calling thread.
+    */
+   public static EvaluationContext current() {
+      return CONTEXT.get();
+   }
+
+   /**
+    * Take the stack, until {@link #release()}.
+    *
+    * @return a stack of at least the given size, or null if the stack is
+    *         already taken.
+    */
+   double[] acquire(int size) {
+      if (busy) {
+         return null;
+      }
+      if (stack.length < size) {
+         stack = new double[Math.max(size, 2 * stack.length)];
+      }
+      busy = true;
+      return stack;
+   }
+
+   void release() {
+      busy = false;
+   }
+}
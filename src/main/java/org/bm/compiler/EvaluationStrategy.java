@@ -0,0 +1,39 @@
+package org.bm.compiler;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * The ways a {@link CompiledFormula} can be evaluated, see
+ * {@link EvaluatorFactory}.
+ *
+ * @author morinb
+ */
+public enum EvaluationStrategy {
+   /**
+    * Run the program of the formula on an operand stack.
+    */
+   INTERPRETER,
+
+   /**
+    * Compose method handles of the operations, without writing any class.
+    */
+   METHOD_HANDLE,
+
+   /**
+    * Generate a class whose code is the formula.
+    */
+   BYTECODE;
+}
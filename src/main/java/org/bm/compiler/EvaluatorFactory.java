@@ -0,0 +1,51 @@
+package org.bm.compiler;
+
+import org.bm.compiler.bytecode.BytecodeGenerator;
+import org.bm.compiler.handle.MethodHandleGenerator;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Give an evaluator of a compiled formula. The default strategy is
+ * {@link EvaluationStrategy#BYTECODE}, unless the system property
+ * {@value #STRATEGY_PROPERTY} names another one, i.e. METHOD_HANDLE where
+ * generating classes at runtime is not allowed.
+ *
+ * @author morinb
+ */
+public class EvaluatorFactory {
+   public static final String STRATEGY_PROPERTY = "org.bm.compiler.strategy";
+
+   public static EvaluationStrategy getDefaultStrategy() {
+      String strategy = System.getProperty(STRATEGY_PROPERTY);
+      return null == strategy ? EvaluationStrategy.BYTECODE : EvaluationStrategy.valueOf(strategy.trim());
+   }
+
+   public static DoubleEvaluator getEvaluator(CompiledFormula formula) {
+      return getEvaluator(formula, getDefaultStrategy());
+   }
+
+   public static DoubleEvaluator getEvaluator(CompiledFormula formula, EvaluationStrategy strategy) {
+      switch (strategy) {
+         case METHOD_HANDLE:
+            return MethodHandleGenerator.generate(formula);
+         case BYTECODE:
+            return BytecodeGenerator.generate(formula);
+         default:
+            return formula;
+      }
+   }
+}
@@ -0,0 +1,42 @@
+package org.bm.compiler;
+
+import java.util.List;
+
+import org.bm.analysis.exception.MathematicalAnalysisException;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * @author morinb
+ */
+public interface FormulaCompiler {
+
+   /**
+    * Translate a postfix notation formula into a program of resolved
+    * instructions. Every token which is neither a number, an operator nor a
+    * function is a variable.
+    *
+    * @param formula
+    *            the original formula, in infix notation.
+    * @param tokens
+    *            the formula in postfix notation, as returned by
+    *            {@link org.bm.parser.RPNParser#parse(String)}.
+    * @return the compiled formula.
+    * @throws MathematicalAnalysisException
+    *             if the formula cannot be compiled, i.e. an operator or a
+    *             function lacks arguments.
+    */
+   public abstract CompiledFormula compile(String formula, List<String> tokens) throws MathematicalAnalysisException;
+}
@@ -0,0 +1,33 @@
+package org.bm.compiler;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Rewrite the program of a compiled formula into a cheaper one computing the
+ * same results, bit for bit.
+ *
+ * @author morinb
+ */
+public interface FormulaOptimizer {
+
+   /**
+    * @param formula
+    *            the formula, as compiled by a {@link FormulaCompiler}.
+    * @return the optimized formula, with the same variables in the same
+    *         order.
+    */
+   public abstract CompiledFormula optimize(CompiledFormula formula);
+}
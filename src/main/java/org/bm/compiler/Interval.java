@@ -0,0 +1,230 @@
+package org.bm.compiler;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * A range of doubles, from its low to its high bound, both included. The
+ * operations give a range holding every result of the operation on values of
+ * the ranges, except NaN: a range bounds the results which are numbers, and
+ * is empty when none of them is.
+ *
+ * The bounds are computed with the operation itself, on the bounds of the
+ * operands. Since the basic operations round monotonically, and since
+ * {@link Math#sqrt(double)}, {@link Math#log10(double)}, {@link Math#exp(double)}
+ * and {@link Math#pow(double, double)} are semi-monotonic, the bounds hold
+ * whatever the rounding errors. Where a bound is not a number, i.e. for
+ * infinity minus infinity, the range is the whole line.
+ *
+ * @author morinb
+ */
+public final class Interval {
+
+   public static final Interval EMPTY = new Interval(Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
+
+   public static final Interval ENTIRE = new Interval(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+
+   private final double low;
+
+   private final double high;
+
+   private Interval(double low, double high) {
+      this.low = low;
+      this.high = high;
+   }
+
+   /**
+    * @throws IllegalArgumentException
+    *             if a bound is NaN, or if the low bound is above the high one.
+    */
+   public static Interval of(double low, double high) {
+      if (!(low <= high)) {
+         throw new IllegalArgumentException("[" + low + ", " + high + "] is not an interval.");
+      }
+      return new Interval(low, high);
+   }
+
+   /**
+    * @return the range of the single value, empty for NaN.
+    */
+   public static Interval of(double value) {
+      return Double.isNaN(value) ? EMPTY : new Interval(value, value);
+   }
+
+   public double getLow() {
+      return low;
+   }
+
+   public double getHigh() {
+      return high;
+   }
+
+   public boolean isEmpty() {
+      return low > high;
+   }
+
+   public boolean contains(double value) {
+      return low <= value && value <= high;
+   }
+
+   /**
+    * @return whether some value of this range is in the given one.
+    */
+   public boolean intersects(double from, double to) {
+      return low <= to && from <= high && !isEmpty();
+   }
+
+   public Interval add(Interval other) {
+      if (isEmpty() || other.isEmpty()) {
+         return EMPTY;
+      }
+      return bounds(low + other.low, high + other.high);
+   }
+
+   public Interval subtract(Interval other) {
+      if (isEmpty() || other.isEmpty()) {
+         return EMPTY;
+      }
+      return bounds(low - other.high, high - other.low);
+   }
+
+   public Interval negate() {
+      return isEmpty() ? EMPTY : new Interval(-high, -low);
+   }
+
+   public Interval multiply(Interval other) {
+      if (isEmpty() || other.isEmpty()) {
+         return EMPTY;
+      }
+      return hull(low * other.low, low * other.high, high * other.low, high * other.high);
+   }
+
+   public Interval divide(Interval other) {
+      if (isEmpty() || other.isEmpty()) {
+         return EMPTY;
+      }
+      if (other.low <= 0 && 0 <= other.high) {
+         // Both infinities may be reached.
+         return ENTIRE;
+      }
+      return hull(low / other.low, low / other.high, high / other.low, high / other.high);
+   }
+
+   /**
+    * The remainder has the sign of the dividend, and is below both the
+    * dividend and the divisor in absolute value.
+    */
+   public Interval modulo(Interval other) {
+      if (isEmpty() || other.isEmpty()) {
+         return EMPTY;
+      }
+      double divisor = Math.max(Math.abs(other.low), Math.abs(other.high));
+      return new Interval(low >= 0 ? 0 : Math.max(low, -divisor), high <= 0 ? 0 : Math.min(high, divisor));
+   }
+
+   public Interval pow(Interval exponent) {
+      if (exponent.isEmpty()) {
+         return EMPTY;
+      }
+      if (isEmpty()) {
+         // NaN^0 is 1.
+         return exponent.contains(0) ? of(1) : EMPTY;
+      }
+
+      if (low >= 0 && (low > 0 || exponent.low >= 0)) {
+         // Monotonic in each argument for a given sign of the other one, so
+         // that the bounds are at the corners.
+         double from = low == 0 ? 0.0 : low;
+         return hull(Math.pow(from, exponent.low), Math.pow(from, exponent.high), Math.pow(high, exponent.low),
+            Math.pow(high, exponent.high));
+      }
+
+      double k = exponent.low;
+      if (k == exponent.high && k == Math.rint(k) && !Double.isInfinite(k)) {
+         // An integer power, monotonic on each side of 0.
+         if (k < 0 && low <= 0 && 0 <= high) {
+            return ENTIRE;
+         }
+         Interval range = hull(Math.pow(low, k), Math.pow(high, k));
+         if (k > 0 && low < 0 && 0 < high) {
+            range = range.hull(0);
+         }
+         return range;
+      }
+
+      // A negative number to a non integer power is not a number, but the
+      // exponents may hold integers.
+      return ENTIRE;
+   }
+
+   public Interval sqrt() {
+      if (isEmpty() || high < 0) {
+         return EMPTY;
+      }
+      return new Interval(low < 0 ? -0.0 : Math.sqrt(low), Math.sqrt(high));
+   }
+
+   public Interval log10() {
+      if (isEmpty() || high < 0) {
+         return EMPTY;
+      }
+      return new Interval(low <= 0 ? Double.NEGATIVE_INFINITY : Math.log10(low), Math.log10(high));
+   }
+
+   public Interval exp() {
+      return isEmpty() ? EMPTY : new Interval(Math.exp(low), Math.exp(high));
+   }
+
+   @Override
+   public boolean equals(Object obj) {
+      if (!(obj instanceof Interval)) {
+         return false;
+      }
+      Interval other = (Interval) obj;
+      return isEmpty() ? other.isEmpty() : low == other.low && high == other.high;
+   }
+
+   @Override
+   public int hashCode() {
+      // Adding 0 turns -0.0 into 0.0, which are equal bounds.
+      return isEmpty() ? 0 : Double.valueOf(low + 0.0).hashCode() * 31 + Double.valueOf(high + 0.0).hashCode();
+   }
+
+   @Override
+   public String toString() {
+      return isEmpty() ? "[]" : "[" + low + ", " + high + "]";
+   }
+
+   private Interval hull(double value) {
+      return new Interval(Math.min(low, value), Math.max(high, value));
+   }
+
+   private static Interval bounds(double low, double high) {
+      return Double.isNaN(low) || Double.isNaN(high) ? ENTIRE : new Interval(low, high);
+   }
+
+   private static Interval hull(double... values) {
+      double low = Double.POSITIVE_INFINITY;
+      double high = Double.NEGATIVE_INFINITY;
+      for (double value : values) {
+         if (Double.isNaN(value)) {
+            return ENTIRE;
+         }
+         low = Math.min(low, value);
+         high = Math.max(high, value);
+      }
+      return new Interval(low, high);
+   }
+}
@@ -0,0 +1,79 @@
+package org.bm.compiler;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * The instructions of a compiled formula. Each instruction is an opcode and an
+ * operand, whose meaning depends on the opcode.
+ *
+ * The opcodes of the operators and the functions are the ids of their
+ * {@link org.bm.utils.Symbol} in the {@link org.bm.utils.FunctionRegistry}:
+ * the built-in ones follow the declaration order of
+ * {@link org.bm.utils.Operator} and {@link org.bm.utils.Function}, the custom
+ * ones start at {@link #FIRST_CUSTOM}.
+ *
+ * @author morinb
+ */
+public final class OpCode {
+   /**
+    * Push a constant. The operand is the index of the constant.
+    */
+   public static final int CONSTANT = 0;
+
+   /**
+    * Push the value of a variable. The operand is the index of the variable.
+    */
+   public static final int VARIABLE = 1;
+
+   public static final int ADDITION = 2;
+
+   public static final int SUBSTRACTION = 3;
+
+   public static final int OPPOSITE = 4;
+
+   public static final int MULTIPLICATION = 5;
+
+   public static final int MODULO = 6;
+
+   public static final int DIVISION = 7;
+
+   public static final int POWER = 8;
+
+   public static final int SQRT = 9;
+
+   public static final int LOG = 10;
+
+   public static final int EXP = 11;
+
+   /**
+    * Push the value of a scratch slot. The operand is the index of the slot.
+    */
+   public static final int LOAD = 12;
+
+   /**
+    * Copy the value on top of the stack into a scratch slot, leaving it on the
+    * stack. The operand is the index of the slot.
+    */
+   public static final int STORE = 13;
+
+   /**
+    * The opcode of the first function registered by the application.
+    */
+   public static final int FIRST_CUSTOM = 14;
+
+   private OpCode() {
+   }
+}
@@ -0,0 +1,228 @@
+package org.bm.compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bm.FormulaCompute;
+import org.bm.analysis.exception.MathematicalAnalysisException;
+import org.bm.parser.lexer.Lexer;
+import org.bm.parser.lexer.TokenType;
+import org.bm.utils.FunctionRegistry;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Compute the values of variables whose definition may itself be a formula
+ * using other variables.
+ *
+ * The definitions form a dependency graph, walked depth first from the
+ * variables asked for: each definition is compiled (through the cache of
+ * {@link FormulaCompute}) and evaluated once its dependencies are, so that
+ * each variable is computed once per resolver, whatever the number of
+ * formulas using it. A variable depending on itself, directly or not, is
+ * reported with the cycle of its definitions.
+ *
+ * A resolver remembers the values it computed: create one per evaluation, as
+ * the definitions may change between evaluations. It is not thread-safe.
+ *
+ * @author morinb
+ */
+public final class VariableResolver {
+
+   private final Map<String, String> definitions;
+
+   private final FunctionRegistry registry;
+
+   private final Map<String, Double> values = new HashMap<>();
+
+   /**
+    * The variables whose dependencies are being computed.
+    */
+   private final Set<String> inProgress = new HashSet<>();
+
+   /**
+    * @param definitions
+    *            the value of each variable, a number or a formula. A null
+    *            value is no value.
+    * @param registry
+    *            the operators and functions the definitions may use.
+    */
+   public VariableResolver(Map<String, String> definitions, FunctionRegistry registry) {
+      this.definitions = definitions;
+      this.registry = registry;
+   }
+
+   /**
+    * @return the value of the variable.
+    * @throws MathematicalAnalysisException
+    *             if the variable, or one it depends on, has no value, or if
+    *             the definitions form a cycle.
+    */
+   public double valueOf(String variable) throws MathematicalAnalysisException {
+      Double known = values.get(variable);
+      if (null != known) {
+         return known;
+      }
+
+      // Explicit stack, so that long chains of definitions do not overflow
+      // the thread stack.
+      List<Frame> path = new ArrayList<>();
+      push(path, variable);
+
+      while (!path.isEmpty()) {
+         Frame frame = path.get(path.size() - 1);
+         if (null == frame.formula) {
+            // A number.
+            pop(path);
+            continue;
+         }
+
+         String[] dependencies = frame.variables;
+         int[] slots = frame.slots;
+         if (frame.next < slots.length) {
+            String dependency = dependencies[slots[frame.next++]];
+            if (inProgress.contains(dependency)) {
+               throw new MathematicalAnalysisException("The variables " + cycle(path, dependency)
+                  + " are defined in a cycle.");
+            }
+            if (!values.containsKey(dependency)) {
+               push(path, dependency);
+            }
+            continue;
+         }
+
+         double[] arguments = new double[dependencies.length];
+         for (int slot : slots) {
+            arguments[slot] = values.get(dependencies[slot]);
+         }
+         values.put(frame.variable, frame.formula.evaluate(arguments));
+         pop(path);
+      }
+
+      return values.get(variable);
+   }
+
+   /**
+    * @return the text of the value of the variable, as
+    *         {@link FormulaCompute#compute} gives it: a definition made of a
+    *         single number or name is given as written, any other one as the
+    *         double it computes. A variable without value is given back
+    *         itself.
+    * @throws MathematicalAnalysisException
+    *             if the value cannot be computed.
+    */
+   public String textOf(String variable) throws MathematicalAnalysisException {
+      String definition = null == definitions ? null : definitions.get(variable);
+      Set<String> visited = new LinkedHashSet<>();
+      while (null != definition && visited.add(variable)) {
+         Lexer lexer = new Lexer(definition, registry);
+         TokenType type = lexer.next();
+         if (TokenType.NUMBER != type && TokenType.IDENTIFIER != type || TokenType.END != lexer.next()) {
+            return Double.toString(valueOf(variable));
+         }
+         if (TokenType.NUMBER == type) {
+            return definition;
+         }
+         variable = definition;
+         definition = definitions.get(variable);
+      }
+      if (null != definition) {
+         StringBuilder cycle = new StringBuilder();
+         boolean inCycle = false;
+         for (String name : visited) {
+            inCycle |= name.equals(variable);
+            if (inCycle) {
+               cycle.append(name).append(" -> ");
+            }
+         }
+         throw new MathematicalAnalysisException("The variables " + cycle.append(variable)
+            + " are defined in a cycle.");
+      }
+      return variable;
+   }
+
+   private void push(List<Frame> path, String variable) throws MathematicalAnalysisException {
+      String definition = null == definitions ? null : definitions.get(variable);
+      if (null == definition) {
+         throw new MathematicalAnalysisException("The variable " + variable + " has no value.");
+      }
+
+      Lexer lexer = new Lexer(definition, registry);
+      if (TokenType.NUMBER == lexer.next() && TokenType.END == lexer.next()) {
+         values.put(variable, lexer.getNumber());
+         path.add(new Frame(variable, null));
+      } else {
+         path.add(new Frame(variable, FormulaCompute.getCache().get(definition, registry)));
+         inProgress.add(variable);
+      }
+   }
+
+   private void pop(List<Frame> path) {
+      inProgress.remove(path.remove(path.size() - 1).variable);
+   }
+
+   /**
+    * @return the variables from the dependency to the last one of the path,
+    *         followed by the dependency again, i.e. a -> b -> a
+    */
+   private static String cycle(List<Frame> path, String dependency) {
+      StringBuilder cycle = new StringBuilder();
+      boolean inCycle = false;
+      for (Frame frame : path) {
+         inCycle |= frame.variable.equals(dependency);
+         if (inCycle) {
+            cycle.append(frame.variable).append(" -> ");
+         }
+      }
+      return cycle.append(dependency).toString();
+   }
+
+   /**
+    * A variable whose dependencies are being computed.
+    */
+   private static final class Frame {
+      private final String variable;
+
+      /**
+       * The compiled definition, null for a number.
+       */
+      private final CompiledFormula formula;
+
+      private final String[] variables;
+
+      /**
+       * The slots of the variables the formula depends on.
+       */
+      private final int[] slots;
+
+      /**
+       * The index of the next dependency to compute.
+       */
+      private int next;
+
+      Frame(String variable, CompiledFormula formula) {
+         this.variable = variable;
+         this.formula = formula;
+         this.variables = null == formula ? null : formula.getVariables();
+         this.slots = null == formula ? null : formula.getUsedSlots();
+      }
+   }
+}
@@ -0,0 +1,275 @@
+package org.bm.compiler.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.bm.analysis.exception.MathematicalAnalysisException;
+import org.bm.compiler.CompiledFormula;
+import org.bm.compiler.OpCode;
+import org.bm.utils.FunctionRegistry;
+import org.bm.utils.Symbol;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Load compiled formulas from an archive written by
+ * {@link FormulaArchiveWriter}. The archive is mapped in memory, and a
+ * formula is decoded when first loaded, found by a binary search on the hash
+ * of its name: opening an archive does not depend on the number of formulas.
+ *
+ * An archive can be shared between threads.
+ *
+ * @author morinb
+ */
+public class FormulaArchive implements Closeable {
+
+   private final Path file;
+
+   private final FileChannel channel;
+
+   private final MappedByteBuffer buffer;
+
+   private final FunctionRegistry registry;
+
+   private final int size;
+
+   private final long indexOffset;
+
+   /**
+    * The opcode, in the registry, of each function of the archive.
+    */
+   private final Map<Integer, Integer> opcodes = new HashMap<>();
+
+   private final ConcurrentMap<String, CompiledFormula> formulas = new ConcurrentHashMap<>();
+
+   /**
+    * @param registry
+    *            declares the functions registered by the application which
+    *            the formulas use, maybe under other opcodes than when they
+    *            were compiled.
+    */
+   public FormulaArchive(Path file, FunctionRegistry registry) throws IOException {
+      this.file = file;
+      this.registry = registry;
+      this.channel = FileChannel.open(file, StandardOpenOption.READ);
+      try {
+         long length = channel.size();
+         if (length < FormulaArchiveWriter.HEADER_SIZE || length > Integer.MAX_VALUE) {
+            throw new IOException("The file " + file + " is not a formula archive.");
+         }
+         this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+         buffer.order(ByteOrder.LITTLE_ENDIAN);
+         if (buffer.getInt(0) != FormulaArchiveWriter.MAGIC) {
+            throw new IOException("The file " + file + " is not a formula archive.");
+         }
+         int version = buffer.getInt(4);
+         if (version != FormulaArchiveWriter.VERSION) {
+            throw new IOException("The version " + version + " of the formula archive " + file
+               + " is not supported.");
+         }
+         this.size = buffer.getInt(8);
+         int functionCount = buffer.getInt(12);
+         int position = (int) buffer.getLong(16);
+         this.indexOffset = buffer.getLong(24);
+
+         Set<Integer> archived = new HashSet<>();
+         for (int i = 0; i < functionCount; i++) {
+            int opcode = buffer.getInt(position);
+            int nbArgs = buffer.getInt(position + 4);
+            String name = string(position + 8);
+            position += 12 + buffer.getInt(position + 8);
+
+            if (!archived.add(opcode)) {
+               throw new IOException("The opcode " + opcode + " stands for two functions in the formula archive "
+                  + file + ".");
+            }
+
+            Symbol symbol = registry.get(name);
+            if (null != symbol && symbol.getNbArgs() == nbArgs) {
+               opcodes.put(opcode, symbol.getId());
+            }
+         }
+      } catch (IOException | RuntimeException e) {
+         channel.close();
+         throw e;
+      }
+   }
+
+   /**
+    * @return the number of formulas.
+    */
+   public int size() {
+      return size;
+   }
+
+   /**
+    * @return whether the archive holds a formula of this name.
+    */
+   public boolean contains(String name) {
+      return find(name) >= 0;
+   }
+
+   /**
+    * @return the source of the formula, or null if the archive does not hold
+    *         a formula of this name.
+    */
+   public String getSource(String name) {
+      int position = find(name);
+      return position < 0 ? null : string(position + 4 + buffer.getInt(position) + 8);
+   }
+
+   /**
+    * @return the formula of this name, or null if the archive does not hold
+    *         it.
+    * @throws MathematicalAnalysisException
+    *             if the formula uses a function the registry does not
+    *             declare.
+    */
+   public CompiledFormula get(String name) throws MathematicalAnalysisException {
+      CompiledFormula formula = formulas.get(name);
+      if (null == formula) {
+         int position = find(name);
+         if (position < 0) {
+            return null;
+         }
+         formula = decode(position);
+         CompiledFormula previous = formulas.putIfAbsent(name, formula);
+         if (null != previous) {
+            formula = previous;
+         }
+      }
+      return formula;
+   }
+
+   /**
+    * @return the formula of this name if it was compiled from the given
+    *         source, or null to compile it again.
+    * @throws MathematicalAnalysisException
+    *             if the formula uses a function the registry does not
+    *             declare.
+    */
+   public CompiledFormula get(String name, String source) throws MathematicalAnalysisException {
+      int position = find(name);
+      if (position < 0) {
+         return null;
+      }
+      int hashPosition = position + 4 + buffer.getInt(position);
+      if (buffer.getLong(hashPosition) != FormulaArchiveWriter.hash(source)
+         || !source.equals(string(hashPosition + 8))) {
+         return null;
+      }
+      return get(name);
+   }
+
+   @Override
+   public void close() throws IOException {
+      channel.close();
+   }
+
+   /**
+    * @return the position of the formula of this name, or -1.
+    */
+   private int find(String name) {
+      long hash = FormulaArchiveWriter.hash(name);
+      int low = 0;
+      int high = size - 1;
+      while (low <= high) {
+         int middle = (low + high) >>> 1;
+         long value = buffer.getLong(entry(middle));
+         if (value < hash) {
+            low = middle + 1;
+         } else {
+            high = middle - 1;
+         }
+      }
+      // The first entry of the hash, followed by the ones colliding with it.
+      for (int i = low; i < size && buffer.getLong(entry(i)) == hash; i++) {
+         int position = (int) buffer.getLong(entry(i) + 8);
+         if (name.equals(string(position))) {
+            return position;
+         }
+      }
+      return -1;
+   }
+
+   private int entry(int i) {
+      return (int) indexOffset + i * FormulaArchiveWriter.INDEX_ENTRY_SIZE;
+   }
+
+   private CompiledFormula decode(int position) throws MathematicalAnalysisException {
+      String name = string(position);
+      position += 4 + buffer.getInt(position) + 8;
+      String source = string(position);
+      position += 4 + buffer.getInt(position);
+
+      int length = buffer.getInt(position);
+      int constantCount = buffer.getInt(position + 4);
+      int variableCount = buffer.getInt(position + 8);
+      int maxDepth = buffer.getInt(position + 12);
+      int scratchSlots = buffer.getInt(position + 16);
+      position += 20;
+
+      int[] code = new int[length];
+      for (int pc = 0; pc < length; pc++, position += 4) {
+         int opcode = buffer.getInt(position);
+         if (opcode >= OpCode.FIRST_CUSTOM) {
+            Integer id = opcodes.get(opcode);
+            if (null == id) {
+               throw new MathematicalAnalysisException("The formula " + name + " of " + file
+                  + " uses a function which is not registered.");
+            }
+            opcode = id;
+         }
+         code[pc] = opcode;
+      }
+      int[] operands = new int[length];
+      for (int pc = 0; pc < length; pc++, position += 4) {
+         operands[pc] = buffer.getInt(position);
+      }
+      double[] constants = new double[constantCount];
+      for (int i = 0; i < constantCount; i++, position += 8) {
+         constants[i] = buffer.getDouble(position);
+      }
+      String[] variables = new String[variableCount];
+      for (int i = 0; i < variableCount; i++) {
+         variables[i] = string(position);
+         position += 4 + buffer.getInt(position);
+      }
+
+      return new CompiledFormula(source, registry, code, operands, constants, variables, maxDepth, scratchSlots);
+   }
+
+   private String string(int position) {
+      byte[] bytes = new byte[buffer.getInt(position)];
+      ByteBuffer view = buffer.duplicate();
+      view.position(position + 4);
+      view.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+}
@@ -0,0 +1,251 @@
+package org.bm.compiler.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.bm.compiler.CompiledFormula;
+import org.bm.compiler.OpCode;
+import org.bm.utils.Symbol;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Write compiled formulas, each one under a name, into an archive which
+ * {@link FormulaArchive} loads without parsing them again.
+ *
+ * The archive, little-endian, holds:
+ * <ul>
+ * <li>the header: the magic number {@value #MAGIC}, the version, the number
+ * of formulas, the number of functions registered by the application, the
+ * position of the functions and of the index;</li>
+ * <li>the formulas: the name, the hash of the source (see
+ * {@link #hash(String)}) and the source, the number of instructions,
+ * constants and variables, the maximum depth of the stack and the number of
+ * scratch slots, then the opcodes, the operands, the constants and the name
+ * of the variable of each slot;</li>
+ * <li>the functions registered by the application, as their opcode in the
+ * archive, their number of arguments and their name, so that the formulas
+ * can be loaded with another registry declaring the same functions. The
+ * functions are numbered in the archive from {@link OpCode#FIRST_CUSTOM}, by
+ * name, so that formulas compiled with different registries, where the same
+ * opcode may stand for different functions, can share it;</li>
+ * <li>the index: the hash of the name and the position of each formula,
+ * sorted by hash.</li>
+ * </ul>
+ * The strings are written as their length and their UTF-8 bytes.
+ *
+ * @author morinb
+ */
+public class FormulaArchiveWriter implements Closeable {
+
+   /**
+    * "BMCA" in ASCII, read as a little-endian int.
+    */
+   public static final int MAGIC = 0x41434D42;
+
+   public static final int VERSION = 1;
+
+   static final int HEADER_SIZE = 32;
+
+   static final int INDEX_ENTRY_SIZE = 16;
+
+   private final FileChannel channel;
+
+   private final Set<String> names = new HashSet<>();
+
+   /**
+    * The hash of the name and the position of each formula.
+    */
+   private long[] index = new long[256];
+
+   /**
+    * The functions of the formulas by name, in the order of their opcode in
+    * the archive.
+    */
+   private final Map<String, Symbol> functions = new LinkedHashMap<>();
+
+   /**
+    * The opcode in the archive of each function, by name.
+    */
+   private final Map<String, Integer> functionOpcodes = new HashMap<>();
+
+   private long position = HEADER_SIZE;
+
+   public FormulaArchiveWriter(Path file) throws IOException {
+      this.channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+         StandardOpenOption.TRUNCATE_EXISTING);
+   }
+
+   /**
+    * @param name
+    *            the name to load the formula with.
+    * @throws IllegalArgumentException
+    *             if a formula was already added with this name, or if two
+    *             functions of the same name but not of the same number of
+    *             arguments are used.
+    */
+   public void add(String name, CompiledFormula formula) throws IOException {
+      if (names.contains(name)) {
+         throw new IllegalArgumentException("The formula " + name + " is already in the archive.");
+      }
+
+      // The opcodes of the registry of the formula are replaced by the ones
+      // of the archive, once they are all known to be consistent with it.
+      int[] opcodes = formula.getOpcodes();
+      Map<String, Symbol> added = new LinkedHashMap<>();
+      for (int opcode : opcodes) {
+         if (opcode >= OpCode.FIRST_CUSTOM) {
+            Symbol symbol = formula.getRegistry().get(opcode);
+            Symbol known = functions.get(symbol.getName());
+            if (null == known) {
+               known = added.get(symbol.getName());
+            }
+            if (null == known) {
+               added.put(symbol.getName(), symbol);
+            } else if (known.getNbArgs() != symbol.getNbArgs()) {
+               throw new IllegalArgumentException("The function " + symbol.getName()
+                  + " has another definition in the archive.");
+            }
+         }
+      }
+      names.add(name);
+      for (Symbol symbol : added.values()) {
+         functions.put(symbol.getName(), symbol);
+         functionOpcodes.put(symbol.getName(), OpCode.FIRST_CUSTOM + functionOpcodes.size());
+      }
+      for (int pc = 0; pc < opcodes.length; pc++) {
+         if (opcodes[pc] >= OpCode.FIRST_CUSTOM) {
+            opcodes[pc] = functionOpcodes.get(formula.getRegistry().get(opcodes[pc]).getName());
+         }
+      }
+
+      byte[] key = name.getBytes(StandardCharsets.UTF_8);
+      byte[] source = formula.getFormula().getBytes(StandardCharsets.UTF_8);
+      int[] operands = formula.getOperands();
+      double[] constants = formula.getConstants();
+      String[] variables = formula.getVariables();
+      byte[][] slots = new byte[variables.length][];
+      int size = 4 + key.length + 8 + 4 + source.length + 5 * 4 + 8 * opcodes.length + 8 * constants.length;
+      for (int i = 0; i < variables.length; i++) {
+         slots[i] = variables[i].getBytes(StandardCharsets.UTF_8);
+         size += 4 + slots[i].length;
+      }
+
+      ByteBuffer record = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+      record.putInt(key.length).put(key);
+      record.putLong(hash(formula.getFormula()));
+      record.putInt(source.length).put(source);
+      record.putInt(opcodes.length).putInt(constants.length).putInt(variables.length);
+      record.putInt(formula.getMaxDepth()).putInt(formula.getScratchSlots());
+      for (int opcode : opcodes) {
+         record.putInt(opcode);
+      }
+      for (int operand : operands) {
+         record.putInt(operand);
+      }
+      for (double constant : constants) {
+         record.putDouble(constant);
+      }
+      for (byte[] slot : slots) {
+         record.putInt(slot.length).put(slot);
+      }
+
+      int count = names.size() - 1;
+      if (index.length < 2 * (count + 1)) {
+         index = Arrays.copyOf(index, 2 * index.length);
+      }
+      index[2 * count] = hash(name);
+      index[2 * count + 1] = position;
+      position += writeFully(record, position);
+   }
+
+   /**
+    * Write the functions, the index and the header.
+    */
+   @Override
+   public void close() throws IOException {
+      try {
+         long functionsOffset = position;
+         for (Symbol symbol : functions.values()) {
+            byte[] name = symbol.getName().getBytes(StandardCharsets.UTF_8);
+            ByteBuffer bytes = ByteBuffer.allocate(12 + name.length).order(ByteOrder.LITTLE_ENDIAN);
+            bytes.putInt(functionOpcodes.get(symbol.getName())).putInt(symbol.getNbArgs());
+            bytes.putInt(name.length).put(name);
+            position += writeFully(bytes, position);
+         }
+
+         int count = names.size();
+         long[][] entries = new long[count][];
+         for (int i = 0; i < count; i++) {
+            entries[i] = new long[] { index[2 * i], index[2 * i + 1] };
+         }
+         Arrays.sort(entries, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] left, long[] right) {
+               return Long.compare(left[0], right[0]);
+            }
+         });
+         long indexOffset = position;
+         ByteBuffer bytes = ByteBuffer.allocate(INDEX_ENTRY_SIZE * count).order(ByteOrder.LITTLE_ENDIAN);
+         for (long[] entry : entries) {
+            bytes.putLong(entry[0]).putLong(entry[1]);
+         }
+         writeFully(bytes, indexOffset);
+
+         ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+         header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(functions.size());
+         header.putLong(functionsOffset).putLong(indexOffset);
+         writeFully(header, 0);
+      } finally {
+         channel.close();
+      }
+   }
+
+   /**
+    * @return the 64 bits FNV-1a hash of the UTF-8 bytes of the text, which
+    *         tells whether a formula was compiled from a given source.
+    */
+   public static long hash(String text) {
+      long hash = 0xcbf29ce484222325L;
+      for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+         hash ^= b & 0xff;
+         hash *= 0x100000001b3L;
+      }
+      return hash;
+   }
+
+   private int writeFully(ByteBuffer bytes, long at) throws IOException {
+      bytes.position(0);
+      int written = 0;
+      while (bytes.hasRemaining()) {
+         written += channel.write(bytes, at + written);
+      }
+      return written;
+   }
+}
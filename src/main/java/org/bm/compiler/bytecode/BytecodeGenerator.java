@@ -0,0 +1,424 @@
+package org.bm.compiler.bytecode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.bm.compiler.CompiledFormula;
+import org.bm.compiler.DoubleEvaluator;
+import org.bm.compiler.OpCode;
+import org.bm.utils.BinaryDelegateFunction;
+import org.bm.utils.DelegateFunction;
+import org.bm.utils.FunctionRegistry;
+import org.bm.utils.Symbol;
+import org.bm.utils.UnaryDelegateFunction;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Translate a compiled formula into a class whose evaluate method is straight
+ * line double arithmetic, so that the JIT can inline it and keep the operands
+ * in registers: the operand stack of the program is the operand stack of the
+ * JVM, constants are loaded from the constant pool, and the built-in
+ * operators and functions are JVM instructions or calls to {@link Math}.
+ *
+ * When the JVM supports it (Java 15+), the class is defined as a hidden class
+ * through {@code MethodHandles.Lookup.defineHiddenClass}, otherwise by a class
+ * loader of its own. In both cases the class is unloaded once the evaluator is
+ * no longer referenced.
+ *
+ * Programs too large for a single method are not translated: the compiled
+ * formula evaluates them itself.
+ *
+ * @author morinb
+ */
+public final class BytecodeGenerator {
+
+   private static final Logger logger = Logger.getLogger(BytecodeGenerator.class);
+
+   private static final String PACKAGE = "org/bm/compiler/bytecode/";
+
+   private static final String CLASS_NAME = PACKAGE + "Formula";
+
+   private static final String SUPER_NAME = PACKAGE + "GeneratedEvaluator";
+
+   private static final String FUNCTION_NAME = "org/bm/utils/DelegateFunction";
+
+   private static final String UNARY_FUNCTION_NAME = "org/bm/utils/UnaryDelegateFunction";
+
+   private static final String BINARY_FUNCTION_NAME = "org/bm/utils/BinaryDelegateFunction";
+
+   private static final String CONSTRUCTOR_DESCRIPTOR = "([L" + FUNCTION_NAME + ";)V";
+
+   private static final int MAX_CODE_LENGTH = 65535;
+
+   /**
+    * The constant pool must have room left for the entries of the class
+    * itself and of its constructor.
+    */
+   private static final int MAX_POOL_COUNT = 65535 - 16;
+
+   private static final int T_DOUBLE = 7;
+
+   private static final int ICONST_0 = 0x03;
+   private static final int BIPUSH = 0x10;
+   private static final int SIPUSH = 0x11;
+   private static final int LDC_W = 0x13;
+   private static final int LDC2_W = 0x14;
+   private static final int DCONST_0 = 0x0e;
+   private static final int DCONST_1 = 0x0f;
+   private static final int DLOAD = 0x18;
+   private static final int ALOAD_0 = 0x2a;
+   private static final int ALOAD_1 = 0x2b;
+   private static final int DALOAD = 0x31;
+   private static final int AALOAD = 0x32;
+   private static final int DSTORE = 0x39;
+   private static final int DASTORE = 0x52;
+   private static final int DUP = 0x59;
+   private static final int DUP2 = 0x5c;
+   private static final int DADD = 0x63;
+   private static final int DSUB = 0x67;
+   private static final int DMUL = 0x6b;
+   private static final int DDIV = 0x6f;
+   private static final int DREM = 0x73;
+   private static final int DNEG = 0x77;
+   private static final int DRETURN = 0xaf;
+   private static final int RETURN = 0xb1;
+   private static final int GETFIELD = 0xb4;
+   private static final int INVOKEVIRTUAL = 0xb6;
+   private static final int INVOKESPECIAL = 0xb7;
+   private static final int INVOKESTATIC = 0xb8;
+   private static final int NEWARRAY = 0xbc;
+   private static final int CHECKCAST = 0xc0;
+   private static final int WIDE = 0xc4;
+
+   private BytecodeGenerator() {
+   }
+
+   /**
+    * @return an evaluator running the program of the formula as JVM bytecode,
+    *         or the formula itself if the program cannot be translated.
+    */
+   public static DoubleEvaluator generate(CompiledFormula formula) {
+      List<DelegateFunction> functions = new ArrayList<>();
+      byte[] bytes;
+      try {
+         bytes = translate(formula, functions);
+      } catch (IOException e) {
+         throw new IllegalStateException(e);
+      }
+      if (null == bytes) {
+         if (logger.isInfoEnabled()) {
+            logger.info("The formula " + formula + " is too large to be translated into bytecode.");
+         }
+         return formula;
+      }
+
+      try {
+         Class<?> generated = define(bytes);
+         return (DoubleEvaluator) generated.getConstructor(DelegateFunction[].class).newInstance(
+            (Object) functions.toArray(new DelegateFunction[functions.size()]));
+      } catch (ReflectiveOperationException e) {
+         throw new IllegalStateException("Unable to instantiate the class generated for " + formula, e);
+      }
+   }
+
+   /**
+    * @return the class file, or null if the program is too large.
+    */
+   static byte[] translate(CompiledFormula formula, List<DelegateFunction> functions) throws IOException {
+      ClassFileWriter writer = new ClassFileWriter();
+      FunctionRegistry registry = formula.getRegistry();
+      int[] opcodes = formula.getOpcodes();
+      int[] operands = formula.getOperands();
+      double[] constants = formula.getConstants();
+
+      Code code = new Code();
+      int maxArity = 0;
+      // The scratch slots are the locals following the values, the arguments
+      // of the functions the ones after.
+      int arguments = 2 + 2 * formula.getScratchSlots();
+
+      for (int pc = 0; pc < opcodes.length; pc++) {
+         switch (opcodes[pc]) {
+            case OpCode.CONSTANT:
+               code.constant(writer, constants[operands[pc]]);
+               break;
+
+            case OpCode.VARIABLE:
+               code.op(ALOAD_1, 1);
+               code.integer(writer, operands[pc]);
+               code.op(DALOAD, 0);
+               break;
+
+            case OpCode.LOAD:
+               code.local(DLOAD, 2 + 2 * operands[pc], 2);
+               break;
+
+            case OpCode.STORE:
+               code.op(DUP2, 2);
+               code.local(DSTORE, 2 + 2 * operands[pc], -2);
+               break;
+
+            case OpCode.ADDITION:
+               code.op(DADD, -2);
+               break;
+
+            case OpCode.SUBSTRACTION:
+               code.op(DSUB, -2);
+               break;
+
+            case OpCode.OPPOSITE:
+               code.op(DNEG, 0);
+               break;
+
+            case OpCode.MULTIPLICATION:
+               code.op(DMUL, -2);
+               break;
+
+            case OpCode.MODULO:
+               code.op(DREM, -2);
+               break;
+
+            case OpCode.DIVISION:
+               code.op(DDIV, -2);
+               break;
+
+            case OpCode.POWER:
+               code.invoke(INVOKESTATIC, writer.methodRef("java/lang/Math", "pow", "(DD)D"), -2);
+               break;
+
+            case OpCode.SQRT:
+               code.invoke(INVOKESTATIC, writer.methodRef("java/lang/Math", "sqrt", "(D)D"), 0);
+               break;
+
+            case OpCode.LOG:
+               code.invoke(INVOKESTATIC, writer.methodRef("java/lang/Math", "log10", "(D)D"), 0);
+               break;
+
+            case OpCode.EXP:
+               code.invoke(INVOKESTATIC, writer.methodRef("java/lang/Math", "exp", "(D)D"), 0);
+               break;
+
+            default: {
+               Symbol symbol = registry.get(opcodes[pc]);
+               int nbArgs = symbol.getNbArgs();
+               maxArity = Math.max(maxArity, nbArgs);
+               int index = functions.indexOf(symbol.getDelegate());
+               if (index < 0) {
+                  index = functions.size();
+                  functions.add(symbol.getDelegate());
+               }
+               call(writer, code, index, symbol.getDelegate(), arguments);
+               break;
+            }
+         }
+      }
+      code.op(DRETURN, -2);
+
+      int maxLocals = arguments + 2 * maxArity;
+      if (code.length() > MAX_CODE_LENGTH || writer.getPoolCount() > MAX_POOL_COUNT || code.maxStack > 0xFFFF
+         || maxLocals > 0xFFFF) {
+         return null;
+      }
+
+      Code constructor = new Code();
+      constructor.op(ALOAD_0, 1);
+      constructor.op(ALOAD_1, 1);
+      constructor.invoke(INVOKESPECIAL, writer.methodRef(SUPER_NAME, "<init>", CONSTRUCTOR_DESCRIPTOR), -2);
+      constructor.op(RETURN, 0);
+
+      writer.method(ClassFileWriter.ACC_PUBLIC, "<init>", CONSTRUCTOR_DESCRIPTOR, constructor.maxStack, 2,
+         constructor.toByteArray());
+      writer.method(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_FINAL, "evaluate", "([D)D", code.maxStack,
+         maxLocals, code.toByteArray());
+
+      return writer.toByteArray(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_FINAL | ClassFileWriter.ACC_SUPER,
+         CLASS_NAME, SUPER_NAME);
+   }
+
+   /**
+    * Call a function registered by the application. Its arguments, on top of
+    * the stack, are first stored in local variables from the given one, as the
+    * function must be pushed before them. Only the functions extending
+    * {@link UnaryDelegateFunction} or {@link BinaryDelegateFunction} are
+    * called without an array of arguments.
+    */
+   private static void call(ClassFileWriter writer, Code code, int index, DelegateFunction function, int arguments)
+      throws IOException {
+      int nbArgs = function.getNbArgs();
+      for (int i = nbArgs - 1; i >= 0; i--) {
+         code.local(DSTORE, arguments + 2 * i, -2);
+      }
+      code.op(ALOAD_0, 1);
+      code.field(GETFIELD, writer.fieldRef(SUPER_NAME, "functions", "[L" + FUNCTION_NAME + ";"), 0);
+      code.integer(writer, index);
+      code.op(AALOAD, -1);
+
+      String scalar = null;
+      if (nbArgs == 1 && function instanceof UnaryDelegateFunction) {
+         scalar = UNARY_FUNCTION_NAME;
+      } else if (nbArgs == 2 && function instanceof BinaryDelegateFunction) {
+         scalar = BINARY_FUNCTION_NAME;
+      }
+
+      if (null != scalar) {
+         code.op(CHECKCAST, 0);
+         code.u2(writer.classRef(scalar));
+         for (int i = 0; i < nbArgs; i++) {
+            code.local(DLOAD, arguments + 2 * i, 2);
+         }
+         String descriptor = nbArgs == 1 ? "(D)D" : "(DD)D";
+         code.invoke(INVOKEVIRTUAL, writer.methodRef(scalar, "compute", descriptor), 2 - 1 - 2 * nbArgs);
+      } else {
+         code.integer(writer, nbArgs);
+         code.op(NEWARRAY, 0);
+         code.u1(T_DOUBLE);
+         for (int i = 0; i < nbArgs; i++) {
+            code.op(DUP, 1);
+            code.integer(writer, i);
+            code.local(DLOAD, arguments + 2 * i, 2);
+            code.op(DASTORE, -4);
+         }
+         code.integer(writer, 0);
+         code.invoke(INVOKEVIRTUAL, writer.methodRef(FUNCTION_NAME, "compute", "([DI)D"), 2 - 3);
+      }
+   }
+
+   /**
+    * Define the class as a hidden class if the JVM supports it, otherwise with
+    * a new class loader.
+    */
+   private static Class<?> define(byte[] bytes) {
+      try {
+         Class<?> optionClass = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+         Object noOption = Array.newInstance(optionClass, 0);
+         Method defineHiddenClass = MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class,
+            boolean.class, noOption.getClass());
+         MethodHandles.Lookup lookup = (MethodHandles.Lookup) defineHiddenClass.invoke(MethodHandles.lookup(), bytes,
+            true, noOption);
+         return lookup.lookupClass();
+      } catch (ClassNotFoundException | NoSuchMethodException e) {
+         // Before Java 15.
+         return new GeneratedClassLoader(GeneratedEvaluator.class.getClassLoader()).define(bytes);
+      } catch (IllegalAccessException | InvocationTargetException e) {
+         throw new IllegalStateException("Unable to define the generated class.", e);
+      }
+   }
+
+   private static final class GeneratedClassLoader extends ClassLoader {
+      GeneratedClassLoader(ClassLoader parent) {
+         super(parent);
+      }
+
+      Class<?> define(byte[] bytes) {
+         return defineClass(CLASS_NAME.replace('/', '.'), bytes, 0, bytes.length);
+      }
+   }
+
+   /**
+    * The code of a method, with the maximum depth of its operand stack, in
+    * words.
+    */
+   private static final class Code {
+      private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+      private int depth;
+
+      private int maxStack;
+
+      void op(int opcode, int stackChange) {
+         bytes.write(opcode);
+         change(stackChange);
+      }
+
+      void u1(int value) {
+         bytes.write(value);
+      }
+
+      void u2(int value) {
+         bytes.write(value >>> 8);
+         bytes.write(value);
+      }
+
+      void invoke(int opcode, int methodRef, int stackChange) {
+         op(opcode, stackChange);
+         u2(methodRef);
+      }
+
+      void field(int opcode, int fieldRef, int stackChange) {
+         op(opcode, stackChange);
+         u2(fieldRef);
+      }
+
+      void local(int opcode, int index, int stackChange) {
+         if (index > 0xFF) {
+            bytes.write(WIDE);
+            op(opcode, stackChange);
+            u2(index);
+         } else {
+            op(opcode, stackChange);
+            u1(index);
+         }
+      }
+
+      void integer(ClassFileWriter writer, int value) throws IOException {
+         if (value >= -1 && value <= 5) {
+            op(ICONST_0 + value, 1);
+         } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            op(BIPUSH, 1);
+            u1(value);
+         } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            op(SIPUSH, 1);
+            u2(value);
+         } else {
+            op(LDC_W, 1);
+            u2(writer.integer(value));
+         }
+      }
+
+      void constant(ClassFileWriter writer, double value) throws IOException {
+         long bits = Double.doubleToRawLongBits(value);
+         if (bits == Double.doubleToRawLongBits(0.0)) {
+            op(DCONST_0, 2);
+         } else if (bits == Double.doubleToRawLongBits(1.0)) {
+            op(DCONST_1, 2);
+         } else {
+            op(LDC2_W, 2);
+            u2(writer.doubleConstant(value));
+         }
+      }
+
+      int length() {
+         return bytes.size();
+      }
+
+      byte[] toByteArray() {
+         return bytes.toByteArray();
+      }
+
+      private void change(int stackChange) {
+         depth += stackChange;
+         maxStack = Math.max(maxStack, depth);
+      }
+   }
+}
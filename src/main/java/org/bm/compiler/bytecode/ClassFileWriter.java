@@ -0,0 +1,212 @@
+package org.bm.compiler.bytecode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Write a class file holding methods without branches, which therefore need
+ * no stack map frames. Only the constant pool entries the
+ * {@link BytecodeGenerator} uses are supported.
+ *
+ * @author morinb
+ */
+final class ClassFileWriter {
+
+   static final int ACC_PUBLIC = 0x0001;
+
+   static final int ACC_FINAL = 0x0010;
+
+   static final int ACC_SUPER = 0x0020;
+
+   /**
+    * Java 7 class files.
+    */
+   private static final int MAJOR_VERSION = 51;
+
+   private static final int CONSTANT_UTF8 = 1;
+
+   private static final int CONSTANT_INTEGER = 3;
+
+   private static final int CONSTANT_DOUBLE = 6;
+
+   private static final int CONSTANT_CLASS = 7;
+
+   private static final int CONSTANT_FIELDREF = 9;
+
+   private static final int CONSTANT_METHODREF = 10;
+
+   private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+   private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+
+   private final DataOutputStream pool = new DataOutputStream(poolBytes);
+
+   private final Map<String, Integer> poolIndexes = new HashMap<>();
+
+   private int poolCount = 1;
+
+   private final ByteArrayOutputStream methodsBytes = new ByteArrayOutputStream();
+
+   private final DataOutputStream methods = new DataOutputStream(methodsBytes);
+
+   private int methodCount;
+
+   int utf8(String value) throws IOException {
+      Integer index = poolIndexes.get("U" + value);
+      if (null == index) {
+         pool.writeByte(CONSTANT_UTF8);
+         pool.writeUTF(value);
+         index = newEntry("U" + value, 1);
+      }
+      return index;
+   }
+
+   int integer(int value) throws IOException {
+      Integer index = poolIndexes.get("I" + value);
+      if (null == index) {
+         pool.writeByte(CONSTANT_INTEGER);
+         pool.writeInt(value);
+         index = newEntry("I" + value, 1);
+      }
+      return index;
+   }
+
+   int doubleConstant(double value) throws IOException {
+      long bits = Double.doubleToRawLongBits(value);
+      Integer index = poolIndexes.get("D" + bits);
+      if (null == index) {
+         pool.writeByte(CONSTANT_DOUBLE);
+         pool.writeLong(bits);
+         // A double takes two entries of the pool.
+         index = newEntry("D" + bits, 2);
+      }
+      return index;
+   }
+
+   int classRef(String internalName) throws IOException {
+      Integer index = poolIndexes.get("C" + internalName);
+      if (null == index) {
+         int name = utf8(internalName);
+         pool.writeByte(CONSTANT_CLASS);
+         pool.writeShort(name);
+         index = newEntry("C" + internalName, 1);
+      }
+      return index;
+   }
+
+   int fieldRef(String owner, String name, String descriptor) throws IOException {
+      return memberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+   }
+
+   int methodRef(String owner, String name, String descriptor) throws IOException {
+      return memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+   }
+
+   /**
+    * Add a method whose only attribute is its code.
+    */
+   void method(int access, String name, String descriptor, int maxStack, int maxLocals, byte[] code)
+      throws IOException {
+      int nameIndex = utf8(name);
+      int descriptorIndex = utf8(descriptor);
+      int codeIndex = utf8("Code");
+
+      methods.writeShort(access);
+      methods.writeShort(nameIndex);
+      methods.writeShort(descriptorIndex);
+      methods.writeShort(1);
+      methods.writeShort(codeIndex);
+      methods.writeInt(12 + code.length);
+      methods.writeShort(maxStack);
+      methods.writeShort(maxLocals);
+      methods.writeInt(code.length);
+      methods.write(code);
+      methods.writeShort(0); // exception table
+      methods.writeShort(0); // attributes
+      methodCount++;
+   }
+
+   /**
+    * @return the number of entries of the constant pool, which must not exceed
+    *         65535.
+    */
+   int getPoolCount() {
+      return poolCount;
+   }
+
+   byte[] toByteArray(int access, String thisName, String superName) throws IOException {
+      int thisIndex = classRef(thisName);
+      int superIndex = classRef(superName);
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0);
+      out.writeShort(MAJOR_VERSION);
+      out.writeShort(poolCount);
+      poolBytes.writeTo(out);
+      out.writeShort(access);
+      out.writeShort(thisIndex);
+      out.writeShort(superIndex);
+      out.writeShort(0); // interfaces
+      out.writeShort(0); // fields
+      out.writeShort(methodCount);
+      methodsBytes.writeTo(out);
+      out.writeShort(0); // attributes
+      out.flush();
+      return bytes.toByteArray();
+   }
+
+   private int memberRef(int tag, String owner, String name, String descriptor) throws IOException {
+      String key = tag + owner + '.' + name + descriptor;
+      Integer index = poolIndexes.get(key);
+      if (null == index) {
+         int ownerIndex = classRef(owner);
+         int nameAndType = nameAndType(name, descriptor);
+         pool.writeByte(tag);
+         pool.writeShort(ownerIndex);
+         pool.writeShort(nameAndType);
+         index = newEntry(key, 1);
+      }
+      return index;
+   }
+
+   private int nameAndType(String name, String descriptor) throws IOException {
+      String key = "N" + name + descriptor;
+      Integer index = poolIndexes.get(key);
+      if (null == index) {
+         int nameIndex = utf8(name);
+         int descriptorIndex = utf8(descriptor);
+         pool.writeByte(CONSTANT_NAME_AND_TYPE);
+         pool.writeShort(nameIndex);
+         pool.writeShort(descriptorIndex);
+         index = newEntry(key, 1);
+      }
+      return index;
+   }
+
+   private int newEntry(String key, int size) {
+      int index = poolCount;
+      poolCount += size;
+      poolIndexes.put(key, index);
+      return index;
+   }
+}
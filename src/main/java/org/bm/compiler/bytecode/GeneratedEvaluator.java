@@ -0,0 +1,37 @@
+package org.bm.compiler.bytecode;
+
+import org.bm.compiler.DoubleEvaluator;
+import org.bm.utils.DelegateFunction;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * The super class of the classes generated by the {@link BytecodeGenerator}.
+ *
+ * @author morinb
+ */
+public abstract class GeneratedEvaluator implements DoubleEvaluator {
+
+   /**
+    * The functions registered by the application which the generated code
+    * calls, as it cannot reference them directly.
+    */
+   protected final DelegateFunction[] functions;
+
+   protected GeneratedEvaluator(DelegateFunction[] functions) {
+      this.functions = functions;
+   }
+}
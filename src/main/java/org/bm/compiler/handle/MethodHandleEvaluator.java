@@ -0,0 +1,47 @@
+package org.bm.compiler.handle;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+
+import org.bm.compiler.DoubleEvaluator;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Evaluate a formula through the method handle tree of a constant call site.
+ *
+ * @author morinb
+ */
+final class MethodHandleEvaluator implements DoubleEvaluator {
+
+   private final MethodHandle target;
+
+   MethodHandleEvaluator(CallSite callSite) {
+      this.target = callSite.dynamicInvoker();
+   }
+
+   @Override
+   public double evaluate(double[] values) {
+      try {
+         return (double) target.invokeExact(values);
+      } catch (RuntimeException | Error e) {
+         throw e;
+      } catch (Throwable e) {
+         // The functions do not throw checked exceptions.
+         throw new IllegalStateException(e);
+      }
+   }
+}
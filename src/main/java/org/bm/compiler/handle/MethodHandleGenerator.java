@@ -0,0 +1,309 @@
+package org.bm.compiler.handle;
+
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import org.bm.compiler.CompiledFormula;
+import org.bm.compiler.DoubleEvaluator;
+import org.bm.compiler.OpCode;
+import org.bm.compiler.bytecode.BytecodeGenerator;
+import org.bm.utils.BinaryDelegateFunction;
+import org.bm.utils.DelegateFunction;
+import org.bm.utils.FunctionRegistry;
+import org.bm.utils.Symbol;
+import org.bm.utils.UnaryDelegateFunction;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Turn a compiled formula into a tree of method handles, each node taking the
+ * values of the variables and returning the value of its sub formula. The
+ * tree is called through a constant call site: no class is generated, so
+ * that the formulas can be evaluated where defining classes at runtime is
+ * not allowed. The JIT does not take the root of the tree as a constant, and
+ * so folds less of it than the code of {@link BytecodeGenerator}.
+ *
+ * A sub formula stored in a scratch slot is computed once: each node takes,
+ * after the values of the variables, the values of the slots stored before
+ * it, which the tree computes in turn by folding them into its arguments.
+ * Programs too deep or too large for a tree of method handles are not
+ * translated: the compiled formula evaluates them itself.
+ *
+ * @author morinb
+ */
+public final class MethodHandleGenerator {
+
+   private static final Logger logger = Logger.getLogger(MethodHandleGenerator.class);
+
+   /**
+    * The maximum number of instructions translated. Each one is a few method
+    * handles, which take long to build and to compile for large programs.
+    */
+   static final int MAX_LENGTH = 2048;
+
+   /**
+    * The maximum depth of the tree, which each call goes through on the
+    * stack of the thread.
+    */
+   static final int MAX_DEPTH = 128;
+
+   /**
+    * The maximum number of stored values, which are arguments of the nodes:
+    * a method handle takes at most 255 arguments.
+    */
+   static final int MAX_STORES = 128;
+
+   private static final MethodType UNARY = MethodType.methodType(double.class, double.class);
+
+   private static final MethodType BINARY = MethodType.methodType(double.class, double.class, double.class);
+
+   private static final MethodType NARY = MethodType.methodType(double.class, double[].class, int.class);
+
+   /**
+    * The handles of the built-in operators and functions, indexed by opcode.
+    */
+   private static final MethodHandle[] BUILT_INS = new MethodHandle[OpCode.FIRST_CUSTOM];
+
+   private static final MethodHandle VARIABLE = MethodHandles.arrayElementGetter(double[].class);
+
+   private static final MethodHandle UNARY_FUNCTION;
+
+   private static final MethodHandle BINARY_FUNCTION;
+
+   private static final MethodHandle NARY_FUNCTION;
+
+   static {
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      try {
+         BUILT_INS[OpCode.ADDITION] = lookup.findStatic(MethodHandleGenerator.class, "add", BINARY);
+         BUILT_INS[OpCode.SUBSTRACTION] = lookup.findStatic(MethodHandleGenerator.class, "subtract", BINARY);
+         BUILT_INS[OpCode.OPPOSITE] = lookup.findStatic(MethodHandleGenerator.class, "negate", UNARY);
+         BUILT_INS[OpCode.MULTIPLICATION] = lookup.findStatic(MethodHandleGenerator.class, "multiply", BINARY);
+         BUILT_INS[OpCode.MODULO] = lookup.findStatic(MethodHandleGenerator.class, "modulo", BINARY);
+         BUILT_INS[OpCode.DIVISION] = lookup.findStatic(MethodHandleGenerator.class, "divide", BINARY);
+         BUILT_INS[OpCode.POWER] = lookup.findStatic(Math.class, "pow", BINARY);
+         BUILT_INS[OpCode.SQRT] = lookup.findStatic(Math.class, "sqrt", UNARY);
+         BUILT_INS[OpCode.LOG] = lookup.findStatic(Math.class, "log10", UNARY);
+         BUILT_INS[OpCode.EXP] = lookup.findStatic(Math.class, "exp", UNARY);
+
+         UNARY_FUNCTION = lookup.findVirtual(UnaryDelegateFunction.class, "compute", UNARY);
+         BINARY_FUNCTION = lookup.findVirtual(BinaryDelegateFunction.class, "compute", BINARY);
+         NARY_FUNCTION = lookup.findVirtual(DelegateFunction.class, "compute", NARY);
+      } catch (NoSuchMethodException | IllegalAccessException e) {
+         throw new ExceptionInInitializerError(e);
+      }
+   }
+
+   private MethodHandleGenerator() {
+   }
+
+   /**
+    * @return an evaluator running the program of the formula as a tree of
+    *         method handles, or the formula itself if its program is too deep
+    *         or too large.
+    */
+   public static DoubleEvaluator generate(CompiledFormula formula) {
+      FunctionRegistry registry = formula.getRegistry();
+      int[] opcodes = formula.getOpcodes();
+      int[] operands = formula.getOperands();
+      double[] constants = formula.getConstants();
+
+      int stores = 0;
+      for (int opcode : opcodes) {
+         if (opcode == OpCode.STORE) {
+            stores++;
+         }
+      }
+      if (opcodes.length > MAX_LENGTH || stores > MAX_STORES) {
+         return tooLarge(formula);
+      }
+
+      // The nodes take the stored values, the last one first, then the
+      // values of the variables: (double, ..., double, double[])double.
+      List<Class<?>> parameters = new ArrayList<>(Collections.<Class<?>> nCopies(stores, double.class));
+      parameters.add(double[].class);
+
+      MethodHandle[] stack = new MethodHandle[formula.getMaxDepth()];
+      int[] depths = new int[formula.getMaxDepth()];
+      MethodHandle[] stored = new MethodHandle[stores];
+      int[] slots = new int[formula.getScratchSlots()];
+      int size = 0;
+      int store = 0;
+
+      for (int pc = 0; pc < opcodes.length; pc++) {
+         int opcode = opcodes[pc];
+         switch (opcode) {
+            case OpCode.CONSTANT:
+               depths[size] = 1;
+               stack[size++] = MethodHandles.dropArguments(
+                  MethodHandles.constant(double.class, constants[operands[pc]]), 0, parameters);
+               break;
+
+            case OpCode.VARIABLE:
+               depths[size] = 1;
+               stack[size++] = MethodHandles.dropArguments(
+                  MethodHandles.insertArguments(VARIABLE, 1, operands[pc]), 0, parameters.subList(0, stores));
+               break;
+
+            case OpCode.LOAD:
+               depths[size] = 1;
+               stack[size++] = stored(slots[operands[pc]], parameters);
+               break;
+
+            case OpCode.STORE:
+               // The value is computed once, and then read as an argument.
+               stored[store] = stack[size - 1];
+               slots[operands[pc]] = store;
+               stack[size - 1] = stored(store, parameters);
+               depths[size - 1] = 1;
+               store++;
+               break;
+
+            default: {
+               MethodHandle operation;
+               int nbArgs;
+               if (opcode < OpCode.FIRST_CUSTOM) {
+                  operation = BUILT_INS[opcode];
+                  nbArgs = operation.type().parameterCount();
+               } else {
+                  Symbol symbol = registry.get(opcode);
+                  nbArgs = symbol.getNbArgs();
+                  operation = function(symbol.getDelegate(), nbArgs);
+               }
+               size -= nbArgs;
+               int depth = 0;
+               for (int i = size; i < size + nbArgs; i++) {
+                  depth = Math.max(depth, depths[i]);
+               }
+               if (depth + stores >= MAX_DEPTH) {
+                  return tooLarge(formula);
+               }
+               stack[size] = apply(operation, Arrays.copyOfRange(stack, size, size + nbArgs), parameters);
+               depths[size] = depth + 1;
+               size++;
+               break;
+            }
+         }
+      }
+
+      // Compute the stored values, the first one first: each one only takes
+      // the values stored before it.
+      MethodHandle target = stack[0];
+      for (int i = stores - 1; i >= 0; i--) {
+         Object[] unused = new Object[stores - i];
+         Arrays.fill(unused, 0.0);
+         target = MethodHandles.foldArguments(target, MethodHandles.insertArguments(stored[i], 0, unused));
+      }
+      return new MethodHandleEvaluator(new ConstantCallSite(target));
+   }
+
+   private static DoubleEvaluator tooLarge(CompiledFormula formula) {
+      if (logger.isInfoEnabled()) {
+         logger.info("The formula " + formula + " is too large to be translated into method handles.");
+      }
+      return formula;
+   }
+
+   /**
+    * @return the node giving the value stored in the given order.
+    */
+   private static MethodHandle stored(int store, List<Class<?>> parameters) {
+      // The last stored value is the first argument.
+      int position = parameters.size() - 2 - store;
+      MethodHandle identity = MethodHandles.identity(double.class);
+      identity = MethodHandles.dropArguments(identity, 0, parameters.subList(0, position));
+      return MethodHandles.dropArguments(identity, position + 1, parameters.subList(position + 1, parameters.size()));
+   }
+
+   /**
+    * @return the handle computing the function with the given number of
+    *         arguments, as (double, ...)double. Only the functions extending
+    *         {@link UnaryDelegateFunction} or {@link BinaryDelegateFunction}
+    *         are called without an array of arguments.
+    */
+   private static MethodHandle function(DelegateFunction function, int nbArgs) {
+      if (nbArgs == 1 && function instanceof UnaryDelegateFunction) {
+         return UNARY_FUNCTION.bindTo(function);
+      }
+      if (nbArgs == 2 && function instanceof BinaryDelegateFunction) {
+         return BINARY_FUNCTION.bindTo(function);
+      }
+      return MethodHandles.insertArguments(NARY_FUNCTION.bindTo(function), 1, 0).asCollector(double[].class, nbArgs);
+   }
+
+   /**
+    * @return the handle computing the operation over the results of the
+    *         arguments, all of them taking the same parameters.
+    */
+   private static MethodHandle apply(MethodHandle operation, MethodHandle[] arguments, List<Class<?>> parameters) {
+      // (a1, parameters..., a2, ..., an)double: each argument in turn is
+      // folded into the first parameter, and the next one moved before the
+      // parameters, so that no handle takes more than the parameters and the
+      // arguments.
+      MethodHandle handle = MethodHandles.dropArguments(operation, Math.min(1, arguments.length), parameters);
+      int count = parameters.size();
+      for (int i = 0; i < arguments.length; i++) {
+         handle = MethodHandles.foldArguments(handle, arguments[i]);
+         if (i + 1 < arguments.length) {
+            // (parameters..., a(i+1), ...) to (a(i+1), parameters..., ...).
+            MethodType type = handle.type();
+            int[] reorder = new int[type.parameterCount()];
+            for (int k = 0; k < count; k++) {
+               reorder[k] = k + 1;
+            }
+            reorder[count] = 0;
+            for (int k = count + 1; k < reorder.length; k++) {
+               reorder[k] = k;
+            }
+            MethodType moved = type.dropParameterTypes(count, count + 1).insertParameterTypes(0, double.class);
+            handle = MethodHandles.permuteArguments(handle, moved, reorder);
+         }
+      }
+      return handle;
+   }
+
+   private static double add(double arg1, double arg2) {
+      return arg1 + arg2;
+   }
+
+   private static double subtract(double arg1, double arg2) {
+      return arg1 - arg2;
+   }
+
+   private static double negate(double arg) {
+      return -arg;
+   }
+
+   private static double multiply(double arg1, double arg2) {
+      return arg1 * arg2;
+   }
+
+   private static double modulo(double arg1, double arg2) {
+      return arg1 % arg2;
+   }
+
+   private static double divide(double arg1, double arg2) {
+      return arg1 / arg2;
+   }
+}
@@ -0,0 +1,95 @@
+package org.bm.compiler.impl;
+
+import org.bm.compiler.BatchKernels;
+import org.bm.compiler.OpCode;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Kernels written as plain counted loops without dependency between rows, the
+ * shape the JIT vectorizes for addition, substraction, multiplication,
+ * division, opposite and square root.
+ *
+ * @author morinb
+ */
+public class BatchKernelsDefaultImpl implements BatchKernels {
+
+   @Override
+   public void binary(int opcode, double[] a, int aOffset, double[] b, int bOffset, double[] result, int length) {
+      switch (opcode) {
+         case OpCode.ADDITION:
+            for (int i = 0; i < length; i++) {
+               result[i] = a[aOffset + i] + b[bOffset + i];
+            }
+            break;
+         case OpCode.SUBSTRACTION:
+            for (int i = 0; i < length; i++) {
+               result[i] = a[aOffset + i] - b[bOffset + i];
+            }
+            break;
+         case OpCode.MULTIPLICATION:
+            for (int i = 0; i < length; i++) {
+               result[i] = a[aOffset + i] * b[bOffset + i];
+            }
+            break;
+         case OpCode.MODULO:
+            for (int i = 0; i < length; i++) {
+               result[i] = a[aOffset + i] % b[bOffset + i];
+            }
+            break;
+         case OpCode.DIVISION:
+            for (int i = 0; i < length; i++) {
+               result[i] = a[aOffset + i] / b[bOffset + i];
+            }
+            break;
+         case OpCode.POWER:
+            for (int i = 0; i < length; i++) {
+               result[i] = Math.pow(a[aOffset + i], b[bOffset + i]);
+            }
+            break;
+         default:
+            throw new IllegalArgumentException("The opcode " + opcode + " is not a binary operator.");
+      }
+   }
+
+   @Override
+   public void unary(int opcode, double[] a, int aOffset, double[] result, int length) {
+      switch (opcode) {
+         case OpCode.OPPOSITE:
+            for (int i = 0; i < length; i++) {
+               result[i] = -a[aOffset + i];
+            }
+            break;
+         case OpCode.SQRT:
+            for (int i = 0; i < length; i++) {
+               result[i] = Math.sqrt(a[aOffset + i]);
+            }
+            break;
+         case OpCode.LOG:
+            for (int i = 0; i < length; i++) {
+               result[i] = Math.log10(a[aOffset + i]);
+            }
+            break;
+         case OpCode.EXP:
+            for (int i = 0; i < length; i++) {
+               result[i] = Math.exp(a[aOffset + i]);
+            }
+            break;
+         default:
+            throw new IllegalArgumentException("The opcode " + opcode + " is not a unary operator.");
+      }
+   }
+}
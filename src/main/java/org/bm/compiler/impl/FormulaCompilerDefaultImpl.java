@@ -0,0 +1,160 @@
+package org.bm.compiler.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bm.analysis.exception.MathematicalAnalysisException;
+import org.bm.compiler.CompiledFormula;
+import org.bm.compiler.FormulaCompiler;
+import org.bm.compiler.OpCode;
+import org.bm.utils.FunctionRegistry;
+import org.bm.utils.Operator;
+import org.bm.utils.Symbol;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * @author morinb
+ */
+public class FormulaCompilerDefaultImpl implements FormulaCompiler {
+
+   /**
+    * The operators and functions the formulas may use.
+    */
+   private final FunctionRegistry registry;
+
+   /**
+    * The slot of each variable the formulas may use, or null to give the
+    * variables of each formula the slots following their first occurrence.
+    */
+   private final Map<String, Integer> layout;
+
+   private final String[] slots;
+
+   public FormulaCompilerDefaultImpl() {
+      this(FunctionRegistry.getDefault());
+   }
+
+   public FormulaCompilerDefaultImpl(FunctionRegistry registry) {
+      this.registry = registry;
+      this.layout = null;
+      this.slots = null;
+   }
+
+   /**
+    * Compile formulas whose variables have the given slots, so that they can
+    * all be evaluated with the same array or {@link org.bm.compiler.Bindings}.
+    *
+    * @param slots
+    *            the name of the variable of each slot.
+    */
+   public FormulaCompilerDefaultImpl(FunctionRegistry registry, String[] slots) {
+      this.registry = registry;
+      this.slots = slots.clone();
+      this.layout = new HashMap<>();
+      for (int i = 0; i < slots.length; i++) {
+         if (null != layout.put(slots[i], i)) {
+            throw new IllegalArgumentException("The variable " + slots[i] + " has more than one slot.");
+         }
+      }
+   }
+
+   @Override
+   public CompiledFormula compile(String formula, List<String> tokens) throws MathematicalAnalysisException {
+      int[] opcodes = new int[tokens.size()];
+      int[] operands = new int[tokens.size()];
+      List<Double> constants = new ArrayList<>();
+      List<String> variables = new ArrayList<>();
+
+      // Depth of the stack when the program will run, used to tell the
+      // substraction from the opposite operator as the analyzer does.
+      int depth = 0;
+      int maxDepth = 0;
+      int pc = 0;
+
+      for (String token : tokens) {
+         Symbol symbol = registry.get(token);
+
+         if (null != symbol) {
+            if (Operator.SUBSTRACTION == symbol.getOperator() && depth == Operator.OPPOSITE.getNbArgs()) {
+               symbol = registry.get(OpCode.OPPOSITE);
+            }
+            if (depth < symbol.getNbArgs()) {
+               throw new MathematicalAnalysisException("The " + (symbol.isOperator() ? "operator " : "function ")
+                  + symbol.getName() + " needs more arguments than the ones supplied.");
+            }
+            opcodes[pc] = symbol.getId();
+            depth = depth - symbol.getNbArgs() + 1;
+
+         } else if (isNumber(token)) {
+            opcodes[pc] = OpCode.CONSTANT;
+            operands[pc] = indexOf(constants, Double.valueOf(token));
+            depth++;
+
+         } else {
+            opcodes[pc] = OpCode.VARIABLE;
+            operands[pc] = slotOf(variables, token);
+            depth++;
+         }
+         maxDepth = Math.max(maxDepth, depth);
+         pc++;
+      }
+
+      if (depth != 1) {
+         throw new MathematicalAnalysisException("Some token are still on the stack, though all the formula has been analyzed.");
+      }
+
+      double[] values = new double[constants.size()];
+      for (int i = 0; i < values.length; i++) {
+         values[i] = constants.get(i);
+      }
+
+      String[] names = null == slots ? variables.toArray(new String[variables.size()]) : slots.clone();
+      return new CompiledFormula(formula, registry, opcodes, operands, values, names, maxDepth);
+   }
+
+   private int slotOf(List<String> variables, String token) throws MathematicalAnalysisException {
+      if (null == layout) {
+         return indexOf(variables, token);
+      }
+      Integer slot = layout.get(token);
+      if (null == slot) {
+         throw new MathematicalAnalysisException("The variable " + token + " has no slot.");
+      }
+      return slot;
+   }
+
+   private static <T> int indexOf(List<T> pool, T token) {
+      int index = pool.indexOf(token);
+      if (index < 0) {
+         index = pool.size();
+         pool.add(token);
+      }
+      return index;
+   }
+
+   private static boolean isNumber(String token) {
+      boolean isNumber;
+      try {
+         Double.parseDouble(token);
+         isNumber = true;
+      } catch (NumberFormatException nfe) {
+         isNumber = false;
+      }
+      return isNumber;
+   }
+}
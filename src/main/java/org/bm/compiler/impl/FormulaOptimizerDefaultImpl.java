@@ -0,0 +1,529 @@
+package org.bm.compiler.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.bm.compiler.CompiledFormula;
+import org.bm.compiler.FormulaOptimizer;
+import org.bm.compiler.OpCode;
+import org.bm.utils.FunctionRegistry;
+import org.bm.utils.Symbol;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Optimize the program of a formula by rewriting its expression:
+ * <ul>
+ * <li>sub formulas made of constants and pure functions are computed once,</li>
+ * <li>x^0 is 1, x^1 is x, and x^2 is x*x,</li>
+ * <li>x/c is x*(1/c) when c is a power of two, whose reciprocal is exact,</li>
+ * <li>x+(-0), x-0, x*1, x/1 and -(-x) are x, x*(-1) is -x, x-(-y) is x+y and
+ * x+(-y) is x-y.</li>
+ * </ul>
+ * Each rewriting gives the same double as the original operations for every
+ * value of x, including -0, infinities and NaN (whose sign bit is not
+ * meaningful): this is why x+0, which is +0 when x is -0, and 0*x, which is
+ * NaN when x is infinite, are kept.
+ *
+ * The expression is hash-consed into a directed acyclic graph, so that a sub
+ * formula written several times is a single node. Such a node, unless it is a
+ * constant or a variable, is computed once per evaluation: its value is then
+ * stored in a scratch slot (see {@link OpCode#STORE}) and loaded wherever it
+ * is used again. The sub formulas calling impure functions are never merged.
+ *
+ * @author morinb
+ */
+public class FormulaOptimizerDefaultImpl implements FormulaOptimizer {
+
+   private static final Logger logger = Logger.getLogger(FormulaOptimizerDefaultImpl.class);
+
+   private static final long NEGATIVE_ZERO_BITS = Double.doubleToRawLongBits(-0.0);
+
+   private static final long POSITIVE_ZERO_BITS = Double.doubleToRawLongBits(0.0);
+
+   private final boolean enableLogging;
+
+   public FormulaOptimizerDefaultImpl() {
+      this(false);
+   }
+
+   /**
+    * @param enableLogging
+    *            log the number of operations before and after optimization.
+    */
+   public FormulaOptimizerDefaultImpl(boolean enableLogging) {
+      this.enableLogging = enableLogging;
+   }
+
+   @Override
+   public CompiledFormula optimize(CompiledFormula formula) {
+      FunctionRegistry registry = formula.getRegistry();
+      int[] opcodes = formula.getOpcodes();
+      int[] operands = formula.getOperands();
+      double[] constants = formula.getConstants();
+
+      Dag dag = new Dag(registry);
+      Node[] stack = new Node[formula.getMaxDepth()];
+      Node[] slots = new Node[formula.getScratchSlots()];
+      int size = 0;
+      for (int pc = 0; pc < opcodes.length; pc++) {
+         switch (opcodes[pc]) {
+            case OpCode.CONSTANT:
+               stack[size++] = dag.constant(constants[operands[pc]]);
+               break;
+            case OpCode.VARIABLE:
+               stack[size++] = dag.variable(operands[pc]);
+               break;
+            case OpCode.LOAD:
+               stack[size++] = slots[operands[pc]];
+               break;
+            case OpCode.STORE:
+               slots[operands[pc]] = stack[size - 1];
+               break;
+            default: {
+               Symbol symbol = registry.get(opcodes[pc]);
+               Node[] children = new Node[symbol.getNbArgs()];
+               size -= children.length;
+               System.arraycopy(stack, size, children, 0, children.length);
+               stack[size++] = dag.simplify(dag.operation(symbol, children));
+               break;
+            }
+         }
+      }
+
+      Node root = stack[0];
+      root.use();
+      Program program = new Program(opcodes.length);
+      program.emit(root);
+
+      if (enableLogging) {
+         if (logger.isInfoEnabled()) {
+            logger.info("Formula : " + formula.getFormula() + " : " + countOperations(opcodes, opcodes.length)
+               + " operation(s) before optimization, " + countOperations(program.opcodes, program.length)
+               + " after, " + program.slots + " sub formula(s) shared.");
+         }
+      }
+      return program.toCompiledFormula(formula);
+   }
+
+   /**
+    * @return true if x/value is x*(1/value) for every x, i.e. value is a power
+    *         of two whose reciprocal is a normal double.
+    */
+   static boolean hasExactReciprocal(double value) {
+      if (Double.isNaN(value) || Double.isInfinite(value) || value == 0.0) {
+         return false;
+      }
+      boolean powerOfTwo = (Double.doubleToRawLongBits(value) & 0x000FFFFFFFFFFFFFL) == 0L
+         && Math.getExponent(value) >= Double.MIN_EXPONENT;
+      return powerOfTwo && Math.getExponent(1.0 / value) >= Double.MIN_EXPONENT;
+   }
+
+   /**
+    * @return the number of operators and functions of the program, the
+    *         instructions pushing or storing a value aside.
+    */
+   private static int countOperations(int[] opcodes, int length) {
+      int count = 0;
+      for (int pc = 0; pc < length; pc++) {
+         switch (opcodes[pc]) {
+            case OpCode.CONSTANT:
+            case OpCode.VARIABLE:
+            case OpCode.LOAD:
+            case OpCode.STORE:
+               break;
+            default:
+               count++;
+               break;
+         }
+      }
+      return count;
+   }
+
+   /**
+    * The nodes of an expression, each sub formula being created once.
+    */
+   private static final class Dag {
+      private final FunctionRegistry registry;
+
+      private final Map<Node, Node> nodes = new HashMap<>();
+
+      Dag(FunctionRegistry registry) {
+         this.registry = registry;
+      }
+
+      Node constant(double value) {
+         return intern(new Node(OpCode.CONSTANT, null, null, value, -1));
+      }
+
+      Node variable(int variable) {
+         return intern(new Node(OpCode.VARIABLE, null, null, 0.0, variable));
+      }
+
+      Node operation(Symbol symbol, Node... children) {
+         return intern(new Node(symbol.getId(), symbol, children, 0.0, -1));
+      }
+
+      Node operation(int id, Node... children) {
+         return operation(registry.get(id), children);
+      }
+
+      /**
+       * Rewrite a node whose children are already simplified.
+       */
+      Node simplify(Node node) {
+         Symbol symbol = node.symbol;
+         Node[] children = node.children;
+
+         if (symbol.isPure() && areConstants(children)) {
+            double[] args = new double[children.length];
+            for (int i = 0; i < args.length; i++) {
+               args[i] = children[i].value;
+            }
+            try {
+               return constant(symbol.compute(args, 0));
+            } catch (RuntimeException e) {
+               // Left to fail when the formula is evaluated.
+               return node;
+            }
+         }
+
+         switch (symbol.getId()) {
+            case OpCode.ADDITION:
+               if (children[1].isConstant(NEGATIVE_ZERO_BITS)) {
+                  return children[0];
+               }
+               if (children[0].isConstant(NEGATIVE_ZERO_BITS)) {
+                  return children[1];
+               }
+               if (children[1].is(OpCode.OPPOSITE)) {
+                  return simplify(operation(OpCode.SUBSTRACTION, children[0], children[1].children[0]));
+               }
+               break;
+
+            case OpCode.SUBSTRACTION:
+               if (children[1].isConstant(POSITIVE_ZERO_BITS)) {
+                  return children[0];
+               }
+               if (children[1].is(OpCode.OPPOSITE)) {
+                  return simplify(operation(OpCode.ADDITION, children[0], children[1].children[0]));
+               }
+               break;
+
+            case OpCode.OPPOSITE:
+               if (children[0].is(OpCode.OPPOSITE)) {
+                  return children[0].children[0];
+               }
+               break;
+
+            case OpCode.MULTIPLICATION:
+               if (children[1].isConstant(1.0)) {
+                  return children[0];
+               }
+               if (children[0].isConstant(1.0)) {
+                  return children[1];
+               }
+               if (children[1].isConstant(-1.0)) {
+                  return simplify(operation(OpCode.OPPOSITE, children[0]));
+               }
+               if (children[0].isConstant(-1.0)) {
+                  return simplify(operation(OpCode.OPPOSITE, children[1]));
+               }
+               break;
+
+            case OpCode.DIVISION:
+               if (children[1].isConstant() && hasExactReciprocal(children[1].value)) {
+                  return simplify(operation(OpCode.MULTIPLICATION, children[0], constant(1.0 / children[1].value)));
+               }
+               break;
+
+            case OpCode.POWER:
+               if (children[1].isConstant(POSITIVE_ZERO_BITS) || children[1].isConstant(NEGATIVE_ZERO_BITS)) {
+                  // Even NaN^0 is 1.
+                  return constant(1.0);
+               }
+               if (children[1].isConstant(1.0)) {
+                  return children[0];
+               }
+               if (children[1].isConstant(2.0)) {
+                  // x is shared, thus computed once.
+                  return operation(OpCode.MULTIPLICATION, children[0], children[0]);
+               }
+               break;
+
+            default:
+               break;
+         }
+         return node;
+      }
+
+      private Node intern(Node node) {
+         Node existing = nodes.get(node);
+         if (null == existing) {
+            nodes.put(node, node);
+            existing = node;
+         }
+         return existing;
+      }
+
+      private static boolean areConstants(Node[] nodes) {
+         for (Node node : nodes) {
+            if (!node.isConstant()) {
+               return false;
+            }
+         }
+         return true;
+      }
+   }
+
+   /**
+    * A node of the expression: a constant, a variable or an operation over its
+    * children. Two nodes are equal if they compute the same value: the same
+    * constant, the same variable, or the same pure operation over the same
+    * children.
+    */
+   private static final class Node {
+      private final int opcode;
+
+      private final Symbol symbol;
+
+      private final Node[] children;
+
+      private final double value;
+
+      private final int variable;
+
+      private final int hash;
+
+      /**
+       * The number of parents of the node, counted once the expression is
+       * built.
+       */
+      private int uses;
+
+      /**
+       * The scratch slot of a node used several times, once computed.
+       */
+      private int slot = -1;
+
+      Node(int opcode, Symbol symbol, Node[] children, double value, int variable) {
+         this.opcode = opcode;
+         this.symbol = symbol;
+         this.children = children;
+         this.value = value;
+         this.variable = variable;
+
+         long bits = Double.doubleToRawLongBits(value);
+         int h = 31 * opcode + (int) (bits ^ (bits >>> 32));
+         h = 31 * h + variable;
+         if (null != children) {
+            for (Node child : children) {
+               h = 31 * h + System.identityHashCode(child);
+            }
+         }
+         this.hash = h;
+      }
+
+      /**
+       * Count one more use of the node, and of its children the first time.
+       */
+      void use() {
+         Deque<Node> toVisit = new ArrayDeque<>();
+         toVisit.push(this);
+         while (!toVisit.isEmpty()) {
+            Node node = toVisit.pop();
+            if (node.uses++ == 0 && null != node.children) {
+               for (Node child : node.children) {
+                  toVisit.push(child);
+               }
+            }
+         }
+      }
+
+      boolean is(int id) {
+         return opcode == id;
+      }
+
+      boolean isLeaf() {
+         return null == children;
+      }
+
+      boolean isConstant() {
+         return opcode == OpCode.CONSTANT;
+      }
+
+      boolean isConstant(double constant) {
+         return isConstant() && value == constant;
+      }
+
+      boolean isConstant(long bits) {
+         return isConstant() && Double.doubleToRawLongBits(value) == bits;
+      }
+
+      @Override
+      public int hashCode() {
+         return hash;
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+         if (this == obj) {
+            return true;
+         }
+         if (!(obj instanceof Node)) {
+            return false;
+         }
+         Node other = (Node) obj;
+         if (opcode != other.opcode || variable != other.variable
+            || Double.doubleToRawLongBits(value) != Double.doubleToRawLongBits(other.value)) {
+            return false;
+         }
+         if (null == children) {
+            return null == other.children;
+         }
+         if (!symbol.isPure() || null == other.children || children.length != other.children.length) {
+            return false;
+         }
+         for (int i = 0; i < children.length; i++) {
+            if (children[i] != other.children[i]) {
+               return false;
+            }
+         }
+         return true;
+      }
+   }
+
+   /**
+    * The program being emitted from the expression.
+    */
+   private static final class Program {
+      private int[] opcodes;
+
+      private int[] operands;
+
+      private final List<Double> constants = new ArrayList<>();
+
+      private int length;
+
+      private int maxDepth;
+
+      private int slots;
+
+      Program(int capacity) {
+         opcodes = new int[capacity];
+         operands = new int[capacity];
+      }
+
+      /**
+       * Emit the expression in postfix order, loading the value of a node
+       * already computed. The nodes still being emitted are kept in a stack
+       * rather than in the call stack, as a chain may be very long.
+       */
+      void emit(Node root) {
+         Deque<Frame> frames = new ArrayDeque<>();
+         frames.push(new Frame(root, 0));
+         while (!frames.isEmpty()) {
+            Frame frame = frames.peek();
+            Node node = frame.node;
+            if (frame.next == 0) {
+               maxDepth = Math.max(maxDepth, frame.depth + 1);
+               if (node.isLeaf()) {
+                  add(node.opcode, node.isConstant() ? indexOf(node.value) : node.variable);
+                  frames.pop();
+                  continue;
+               }
+               if (node.slot >= 0) {
+                  add(OpCode.LOAD, node.slot);
+                  frames.pop();
+                  continue;
+               }
+            }
+            if (frame.next < node.children.length) {
+               frames.push(new Frame(node.children[frame.next], frame.depth + frame.next));
+               frame.next++;
+               continue;
+            }
+            add(node.opcode, 0);
+            if (node.uses > 1) {
+               node.slot = slots++;
+               add(OpCode.STORE, node.slot);
+            }
+            frames.pop();
+         }
+      }
+
+      CompiledFormula toCompiledFormula(CompiledFormula formula) {
+         double[] values = new double[constants.size()];
+         for (int i = 0; i < values.length; i++) {
+            values[i] = constants.get(i);
+         }
+         int[] finalOpcodes = new int[length];
+         int[] finalOperands = new int[length];
+         System.arraycopy(opcodes, 0, finalOpcodes, 0, length);
+         System.arraycopy(operands, 0, finalOperands, 0, length);
+         return new CompiledFormula(formula.getFormula(), formula.getRegistry(), finalOpcodes, finalOperands, values,
+            formula.getVariables(), maxDepth, slots);
+      }
+
+      private void add(int opcode, int operand) {
+         if (length == opcodes.length) {
+            int[] newOpcodes = new int[length * 2 + 1];
+            int[] newOperands = new int[length * 2 + 1];
+            System.arraycopy(opcodes, 0, newOpcodes, 0, length);
+            System.arraycopy(operands, 0, newOperands, 0, length);
+            opcodes = newOpcodes;
+            operands = newOperands;
+         }
+         opcodes[length] = opcode;
+         operands[length] = operand;
+         length++;
+      }
+
+      private int indexOf(double value) {
+         // Double.equals compares the bits, keeping -0 apart from 0.
+         int index = constants.indexOf(value);
+         if (index < 0) {
+            index = constants.size();
+            constants.add(value);
+         }
+         return index;
+      }
+   }
+
+   /**
+    * A node being emitted, with the index of its next child to emit.
+    */
+   private static final class Frame {
+      private final Node node;
+
+      /**
+       * The depth of the stack before the node is run.
+       */
+      private final int depth;
+
+      private int next;
+
+      Frame(Node node, int depth) {
+         this.node = node;
+         this.depth = depth;
+      }
+   }
+}
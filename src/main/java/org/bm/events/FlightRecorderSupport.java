@@ -0,0 +1,320 @@
+package org.bm.events;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.bm.compiler.archive.FormulaArchiveWriter;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * The access to the Java Flight Recorder, by reflection since it is not part
+ * of the Java 7 API: the events are created with jdk.jfr.EventFactory, and a
+ * jdk.jfr.FlightRecorderListener tells whether a recording is running. Whether
+ * each event type is enabled is read again when a recording starts or stops,
+ * so that nothing is done for the types no recording records. The methods of
+ * the events are called through method handles, looked up once.
+ *
+ * @author morinb
+ */
+final class FlightRecorderSupport {
+
+   private static final Logger logger = Logger.getLogger(FlightRecorderSupport.class);
+
+   private static volatile boolean recording;
+
+   private static Constructor<?> annotationElement;
+
+   private static Constructor<?> valueDescriptor;
+
+   private static Method create;
+
+   private static Method getEventType;
+
+   private static MethodHandle isEnabled;
+
+   private static MethodHandle newEvent;
+
+   private static MethodHandle begin;
+
+   private static MethodHandle end;
+
+   private static MethodHandle shouldCommit;
+
+   private static MethodHandle set;
+
+   private static MethodHandle commit;
+
+   /**
+    * The registered event types, whose flag is refreshed when a recording
+    * starts or stops.
+    */
+   private static final List<RecordedType> types = new ArrayList<>();
+
+   static {
+      if (!"false".equalsIgnoreCase(System.getProperty(FormulaEventType.EVENTS_PROPERTY))) {
+         try {
+            Class<?> annotationElementClass = Class.forName("jdk.jfr.AnnotationElement");
+            Class<?> valueDescriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+            Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+            Class<?> eventClass = Class.forName("jdk.jfr.Event");
+            Class<?> recorderClass = Class.forName("jdk.jfr.FlightRecorder");
+            Class<?> listenerClass = Class.forName("jdk.jfr.FlightRecorderListener");
+
+            annotationElement = annotationElementClass.getConstructor(Class.class, Object.class);
+            valueDescriptor = valueDescriptorClass.getConstructor(Class.class, String.class, List.class);
+            create = factoryClass.getMethod("create", List.class, List.class);
+            getEventType = factoryClass.getMethod("getEventType");
+
+            // Typed as (Object...) to be called exactly.
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            MethodType returnsVoid = MethodType.methodType(void.class, Object.class);
+            isEnabled = lookup.unreflect(Class.forName("jdk.jfr.EventType").getMethod("isEnabled")).asType(
+               MethodType.methodType(boolean.class, Object.class));
+            newEvent = lookup.unreflect(factoryClass.getMethod("newEvent")).asType(
+               MethodType.methodType(Object.class, Object.class));
+            begin = lookup.unreflect(eventClass.getMethod("begin")).asType(returnsVoid);
+            end = lookup.unreflect(eventClass.getMethod("end")).asType(returnsVoid);
+            shouldCommit = lookup.unreflect(eventClass.getMethod("shouldCommit")).asType(
+               MethodType.methodType(boolean.class, Object.class));
+            set = lookup.unreflect(eventClass.getMethod("set", int.class, Object.class)).asType(
+               MethodType.methodType(void.class, Object.class, int.class, Object.class));
+            commit = lookup.unreflect(eventClass.getMethod("commit")).asType(returnsVoid);
+
+            Object listener = Proxy.newProxyInstance(FlightRecorderSupport.class.getClassLoader(),
+               new Class<?>[] { listenerClass }, new RecordingListener(recorderClass));
+            recorderClass.getMethod("addListener", listenerClass).invoke(null, listener);
+         } catch (ClassNotFoundException e) {
+            logger.debug("The Flight Recorder is not available, the formulas will not be recorded.");
+            create = null;
+         } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.warn("The Flight Recorder cannot record the formulas.", e);
+            create = null;
+         }
+      }
+   }
+
+   private FlightRecorderSupport() {
+   }
+
+   /**
+    * Register an event type with a formula, its hash, a number of tokens and a
+    * number of variables.
+    *
+    * @param threshold
+    *            the default minimum duration of the events to record, i.e.
+    *            "100 us".
+    * @return the event type, null if the Flight Recorder is not available.
+    */
+   static RecordedType createType(String name, String label, String description, String threshold) {
+      if (null == create) {
+         return null;
+      }
+      try {
+         List<Object> annotations = new ArrayList<>();
+         annotations.add(annotation("jdk.jfr.Name", name));
+         annotations.add(annotation("jdk.jfr.Label", label));
+         annotations.add(annotation("jdk.jfr.Description", description));
+         annotations.add(annotation("jdk.jfr.Category", new String[] { "java-compute" }));
+         annotations.add(annotation("jdk.jfr.Threshold", threshold));
+
+         List<Object> fields = new ArrayList<>();
+         fields.add(field(String.class, "formula", "Formula"));
+         fields.add(field(long.class, "formulaHash", "Formula Hash"));
+         fields.add(field(int.class, "tokenCount", "Token Count"));
+         fields.add(field(int.class, "variableCount", "Variable Count"));
+
+         Object factory = create.invoke(null, annotations, fields);
+         RecordedType type = new RecordedType(factory, getEventType.invoke(factory));
+         synchronized (types) {
+            types.add(type);
+            type.refresh();
+         }
+         return type;
+      } catch (ReflectiveOperationException | RuntimeException e) {
+         logger.warn("The event " + name + " cannot be registered.", e);
+         return null;
+      }
+   }
+
+   /**
+    * @return a new jdk.jfr.Event, begun.
+    */
+   static Object begin(RecordedType type) {
+      try {
+         Object event = (Object) newEvent.invokeExact(type.factory);
+         begin.invokeExact(event);
+         return event;
+      } catch (RuntimeException | Error e) {
+         throw e;
+      } catch (Throwable e) {
+         throw new IllegalStateException(e);
+      }
+   }
+
+   /**
+    * End the event and commit it, unless it is disabled or shorter than its
+    * threshold.
+    */
+   static void commit(Object event, String formula, int tokenCount, int variableCount) {
+      try {
+         end.invokeExact(event);
+         if ((boolean) shouldCommit.invokeExact(event)) {
+            set.invokeExact(event, 0, (Object) formula);
+            set.invokeExact(event, 1, (Object) FormulaArchiveWriter.hash(formula));
+            set.invokeExact(event, 2, (Object) tokenCount);
+            set.invokeExact(event, 3, (Object) variableCount);
+            commit.invokeExact(event);
+         }
+      } catch (RuntimeException | Error e) {
+         throw e;
+      } catch (Throwable e) {
+         throw new IllegalStateException(e);
+      }
+   }
+
+   private static Object annotation(String type, Object value) throws ReflectiveOperationException {
+      return annotationElement.newInstance(Class.forName(type).asSubclass(Annotation.class), value);
+   }
+
+   private static Object field(Class<?> type, String name, String label) throws ReflectiveOperationException {
+      List<Object> annotations = Arrays.asList(annotation("jdk.jfr.Label", label));
+      return valueDescriptor.newInstance(type, name, annotations);
+   }
+
+   /**
+    * Read again whether each event type is enabled.
+    */
+   private static void refreshTypes() {
+      synchronized (types) {
+         for (RecordedType type : types) {
+            type.refresh();
+         }
+      }
+   }
+
+   /**
+    * An event type, with whether a running recording records it.
+    */
+   static final class RecordedType {
+
+      /**
+       * The jdk.jfr.EventFactory of the events.
+       */
+      private final Object factory;
+
+      /**
+       * The jdk.jfr.EventType of the events.
+       */
+      private final Object eventType;
+
+      private volatile boolean enabled;
+
+      private RecordedType(Object factory, Object eventType) {
+         this.factory = factory;
+         this.eventType = eventType;
+      }
+
+      /**
+       * @return true if a running recording records the events of the type.
+       */
+      boolean isEnabled() {
+         return enabled;
+      }
+
+      private void refresh() {
+         try {
+            enabled = recording && (boolean) isEnabled.invokeExact(eventType);
+         } catch (RuntimeException | Error e) {
+            throw e;
+         } catch (Throwable e) {
+            throw new IllegalStateException(e);
+         }
+      }
+   }
+
+   /**
+    * Keep the identifiers of the running recordings.
+    */
+   private static final class RecordingListener implements InvocationHandler {
+
+      private final Set<Object> running = new HashSet<>();
+
+      private final Method getRecordings;
+
+      private final Method getId;
+
+      private final Method getState;
+
+      RecordingListener(Class<?> recorderClass) throws ReflectiveOperationException {
+         Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+         getRecordings = recorderClass.getMethod("getRecordings");
+         getId = recordingClass.getMethod("getId");
+         getState = recordingClass.getMethod("getState");
+      }
+
+      @Override
+      public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+         try {
+            switch (method.getName()) {
+            case "recorderInitialized":
+               for (Object recording : (List<?>) getRecordings.invoke(args[0])) {
+                  update(recording);
+               }
+               return null;
+            case "recordingStateChanged":
+               update(args[0]);
+               return null;
+            case "hashCode":
+               return System.identityHashCode(proxy);
+            case "equals":
+               return proxy == args[0];
+            case "toString":
+               return "FormulaEvents listener";
+            default:
+               return null;
+            }
+         } catch (InvocationTargetException e) {
+            throw e.getCause();
+         }
+      }
+
+      private void update(Object recording) throws ReflectiveOperationException {
+         Object id = getId.invoke(recording);
+         String state = String.valueOf(getState.invoke(recording));
+         if ("RUNNING".equals(state)) {
+            running.add(id);
+         } else {
+            running.remove(id);
+         }
+         FlightRecorderSupport.recording = !running.isEmpty();
+         refreshTypes();
+      }
+   }
+}
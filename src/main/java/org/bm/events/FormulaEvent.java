@@ -0,0 +1,46 @@
+package org.bm.events;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * An event begun by {@link FormulaEventType#begin()}.
+ *
+ * @author morinb
+ */
+public final class FormulaEvent {
+
+   /**
+    * The jdk.jfr.Event.
+    */
+   private final Object event;
+
+   FormulaEvent(Object event) {
+      this.event = event;
+   }
+
+   /**
+    * End the event and record it, if it lasted longer than the threshold of
+    * its type.
+    *
+    * @param tokenCount
+    *            the number of tokens of the formula in postfix notation.
+    * @param variableCount
+    *            the number of variables of the formula.
+    */
+   public void commit(String formula, int tokenCount, int variableCount) {
+      FlightRecorderSupport.commit(event, formula, tokenCount, variableCount);
+   }
+}
@@ -0,0 +1,92 @@
+package org.bm.events;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * The Java Flight Recorder events of the computation of the formulas, named
+ * org.bm.FormulaParse, org.bm.FormulaCompile, org.bm.FormulaEvaluate and
+ * org.bm.FormulaCacheMiss. Each one gives the formula, its hash (see
+ * {@link org.bm.compiler.archive.FormulaArchiveWriter#hash(String)}), its
+ * number of tokens and of variables, and its duration. Only the events longer
+ * than their threshold are recorded: it can be changed by the recording
+ * settings, or its default by the system property
+ * "org.bm.events.&lt;name&gt;.threshold", i.e.
+ * -Dorg.bm.events.FormulaEvaluate.threshold="1 ms".
+ *
+ * <pre>
+ * FormulaEvent event = FormulaEventType.PARSE.begin();
+ * List&lt;String&gt; tokens = parser.parse(formula);
+ * if (null != event) {
+ *    event.commit(formula, tokens.size(), 0);
+ * }
+ * </pre>
+ *
+ * While no running recording records the events of a type, {@link #begin()}
+ * only reads a volatile field.
+ *
+ * @author morinb
+ */
+public enum FormulaEventType {
+   PARSE("FormulaParse", "Formula Parse", "The conversion of a formula to postfix notation.", "100 us"),
+
+   COMPILE("FormulaCompile", "Formula Compile", "The compilation and optimization of a formula.", "100 us"),
+
+   EVALUATE("FormulaEvaluate", "Formula Evaluate", "The evaluation of a formula.", "10 us"),
+
+   CACHE_MISS("FormulaCacheMiss", "Formula Cache Miss", "The compilation of a formula missing from the cache.",
+      "0 ns");
+
+   /**
+    * The system property which, if false, prevents the events from being
+    * registered.
+    */
+   public static final String EVENTS_PROPERTY = "org.bm.events";
+
+   private final String name;
+
+   /**
+    * The registered type of the events, null if the Flight Recorder is not
+    * available.
+    */
+   private final FlightRecorderSupport.RecordedType type;
+
+   private FormulaEventType(String name, String label, String description, String threshold) {
+      this.name = "org.bm." + name;
+      this.type = FlightRecorderSupport.createType(this.name, label, description,
+         System.getProperty(EVENTS_PROPERTY + "." + name + ".threshold", threshold));
+   }
+
+   /**
+    * @return the name of the events in the recordings, i.e.
+    *         "org.bm.FormulaParse".
+    */
+   public String getName() {
+      return name;
+   }
+
+   /**
+    * Start an event.
+    *
+    * @return the event, to commit once done, or null if no running recording
+    *         records the events of this type.
+    */
+   public FormulaEvent begin() {
+      if (null == type || !type.isEnabled()) {
+         return null;
+      }
+      return new FormulaEvent(FlightRecorderSupport.begin(type));
+   }
+}
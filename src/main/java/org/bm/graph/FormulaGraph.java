@@ -0,0 +1,445 @@
+package org.bm.graph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.bm.FormulaCompute;
+import org.bm.analysis.exception.MathematicalAnalysisException;
+import org.bm.compiler.CompiledFormula;
+import org.bm.parser.lexer.Lexer;
+import org.bm.parser.lexer.TokenType;
+import org.bm.utils.FunctionRegistry;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * A workspace of named values, each one either an input or a formula of other
+ * names, like the cells of a spreadsheet.
+ *
+ * The graph knows which formulas depend on which names: changing a value only
+ * marks the formulas depending on it, directly or not, as dirty. They are
+ * computed again when read ({@link #get(String)}), or all at once in
+ * dependency order by {@link #recompute()}, the independent ones possibly in
+ * parallel. The cost of a change is thus bound to the formulas it affects,
+ * not to the size of the workspace.
+ *
+ * A formula which would depend on itself is rejected.
+ *
+ * A graph is not thread-safe.
+ *
+ * @author morinb
+ */
+public class FormulaGraph {
+
+   private final FunctionRegistry registry;
+
+   private final Map<String, Node> nodes = new HashMap<>();
+
+   /**
+    * The dirty formulas. A formula is dirty if it, or one of the names it
+    * depends on, changed since it was last computed: all the formulas
+    * depending on a dirty one are dirty too.
+    */
+   private final Set<Node> dirty = new LinkedHashSet<>();
+
+   public FormulaGraph() {
+      this(FunctionRegistry.getDefault());
+   }
+
+   public FormulaGraph(FunctionRegistry registry) {
+      this.registry = registry;
+   }
+
+   /**
+    * Set every value of the map, as {@link #set(String, String)} does.
+    *
+    * @throws MathematicalAnalysisException
+    *             if a formula cannot be compiled, or if the formulas form a
+    *             cycle.
+    */
+   public void setAll(Map<String, String> values) throws MathematicalAnalysisException {
+      for (Map.Entry<String, String> value : values.entrySet()) {
+         set(value.getKey(), value.getValue());
+      }
+   }
+
+   /**
+    * Set the value of a name to a number, or to a formula.
+    *
+    * @throws MathematicalAnalysisException
+    *             if the formula cannot be compiled, or if it depends on the
+    *             name itself.
+    */
+   public void set(String name, String value) throws MathematicalAnalysisException {
+      Lexer lexer = new Lexer(value, registry);
+      if (TokenType.NUMBER == lexer.next() && TokenType.END == lexer.next()) {
+         set(name, lexer.getNumber());
+      } else {
+         define(name, FormulaCompute.getCache().get(value, registry));
+      }
+   }
+
+   /**
+    * Set the value of an input. The formulas depending on it are marked
+    * dirty, unless the value did not change.
+    */
+   public void set(String name, double value) {
+      Node node = nodeOf(name);
+      boolean changed = null != node.formula || !node.defined
+         || Double.doubleToLongBits(node.value) != Double.doubleToLongBits(value);
+      detach(node);
+      node.value = value;
+      node.defined = true;
+      if (changed) {
+         markDependents(node);
+      }
+   }
+
+   /**
+    * @return the value of the name, computing it and the formulas it depends
+    *         on if dirty.
+    * @throws MathematicalAnalysisException
+    *             if a name it depends on has no value.
+    */
+   public double get(String name) throws MathematicalAnalysisException {
+      Node node = nodes.get(name);
+      if (null == node || !node.defined) {
+         throw new MathematicalAnalysisException("The variable " + name + " has no value.");
+      }
+      if (node.dirty) {
+         compute(node);
+      }
+      return node.value;
+   }
+
+   public boolean isDirty(String name) {
+      Node node = nodes.get(name);
+      return null != node && node.dirty;
+   }
+
+   /**
+    * @return the number of dirty formulas.
+    */
+   public int getDirtyCount() {
+      return dirty.size();
+   }
+
+   /**
+    * @return the names the formula of the name depends on, empty for an input.
+    */
+   public List<String> getDependencies(String name) {
+      Node node = nodes.get(name);
+      if (null == node || null == node.formula) {
+         return Collections.emptyList();
+      }
+      List<String> dependencies = new ArrayList<>();
+      for (Node dependency : node.dependencies) {
+         dependencies.add(dependency.name);
+      }
+      return dependencies;
+   }
+
+   /**
+    * Compute every dirty formula, in dependency order.
+    *
+    * @throws MathematicalAnalysisException
+    *             if a name a formula depends on has no value.
+    */
+   public void recompute() throws MathematicalAnalysisException {
+      for (List<Node> wave : waves()) {
+         for (Node node : wave) {
+            evaluate(node);
+            dirty.remove(node);
+         }
+      }
+   }
+
+   /**
+    * Compute every dirty formula, in dependency order: the formulas which do
+    * not depend on each other are computed in parallel by the executor.
+    *
+    * @throws MathematicalAnalysisException
+    *             if a name a formula depends on has no value.
+    */
+   public void recompute(ExecutorService executor) throws MathematicalAnalysisException {
+      for (List<Node> wave : waves()) {
+         if (wave.size() == 1) {
+            evaluate(wave.get(0));
+            dirty.remove(wave.get(0));
+            continue;
+         }
+         List<Callable<Void>> tasks = new ArrayList<>(wave.size());
+         for (final Node node : wave) {
+            tasks.add(new Callable<Void>() {
+               @Override
+               public Void call() throws MathematicalAnalysisException {
+                  evaluate(node);
+                  return null;
+               }
+            });
+         }
+         try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+               future.get();
+            }
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MathematicalAnalysisException("Interrupted while computing the formulas.", e);
+         } catch (ExecutionException e) {
+            if (e.getCause() instanceof MathematicalAnalysisException) {
+               throw (MathematicalAnalysisException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+         }
+         dirty.removeAll(wave);
+      }
+   }
+
+   private void define(String name, CompiledFormula formula) throws MathematicalAnalysisException {
+      Node node = nodeOf(name);
+      String[] variables = formula.getVariables();
+      int[] slots = formula.getUsedSlots();
+      Node[] dependencies = new Node[slots.length];
+      for (int i = 0; i < slots.length; i++) {
+         dependencies[i] = nodeOf(variables[slots[i]]);
+      }
+      checkCycle(node, dependencies);
+
+      detach(node);
+      node.formula = formula;
+      node.dependencies = dependencies;
+      node.slots = slots;
+      node.arguments = new double[variables.length];
+      node.defined = true;
+      for (Node dependency : dependencies) {
+         dependency.dependents.add(node);
+      }
+      markDirty(node);
+      markDependents(node);
+   }
+
+   /**
+    * @throws MathematicalAnalysisException
+    *             if the node is one of the dependencies, or one of the names
+    *             they depend on.
+    */
+   private void checkCycle(Node node, Node[] dependencies) throws MathematicalAnalysisException {
+      Map<Node, Node> reachedFrom = new HashMap<>();
+      Deque<Node> toVisit = new ArrayDeque<>();
+      for (Node dependency : dependencies) {
+         if (!reachedFrom.containsKey(dependency)) {
+            reachedFrom.put(dependency, node);
+            toVisit.push(dependency);
+         }
+      }
+      while (!toVisit.isEmpty()) {
+         Node current = toVisit.pop();
+         if (current == node) {
+            // Back from the node to itself, through the names depending on it.
+            StringBuilder cycle = new StringBuilder(node.name);
+            for (Node from = reachedFrom.get(node); from != node; from = reachedFrom.get(from)) {
+               cycle.insert(0, from.name + " -> ");
+            }
+            throw new MathematicalAnalysisException("The variables " + node.name + " -> " + cycle
+               + " are defined in a cycle.");
+         }
+         if (null != current.formula) {
+            for (Node dependency : current.dependencies) {
+               if (!reachedFrom.containsKey(dependency)) {
+                  reachedFrom.put(dependency, current);
+                  toVisit.push(dependency);
+               }
+            }
+         }
+      }
+   }
+
+   private Node nodeOf(String name) {
+      Node node = nodes.get(name);
+      if (null == node) {
+         node = new Node(name);
+         nodes.put(name, node);
+      }
+      return node;
+   }
+
+   /**
+    * Make the node an input, no longer depending on other names.
+    */
+   private void detach(Node node) {
+      if (null != node.formula) {
+         for (Node dependency : node.dependencies) {
+            dependency.dependents.remove(node);
+         }
+         node.formula = null;
+         node.dependencies = null;
+         node.slots = null;
+         node.arguments = null;
+      }
+      if (node.dirty) {
+         node.dirty = false;
+         dirty.remove(node);
+      }
+   }
+
+   private void markDirty(Node node) {
+      node.dirty = true;
+      dirty.add(node);
+   }
+
+   /**
+    * Mark dirty the formulas depending on the node, stopping at the dirty
+    * ones, whose dependents are already dirty.
+    */
+   private void markDependents(Node node) {
+      Deque<Node> toVisit = new ArrayDeque<>(node.dependents);
+      while (!toVisit.isEmpty()) {
+         Node dependent = toVisit.pop();
+         if (!dependent.dirty) {
+            markDirty(dependent);
+            toVisit.addAll(dependent.dependents);
+         }
+      }
+   }
+
+   /**
+    * Compute the node after the dirty formulas it depends on.
+    */
+   private void compute(Node node) throws MathematicalAnalysisException {
+      Deque<Node> path = new ArrayDeque<>();
+      path.push(node);
+      while (!path.isEmpty()) {
+         Node current = path.peek();
+         Node dirtyDependency = null;
+         for (Node dependency : current.dependencies) {
+            if (dependency.dirty) {
+               dirtyDependency = dependency;
+               break;
+            }
+         }
+         if (null == dirtyDependency) {
+            evaluate(current);
+            dirty.remove(current);
+            path.pop();
+         } else {
+            path.push(dirtyDependency);
+         }
+      }
+   }
+
+   /**
+    * @return the dirty formulas, split in waves: the formulas of a wave only
+    *         depend on the ones of the previous waves.
+    */
+   private List<List<Node>> waves() {
+      Map<Node, Integer> pending = new HashMap<>();
+      List<Node> wave = new ArrayList<>();
+      for (Node node : dirty) {
+         int count = 0;
+         for (Node dependency : node.dependencies) {
+            if (dependency.dirty) {
+               count++;
+            }
+         }
+         pending.put(node, count);
+         if (count == 0) {
+            wave.add(node);
+         }
+      }
+
+      List<List<Node>> waves = new ArrayList<>();
+      while (!wave.isEmpty()) {
+         waves.add(wave);
+         List<Node> next = new ArrayList<>();
+         for (Node node : wave) {
+            for (Node dependent : node.dependents) {
+               int left = pending.get(dependent) - 1;
+               pending.put(dependent, left);
+               if (left == 0) {
+                  next.add(dependent);
+               }
+            }
+         }
+         wave = next;
+      }
+      return waves;
+   }
+
+   /**
+    * Compute the formula of a node whose dependencies are computed.
+    */
+   private void evaluate(Node node) throws MathematicalAnalysisException {
+      Node[] dependencies = node.dependencies;
+      for (int i = 0; i < dependencies.length; i++) {
+         if (!dependencies[i].defined) {
+            throw new MathematicalAnalysisException("The variable " + dependencies[i].name + " has no value.");
+         }
+         node.arguments[node.slots[i]] = dependencies[i].value;
+      }
+      node.value = node.formula.evaluate(node.arguments);
+      node.dirty = false;
+   }
+
+   /**
+    * A name of the workspace.
+    */
+   private static final class Node {
+      private final String name;
+
+      /**
+       * The names whose formula depends on this one.
+       */
+      private final List<Node> dependents = new ArrayList<>();
+
+      /**
+       * The formula of the name, null for an input.
+       */
+      private CompiledFormula formula;
+
+      /**
+       * The nodes of the variables the formula reads.
+       */
+      private Node[] dependencies;
+
+      /**
+       * The slot of each dependency in the arguments of the formula.
+       */
+      private int[] slots;
+
+      private double[] arguments;
+
+      private double value;
+
+      private boolean defined;
+
+      private boolean dirty;
+
+      Node(String name) {
+         this.name = name;
+      }
+   }
+}
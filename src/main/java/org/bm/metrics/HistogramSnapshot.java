@@ -0,0 +1,82 @@
+package org.bm.metrics;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * The values of a {@link LatencyHistogram} at a point in time.
+ *
+ * @author morinb
+ */
+public final class HistogramSnapshot {
+
+   private final long[] counts;
+
+   private final long count;
+
+   private final long total;
+
+   HistogramSnapshot(long[] counts, long total) {
+      this.counts = counts;
+      this.total = total;
+      long sum = 0;
+      for (long bucket : counts) {
+         sum += bucket;
+      }
+      this.count = sum;
+   }
+
+   public long getCount() {
+      return count;
+   }
+
+   /**
+    * @return the mean duration, in nanoseconds, or 0 if nothing was recorded.
+    */
+   public double getMean() {
+      return count == 0 ? 0 : (double) total / count;
+   }
+
+   /**
+    * @param percentile
+    *            between 0 and 100.
+    * @return the duration, in nanoseconds, that the given percentage of the
+    *         durations do not exceed, within 3 %; 0 if nothing was recorded.
+    */
+   public long getValueAtPercentile(double percentile) {
+      if (count == 0) {
+         return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100));
+      long seen = 0;
+      for (int bucket = 0; bucket < counts.length; bucket++) {
+         seen += counts[bucket];
+         if (seen >= rank) {
+            return LatencyHistogram.highestValue(bucket);
+         }
+      }
+      return LatencyHistogram.highestValue(counts.length - 1);
+   }
+
+   public long getMax() {
+      return getValueAtPercentile(100);
+   }
+
+   @Override
+   public String toString() {
+      return "count=" + count + " mean=" + Math.round(getMean()) + "ns p50=" + getValueAtPercentile(50) + "ns p90="
+         + getValueAtPercentile(90) + "ns p99=" + getValueAtPercentile(99) + "ns max=" + getMax() + "ns";
+   }
+}
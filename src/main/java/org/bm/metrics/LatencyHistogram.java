@@ -0,0 +1,104 @@
+package org.bm.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * A distribution of durations in nanoseconds, recorded without lock. As in
+ * HdrHistogram, each power of two is split into 32 buckets, so that a value is
+ * known within 3 %, from 1 ns to about 18 minutes, above which the values
+ * are counted in the last bucket.
+ *
+ * @author morinb
+ */
+public final class LatencyHistogram {
+
+   private static final int SUB_BUCKET_BITS = 5;
+
+   private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+   /**
+    * The highest power of two recorded: 2^40 ns.
+    */
+   private static final int MAX_EXPONENT = 40;
+
+   static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+   private final int stripes;
+
+   private final AtomicLongArray counts;
+
+   private final StripedCounter total = new StripedCounter();
+
+   /**
+    * @param striped
+    *            whether to keep a histogram per few threads, so that threads
+    *            recording the same values do not contend, at the cost of more
+    *            memory.
+    */
+   public LatencyHistogram(boolean striped) {
+      this.stripes = striped ? StripedCounter.stripes(4) : 1;
+      this.counts = new AtomicLongArray(stripes * BUCKETS);
+   }
+
+   public void record(long nanos) {
+      int stripe = stripes == 1 ? 0 : StripedCounter.stripe(stripes);
+      counts.getAndIncrement(stripe * BUCKETS + bucket(nanos));
+      total.add(nanos);
+   }
+
+   public HistogramSnapshot snapshot() {
+      long[] merged = new long[BUCKETS];
+      for (int stripe = 0; stripe < stripes; stripe++) {
+         for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            merged[bucket] += counts.get(stripe * BUCKETS + bucket);
+         }
+      }
+      return new HistogramSnapshot(merged, total.sum());
+   }
+
+   public void reset() {
+      for (int i = 0; i < counts.length(); i++) {
+         counts.set(i, 0);
+      }
+      total.reset();
+   }
+
+   static int bucket(long value) {
+      if (value < SUB_BUCKETS) {
+         return (int) Math.max(0, value);
+      }
+      int exponent = 63 - Long.numberOfLeadingZeros(value);
+      if (exponent > MAX_EXPONENT) {
+         return BUCKETS - 1;
+      }
+      int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+      return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+   }
+
+   /**
+    * @return the highest value counted in the bucket.
+    */
+   static long highestValue(int bucket) {
+      if (bucket < SUB_BUCKETS) {
+         return bucket;
+      }
+      int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+      long subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+      return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+   }
+}
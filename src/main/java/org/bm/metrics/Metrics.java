@@ -0,0 +1,213 @@
+package org.bm.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.bm.analysis.exception.MathematicalAnalysisException;
+import org.bm.metrics.impl.MetricsMXBeanImpl;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Count and time the stages of the computation of the formulas (see
+ * {@link Stage}), globally and, on demand, formula by formula. Recording
+ * takes no lock and allocates nothing, so that the metrics can stay enabled:
+ * they are unless the system property {@value #METRICS_PROPERTY} is false.
+ *
+ * <pre>
+ * long start = metrics.start();
+ * List&lt;String&gt; tokens = parser.parse(formula);
+ * metrics.record(Stage.PARSE, formula, start);
+ * </pre>
+ *
+ * @author morinb
+ */
+public final class Metrics {
+   public static final String METRICS_PROPERTY = "org.bm.metrics";
+
+   /**
+    * The system property which enables the metrics of each formula.
+    */
+   public static final String PER_FORMULA_PROPERTY = "org.bm.metrics.perFormula";
+
+   /**
+    * The maximum number of formulas measured one by one. The formulas seen
+    * once this number is reached are only measured globally.
+    */
+   public static final int MAX_FORMULAS = 256;
+
+   public static final String OBJECT_NAME = "org.bm:type=Metrics";
+
+   private static final Metrics DEFAULT = new Metrics(!"false".equalsIgnoreCase(System.getProperty(METRICS_PROPERTY)),
+      Boolean.getBoolean(PER_FORMULA_PROPERTY));
+
+   private final Map<Stage, StageMetrics> stages = new EnumMap<>(Stage.class);
+
+   private final ConcurrentMap<String, AtomicReferenceArray<StageMetrics>> formulas = new ConcurrentHashMap<>();
+
+   private volatile boolean enabled;
+
+   private volatile boolean perFormula;
+
+   public Metrics(boolean enabled, boolean perFormula) {
+      this.enabled = enabled;
+      this.perFormula = perFormula;
+      for (Stage stage : Stage.values()) {
+         stages.put(stage, new StageMetrics(true));
+      }
+   }
+
+   /**
+    * @return the metrics of {@link org.bm.FormulaCompute}.
+    */
+   public static Metrics getDefault() {
+      return DEFAULT;
+   }
+
+   public boolean isEnabled() {
+      return enabled;
+   }
+
+   public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+   }
+
+   public boolean isPerFormula() {
+      return perFormula;
+   }
+
+   public void setPerFormula(boolean perFormula) {
+      this.perFormula = perFormula;
+   }
+
+   /**
+    * @return the start of a stage, to give to
+    *         {@link #record(Stage, String, long)}, or 0 if the metrics are
+    *         disabled.
+    */
+   public long start() {
+      return enabled ? System.nanoTime() : 0;
+   }
+
+   /**
+    * Record a stage which ran without error.
+    *
+    * @param formula
+    *            the formula, to measure it alone if the metrics are per
+    *            formula.
+    * @param start
+    *            given by {@link #start()}.
+    */
+   public void record(Stage stage, String formula, long start) {
+      if (start == 0 || !enabled) {
+         return;
+      }
+      long nanos = System.nanoTime() - start;
+      stages.get(stage).record(nanos);
+      StageMetrics metrics = formulaMetrics(stage, formula);
+      if (null != metrics) {
+         metrics.record(nanos);
+      }
+   }
+
+   /**
+    * Record a stage which failed.
+    */
+   public void recordError(Stage stage, String formula, MathematicalAnalysisException e) {
+      if (!enabled) {
+         return;
+      }
+      stages.get(stage).recordError(e);
+      StageMetrics metrics = formulaMetrics(stage, formula);
+      if (null != metrics) {
+         metrics.recordError(e);
+      }
+   }
+
+   public MetricsSnapshot snapshot() {
+      Map<Stage, StageSnapshot> stageSnapshots = new EnumMap<>(Stage.class);
+      for (Map.Entry<Stage, StageMetrics> entry : stages.entrySet()) {
+         stageSnapshots.put(entry.getKey(), entry.getValue().snapshot());
+      }
+
+      Map<String, Map<Stage, StageSnapshot>> formulaSnapshots = new HashMap<>();
+      for (Map.Entry<String, AtomicReferenceArray<StageMetrics>> entry : formulas.entrySet()) {
+         Map<Stage, StageSnapshot> snapshots = new EnumMap<>(Stage.class);
+         for (Stage stage : Stage.values()) {
+            StageMetrics metrics = entry.getValue().get(stage.ordinal());
+            if (null != metrics) {
+               snapshots.put(stage, metrics.snapshot());
+            }
+         }
+         formulaSnapshots.put(entry.getKey(), Collections.unmodifiableMap(snapshots));
+      }
+      return new MetricsSnapshot(Collections.unmodifiableMap(stageSnapshots),
+         Collections.unmodifiableMap(formulaSnapshots));
+   }
+
+   public void reset() {
+      for (StageMetrics metrics : stages.values()) {
+         metrics.reset();
+      }
+      formulas.clear();
+   }
+
+   /**
+    * Expose the metrics through JMX, as a {@link MetricsMXBean}.
+    */
+   public void registerMBean(ObjectName name) throws JMException {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMXBeanImpl(this), name);
+   }
+
+   /**
+    * Expose the metrics through JMX, under the name {@value #OBJECT_NAME}.
+    */
+   public void registerMBean() throws JMException {
+      registerMBean(new ObjectName(OBJECT_NAME));
+   }
+
+   private StageMetrics formulaMetrics(Stage stage, String formula) {
+      if (!perFormula || null == formula) {
+         return null;
+      }
+      AtomicReferenceArray<StageMetrics> metrics = formulas.get(formula);
+      if (null == metrics) {
+         if (formulas.size() >= MAX_FORMULAS) {
+            return null;
+         }
+         AtomicReferenceArray<StageMetrics> created = new AtomicReferenceArray<>(Stage.values().length);
+         metrics = formulas.putIfAbsent(formula, created);
+         if (null == metrics) {
+            metrics = created;
+         }
+      }
+      StageMetrics stageMetrics = metrics.get(stage.ordinal());
+      if (null == stageMetrics) {
+         metrics.compareAndSet(stage.ordinal(), null, new StageMetrics(false));
+         stageMetrics = metrics.get(stage.ordinal());
+      }
+      return stageMetrics;
+   }
+}
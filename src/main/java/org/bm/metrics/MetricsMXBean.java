@@ -0,0 +1,65 @@
+package org.bm.metrics;
+
+import java.util.Map;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * The view of {@link Metrics} through JMX. The maps are by stage.
+ *
+ * @author morinb
+ */
+public interface MetricsMXBean {
+
+   boolean isEnabled();
+
+   void setEnabled(boolean enabled);
+
+   boolean isPerFormula();
+
+   void setPerFormula(boolean perFormula);
+
+   Map<String, Long> getCounts();
+
+   /**
+    * @return the number of failures by stage and cause, i.e.
+    *         "PARSE MathematicalAnalysisException".
+    */
+   Map<String, Long> getErrorCounts();
+
+   /**
+    * @return the mean durations, in nanoseconds.
+    */
+   Map<String, Double> getMeanLatencies();
+
+   /**
+    * @return the 99th percentile of the durations, in nanoseconds.
+    */
+   Map<String, Long> getP99Latencies();
+
+   /**
+    * @return the given percentile of the durations of the stage, in
+    *         nanoseconds.
+    */
+   long getLatency(String stage, double percentile);
+
+   /**
+    * @return the count, failures and durations of each stage, one per line.
+    */
+   String getSummary();
+
+   void reset();
+}
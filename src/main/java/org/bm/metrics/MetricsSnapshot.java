@@ -0,0 +1,61 @@
+package org.bm.metrics;
+
+import java.util.Map;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * The measures of all the stages at a point in time, and of each formula if
+ * they are measured one by one.
+ *
+ * @author morinb
+ */
+public final class MetricsSnapshot {
+
+   private final Map<Stage, StageSnapshot> stages;
+
+   private final Map<String, Map<Stage, StageSnapshot>> formulas;
+
+   MetricsSnapshot(Map<Stage, StageSnapshot> stages, Map<String, Map<Stage, StageSnapshot>> formulas) {
+      this.stages = stages;
+      this.formulas = formulas;
+   }
+
+   public StageSnapshot getStage(Stage stage) {
+      return stages.get(stage);
+   }
+
+   public Map<Stage, StageSnapshot> getStages() {
+      return stages;
+   }
+
+   /**
+    * @return the measures of each formula, empty unless
+    *         {@link Metrics#setPerFormula(boolean)}.
+    */
+   public Map<String, Map<Stage, StageSnapshot>> getFormulas() {
+      return formulas;
+   }
+
+   @Override
+   public String toString() {
+      StringBuilder sb = new StringBuilder();
+      for (Map.Entry<Stage, StageSnapshot> entry : stages.entrySet()) {
+         sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+      }
+      return sb.toString();
+   }
+}
@@ -0,0 +1,51 @@
+package org.bm.metrics;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * The stages of the computation of a formula, measured by {@link Metrics}.
+ *
+ * @author morinb
+ */
+public enum Stage {
+   /**
+    * From infix to postfix notation, by {@link org.bm.parser.RPNParser#parse(String)}.
+    */
+   PARSE,
+   /**
+    * The postfix tokens to text, by {@link org.bm.writer.Writer#write(java.util.List)}.
+    */
+   WRITE,
+   /**
+    * The postfix notation computed by
+    * {@link org.bm.analysis.Analyzer#compute(String)}.
+    */
+   ANALYZE,
+   /**
+    * Parsing, compiling and optimizing a formula, i.e. when it is not in the
+    * cache.
+    */
+   COMPILE,
+   /**
+    * The values of the variables of a compiled formula computed from their
+    * text, by {@link org.bm.compiler.CompiledFormula#bind(java.util.Map)}.
+    */
+   RESOLVE,
+   /**
+    * A compiled formula run once its variables are resolved.
+    */
+   EVALUATE
+}
@@ -0,0 +1,86 @@
+package org.bm.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.bm.analysis.exception.MathematicalAnalysisException;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * The measures of a stage: how many times it ran, how many times it failed
+ * and why, and how long it took.
+ *
+ * @author morinb
+ */
+final class StageMetrics {
+
+   private final StripedCounter count = new StripedCounter();
+
+   private final ConcurrentMap<String, StripedCounter> errors = new ConcurrentHashMap<>();
+
+   private final LatencyHistogram latency;
+
+   StageMetrics(boolean striped) {
+      this.latency = new LatencyHistogram(striped);
+   }
+
+   void record(long nanos) {
+      count.increment();
+      latency.record(nanos);
+   }
+
+   void recordError(MathematicalAnalysisException e) {
+      count.increment();
+      String cause = causeOf(e);
+      StripedCounter counter = errors.get(cause);
+      if (null == counter) {
+         StripedCounter created = new StripedCounter();
+         counter = errors.putIfAbsent(cause, created);
+         if (null == counter) {
+            counter = created;
+         }
+      }
+      counter.increment();
+   }
+
+   StageSnapshot snapshot() {
+      Map<String, Long> errorCounts = new TreeMap<>();
+      for (Map.Entry<String, StripedCounter> entry : errors.entrySet()) {
+         errorCounts.put(entry.getKey(), entry.getValue().sum());
+      }
+      return new StageSnapshot(count.sum(), Collections.unmodifiableMap(errorCounts), latency.snapshot());
+   }
+
+   void reset() {
+      count.reset();
+      errors.clear();
+      latency.reset();
+   }
+
+   /**
+    * @return the class of the cause of the exception, i.e.
+    *         NumberFormatException, or MathematicalAnalysisException for the
+    *         errors of the formula itself.
+    */
+   static String causeOf(MathematicalAnalysisException e) {
+      Throwable cause = null == e.getCause() ? e : e.getCause();
+      return cause.getClass().getSimpleName();
+   }
+}
@@ -0,0 +1,72 @@
+package org.bm.metrics;
+
+import java.util.Map;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * The measures of a stage at a point in time.
+ *
+ * @author morinb
+ */
+public final class StageSnapshot {
+
+   private final long count;
+
+   private final Map<String, Long> errors;
+
+   private final HistogramSnapshot latency;
+
+   StageSnapshot(long count, Map<String, Long> errors, HistogramSnapshot latency) {
+      this.count = count;
+      this.errors = errors;
+      this.latency = latency;
+   }
+
+   /**
+    * @return the number of times the stage ran, failed or not.
+    */
+   public long getCount() {
+      return count;
+   }
+
+   /**
+    * @return the number of failures, by cause.
+    */
+   public Map<String, Long> getErrors() {
+      return errors;
+   }
+
+   public long getErrorCount() {
+      long sum = 0;
+      for (long value : errors.values()) {
+         sum += value;
+      }
+      return sum;
+   }
+
+   /**
+    * @return the durations of the runs which did not fail.
+    */
+   public HistogramSnapshot getLatency() {
+      return latency;
+   }
+
+   @Override
+   public String toString() {
+      return "count=" + count + " errors=" + errors + " latency: " + latency;
+   }
+}
@@ -0,0 +1,80 @@
+package org.bm.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * A counter which many threads add to without contending: each thread adds to
+ * one of several cells, each on its own cache line, and the sum is computed
+ * when read.
+ *
+ * @author morinb
+ */
+public final class StripedCounter {
+
+   /**
+    * The number of longs between two cells: 64 bytes.
+    */
+   private static final int PADDING = 8;
+
+   static final int STRIPES = stripes(16);
+
+   private final AtomicLongArray cells;
+
+   public StripedCounter() {
+      this.cells = new AtomicLongArray(STRIPES * PADDING);
+   }
+
+   public void increment() {
+      add(1);
+   }
+
+   public void add(long value) {
+      cells.getAndAdd(stripe(STRIPES) * PADDING, value);
+   }
+
+   public long sum() {
+      long sum = 0;
+      for (int i = 0; i < STRIPES; i++) {
+         sum += cells.get(i * PADDING);
+      }
+      return sum;
+   }
+
+   public void reset() {
+      for (int i = 0; i < STRIPES; i++) {
+         cells.set(i * PADDING, 0);
+      }
+   }
+
+   /**
+    * @return the stripe of the calling thread, among the given power of two.
+    */
+   static int stripe(int stripes) {
+      long id = Thread.currentThread().getId();
+      return (int) ((id * 0x9E3779B97F4A7C15L) >>> 40) & (stripes - 1);
+   }
+
+   /**
+    * @return the power of two above the number of processors, at most the
+    *         given one.
+    */
+   static int stripes(int maximum) {
+      int processors = Runtime.getRuntime().availableProcessors();
+      return Math.min(maximum, Integer.highestOneBit(Math.max(1, 2 * processors - 1)));
+   }
+}
@@ -0,0 +1,109 @@
+package org.bm.metrics.impl;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.bm.metrics.Metrics;
+import org.bm.metrics.MetricsMXBean;
+import org.bm.metrics.Stage;
+import org.bm.metrics.StageSnapshot;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * @author morinb
+ */
+public class MetricsMXBeanImpl implements MetricsMXBean {
+
+   private final Metrics metrics;
+
+   public MetricsMXBeanImpl(Metrics metrics) {
+      this.metrics = metrics;
+   }
+
+   @Override
+   public boolean isEnabled() {
+      return metrics.isEnabled();
+   }
+
+   @Override
+   public void setEnabled(boolean enabled) {
+      metrics.setEnabled(enabled);
+   }
+
+   @Override
+   public boolean isPerFormula() {
+      return metrics.isPerFormula();
+   }
+
+   @Override
+   public void setPerFormula(boolean perFormula) {
+      metrics.setPerFormula(perFormula);
+   }
+
+   @Override
+   public Map<String, Long> getCounts() {
+      Map<String, Long> counts = new TreeMap<>();
+      for (Map.Entry<Stage, StageSnapshot> entry : metrics.snapshot().getStages().entrySet()) {
+         counts.put(entry.getKey().name(), entry.getValue().getCount());
+      }
+      return counts;
+   }
+
+   @Override
+   public Map<String, Long> getErrorCounts() {
+      Map<String, Long> counts = new TreeMap<>();
+      for (Map.Entry<Stage, StageSnapshot> entry : metrics.snapshot().getStages().entrySet()) {
+         for (Map.Entry<String, Long> error : entry.getValue().getErrors().entrySet()) {
+            counts.put(entry.getKey().name() + " " + error.getKey(), error.getValue());
+         }
+      }
+      return counts;
+   }
+
+   @Override
+   public Map<String, Double> getMeanLatencies() {
+      Map<String, Double> latencies = new TreeMap<>();
+      for (Map.Entry<Stage, StageSnapshot> entry : metrics.snapshot().getStages().entrySet()) {
+         latencies.put(entry.getKey().name(), entry.getValue().getLatency().getMean());
+      }
+      return latencies;
+   }
+
+   @Override
+   public Map<String, Long> getP99Latencies() {
+      Map<String, Long> latencies = new TreeMap<>();
+      for (Map.Entry<Stage, StageSnapshot> entry : metrics.snapshot().getStages().entrySet()) {
+         latencies.put(entry.getKey().name(), entry.getValue().getLatency().getValueAtPercentile(99));
+      }
+      return latencies;
+   }
+
+   @Override
+   public long getLatency(String stage, double percentile) {
+      return metrics.snapshot().getStage(Stage.valueOf(stage)).getLatency().getValueAtPercentile(percentile);
+   }
+
+   @Override
+   public String getSummary() {
+      return metrics.snapshot().toString();
+   }
+
+   @Override
+   public void reset() {
+      metrics.reset();
+   }
+}
@@ -0,0 +1,52 @@
+package org.bm.parser;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * The actions of the Shunting-Yard Algorithm, as named in the table of
+ * {@link org.bm.parser.impl.SYAlgo}.
+ *
+ * @author morinb
+ */
+public enum ParseAction {
+   ADD_TO_OUTPUT("Add token to output"),
+
+   PUSH_TO_STACK("Push token to stack"),
+
+   POP_TO_OUTPUT("Pop stack to output"),
+
+   /**
+    * Discard the left parenthesis at the top of the stack.
+    */
+   POP_STACK("Pop stack"),
+
+   /**
+    * Read a function argument separator with nothing to pop.
+    */
+   SKIP_TOKEN("Skip token"),
+
+   POP_ENTIRE_STACK("Pop entire stack to output");
+
+   private final String label;
+
+   private ParseAction(String label) {
+      this.label = label;
+   }
+
+   public String getLabel() {
+      return label;
+   }
+}
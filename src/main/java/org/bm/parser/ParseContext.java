@@ -0,0 +1,66 @@
+package org.bm.parser;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * The state of one parsing: the values of the variables and the tracer. A
+ * parser given its context at each call can be shared between threads.
+ *
+ * @author morinb
+ */
+public final class ParseContext {
+
+   /**
+    * No variable, no tracer.
+    */
+   public static final ParseContext EMPTY = new ParseContext(null, null);
+
+   private final Map<String, String> variables;
+
+   private final ParseTracer tracer;
+
+   public ParseContext(Map<String, String> variables) {
+      this(variables, null);
+   }
+
+   /**
+    * @param variables
+    *            the variables with their value, or null. If the value is null,
+    *            the variable stays as is. The map is not copied: it must not
+    *            be modified while parsing.
+    * @param tracer
+    *            the tracer of the steps of the parsing, null to trace
+    *            nothing.
+    */
+   public ParseContext(Map<String, String> variables, ParseTracer tracer) {
+      this.variables = null == variables ? Collections.<String, String> emptyMap() : variables;
+      this.tracer = tracer;
+   }
+
+   public Map<String, String> getVariables() {
+      return variables;
+   }
+
+   /**
+    * @return the tracer, null if none.
+    */
+   public ParseTracer getTracer() {
+      return tracer;
+   }
+}
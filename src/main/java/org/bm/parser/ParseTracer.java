@@ -0,0 +1,48 @@
+package org.bm.parser;
+
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Follow the steps of the parsing of a formula. A parser without tracer does
+ * nothing to trace it: no message is built.
+ *
+ * @author morinb
+ */
+public interface ParseTracer {
+
+   /**
+    * Start the parsing of a formula.
+    */
+   void begin(String formula);
+
+   /**
+    * Trace a step of the parsing. The queue and the stack are the ones of the
+    * parser: copy them to keep them.
+    *
+    * @param token
+    *            the token read, null once all of them have been read.
+    * @param queue
+    *            the output queue, after the action.
+    * @param stack
+    *            the operator stack after the action, top first.
+    * @param note
+    *            why the action is done, or null.
+    */
+   void step(String token, ParseAction action, List<String> queue, Deque<String> stack, String note);
+}
@@ -33,4 +33,16 @@ public interface RPNParser {
     */
    public abstract List<String> parse(String formula) throws MathematicalAnalysisException;
 
+   /**
+    * Translate an infix notation to a postfix notation, with the variables and
+    * the tracer of the context instead of the ones of the parser.
+    * 
+    * @param formula
+    *            in infix notation.
+    * @param context
+    *            the state of this parsing only.
+    * @return the corresponding postfix notation in form of a list of tokens.
+    */
+   public abstract List<String> parse(String formula, ParseContext context) throws MathematicalAnalysisException;
+
 }
\ No newline at end of file
@@ -3,6 +3,7 @@ package org.bm.parser;
 import java.util.Map;
 
 import org.bm.parser.impl.SYAlgo;
+import org.bm.utils.FunctionRegistry;
 
 /**
  * Copyright 2012 B. MORIN
@@ -25,4 +26,26 @@ public class RPNParserFactory {
    public static RPNParser getParser(boolean enableLogging, Map<String, String> variables) {
       return new SYAlgo(enableLogging, variables);
    }
+
+   public static RPNParser getParser(boolean enableLogging, Map<String, String> variables, FunctionRegistry registry) {
+      return new SYAlgo(enableLogging, variables, registry);
+   }
+
+   /**
+    * @return a parser without state of its own, to be shared between threads:
+    *         the variables are given to
+    *         {@link RPNParser#parse(String, ParseContext)}.
+    */
+   public static RPNParser getParser(FunctionRegistry registry) {
+      return new SYAlgo(registry);
+   }
+
+   /**
+    * @param tracer
+    *            the tracer of the steps of the parsing, i.e.
+    *            {@link org.bm.parser.impl.TableParseTracer}, or null.
+    */
+   public static RPNParser getParser(ParseTracer tracer, Map<String, String> variables, FunctionRegistry registry) {
+      return new SYAlgo(tracer, variables, registry);
+   }
 }
@@ -0,0 +1,55 @@
+package org.bm.parser.impl;
+
+import java.util.Deque;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.bm.parser.ParseAction;
+import org.bm.parser.ParseTracer;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Log each step of the parsing, at the info level: the verbose mode of the
+ * parser.
+ *
+ * @author morinb
+ */
+public class LoggingParseTracer implements ParseTracer {
+
+   private static final Logger logger = Logger.getLogger(LoggingParseTracer.class);
+
+   @Override
+   public void begin(String formula) {
+      if (logger.isInfoEnabled()) {
+         logger.info("Formula : " + formula);
+      }
+   }
+
+   @Override
+   public void step(String token, ParseAction action, List<String> queue, Deque<String> stack, String note) {
+      if (logger.isInfoEnabled()) {
+         StringBuilder message = new StringBuilder();
+         message.append(null == token ? "end" : token).append(" : ").append(action.getLabel());
+         if (null != note) {
+            message.append(" (").append(note).append(')');
+         }
+         message.append(". Output : ").append(TableParseTracer.join(queue));
+         message.append(", stack : ").append(TableParseTracer.join(stack));
+         logger.info(message);
+      }
+   }
+}
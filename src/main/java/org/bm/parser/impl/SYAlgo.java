@@ -1,17 +1,25 @@
 package org.bm.parser.impl;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
 
-import org.apache.log4j.Logger;
-import org.bm.FormulaCompute;
 import org.bm.analysis.exception.MathematicalAnalysisException;
+import org.bm.compiler.VariableResolver;
+import org.bm.events.FormulaEvent;
+import org.bm.events.FormulaEventType;
+import org.bm.parser.ParseAction;
+import org.bm.parser.ParseContext;
+import org.bm.parser.ParseTracer;
 import org.bm.parser.RPNParser;
-import org.bm.utils.ComputeUtils;
+import org.bm.parser.lexer.Lexer;
+import org.bm.parser.lexer.TokenType;
+import org.bm.utils.FunctionRegistry;
 import org.bm.utils.Operator;
+import org.bm.utils.Symbol;
 
 /**
  * Copyright 2012 B. MORIN
@@ -28,26 +36,57 @@ import org.bm.utils.Operator;
  * License for the specific language governing permissions and limitations under
  * the License.
  * 
+ * The parser is immutable: it can be shared between threads as long as the
+ * map of variables given to its constructor is not modified, or, better, when
+ * each call is given its own {@link ParseContext}.
+ * 
  * @author morinb
  */
 public class SYAlgo implements RPNParser {
 
-   private static final Logger logger = Logger.getLogger(SYAlgo.class);
+   private static final ParseTracer LOGGING_TRACER = new LoggingParseTracer();
 
    /**
-    * If true, the parser will output some parsing info.
+    * The variables and the tracer of {@link #parse(String)}.
     */
-   private final boolean enableLogging;
+   private final ParseContext context;
 
    /**
-    * A map of variables with their value. If the value is null, the variable
-    * stays as is.
+    * The operators and functions known by the parser.
     */
-   private final Map<String, String> variables;
+   private final FunctionRegistry registry;
 
    public SYAlgo(boolean enableLogging, Map<String, String> variables) {
-      this.enableLogging = enableLogging;
-      this.variables = variables;
+      this(enableLogging, variables, FunctionRegistry.getDefault());
+   }
+
+   /**
+    * @param enableLogging
+    *            if true, the steps of the parsing are logged (see
+    *            {@link LoggingParseTracer}).
+    */
+   public SYAlgo(boolean enableLogging, Map<String, String> variables, FunctionRegistry registry) {
+      this(enableLogging ? LOGGING_TRACER : null, variables, registry);
+   }
+
+   /**
+    * @param tracer
+    *            the tracer of the steps of the parsing, null to trace
+    *            nothing.
+    */
+   public SYAlgo(ParseTracer tracer, Map<String, String> variables, FunctionRegistry registry) {
+      this.context = new ParseContext(variables, tracer);
+      this.registry = registry;
+   }
+
+   /**
+    * A parser without state of its own: the variables and the tracer are given
+    * to {@link #parse(String, ParseContext)}, so that it can be shared between
+    * threads.
+    */
+   public SYAlgo(FunctionRegistry registry) {
+      this.context = ParseContext.EMPTY;
+      this.registry = registry;
    }
 
    /*
@@ -57,24 +96,29 @@ public class SYAlgo implements RPNParser {
     */
    @Override
    public List<String> parse(String formula) throws MathematicalAnalysisException {
-      if (enableLogging) {
-         if (logger.isInfoEnabled()) {
-            log("Formula : " + formula);
-         }
-      }
-      formula = format(formula);
-      log("Formatted formula : " + formula);
-      List<String> outputQueue = new LinkedList<>();
-      Deque<String> stack = new LinkedList<>();
+      return parse(formula, context);
+   }
 
-      StringTokenizer st = new StringTokenizer(formula, " ");
-      String[] tokens = new String[st.countTokens()];
-      int i = 0;
-      while (st.hasMoreTokens()) {
-         tokens[i++] = st.nextToken();
+   @Override
+   public List<String> parse(String formula, ParseContext context) throws MathematicalAnalysisException {
+      ParseTracer tracer = context.getTracer();
+      if (null != tracer) {
+         tracer.begin(formula);
       }
-
-      return analyze(tokens, outputQueue, stack);
+      List<String> outputQueue = new ArrayList<>();
+      Deque<String> stack = new ArrayDeque<>();
+
+      // The variables are computed once per formula, however many times they
+      // are used.
+      Map<String, String> variables = context.getVariables();
+      VariableResolver resolver = variables.isEmpty() ? null : new VariableResolver(variables, registry);
+
+      FormulaEvent event = FormulaEventType.PARSE.begin();
+      List<String> tokens = analyze(new Lexer(formula, registry), variables, resolver, tracer, outputQueue, stack);
+      if (null != event) {
+         event.commit(formula, tokens.size(), variables.size());
+      }
+      return tokens;
    }
 
    /**
@@ -315,215 +359,184 @@ public class SYAlgo implements RPNParser {
     * </tr>
     * </table>
     * 
+    * Each step is given to the tracer, if any: {@link TableParseTracer}
+    * prints them as this table.
     * 
-    * @param tokens
-    *            an array of String tokens
+    * @param lexer
+    *            the lexer reading the tokens of the formula
+    * @param variables
+    *            the variables with their value.
+    * @param tracer
+    *            the tracer of the steps, or null.
     * @param queue
     *            the outputQueue
     * @param stack
     *            the operator stack
     * @return a RPN notation String of the formula.
     */
-   private List<String> analyze(String[] tokens, List<String> queue, Deque<String> stack) throws MathematicalAnalysisException {
-      String lastToken = null;
+   private List<String> analyze(Lexer lexer, Map<String, String> variables, VariableResolver resolver,
+      ParseTracer tracer, List<String> queue, Deque<String> stack) throws MathematicalAnalysisException {
+      TokenType lastType = null;
 
-      for (String token : tokens) {
-         log("Treatment of token '" + token + "'.");
-         //log("Last token : "+lastToken);
+      for (TokenType type = lexer.next(); TokenType.END != type; type = lexer.next()) {
+         String token = lexer.getText();
 
-         if (isNumber(token)) {
-            log("Token " + token + " is a number. Adding to Queue.");
+         if (TokenType.NUMBER == type) {
             queue.add(token);
-            lastToken = token;
-            continue;
+            if (null != tracer) {
+               tracer.step(token, ParseAction.ADD_TO_OUTPUT, queue, stack, null);
+            }
          }
 
-         else if (isVariable(token)) {
-            log("Token " + token + " is a variable. Adding to Queue.");
-            if (null != variables.get(token)) {
-               String value = variables.get(token);
-               String newValue = FormulaCompute.compute(value, variables, false);
-               log("\tReplacing variable " + token + " by its value " + value + " = " + newValue);
+         else if ((TokenType.IDENTIFIER == type || TokenType.FUNCTION == type) && variables.containsKey(token)) {
+            String value = variables.get(token);
+            if (null != value) {
+               String newValue = resolver.textOf(token);
                queue.add(newValue);
+               if (null != tracer) {
+                  tracer.step(token, ParseAction.ADD_TO_OUTPUT, queue, stack, token + " = " + value + " = " + newValue);
+               }
             } else {
                queue.add(token);
+               if (null != tracer) {
+                  tracer.step(token, ParseAction.ADD_TO_OUTPUT, queue, stack, token + " is a variable");
+               }
             }
-            lastToken = token;
-            continue;
          }
 
-         else if (ComputeUtils.isOperator(token)) {
-            log("Token " + token + " is an operator.");
-            if ("(".equals(lastToken)) {
-               if ("-".equals(token)) {
+         else if (TokenType.OPERATOR == type) {
+            Operator o1 = lexer.getOperator();
+            if (TokenType.LEFT_PARENTHESIS == lastType) {
+               if (Operator.SUBSTRACTION.equals(o1)) {
                   // not substraction operator, but opposite operator
-                  log("Token " + token + " is the opposite operator.");
-                  token = "_";
+                  o1 = Operator.OPPOSITE;
+                  token = o1.getValue();
                }
             }
 
-            if (ComputeUtils.isOperator(stack.peek())) {
-
-               Operator o1 = Operator.get(token);
+            if (isOperator(stack.peek())) {
                String peek = stack.peek();
                Operator o2 = Operator.get(peek);
 
                if ((o1.getPrecedence() <= o2.getPrecedence() && o1.isLeftAssociative())
                   || (o1.getPrecedence() < o2.getPrecedence() && o1.isRightAssociative())) {
-                  if (enableLogging) {
-                     if (o1.isLeftAssociative()) {
-                        log(token + " priority is <= " + peek + " priority and " + token + " is left-associative");
-                     }
-                     if (o1.isRightAssociative()) {
-                        log(token + " priority is <= " + peek + " priority and " + token + " is right-associative");
-                     }
-                     if (logger.isInfoEnabled()) {
-                        log("Poping " + peek + " from the stack, and adding it to the queue.");
-                     }
-                  }
-
                   queue.add(stack.pop());
-               } else {
-                  if (o1.getPrecedence() > o2.getPrecedence()) {
-                     log(token + " priority is > " + peek + " priority");
+                  if (null != tracer) {
+                     tracer.step(token, ParseAction.POP_TO_OUTPUT, queue, stack,
+                        o1.getPrecedence() == o2.getPrecedence() ? token + " and " + peek + " have same precedence"
+                           : token + " has lower precedence than " + peek);
                   }
                }
             }
-            log("Pushing " + token + " onto the Stack.");
             stack.push(token);
-
+            if (null != tracer) {
+               tracer.step(token, ParseAction.PUSH_TO_STACK, queue, stack, noteOfPush(o1, token, stack));
+            }
          }
 
-         else if (ComputeUtils.isFunction(token)) {
-            if (enableLogging) {
-               if (logger.isInfoEnabled()) {
-                  log("Token " + token + " is an function. Pushing onto the Stack.");
-               }
-            }
+         else if (TokenType.FUNCTION == type) {
             stack.push(token);
-            lastToken = token;
-            continue;
+            if (null != tracer) {
+               tracer.step(token, ParseAction.PUSH_TO_STACK, queue, stack, token + " is a function");
+            }
          }
 
-         else if (isFunctionArgSeparator(token)) {
-            if (enableLogging) {
-               if (logger.isInfoEnabled()) {
-                  log("Token " + token + " is an function arg separator.");
-               }
-            }
+         else if (TokenType.SEPARATOR == type) {
+            boolean popped = false;
             while (!"(".equals(stack.peek())) {
-               String pop = stack.pop();
-               if (enableLogging) {
-                  if (logger.isInfoEnabled()) {
-                     log("Pop " + pop + " from stack, adding it to Queue.");
-                  }
-               }
-               queue.add(pop);
                if (stack.isEmpty()) {
                   // Erreur
                   throw new MathematicalAnalysisException("Erreur A : parenthesis problem.");
                }
+               queue.add(stack.pop());
+               popped = true;
+               if (null != tracer) {
+                  tracer.step(token, ParseAction.POP_TO_OUTPUT, queue, stack, "Repeated until \"(\" found");
+               }
+            }
+            if (null != tracer && !popped) {
+               tracer.step(token, ParseAction.SKIP_TOKEN, queue, stack, "Function argument separator");
             }
-            lastToken = token;
-            continue;
          }
 
-         else if ("(".equals(token)) {
-            if (enableLogging) {
-               if (logger.isInfoEnabled()) {
-                  log("Pushing " + token + " onto the stack");
-               }
-            }
+         else if (TokenType.LEFT_PARENTHESIS == type) {
             stack.push(token);
-            lastToken = token;
-            continue;
+            if (null != tracer) {
+               tracer.step(token, ParseAction.PUSH_TO_STACK, queue, stack, null);
+            }
          }
 
-         else if (")".equals(token)) {
-            if (enableLogging) {
-               if (logger.isInfoEnabled()) {
-                  log("Until ( is found on the stack, pop token from the stack to the queue.");
-               }
-            }
+         else if (TokenType.RIGHT_PARENTHESIS == type) {
             while (!"(".equals(stack.peek())) {
-               String pop = stack.pop();
-               log("\tAdding " + pop + " to the queue.");
-               queue.add(pop);
+               if (stack.isEmpty()) {
+                  throw new MathematicalAnalysisException("Erreur B : parenthesis problem at offset " + lexer.getStart() + ".");
+               }
+               queue.add(stack.pop());
+               if (null != tracer) {
+                  tracer.step(token, ParseAction.POP_TO_OUTPUT, queue, stack, "Repeated until \"(\" found");
+               }
             }
-            log("( found. Dismiss from the stack.");
             stack.pop(); // on enleve la (, et on ne la stocke pas.
-            if (ComputeUtils.isFunction(stack.peek())) {
-               String peek = stack.peek();
-               log("Token " + peek + " is a function, pop it from the stack to the queue.");
-               queue.add(stack.pop());
+            if (null != tracer) {
+               tracer.step(token, ParseAction.POP_STACK, queue, stack, "Discard matching parenthesis");
+            }
+            if (isFunction(stack.peek())) {
+               String function = stack.pop();
+               queue.add(function);
+               if (null != tracer) {
+                  tracer.step(token, ParseAction.POP_TO_OUTPUT, queue, stack, function + " is a function");
+               }
             }
          } else {
-            log(token + " unknown. Maybe a variable ?. Added to queue.");
             queue.add(token);
+            if (null != tracer) {
+               tracer.step(token, ParseAction.ADD_TO_OUTPUT, queue, stack, token + " unknown, maybe a variable");
+            }
          }
-         lastToken = token;
+         lastType = type;
       }
 
-      log("No more token to read.");
       while (!stack.isEmpty()) {
          if ("(".equals(stack.peek())) {
             throw new MathematicalAnalysisException("Erreur C : probleme de parentheses.");
          }
-         String pop = stack.pop();
-         log("Popping " + pop + " from the stack to the queue.");
-         queue.add(pop);
+         queue.add(stack.pop());
       }
-
-      return queue;
-   }
-
-   private void log(String message) {
-      if (enableLogging) {
-         if (logger.isInfoEnabled()) {
-            logger.info(message);
-         }
+      if (null != tracer) {
+         tracer.step(null, ParseAction.POP_ENTIRE_STACK, queue, stack, null);
       }
-   }
 
-   private boolean isVariable(String token) {
-      return variables.keySet().contains(token);
-   }
-
-   private boolean isFunctionArgSeparator(String token) {
-      return (",".equals(token));
-   }
-
-   private boolean isNumber(String token) {
-      boolean isNumber;
-      try {
-         Double.parseDouble(token);
-         isNumber = true;
-      } catch (NumberFormatException nfe) {
-         isNumber = false;
-      }
-      return isNumber;
+      return queue;
    }
 
    /**
-    * Add spaces around operators, comma, and parenthesis.
-    * 
-    * @param calcul
-    *            the String to format
-    * @return formatted String
+    * @return why the operator is pushed onto the stack above the operator at
+    *         its top, null if there is none.
     */
-   private String format(String calcul) {
-      calcul = calcul.replace("(", " ( ");
-      calcul = calcul.replace(")", " ) ");
-      calcul = calcul.replace(",", " , ");
-      Operator[] ops = Operator.values();
-
-      for (Operator op : ops) {
-         calcul = calcul.replace(op.getValue(), " " + op.getValue() + " ");
+   private String noteOfPush(Operator operator, String token, Deque<String> stack) {
+      Iterator<String> below = stack.iterator();
+      below.next();
+      String next = below.hasNext() ? below.next() : null;
+      if (!isOperator(next)) {
+         return null;
       }
+      Operator other = Operator.get(next);
+      if (operator.getPrecedence() > other.getPrecedence()) {
+         return token + " has higher precedence than " + next;
+      }
+      if (operator.isRightAssociative()) {
+         return token + " is evaluated right-to-left";
+      }
+      return null;
+   }
 
-      calcul = calcul.replaceAll("\\s+", " ");
-
-      return calcul.trim();
+   private boolean isOperator(String token) {
+      Symbol symbol = registry.get(token);
+      return null != symbol && symbol.isOperator();
    }
 
+   private boolean isFunction(String token) {
+      Symbol symbol = registry.get(token);
+      return null != symbol && symbol.isFunction();
+   }
 }
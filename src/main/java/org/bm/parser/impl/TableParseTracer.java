@@ -0,0 +1,210 @@
+package org.bm.parser.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import org.bm.parser.ParseAction;
+import org.bm.parser.ParseTracer;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Keep the steps of the parsing of the last formula, to print them as the
+ * table of {@link SYAlgo}:
+ *
+ * <pre>
+ * Token | Action              | Output (in RPN) | Operator Stack | Notes
+ * ------+---------------------+-----------------+----------------+------------------------------
+ * 3     | Add token to output | 3               |                |
+ * +     | Push token to stack | 3               | +              |
+ * 4     | Add token to output | 3 4             | +              |
+ * *     | Push token to stack | 3 4             | * +            | * has higher precedence than +
+ * </pre>
+ *
+ * A tracer is used by one parser at a time.
+ *
+ * @author morinb
+ */
+public class TableParseTracer implements ParseTracer {
+
+   private static final String[] HEADERS = { "Token", "Action", "Output (in RPN)", "Operator Stack", "Notes" };
+
+   private final List<Row> rows = new ArrayList<>();
+
+   private String formula;
+
+   @Override
+   public void begin(String formula) {
+      this.formula = formula;
+      rows.clear();
+   }
+
+   @Override
+   public void step(String token, ParseAction action, List<String> queue, Deque<String> stack, String note) {
+      rows.add(new Row(token, action, join(queue), join(stack), note));
+   }
+
+   public String getFormula() {
+      return formula;
+   }
+
+   /**
+    * @return the steps of the parsing, in order.
+    */
+   public List<Row> getRows() {
+      return Collections.unmodifiableList(rows);
+   }
+
+   /**
+    * @return the table of the steps, the token being written on the first
+    *         step of each one only.
+    */
+   @Override
+   public String toString() {
+      List<String[]> cells = new ArrayList<>();
+      cells.add(HEADERS);
+      Row previous = null;
+      for (Row row : rows) {
+         String token = null == row.getToken() ? "end" : row.getToken();
+         boolean sameToken = null != previous && null != row.getToken() && isContinued(previous, row);
+         cells.add(new String[] { sameToken ? "" : token, row.getAction().getLabel(), row.getOutput(),
+            row.getStack(), null == row.getNote() ? "" : row.getNote() });
+         previous = row;
+      }
+
+      int[] widths = new int[HEADERS.length];
+      for (String[] line : cells) {
+         for (int i = 0; i < line.length; i++) {
+            widths[i] = Math.max(widths[i], line[i].length());
+         }
+      }
+
+      StringBuilder table = new StringBuilder();
+      for (int l = 0; l < cells.size(); l++) {
+         appendLine(table, cells.get(l), widths);
+         if (l == 0) {
+            for (int i = 0; i < widths.length; i++) {
+               if (i > 0) {
+                  table.append("-+-");
+               }
+               for (int j = 0; j < widths[i]; j++) {
+                  table.append('-');
+               }
+            }
+            table.append('\n');
+         }
+      }
+      return table.toString();
+   }
+
+   static String join(Iterable<String> tokens) {
+      StringBuilder text = new StringBuilder();
+      for (String token : tokens) {
+         if (text.length() > 0) {
+            text.append(' ');
+         }
+         text.append(token);
+      }
+      return text.toString();
+   }
+
+   /**
+    * @return true if the row is another step of the token of the previous
+    *         one: the actions of a token end by adding it to the output,
+    *         pushing it onto the stack or skipping it.
+    */
+   private static boolean isContinued(Row previous, Row row) {
+      ParseAction last = previous.getAction();
+      return row.getToken().equals(previous.getToken()) && ParseAction.ADD_TO_OUTPUT != last
+         && ParseAction.PUSH_TO_STACK != last && ParseAction.SKIP_TOKEN != last;
+   }
+
+   private static void appendLine(StringBuilder table, String[] line, int[] widths) {
+      int length = table.length();
+      for (int i = 0; i < line.length; i++) {
+         if (i > 0) {
+            table.append(" | ");
+         }
+         table.append(line[i]);
+         for (int j = line[i].length(); j < widths[i]; j++) {
+            table.append(' ');
+         }
+      }
+      // No trailing spaces.
+      int end = table.length();
+      while (end > length && table.charAt(end - 1) == ' ') {
+         end--;
+      }
+      table.setLength(end);
+      table.append('\n');
+   }
+
+   /**
+    * A step of the parsing.
+    */
+   public static final class Row {
+
+      private final String token;
+
+      private final ParseAction action;
+
+      private final String output;
+
+      private final String stack;
+
+      private final String note;
+
+      Row(String token, ParseAction action, String output, String stack, String note) {
+         this.token = token;
+         this.action = action;
+         this.output = output;
+         this.stack = stack;
+         this.note = note;
+      }
+
+      /**
+       * @return the token read, null for the last step.
+       */
+      public String getToken() {
+         return token;
+      }
+
+      public ParseAction getAction() {
+         return action;
+      }
+
+      /**
+       * @return the tokens of the output queue, separated by spaces.
+       */
+      public String getOutput() {
+         return output;
+      }
+
+      /**
+       * @return the tokens of the operator stack, top first, separated by
+       *         spaces.
+       */
+      public String getStack() {
+         return stack;
+      }
+
+      public String getNote() {
+         return note;
+      }
+   }
+}
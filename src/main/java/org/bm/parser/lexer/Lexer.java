@@ -0,0 +1,253 @@
+package org.bm.parser.lexer;
+
+import org.bm.utils.FunctionRegistry;
+import org.bm.utils.NumberParser;
+import org.bm.utils.Operator;
+import org.bm.utils.Symbol;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Split a formula into typed tokens, in a single pass over its characters.
+ *
+ * The lexer is a cursor: {@link #next()} moves to the next token, whose type,
+ * offsets in the formula and value are then available through the getters. No
+ * object is created per token, except by {@link #getText()} for numbers and
+ * identifiers.
+ *
+ * Operators, parenthesis and the argument separator are tokens on their own,
+ * whether or not surrounded by spaces. Any other run of characters which are
+ * neither spaces nor one of these is a number if it reads as one, a function
+ * if the {@link FunctionRegistry} knows its name, and an identifier otherwise.
+ *
+ * A lexer is not thread-safe: create one per formula.
+ *
+ * @author morinb
+ */
+public final class Lexer {
+
+   private static final Operator[] OPERATORS = new Operator[128];
+
+   static {
+      for (Operator operator : Operator.values()) {
+         OPERATORS[operator.getValue().charAt(0)] = operator;
+      }
+   }
+
+   private final CharSequence input;
+
+   private final NumberParser numbers = new NumberParser();
+
+   private final FunctionRegistry registry;
+
+   private final int length;
+
+   private int position;
+
+   private TokenType type;
+
+   private int start;
+
+   private int end;
+
+   private double number;
+
+   private Operator operator;
+
+   private Symbol symbol;
+
+   public Lexer(CharSequence input) {
+      this(input, FunctionRegistry.getDefault());
+   }
+
+   public Lexer(CharSequence input, FunctionRegistry registry) {
+      this.input = input;
+      this.registry = registry;
+      this.length = input.length();
+   }
+
+   /**
+    * Read the next token.
+    *
+    * @return the type of the token read, {@link TokenType#END} if there is no
+    *         more token.
+    */
+   public TokenType next() {
+      operator = null;
+      symbol = null;
+
+      while (position < length && Character.isWhitespace(input.charAt(position))) {
+         position++;
+      }
+      start = position;
+
+      if (position == length) {
+         end = position;
+         type = TokenType.END;
+         return type;
+      }
+
+      char c = input.charAt(position);
+      switch (c) {
+         case '(':
+            return single(TokenType.LEFT_PARENTHESIS);
+         case ')':
+            return single(TokenType.RIGHT_PARENTHESIS);
+         case ',':
+            return single(TokenType.SEPARATOR);
+         default:
+            break;
+      }
+
+      if (c < OPERATORS.length && null != OPERATORS[c]) {
+         operator = OPERATORS[c];
+         symbol = registry.get(operator.getValue());
+         return single(TokenType.OPERATOR);
+      }
+
+      if ((isDigit(c) || c == '.') && scanNumber()) {
+         position = end;
+         type = TokenType.NUMBER;
+         return type;
+      }
+
+      end = position + 1;
+      while (end < length && !isDelimiter(input.charAt(end))) {
+         end++;
+      }
+      position = end;
+
+      if (matches("NaN")) {
+         number = Double.NaN;
+         type = TokenType.NUMBER;
+      } else if (matches("Infinity")) {
+         number = Double.POSITIVE_INFINITY;
+         type = TokenType.NUMBER;
+      } else {
+         symbol = registry.get(input, start, end);
+         if (null != symbol && !symbol.isFunction()) {
+            symbol = null;
+         }
+         type = null == symbol ? TokenType.IDENTIFIER : TokenType.FUNCTION;
+      }
+      return type;
+   }
+
+   public TokenType getType() {
+      return type;
+   }
+
+   /**
+    * @return the offset of the first character of the current token.
+    */
+   public int getStart() {
+      return start;
+   }
+
+   /**
+    * @return the offset following the last character of the current token.
+    */
+   public int getEnd() {
+      return end;
+   }
+
+   /**
+    * @return the value of the current {@link TokenType#NUMBER} token.
+    */
+   public double getNumber() {
+      return number;
+   }
+
+   /**
+    * @return the current {@link TokenType#OPERATOR}, or null.
+    */
+   public Operator getOperator() {
+      return operator;
+   }
+
+   /**
+    * @return the symbol of the current {@link TokenType#OPERATOR} or
+    *         {@link TokenType#FUNCTION}, or null.
+    */
+   public Symbol getSymbol() {
+      return symbol;
+   }
+
+   /**
+    * @return the text of the current token. Only the numbers and the
+    *         identifiers need a new String.
+    */
+   public String getText() {
+      switch (type) {
+         case OPERATOR:
+            return operator.getValue();
+         case FUNCTION:
+            return symbol.getName();
+         case LEFT_PARENTHESIS:
+            return "(";
+         case RIGHT_PARENTHESIS:
+            return ")";
+         case SEPARATOR:
+            return ",";
+         case END:
+            return "";
+         default:
+            return input.subSequence(start, end).toString();
+      }
+   }
+
+   private TokenType single(TokenType singleType) {
+      end = ++position;
+      type = singleType;
+      return type;
+   }
+
+   /**
+    * Read a number from the current position (see {@link NumberParser}).
+    *
+    * @return false if the characters do not make a number, i.e. 3x
+    */
+   private boolean scanNumber() {
+      int pos = numbers.parse(input, position, length);
+      if (pos < 0 || (pos < length && !isDelimiter(input.charAt(pos)))) {
+         return false;
+      }
+      end = pos;
+      number = numbers.getValue();
+      return true;
+   }
+
+   private boolean matches(String text) {
+      if (end - start != text.length()) {
+         return false;
+      }
+      for (int i = 0; i < text.length(); i++) {
+         if (input.charAt(start + i) != text.charAt(i)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private static boolean isDigit(char c) {
+      return c >= '0' && c <= '9';
+   }
+
+   private static boolean isDelimiter(char c) {
+      return Character.isWhitespace(c) || c == '(' || c == ')' || c == ','
+         || (c < OPERATORS.length && null != OPERATORS[c]);
+   }
+}
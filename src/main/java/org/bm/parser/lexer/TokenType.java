@@ -0,0 +1,57 @@
+package org.bm.parser.lexer;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * The types of the tokens emitted by the {@link Lexer}.
+ *
+ * @author morinb
+ */
+public enum TokenType {
+   /**
+    * A number literal, i.e. 3 2.5 .5 1e-3 NaN Infinity
+    */
+   NUMBER,
+
+   /**
+    * A name which is neither a number nor a function, most likely a variable.
+    */
+   IDENTIFIER,
+
+   /**
+    * One of the {@link org.bm.utils.Operator}.
+    */
+   OPERATOR,
+
+   /**
+    * One of the {@link org.bm.utils.Function}.
+    */
+   FUNCTION,
+
+   LEFT_PARENTHESIS,
+
+   RIGHT_PARENTHESIS,
+
+   /**
+    * The function argument separator.
+    */
+   SEPARATOR,
+
+   /**
+    * No more token to read.
+    */
+   END;
+}
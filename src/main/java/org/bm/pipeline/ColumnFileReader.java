@@ -0,0 +1,218 @@
+package org.bm.pipeline;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Read a column file (see {@link ColumnFileWriter}). The blocks are mapped in
+ * memory when first read, by windows of at most 1 GB.
+ *
+ * A reader is not thread-safe.
+ *
+ * @author morinb
+ */
+public class ColumnFileReader implements Closeable {
+
+   private static final long MAX_WINDOW_SIZE = 1L << 30;
+
+   private final Path file;
+
+   private final FileChannel channel;
+
+   private final String[] names;
+
+   private final int blockSize;
+
+   private final long rowCount;
+
+   private final int blockCount;
+
+   private final long dataOffset;
+
+   private final double[] index;
+
+   private final int blocksPerWindow;
+
+   private final MappedByteBuffer[] windows;
+
+   public ColumnFileReader(Path file) throws IOException {
+      this.file = file;
+      this.channel = FileChannel.open(file, StandardOpenOption.READ);
+      try {
+         if (channel.size() < ColumnFileWriter.HEADER_SIZE) {
+            throw new IOException("The file " + file + " is not a column file.");
+         }
+         ByteBuffer header = read(0, ColumnFileWriter.HEADER_SIZE);
+         if (header.getInt() != ColumnFileWriter.MAGIC) {
+            throw new IOException("The file " + file + " is not a column file.");
+         }
+         int version = header.getInt();
+         if (version != ColumnFileWriter.VERSION) {
+            throw new IOException("The version " + version + " of the column file " + file + " is not supported.");
+         }
+         int columnCount = header.getInt();
+         this.blockSize = header.getInt();
+         this.rowCount = header.getLong();
+         long indexOffset = header.getLong();
+
+         this.names = new String[columnCount];
+         long position = ColumnFileWriter.HEADER_SIZE;
+         for (int i = 0; i < columnCount; i++) {
+            int length = read(position, 4).getInt();
+            ByteBuffer name = read(position + 4, length);
+            names[i] = new String(name.array(), 0, length, StandardCharsets.UTF_8);
+            position += 4 + length;
+         }
+         this.dataOffset = (position + 7) & ~7;
+
+         this.blockCount = (int) ((rowCount + blockSize - 1) / blockSize);
+         this.index = new double[2 * columnCount * blockCount];
+         read(indexOffset, 8 * index.length).asDoubleBuffer().get(index);
+
+         long blockBytes = Math.max(1, (long) columnCount * blockSize * 8);
+         if (blockBytes > Integer.MAX_VALUE) {
+            // A block is mapped at once, and a mapping is at most 2 GB.
+            throw new IOException("The blocks of the column file " + file + " are larger than 2 GB.");
+         }
+         this.blocksPerWindow = (int) Math.max(1, MAX_WINDOW_SIZE / blockBytes);
+         this.windows = new MappedByteBuffer[(blockCount + blocksPerWindow - 1) / blocksPerWindow];
+      } catch (IOException | RuntimeException e) {
+         channel.close();
+         throw e;
+      }
+   }
+
+   public String[] getNames() {
+      return names.clone();
+   }
+
+   /**
+    * @return the index of the column of the given name, or -1.
+    */
+   public int getColumn(String name) {
+      for (int i = 0; i < names.length; i++) {
+         if (names[i].equals(name)) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
+   public long getRowCount() {
+      return rowCount;
+   }
+
+   public int getBlockSize() {
+      return blockSize;
+   }
+
+   public int getBlockCount() {
+      return blockCount;
+   }
+
+   /**
+    * @return the number of rows of the given block.
+    */
+   public int getRowCount(int block) {
+      return (int) Math.min(blockSize, rowCount - (long) block * blockSize);
+   }
+
+   /**
+    * @return the minimum of the column in the block, or NaN if the block
+    *         holds a NaN.
+    */
+   public double getMin(int block, int column) {
+      return index[2 * (block * names.length + column)];
+   }
+
+   /**
+    * @return the maximum of the column in the block, or NaN if the block
+    *         holds a NaN.
+    */
+   public double getMax(int block, int column) {
+      return index[2 * (block * names.length + column) + 1];
+   }
+
+   /**
+    * @return the rows of the column in the block, as mapped in memory.
+    */
+   public DoubleBuffer getValues(int block, int column) throws IOException {
+      if (block < 0 || block >= blockCount) {
+         throw new IndexOutOfBoundsException("Block " + block + " out of " + blockCount);
+      }
+      int windowIndex = block / blocksPerWindow;
+      MappedByteBuffer window = windows[windowIndex];
+      if (null == window) {
+         long start = (long) windowIndex * blocksPerWindow;
+         long size = Math.min(blocksPerWindow, blockCount - start) * names.length * blockSize * 8;
+         window = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + start * names.length * blockSize * 8,
+            size);
+         windows[windowIndex] = window;
+      }
+
+      // Within a window, which is at most 2 GB.
+      int position = (int) (((long) (block % blocksPerWindow) * names.length + column) * blockSize * 8);
+      ByteBuffer values = window.duplicate();
+      values.position(position).limit(position + 8 * getRowCount(block));
+      return values.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+   }
+
+   /**
+    * Read a block into columns, i.e. to evaluate formulas over it with
+    * {@link org.bm.compiler.CompiledFormula#evaluate(double[][], double[], int, int)}.
+    * Since the file and the memory are both little-endian on most processors,
+    * each column is a single copy of the mapped memory.
+    *
+    * @param columns
+    *            receives the rows of each column, or null for the columns to
+    *            skip.
+    * @return the number of rows of the block.
+    */
+   public int read(int block, double[][] columns) throws IOException {
+      for (int column = 0; column < columns.length; column++) {
+         if (null != columns[column]) {
+            getValues(block, column).get(columns[column], 0, getRowCount(block));
+         }
+      }
+      return getRowCount(block);
+   }
+
+   @Override
+   public void close() throws IOException {
+      channel.close();
+   }
+
+   private ByteBuffer read(long position, int length) throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+      while (buffer.hasRemaining()) {
+         if (channel.read(buffer, position + buffer.position()) < 0) {
+            throw new IOException("The column file " + file + " is truncated.");
+         }
+      }
+      buffer.flip();
+      return buffer;
+   }
+}
@@ -0,0 +1,246 @@
+package org.bm.pipeline;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.bm.analysis.exception.MathematicalAnalysisException;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Write a column file: a table of doubles stored by blocks of rows, and within
+ * a block by column, so that a block of a column can be mapped in memory and
+ * read as a whole, without parsing.
+ *
+ * The file, little-endian, holds:
+ * <ul>
+ * <li>the header: the magic number {@value #MAGIC}, the version, the number
+ * of columns, the number of rows of a block, the number of rows, the position
+ * of the index, then the name of each column as its length and its UTF-8
+ * bytes;</li>
+ * <li>from the next multiple of 8, the blocks: the rows of the block for each
+ * column, the last block being padded with zeros;</li>
+ * <li>the index: the minimum and maximum of each column in each block,
+ * which are NaN if the block holds a NaN.</li>
+ * </ul>
+ *
+ * @see ColumnFileReader
+ * @author morinb
+ */
+public class ColumnFileWriter implements Closeable {
+
+   /**
+    * "BMCF" in ASCII, read as a little-endian int.
+    */
+   public static final int MAGIC = 0x46434D42;
+
+   public static final int VERSION = 1;
+
+   /**
+    * The position of the number of rows and of the index in the header.
+    */
+   static final int ROW_COUNT_POSITION = 16;
+
+   static final int HEADER_SIZE = 32;
+
+   private final FileChannel channel;
+
+   private final int blockSize;
+
+   private final double[][] block;
+
+   private final ByteBuffer buffer;
+
+   private final long dataOffset;
+
+   private double[] index = new double[64];
+
+   private int size;
+
+   private long rowCount;
+
+   private int blockCount;
+
+   /**
+    * @param names
+    *            the name of each column.
+    * @param blockSize
+    *            the number of rows of a block.
+    */
+   public ColumnFileWriter(Path file, String[] names, int blockSize) throws IOException {
+      if (blockSize <= 0) {
+         throw new IllegalArgumentException("The size of a block must be positive.");
+      }
+      this.blockSize = blockSize;
+      this.block = new double[names.length][blockSize];
+      this.buffer = ByteBuffer.allocateDirect(8 * blockSize).order(ByteOrder.LITTLE_ENDIAN);
+
+      byte[][] encoded = new byte[names.length][];
+      int headerSize = HEADER_SIZE;
+      for (int i = 0; i < names.length; i++) {
+         encoded[i] = names[i].getBytes(StandardCharsets.UTF_8);
+         headerSize += 4 + encoded[i].length;
+      }
+      this.dataOffset = (headerSize + 7) & ~7;
+
+      ByteBuffer header = ByteBuffer.allocate((int) dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(MAGIC).putInt(VERSION).putInt(names.length).putInt(blockSize).putLong(0).putLong(0);
+      for (byte[] name : encoded) {
+         header.putInt(name.length).put(name);
+      }
+      header.position(0);
+
+      this.channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+         StandardOpenOption.TRUNCATE_EXISTING);
+      writeFully(header, 0);
+   }
+
+   /**
+    * Append the given rows of the columns.
+    *
+    * @param columns
+    *            the values of each column, indexed by row.
+    */
+   public void write(double[][] columns, int from, int to) throws IOException {
+      if (columns.length != block.length) {
+         throw new IllegalArgumentException(columns.length + " columns instead of " + block.length + ".");
+      }
+      for (int row = from; row < to;) {
+         int length = Math.min(to - row, blockSize - size);
+         for (int column = 0; column < block.length; column++) {
+            System.arraycopy(columns[column], row, block[column], size, length);
+         }
+         size += length;
+         row += length;
+         if (size == blockSize) {
+            flushBlock();
+         }
+      }
+   }
+
+   /**
+    * Append a row.
+    */
+   public void writeRow(double[] row) throws IOException {
+      if (row.length != block.length) {
+         throw new IllegalArgumentException(row.length + " columns instead of " + block.length + ".");
+      }
+      for (int column = 0; column < block.length; column++) {
+         block[column][size] = row[column];
+      }
+      if (++size == blockSize) {
+         flushBlock();
+      }
+   }
+
+   /**
+    * Write the last block, the index and the number of rows.
+    */
+   @Override
+   public void close() throws IOException {
+      try {
+         if (size > 0) {
+            for (double[] column : block) {
+               Arrays.fill(column, size, blockSize, 0.0);
+            }
+            flushBlock();
+         }
+
+         long indexOffset = dataOffset + (long) blockCount * block.length * blockSize * 8;
+         ByteBuffer bytes = ByteBuffer.allocate(8 * 2 * block.length * blockCount).order(ByteOrder.LITTLE_ENDIAN);
+         bytes.asDoubleBuffer().put(index, 0, 2 * block.length * blockCount);
+         writeFully(bytes, indexOffset);
+
+         ByteBuffer counts = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+         counts.putLong(rowCount).putLong(indexOffset).flip();
+         writeFully(counts, ROW_COUNT_POSITION);
+      } finally {
+         channel.close();
+      }
+   }
+
+   /**
+    * Convert a CSV file of numbers, whose first line names the columns, into
+    * a column file.
+    *
+    * @return the number of rows.
+    * @throws MathematicalAnalysisException
+    *             if the CSV file has no header, or if a row is not a row of
+    *             numbers.
+    */
+   public static long fromCsv(Path csv, Path output, char separator, int blockSize) throws IOException,
+      MathematicalAnalysisException {
+      try (CsvScanner scanner = new CsvScanner(csv, separator, CsvPipeline.DEFAULT_WINDOW_SIZE)) {
+         if (!scanner.next()) {
+            throw new MathematicalAnalysisException("The file " + csv + " has no header.");
+         }
+         String[] names = scanner.header();
+         double[][] columns = new double[names.length][blockSize];
+         try (ColumnFileWriter writer = new ColumnFileWriter(output, names, blockSize)) {
+            int size = 0;
+            while (scanner.next()) {
+               scanner.read(columns, size++);
+               if (size == blockSize) {
+                  writer.write(columns, 0, size);
+                  size = 0;
+               }
+            }
+            writer.write(columns, 0, size);
+            return writer.rowCount + writer.size;
+         }
+      }
+   }
+
+   private void flushBlock() throws IOException {
+      if (index.length < 2 * block.length * (blockCount + 1)) {
+         index = Arrays.copyOf(index, 2 * index.length + 2 * block.length);
+      }
+      long position = dataOffset + (long) blockCount * block.length * blockSize * 8;
+      for (int column = 0; column < block.length; column++) {
+         double[] values = block[column];
+         double min = Double.POSITIVE_INFINITY;
+         double max = Double.NEGATIVE_INFINITY;
+         for (int row = 0; row < size; row++) {
+            min = Math.min(min, values[row]);
+            max = Math.max(max, values[row]);
+         }
+         index[2 * (blockCount * block.length + column)] = min;
+         index[2 * (blockCount * block.length + column) + 1] = max;
+
+         buffer.clear();
+         buffer.asDoubleBuffer().put(values);
+         writeFully(buffer, position);
+         position += 8 * blockSize;
+      }
+      blockCount++;
+      rowCount += size;
+      size = 0;
+   }
+
+   private void writeFully(ByteBuffer bytes, long position) throws IOException {
+      bytes.position(0);
+      while (bytes.hasRemaining()) {
+         position += channel.write(bytes, position);
+      }
+   }
+}
@@ -0,0 +1,154 @@
+package org.bm.pipeline;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+import org.bm.compiler.CompiledFormula;
+import org.bm.compiler.Interval;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Select the rows of a column file for which a formula is in a range, i.e.
+ * {@code exp(x)*y > 100} as {@code exp(x)*y} in {@code [Math.nextUp(100), +Infinity]}.
+ *
+ * The minimum and maximum of each column in each block, kept by the file,
+ * bound the formula over the block (see {@link CompiledFormula#evaluate(Interval[])}).
+ * The blocks where the formula cannot be in the range are skipped without
+ * being read. A NaN is never in the range.
+ *
+ * @author morinb
+ */
+public class ColumnFilter {
+   private static final Logger logger = Logger.getLogger(ColumnFilter.class);
+
+   private final CompiledFormula formula;
+
+   private final double low;
+
+   private final double high;
+
+   /**
+    * @param formula
+    *            compiled with the columns of the files to filter as slots
+    *            (see
+    *            {@link org.bm.FormulaCompute#compile(String, org.bm.utils.FunctionRegistry, String[], boolean)}).
+    * @param low
+    *            the lowest value of the selected rows.
+    * @param high
+    *            the highest value of the selected rows.
+    */
+   public ColumnFilter(CompiledFormula formula, double low, double high) {
+      this.formula = formula;
+      this.low = low;
+      this.high = high;
+   }
+
+   /**
+    * @return false if no row of the block can be selected.
+    */
+   public boolean mayMatch(ColumnFileReader reader, int block) {
+      Interval[] ranges = new Interval[formula.getSlotCount()];
+      for (int slot : formula.getUsedSlots()) {
+         double min = reader.getMin(block, slot);
+         double max = reader.getMax(block, slot);
+         // The bounds of a block holding a NaN are unknown.
+         ranges[slot] = Double.isNaN(min) || Double.isNaN(max) ? Interval.ENTIRE : Interval.of(min, max);
+      }
+      return formula.evaluate(ranges).intersects(low, high);
+   }
+
+   /**
+    * @return the number of selected rows.
+    */
+   public long count(ColumnFileReader reader) throws IOException {
+      checkColumns(reader);
+      double[][] columns = new double[formula.getSlotCount()][];
+      for (int slot : formula.getUsedSlots()) {
+         columns[slot] = new double[reader.getBlockSize()];
+      }
+      double[] results = new double[reader.getBlockSize()];
+
+      long count = 0;
+      int skipped = 0;
+      for (int block = 0; block < reader.getBlockCount(); block++) {
+         if (!mayMatch(reader, block)) {
+            skipped++;
+            continue;
+         }
+         int size = reader.read(block, columns);
+         formula.evaluate(columns, results, 0, size);
+         for (int row = 0; row < size; row++) {
+            if (low <= results[row] && results[row] <= high) {
+               count++;
+            }
+         }
+      }
+      log(skipped, reader);
+      return count;
+   }
+
+   /**
+    * Write the selected rows, with all their columns.
+    *
+    * @param writer
+    *            a writer of the same columns as the reader.
+    * @return the number of selected rows.
+    */
+   public long filter(ColumnFileReader reader, ColumnFileWriter writer) throws IOException {
+      checkColumns(reader);
+      double[][] columns = new double[formula.getSlotCount()][reader.getBlockSize()];
+      double[] results = new double[reader.getBlockSize()];
+      double[] row = new double[columns.length];
+
+      long count = 0;
+      int skipped = 0;
+      for (int block = 0; block < reader.getBlockCount(); block++) {
+         if (!mayMatch(reader, block)) {
+            skipped++;
+            continue;
+         }
+         int size = reader.read(block, columns);
+         formula.evaluate(columns, results, 0, size);
+         for (int i = 0; i < size; i++) {
+            if (low <= results[i] && results[i] <= high) {
+               for (int column = 0; column < columns.length; column++) {
+                  row[column] = columns[column][i];
+               }
+               writer.writeRow(row);
+               count++;
+            }
+         }
+      }
+      log(skipped, reader);
+      return count;
+   }
+
+   private void checkColumns(ColumnFileReader reader) {
+      if (!Arrays.equals(formula.getVariables(), reader.getNames())) {
+         throw new IllegalArgumentException("The formula " + formula + " was not compiled with the columns "
+            + Arrays.toString(reader.getNames()) + " as slots.");
+      }
+   }
+
+   private void log(int skipped, ColumnFileReader reader) {
+      if (logger.isDebugEnabled()) {
+         logger.debug("Filter " + low + " <= " + formula + " <= " + high + ": " + skipped + " of "
+            + reader.getBlockCount() + " blocks skipped.");
+      }
+   }
+}
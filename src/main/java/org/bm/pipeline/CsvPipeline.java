@@ -0,0 +1,196 @@
+package org.bm.pipeline;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.apache.log4j.Logger;
+import org.bm.FormulaCompute;
+import org.bm.analysis.exception.MathematicalAnalysisException;
+import org.bm.compiler.CompiledFormula;
+import org.bm.utils.FunctionRegistry;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Apply formulas to each row of a CSV file of numbers, and write their results
+ * in another CSV file, one column per formula.
+ *
+ * The first line of the input names its columns, which are the variables of
+ * the formulas. The rows are read by blocks into columns, through a window of
+ * the file mapped in memory, then each formula is evaluated over the whole
+ * block (see {@link CompiledFormula#evaluate(double[][], double[], int, int)}).
+ * Only the columns used by a formula are parsed. The memory used depends on
+ * the size of the blocks and of the window, not on the size of the files.
+ *
+ * Inputs read many times are better converted once into column files (see
+ * {@link ColumnFileWriter#fromCsv(Path, Path, char, int)}), which
+ * {@link #runColumns(Path, Path)} reads without parsing.
+ *
+ * A pipeline may run many times, from many threads.
+ *
+ * @author morinb
+ */
+public class CsvPipeline {
+   private static final Logger logger = Logger.getLogger(CsvPipeline.class);
+
+   /**
+    * The number of rows evaluated at once.
+    */
+   public static final int BLOCK_SIZE = 4096;
+
+   /**
+    * The default size of the part of the input mapped in memory, in bytes.
+    */
+   public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+   private final String[] formulas;
+
+   private final FunctionRegistry registry;
+
+   private final char separator;
+
+   private final int windowSize;
+
+   public CsvPipeline(String... formulas) {
+      this(formulas, FunctionRegistry.getDefault(), ',', DEFAULT_WINDOW_SIZE);
+   }
+
+   /**
+    * @param registry
+    *            the operators and functions the formulas may use.
+    * @param separator
+    *            the separator of the fields, in the input and the output.
+    * @param windowSize
+    *            the size of the part of the input mapped in memory, in bytes,
+    *            which must hold the longest line.
+    */
+   public CsvPipeline(String[] formulas, FunctionRegistry registry, char separator, int windowSize) {
+      if (formulas.length == 0) {
+         throw new IllegalArgumentException("The pipeline needs at least one formula.");
+      }
+      if (separator > 127 || separator == '"' || separator == '\n' || separator == '\r') {
+         throw new IllegalArgumentException("The separator '" + separator + "' is not allowed.");
+      }
+      this.formulas = formulas.clone();
+      this.registry = registry;
+      this.separator = separator;
+      this.windowSize = windowSize;
+   }
+
+   /**
+    * @return the number of rows written.
+    * @throws MathematicalAnalysisException
+    *             if the input has no header, if a formula cannot be parsed or
+    *             uses a variable which is not a column of the input, or if a
+    *             row is not a row of numbers.
+    */
+   public long run(Path input, Path output) throws IOException, MathematicalAnalysisException {
+      try (CsvScanner scanner = new CsvScanner(input, separator, windowSize);
+         CsvWriter writer = new CsvWriter(output, separator)) {
+         if (!scanner.next()) {
+            throw new MathematicalAnalysisException("The file " + input + " has no header.");
+         }
+         String[] names = scanner.header();
+
+         CompiledFormula[] compiled = compile(names);
+         double[][] columns = columns(compiled, names.length, BLOCK_SIZE);
+         double[][] results = new double[formulas.length][BLOCK_SIZE];
+         writer.writeHeader(formulas);
+
+         long rows = 0;
+         int size = 0;
+         while (scanner.next()) {
+            scanner.read(columns, size++);
+            if (size == BLOCK_SIZE) {
+               write(compiled, columns, results, size, writer);
+               rows += size;
+               size = 0;
+            }
+         }
+         write(compiled, columns, results, size, writer);
+         rows += size;
+
+         if (logger.isDebugEnabled()) {
+            logger.debug(rows + " rows of " + input + " computed into " + output);
+         }
+         return rows;
+      }
+   }
+
+   /**
+    * Apply the formulas to each row of a column file (see
+    * {@link ColumnFileWriter}), and write their results in another column
+    * file, one column per formula named after it. No text is parsed: each
+    * block is read from the mapped input and evaluated as a whole.
+    *
+    * @return the number of rows written.
+    * @throws MathematicalAnalysisException
+    *             if a formula cannot be parsed or uses a variable which is not
+    *             a column of the input.
+    */
+   public long runColumns(Path input, Path output) throws IOException, MathematicalAnalysisException {
+      try (ColumnFileReader reader = new ColumnFileReader(input)) {
+         CompiledFormula[] compiled = compile(reader.getNames());
+         int blockSize = reader.getBlockSize();
+         double[][] columns = columns(compiled, reader.getNames().length, blockSize);
+         double[][] results = new double[formulas.length][blockSize];
+
+         try (ColumnFileWriter writer = new ColumnFileWriter(output, formulas, blockSize)) {
+            for (int block = 0; block < reader.getBlockCount(); block++) {
+               int size = reader.read(block, columns);
+               for (int i = 0; i < compiled.length; i++) {
+                  compiled[i].evaluate(columns, results[i], 0, size);
+               }
+               writer.write(results, 0, size);
+            }
+         }
+         return reader.getRowCount();
+      }
+   }
+
+   private CompiledFormula[] compile(String[] names) throws MathematicalAnalysisException {
+      CompiledFormula[] compiled = new CompiledFormula[formulas.length];
+      for (int i = 0; i < formulas.length; i++) {
+         compiled[i] = FormulaCompute.compile(formulas[i], registry, names, false);
+      }
+      return compiled;
+   }
+
+   /**
+    * @return a block of each column used by the formulas, null for the others.
+    */
+   private static double[][] columns(CompiledFormula[] compiled, int count, int blockSize) {
+      double[][] columns = new double[count][];
+      for (CompiledFormula formula : compiled) {
+         for (int slot : formula.getUsedSlots()) {
+            if (null == columns[slot]) {
+               columns[slot] = new double[blockSize];
+            }
+         }
+      }
+      return columns;
+   }
+
+   private static void write(CompiledFormula[] compiled, double[][] columns, double[][] results, int size,
+      CsvWriter writer) throws IOException {
+      for (int i = 0; i < compiled.length; i++) {
+         compiled[i].evaluate(columns, results[i], 0, size);
+      }
+      for (int row = 0; row < size; row++) {
+         writer.writeRow(results, row);
+      }
+   }
+}
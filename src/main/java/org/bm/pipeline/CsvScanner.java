@@ -0,0 +1,265 @@
+package org.bm.pipeline;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bm.analysis.exception.MathematicalAnalysisException;
+import org.bm.utils.NumberParser;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Read the rows of a CSV file of numbers, through a window of the file mapped
+ * in memory which slides from one line to the next. The numbers are parsed
+ * from the bytes of the window, without building a string per field, so the
+ * memory used does not depend on the size of the file.
+ *
+ * The fields are not quoted, except in the header. Blank lines are skipped.
+ *
+ * @author morinb
+ */
+final class CsvScanner implements Closeable {
+
+   private final Path file;
+
+   private final FileChannel channel;
+
+   private final long size;
+
+   private final byte separator;
+
+   private final int windowSize;
+
+   private MappedByteBuffer window;
+
+   /**
+    * The window, read as characters by {@link #numbers}.
+    */
+   private final Bytes bytes = new Bytes();
+
+   private final NumberParser numbers = new NumberParser();
+
+   /**
+    * The position in the file of the start of the window.
+    */
+   private long windowStart;
+
+   /**
+    * The start and end, in the window, of the current line.
+    */
+   private int lineStart;
+
+   private int lineEnd = -1;
+
+   private long lineNumber;
+
+   CsvScanner(Path file, char separator, int windowSize) throws IOException {
+      this.file = file;
+      this.separator = (byte) separator;
+      this.windowSize = windowSize;
+      this.channel = FileChannel.open(file, StandardOpenOption.READ);
+      this.size = channel.size();
+      map(0);
+   }
+
+   /**
+    * Move to the next line which is not blank.
+    *
+    * @return false at the end of the file.
+    */
+   boolean next() throws IOException, MathematicalAnalysisException {
+      int position = lineEnd < 0 ? 0 : lineEnd + 1;
+      while (true) {
+         if (windowStart + position >= size) {
+            return false;
+         }
+         int end = endOfLine(position);
+         if (end < 0) {
+            // The line starts in the window, but does not end in it.
+            map(windowStart + position);
+            position = 0;
+            end = endOfLine(position);
+            if (end < 0) {
+               throw new MathematicalAnalysisException("The line " + (lineNumber + 1) + " of " + file
+                  + " is longer than " + windowSize + " bytes.");
+            }
+         }
+         lineNumber++;
+         lineStart = position;
+         lineEnd = end;
+         if (contentEnd() > lineStart) {
+            return true;
+         }
+         position = end + 1;
+      }
+   }
+
+   /**
+    * @return the fields of the current line, unquoted.
+    */
+   String[] header() {
+      List<String> fields = new ArrayList<>();
+      int end = contentEnd();
+      int start = lineStart;
+      for (int i = lineStart; i <= end; i++) {
+         if (i == end || window.get(i) == separator) {
+            byte[] bytes = new byte[i - start];
+            for (int j = 0; j < bytes.length; j++) {
+               bytes[j] = window.get(start + j);
+            }
+            String field = new String(bytes, StandardCharsets.UTF_8).trim();
+            if (field.length() > 1 && field.startsWith("\"") && field.endsWith("\"")) {
+               field = field.substring(1, field.length() - 1).replace("\"\"", "\"");
+            }
+            fields.add(field);
+            start = i + 1;
+         }
+      }
+      return fields.toArray(new String[fields.size()]);
+   }
+
+   /**
+    * Parse the fields of the current line into a row of the columns.
+    *
+    * @param columns
+    *            the column of each field, or null for the fields to skip.
+    * @throws MathematicalAnalysisException
+    *             if the line has not as many fields as the columns, or if a
+    *             field to parse is not a number.
+    */
+   void read(double[][] columns, int row) throws MathematicalAnalysisException {
+      int end = contentEnd();
+      int start = lineStart;
+      int field = 0;
+      for (int i = lineStart; i <= end; i++) {
+         if (i == end || window.get(i) == separator) {
+            if (field < columns.length && null != columns[field]) {
+               try {
+                  columns[field][row] = parseDouble(start, i);
+               } catch (NumberFormatException e) {
+                  throw new MathematicalAnalysisException("The field " + (field + 1) + " of the line " + lineNumber
+                     + " of " + file + " is not a number.", e);
+               }
+            }
+            field++;
+            start = i + 1;
+         }
+      }
+      if (field != columns.length) {
+         throw new MathematicalAnalysisException("The line " + lineNumber + " of " + file + " has " + field
+            + " fields instead of " + columns.length + ".");
+      }
+   }
+
+   long getLineNumber() {
+      return lineNumber;
+   }
+
+   @Override
+   public void close() throws IOException {
+      window = null;
+      bytes.buffer = null;
+      channel.close();
+   }
+
+   /**
+    * Parse a number as {@link Double#parseDouble(String)} does, from the bytes
+    * of the window (see {@link NumberParser}). The spaces around it are
+    * ignored.
+    */
+   private double parseDouble(int start, int end) {
+      int from = start;
+      int to = end;
+      while (from < to && window.get(from) == ' ') {
+         from++;
+      }
+      while (to > from && window.get(to - 1) == ' ') {
+         to--;
+      }
+      if (numbers.parse(bytes, from, to) == to) {
+         return numbers.getValue();
+      }
+      // i.e. NaN, Infinity, or not a number.
+      return Double.parseDouble(bytes.subSequence(start, end).toString());
+   }
+
+   private void map(long start) throws IOException {
+      windowStart = start;
+      window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, size - start));
+      bytes.buffer = window;
+   }
+
+   /**
+    * @return the position in the window of the end of the line starting at
+    *         the given position, or -1 if the window ends before the line.
+    */
+   private int endOfLine(int position) {
+      int limit = window.limit();
+      for (int i = position; i < limit; i++) {
+         if (window.get(i) == '\n') {
+            return i;
+         }
+      }
+      return windowStart + limit == size ? limit : -1;
+   }
+
+   /**
+    * @return the end of the current line, without its carriage return.
+    */
+   private int contentEnd() {
+      return lineEnd > lineStart && window.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+   }
+
+   /**
+    * The bytes of a buffer of ASCII text, as characters.
+    */
+   private static final class Bytes implements CharSequence {
+
+      private ByteBuffer buffer;
+
+      @Override
+      public int length() {
+         return buffer.limit();
+      }
+
+      @Override
+      public char charAt(int index) {
+         return (char) (buffer.get(index) & 0xff);
+      }
+
+      @Override
+      public CharSequence subSequence(int start, int end) {
+         byte[] text = new byte[end - start];
+         for (int i = 0; i < text.length; i++) {
+            text[i] = buffer.get(start + i);
+         }
+         return new String(text, StandardCharsets.US_ASCII);
+      }
+
+      @Override
+      public String toString() {
+         return subSequence(0, length()).toString();
+      }
+   }
+}
@@ -0,0 +1,120 @@
+package org.bm.pipeline;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Write the lines of a CSV file through a buffer of fixed size.
+ *
+ * @author morinb
+ */
+final class CsvWriter implements Closeable {
+
+   private static final int BUFFER_SIZE = 64 * 1024;
+
+   private final FileChannel channel;
+
+   private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+   private final char separator;
+
+   /**
+    * The text of a value, reused from one value to the next.
+    */
+   private final StringBuilder text = new StringBuilder(32);
+
+   CsvWriter(Path file, char separator) throws IOException {
+      this.channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+         StandardOpenOption.TRUNCATE_EXISTING);
+      this.separator = separator;
+   }
+
+   /**
+    * Write a line of text fields, quoted where they hold the separator or a
+    * quote.
+    */
+   void writeHeader(String[] fields) throws IOException {
+      for (int i = 0; i < fields.length; i++) {
+         if (i > 0) {
+            write(separator);
+         }
+         String field = fields[i];
+         if (field.indexOf(separator) >= 0 || field.indexOf('"') >= 0) {
+            field = '"' + field.replace("\"", "\"\"") + '"';
+         }
+         byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+         for (byte b : bytes) {
+            put(b);
+         }
+      }
+      write('\n');
+   }
+
+   /**
+    * Write the given row of the columns as a line. The values are written as
+    * by {@link Double#toString(double)}, but through a reused buffer:
+    * {@link StringBuilder#append(double)} formats them without creating a
+    * string.
+    */
+   void writeRow(double[][] columns, int row) throws IOException {
+      for (int i = 0; i < columns.length; i++) {
+         if (i > 0) {
+            write(separator);
+         }
+         text.setLength(0);
+         text.append(columns[i][row]);
+         for (int j = 0; j < text.length(); j++) {
+            write(text.charAt(j));
+         }
+      }
+      write('\n');
+   }
+
+   @Override
+   public void close() throws IOException {
+      try {
+         flush();
+      } finally {
+         channel.close();
+      }
+   }
+
+   private void write(char c) throws IOException {
+      put((byte) c);
+   }
+
+   private void put(byte b) throws IOException {
+      if (!buffer.hasRemaining()) {
+         flush();
+      }
+      buffer.put(b);
+   }
+
+   private void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+         channel.write(buffer);
+      }
+      buffer.clear();
+   }
+}
@@ -22,18 +22,99 @@ import org.bm.analysis.exception.MathematicalAnalysisException;
 public abstract class DelegateFunction {
    protected final int nbArgs;
 
+   protected final String name;
+
    public DelegateFunction(int nbArgs) {
+      this(null, nbArgs);
+   }
+
+   public DelegateFunction(String name, int nbArgs) {
       super();
+      this.name = name;
       this.nbArgs = nbArgs;
    }
 
+   public int getNbArgs() {
+      return nbArgs;
+   }
+
    /**
     * Make the computation describe by the implementing class.
     * It takes nbArgs arguments defined by the constructor.
+    * As the arguments are popped from a stack, the last argument comes first.
     * @param args The arguments passed to the function.
     * @return The result of the computation.
     * @throws MathematicalAnalysisException
     */
-   public abstract String compute(String... args) throws MathematicalAnalysisException;
+   public String compute(String... args) throws MathematicalAnalysisException {
+      if (args == null) {
+         throw new MathematicalAnalysisException(name + ": Args must not be null");
+      }
+      if (args.length != nbArgs) {
+         throw new MathematicalAnalysisException(name + ": function needs " + nbArgs + " exactly argument(s).");
+      }
+
+      double[] values = new double[nbArgs];
+      try {
+         for (int i = 0; i < nbArgs; i++) {
+            values[nbArgs - 1 - i] = Double.parseDouble(args[i]);
+         }
+      } catch (NumberFormatException e) {
+         throw new MathematicalAnalysisException(name + ": the arguments must be Numbers.", e);
+      }
+
+      return Double.toString(compute(values, 0));
+   }
+
+   /**
+    * Primitive counterpart of {@link #compute(String...)}. This one formats
+    * the arguments and parses the result of {@link #compute(String...)}, so
+    * that the functions implementing only the latter still work: override it
+    * to neither parse nor allocate anything, as the built-in operators and
+    * functions do. A function overrides at least one of the two.
+    * @param args The array holding the nbArgs arguments, in their natural order.
+    * @param offset The index of the first argument in args.
+    * @return The result of the computation.
+    * @throws IllegalArgumentException if {@link #compute(String...)} rejects
+    *            the arguments.
+    */
+   public double compute(double[] args, int offset) {
+      String[] values = new String[nbArgs];
+      for (int i = 0; i < nbArgs; i++) {
+         values[nbArgs - 1 - i] = Double.toString(args[offset + i]);
+      }
+      try {
+         return Double.parseDouble(compute(values));
+      } catch (MathematicalAnalysisException e) {
+         throw new IllegalArgumentException(e.getMessage(), e);
+      }
+   }
+
+   /**
+    * Compute a function taking exactly one argument. This one allocates the
+    * array of the argument: {@link UnaryDelegateFunction} does not.
+    * @throws IllegalArgumentException if the function does not take
+    *            exactly one argument.
+    */
+   public double compute(double arg) {
+      checkNbArgs(1);
+      return compute(new double[] { arg }, 0);
+   }
 
+   /**
+    * Compute a function taking exactly two arguments. This one allocates the
+    * array of the arguments: {@link BinaryDelegateFunction} does not.
+    * @throws IllegalArgumentException if the function does not take
+    *            exactly two arguments.
+    */
+   public double compute(double arg1, double arg2) {
+      checkNbArgs(2);
+      return compute(new double[] { arg1, arg2 }, 0);
+   }
+
+   private void checkNbArgs(int count) {
+      if (nbArgs != count) {
+         throw new IllegalArgumentException(name + ": function needs " + nbArgs + " exactly argument(s).");
+      }
+   }
 }
@@ -1,5 +1,8 @@
 package org.bm.utils;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.bm.analysis.exception.MathematicalAnalysisException;
 
 /**
@@ -23,83 +26,40 @@ public enum Function {
    /**
     * The Sqrt function.
     */
-   SQRT("sqrt", 1, new DelegateFunction(1) {
+   SQRT("sqrt", 1, new UnaryDelegateFunction("SQRT") {
       @Override
-      public String compute(String... args) {
-         if (args == null) {
-            throw new NullPointerException("SQRT: Args must not be null");
-         }
-         if (args.length != nbArgs) {
-            throw new IllegalArgumentException("SQRT: function needs " + nbArgs + " exactly argument(s).");
-         }
-
-         String arg = args[0];
-         Double d;
-         try {
-            d = Double.parseDouble(arg);
-         } catch (NumberFormatException e) {
-            throw new IllegalArgumentException("SQRT: the argument must be a Number.", e);
-         }
-
-         d = Math.sqrt(d);
-
-         return d.toString();
+      public double compute(double arg) {
+         return Math.sqrt(arg);
       }
    }),
 
    /**
     * The Log base 10 function.
     */
-   LOG("log", 1, new DelegateFunction(1) {
+   LOG("log", 1, new UnaryDelegateFunction("LOG") {
       @Override
-      public String compute(String... args) {
-         if (args == null) {
-            throw new NullPointerException("LOG: Args must not be null");
-         }
-         if (args.length != nbArgs) {
-            throw new IllegalArgumentException("LOG: function needs " + nbArgs + " exactly argument(s).");
-         }
-
-         String arg = args[0];
-         Double d;
-         try {
-            d = Double.parseDouble(arg);
-         } catch (NumberFormatException e) {
-            throw new IllegalArgumentException("LOG: the argument must be a Number.", e);
-         }
-
-         d = Math.log10(d);
-
-         return d.toString();
+      public double compute(double arg) {
+         return Math.log10(arg);
       }
    }),
 
    /**
-     * 
-     */
-   EXP("exp", 1, new DelegateFunction(1) {
+    * The exponential function.
+    */
+   EXP("exp", 1, new UnaryDelegateFunction("EXP") {
       @Override
-      public String compute(String... args) {
-         if (args == null) {
-            throw new NullPointerException("EXP: Args must not be null");
-         }
-         if (args.length != nbArgs) {
-            throw new IllegalArgumentException("EXP: function needs " + nbArgs + " exactly argument(s).");
-         }
-
-         String arg = args[0];
-         Double d;
-         try {
-            d = Double.parseDouble(arg);
-         } catch (NumberFormatException e) {
-            throw new IllegalArgumentException("EXP: the argument must be a Number.", e);
-         }
-
-         d = Math.exp(d);
-
-         return d.toString();
+      public double compute(double arg) {
+         return Math.exp(arg);
+      }
+   });
+
+   private static final Map<String, Function> BY_NAME = new HashMap<>();
+
+   static {
+      for (Function function : values()) {
+         BY_NAME.put(function.name, function);
       }
-   }), ;
+   }
 
    private final String name;
 
@@ -113,10 +73,29 @@ public enum Function {
       this.nbArgs = nbArgs;
    }
 
+   DelegateFunction getDelegate() {
+      return delegate;
+   }
+
    public String compute(String... args) throws MathematicalAnalysisException {
       return delegate.compute(args);
    }
 
+   public double compute(double arg) {
+      return delegate.compute(arg);
+   }
+
+   public double compute(double arg1, double arg2) {
+      return delegate.compute(arg1, arg2);
+   }
+
+   /**
+    * @see DelegateFunction#compute(double[], int)
+    */
+   public double compute(double[] args, int offset) {
+      return delegate.compute(args, offset);
+   }
+
    public String getName() {
       return name;
    }
@@ -139,15 +118,6 @@ public enum Function {
     *         function was found.
     */
    public static Function get(String value) {
-      Function[] functions = Function.values();
-
-      for (Function function : functions) {
-         String op = function.name;
-         if (op.equals(value)) {
-            return function;
-         }
-      }
-
-      return null;
+      return null == value ? null : BY_NAME.get(value);
    }
 }
@@ -0,0 +1,247 @@
+package org.bm.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.bm.compiler.OpCode;
+
+/**
+ * Copyright 2012 B. MORIN
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * 
+ * The operators and functions a formula may use: the built-in {@link Operator}
+ * and {@link Function}, plus the functions registered by the application, i.e.
+ * 
+ * <pre>
+ * FunctionRegistry registry = FunctionRegistry.getDefault().register(&quot;max&quot;,
+ *    new BinaryDelegateFunction(&quot;MAX&quot;) {
+ *       public double compute(double arg1, double arg2) {
+ *          return Math.max(arg1, arg2);
+ *       }
+ *    });
+ * </pre>
+ * 
+ * A registry is immutable, registering a function returns a new registry.
+ * Symbols are resolved through an open addressing hash table built once, which
+ * can look a name up directly in the formula, without creating any object.
+ * 
+ * @author morinb
+ */
+public final class FunctionRegistry {
+
+   private static final FunctionRegistry DEFAULT = new FunctionRegistry(builtins());
+
+   /**
+    * The symbols, indexed by their id.
+    */
+   private final Symbol[] symbols;
+
+   /**
+    * The symbols, indexed by the hash of their name.
+    */
+   private final Symbol[] table;
+
+   private final int mask;
+
+   /**
+    * The names of the functions, without the operators.
+    */
+   private final String[] functionNames;
+
+   private FunctionRegistry(Symbol[] symbols) {
+      this.symbols = symbols;
+
+      List<String> names = new ArrayList<>();
+      for (Symbol symbol : symbols) {
+         if (null != symbol && symbol.isFunction()) {
+            names.add(symbol.getName());
+         }
+      }
+      this.functionNames = names.toArray(new String[names.size()]);
+
+      int capacity = Integer.highestOneBit(Math.max(symbols.length, 4) * 4);
+      this.table = new Symbol[capacity];
+      this.mask = capacity - 1;
+
+      for (Symbol symbol : symbols) {
+         if (null != symbol) {
+            int index = hash(symbol.getName().hashCode()) & mask;
+            while (null != table[index]) {
+               index = (index + 1) & mask;
+            }
+            table[index] = symbol;
+         }
+      }
+   }
+
+   /**
+    * @return the registry of the built-in operators and functions.
+    */
+   public static FunctionRegistry getDefault() {
+      return DEFAULT;
+   }
+
+   /**
+    * @see #register(String, DelegateFunction, boolean)
+    */
+   public FunctionRegistry register(String name, DelegateFunction function) {
+      return register(name, function, true);
+   }
+
+   /**
+    * Add a function.
+    * 
+    * @param name
+    *            the name of the function in the formulas.
+    * @param function
+    *            the computation, taking {@link DelegateFunction#getNbArgs()}
+    *            arguments.
+    * @param pure
+    *            true if the result only depends on the arguments.
+    * @return a new registry, holding the symbols of this one plus the new
+    *         function.
+    * @throws IllegalArgumentException
+    *             if the name is already used, or cannot be read as a name in
+    *             a formula.
+    */
+   public FunctionRegistry register(String name, DelegateFunction function, boolean pure) {
+      checkName(name);
+      if (null == function) {
+         throw new IllegalArgumentException(name + ": the function must not be null.");
+      }
+      if (null != get(name)) {
+         throw new IllegalArgumentException(name + " is already registered.");
+      }
+
+      Symbol[] newSymbols = Arrays.copyOf(symbols, symbols.length + 1);
+      newSymbols[symbols.length] = new Symbol(symbols.length, name, pure, null, null, function);
+      return new FunctionRegistry(newSymbols);
+   }
+
+   /**
+    * @return the symbol of this name, or null.
+    */
+   public Symbol get(String name) {
+      if (null == name) {
+         return null;
+      }
+      return find(name, 0, name.length(), name.hashCode());
+   }
+
+   /**
+    * Look a name up without extracting it from the text.
+    * 
+    * @return the symbol whose name is the text between start (inclusive) and
+    *         end (exclusive), or null.
+    */
+   public Symbol get(CharSequence text, int start, int end) {
+      int h = 0;
+      for (int i = start; i < end; i++) {
+         h = 31 * h + text.charAt(i);
+      }
+      return find(text, start, end, h);
+   }
+
+   /**
+    * @return the symbol of this id, or null.
+    */
+   public Symbol get(int id) {
+      return id >= 0 && id < symbols.length ? symbols[id] : null;
+   }
+
+   /**
+    * Tell if a variable has the name of a function: the parser then reads the
+    * name as the variable, not as the function.
+    * 
+    * @return true if one of the keys of the variables is the name of a
+    *         function.
+    */
+   public boolean isShadowed(Map<String, ?> variables) {
+      if (null == variables || variables.isEmpty()) {
+         return false;
+      }
+      for (String name : functionNames) {
+         if (variables.containsKey(name)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * @return the highest id plus one.
+    */
+   public int size() {
+      return symbols.length;
+   }
+
+   private Symbol find(CharSequence text, int start, int end, int hashCode) {
+      int index = hash(hashCode) & mask;
+      for (Symbol symbol = table[index]; null != symbol; symbol = table[index]) {
+         if (matches(symbol.getName(), text, start, end)) {
+            return symbol;
+         }
+         index = (index + 1) & mask;
+      }
+      return null;
+   }
+
+   private static boolean matches(String name, CharSequence text, int start, int end) {
+      if (name.length() != end - start) {
+         return false;
+      }
+      for (int i = 0; i < name.length(); i++) {
+         if (name.charAt(i) != text.charAt(start + i)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private static int hash(int hashCode) {
+      return hashCode ^ (hashCode >>> 16);
+   }
+
+   private static void checkName(String name) {
+      if (null == name || name.isEmpty()) {
+         throw new IllegalArgumentException("The name of a function must not be empty.");
+      }
+      char first = name.charAt(0);
+      if ((first >= '0' && first <= '9') || first == '.' || "NaN".equals(name) || "Infinity".equals(name)) {
+         throw new IllegalArgumentException(name + " would be read as a number.");
+      }
+      for (int i = 0; i < name.length(); i++) {
+         char c = name.charAt(i);
+         if (Character.isWhitespace(c) || c == '(' || c == ')' || c == ',' || null != Operator.get(String.valueOf(c))) {
+            throw new IllegalArgumentException(name + " would not be read as a name: '" + c + "' is not allowed.");
+         }
+      }
+   }
+
+   private static Symbol[] builtins() {
+      Symbol[] symbols = new Symbol[OpCode.FIRST_CUSTOM];
+      for (Operator operator : Operator.values()) {
+         int id = OpCode.ADDITION + operator.ordinal();
+         symbols[id] = new Symbol(id, operator.getValue(), true, operator, null, operator.getDelegate());
+      }
+      for (Function function : Function.values()) {
+         int id = OpCode.SQRT + function.ordinal();
+         symbols[id] = new Symbol(id, function.getName(), true, null, function, function.getDelegate());
+      }
+      return symbols;
+   }
+}
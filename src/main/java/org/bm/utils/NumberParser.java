@@ -0,0 +1,136 @@
+package org.bm.utils;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * Read a decimal number, [+|-] digits [. digits] [e [+|-] digits], as
+ * {@link Double#parseDouble(String)} does. The value is computed without
+ * creating any object when it has at most 15 significant digits and a power of
+ * ten of at most 22: both are then exact doubles, so that a single
+ * multiplication or division rounds it correctly (see W. D. Clinger, How to
+ * Read Floating Point Numbers Accurately). The other numbers are given to
+ * {@link Double#parseDouble(String)}.
+ *
+ * The parser is a cursor, used by the lexer of the formulas and by the
+ * readers of files of numbers. It is not thread-safe.
+ *
+ * @author morinb
+ */
+public final class NumberParser {
+
+   /**
+    * The powers of ten which are exactly represented as a double.
+    */
+   private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+   /**
+    * Mantissas up to this number of digits are exactly represented as a
+    * double.
+    */
+   private static final int MAX_EXACT_DIGITS = 15;
+
+   private double value;
+
+   /**
+    * Read the longest number from start. What follows it is left to the
+    * caller, i.e. a delimiter or the end of a field.
+    *
+    * @param end
+    *            the offset after the last character which may be read.
+    * @return the offset following the number, or -1 if no digit is found at
+    *         start. The value is then given by {@link #getValue()}.
+    */
+   public int parse(CharSequence text, int start, int end) {
+      int pos = start;
+      boolean negative = false;
+      if (pos < end && (text.charAt(pos) == '-' || text.charAt(pos) == '+')) {
+         negative = text.charAt(pos) == '-';
+         pos++;
+      }
+
+      long mantissa = 0;
+      int digits = 0;
+      int exponent = 0;
+      boolean anyDigit = false;
+
+      while (pos < end && isDigit(text.charAt(pos))) {
+         int digit = text.charAt(pos++) - '0';
+         anyDigit = true;
+         if (mantissa != 0 || digit != 0) {
+            if (++digits <= MAX_EXACT_DIGITS) {
+               mantissa = mantissa * 10 + digit;
+            } else {
+               exponent++;
+            }
+         }
+      }
+      if (pos < end && text.charAt(pos) == '.') {
+         pos++;
+         while (pos < end && isDigit(text.charAt(pos))) {
+            int digit = text.charAt(pos++) - '0';
+            anyDigit = true;
+            if (mantissa != 0 || digit != 0) {
+               if (++digits <= MAX_EXACT_DIGITS) {
+                  mantissa = mantissa * 10 + digit;
+                  exponent--;
+               }
+            } else {
+               exponent--;
+            }
+         }
+      }
+      if (!anyDigit) {
+         return -1;
+      }
+
+      if (pos < end && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+         int exp = pos + 1;
+         boolean negativeExponent = false;
+         if (exp < end && (text.charAt(exp) == '+' || text.charAt(exp) == '-')) {
+            negativeExponent = text.charAt(exp) == '-';
+            exp++;
+         }
+         if (exp < end && isDigit(text.charAt(exp))) {
+            int power = 0;
+            while (exp < end && isDigit(text.charAt(exp))) {
+               power = Math.min(power * 10 + text.charAt(exp++) - '0', 100000);
+            }
+            exponent += negativeExponent ? -power : power;
+            pos = exp;
+         }
+      }
+
+      if (digits <= MAX_EXACT_DIGITS && Math.abs(exponent) < POWERS_OF_TEN.length) {
+         double number = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+         value = negative ? -number : number;
+      } else {
+         value = Double.parseDouble(text.subSequence(start, pos).toString());
+      }
+      return pos;
+   }
+
+   /**
+    * @return the value of the last number read.
+    */
+   public double getValue() {
+      return value;
+   }
+
+   private static boolean isDigit(char c) {
+      return c >= '0' && c <= '9';
+   }
+}
@@ -1,5 +1,8 @@
 package org.bm.utils;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.bm.analysis.exception.MathematicalAnalysisException;
 
 /**
@@ -113,219 +116,74 @@ public enum Operator {
    /**
     * The addition operator.
     */
-   ADDITION("+", 12, true, 2, new DelegateFunction(2) {
+   ADDITION("+", 12, true, 2, new BinaryDelegateFunction("ADDITION") {
       @Override
-      public String compute(String... args) throws MathematicalAnalysisException {
-         if (args == null) {
-            throw new MathematicalAnalysisException("ADDITION: Args must not be null");
-         }
-         if (args.length != nbArgs) {
-            throw new MathematicalAnalysisException("ADDITION: function needs " + nbArgs + " exactly argument(s).");
-         }
-
-         // As the stack stores in LIFO mode, the 2nd parameter is popped
-         // first.
-         String arg2 = args[0];
-         String arg1 = args[1];
-         Double d1;
-         Double d2;
-         try {
-            d1 = Double.parseDouble(arg1);
-            d2 = Double.parseDouble(arg2);
-         } catch (NumberFormatException e) {
-            throw new MathematicalAnalysisException("ADDITION: the arguments must be Numbers.", e);
-         }
-
-         Double d = d1 + d2;
-
-         return d.toString();
+      public double compute(double arg1, double arg2) {
+         return arg1 + arg2;
       }
    }),
    /**
     * The substraction operator
     */
-   SUBSTRACTION("-", 12, true, 2, new DelegateFunction(2) {
+   SUBSTRACTION("-", 12, true, 2, new BinaryDelegateFunction("SUBSTRACTION") {
       @Override
-      public String compute(String... args) throws MathematicalAnalysisException {
-         if (args == null) {
-            throw new MathematicalAnalysisException("SUBSTRACTION: Args must not be null");
-         }
-         if (args.length != nbArgs) {
-            throw new MathematicalAnalysisException("SUBSTRACTION: function needs " + nbArgs + " exactly argument(s).");
-         }
-
-         // As the stack stores in LIFO mode, the 2nd parameter is popped
-         // first.
-         String arg2 = args[0];
-         String arg1 = args[1];
-         Double d1;
-         Double d2;
-         try {
-            d1 = Double.parseDouble(arg1);
-            d2 = Double.parseDouble(arg2);
-         } catch (NumberFormatException e) {
-            throw new MathematicalAnalysisException("SUBSTRACTION: the arguments must be Numbers.", e);
-         }
-
-         Double d = d1 - d2;
-
-         return d.toString();
+      public double compute(double arg1, double arg2) {
+         return arg1 - arg2;
       }
    }),
    /**
     * The substraction operator
     */
-   OPPOSITE("_", 14, true, 1, new DelegateFunction(1) {
+   OPPOSITE("_", 14, true, 1, new UnaryDelegateFunction("MINUS") {
       @Override
-      public String compute(String... args) throws MathematicalAnalysisException {
-         if (args == null) {
-            throw new MathematicalAnalysisException("MINUS: Args must not be null");
-         }
-         if (args.length != nbArgs) {
-            throw new MathematicalAnalysisException("MINUS: function needs " + nbArgs + " exactly argument(s).");
-         }
-
-         // As the stack stores in LIFO mode, the 2nd parameter is popped
-         // first.
-         String arg1 = args[0];
-         Double d1;
-         try {
-            d1 = Double.parseDouble(arg1);
-         } catch (NumberFormatException e) {
-            throw new MathematicalAnalysisException("MINUS: the arguments must be Numbers.", e);
-         }
-
-         Double d;
-         d = -d1;
-
-         return d.toString();
+      public double compute(double arg) {
+         return -arg;
       }
    }),
    /**
     * The multiplication operator.
     */
-   MULTIPLICATION("*", 13, true, 2, new DelegateFunction(2) {
+   MULTIPLICATION("*", 13, true, 2, new BinaryDelegateFunction("MULTIPLICATION") {
       @Override
-      public String compute(String... args) throws MathematicalAnalysisException {
-         if (args == null) {
-            throw new MathematicalAnalysisException("MULTIPLICATION: Args must not be null");
-         }
-         if (args.length != nbArgs) {
-            throw new MathematicalAnalysisException("MULTIPLICATION: function needs " + nbArgs + " exactly argument(s).");
-         }
-
-         // As the stack stores in LIFO mode, the 2nd parameter is popped
-         // first.
-         String arg2 = args[0];
-         String arg1 = args[1];
-         Double d1;
-         Double d2;
-         try {
-            d1 = Double.parseDouble(arg1);
-            d2 = Double.parseDouble(arg2);
-         } catch (NumberFormatException e) {
-            throw new MathematicalAnalysisException("MULTIPLICATION: the arguments must be Numbers.", e);
-         }
-
-         Double d = d1 * d2;
-
-         return d.toString();
+      public double compute(double arg1, double arg2) {
+         return arg1 * arg2;
       }
    }),
    /**
     * The modulo operator.
     */
-   MODULO("%", 13, true, 2, new DelegateFunction(2) {
+   MODULO("%", 13, true, 2, new BinaryDelegateFunction("MODULO") {
       @Override
-      public String compute(String... args) throws MathematicalAnalysisException {
-         if (args == null) {
-            throw new MathematicalAnalysisException("MODULO: Args must not be null");
-         }
-         if (args.length != nbArgs) {
-            throw new MathematicalAnalysisException("MODULO: function needs " + nbArgs + " exactly argument(s).");
-         }
-
-         // As the stack stores in LIFO mode, the 2nd parameter is popped
-         // first.
-         String arg2 = args[0];
-         String arg1 = args[1];
-         Double d1;
-         Double d2;
-         try {
-            d1 = Double.parseDouble(arg1);
-            d2 = Double.parseDouble(arg2);
-         } catch (NumberFormatException e) {
-            throw new MathematicalAnalysisException("MODULO: the arguments must be Numbers.", e);
-         }
-
-         Double d = d1 % d2;
-
-         return d.toString();
+      public double compute(double arg1, double arg2) {
+         return arg1 % arg2;
       }
    }),
    /**
     * The division operator.
     */
-   DIVISION("/", 13, true, 2, new DelegateFunction(2) {
+   DIVISION("/", 13, true, 2, new BinaryDelegateFunction("DIVISION") {
       @Override
-      public String compute(String... args) throws MathematicalAnalysisException {
-         if (args == null) {
-            throw new MathematicalAnalysisException("DIVISION: Args must not be null");
-         }
-         if (args.length != nbArgs) {
-            throw new MathematicalAnalysisException("DIVISION: function needs " + nbArgs + " exactly argument(s).");
-         }
-
-         // As the stack stores in LIFO mode, the 2nd parameter is popped
-         // first.
-         String arg2 = args[0];
-         String arg1 = args[1];
-         Double d1;
-         Double d2;
-         try {
-            d1 = Double.parseDouble(arg1);
-            d2 = Double.parseDouble(arg2);
-         } catch (NumberFormatException e) {
-            throw new MathematicalAnalysisException("DIVISION: the arguments must be Numbers.", e);
-         }
-
-         Double d = d1 / d2;
-
-         return d.toString();
+      public double compute(double arg1, double arg2) {
+         return arg1 / arg2;
       }
    }),
    /**
     * The power operator.
     */
-   POWER("^", 14, false, 2, new DelegateFunction(2) {
+   POWER("^", 14, false, 2, new BinaryDelegateFunction("POWER") {
       @Override
-      public String compute(String... args) throws MathematicalAnalysisException {
-         if (args == null) {
-            throw new MathematicalAnalysisException("POWER: Args must not be null");
-         }
-         if (args.length != nbArgs) {
-            throw new MathematicalAnalysisException("POWER: function needs " + nbArgs + " exactly argument(s).");
-         }
-
-         // As the stack stores in LIFO mode, the 2nd parameter is popped
-         // first.
-         String arg2 = args[0];
-         String arg1 = args[1];
-         Double d1;
-         Double d2;
-         try {
-            d1 = Double.parseDouble(arg1);
-            d2 = Double.parseDouble(arg2);
-         } catch (NumberFormatException e) {
-            throw new MathematicalAnalysisException("POWER: the arguments must be Numbers.", e);
-         }
+      public double compute(double arg1, double arg2) {
+         return Math.pow(arg1, arg2);
+      }
+   });
 
-         Double d;
-         d = Math.pow(d1, d2);
+   private static final Map<String, Operator> BY_NAME = new HashMap<>();
 
-         return d.toString();
+   static {
+      for (Operator operator : values()) {
+         BY_NAME.put(operator.value, operator);
       }
-   });
+   }
 
    private Operator(String valeur, int priorite, boolean leftAssociative, int nbArgs, DelegateFunction delegate) {
       this.value = valeur;
@@ -364,16 +222,7 @@ public enum Operator {
     *         operator was found.
     */
    public static Operator get(String value) {
-      Operator[] operators = Operator.values();
-
-      for (Operator operator : operators) {
-         String op = operator.value;
-         if (op.equals(value)) {
-            return operator;
-         }
-      }
-
-      return null;
+      return null == value ? null : BY_NAME.get(value);
    }
 
    private final String value;
@@ -391,8 +240,27 @@ public enum Operator {
       return value;
    }
 
+   DelegateFunction getDelegate() {
+      return delegate;
+   }
+
    public String compute(String... args) throws MathematicalAnalysisException {
       return delegate.compute(args);
    }
 
+   public double compute(double arg) {
+      return delegate.compute(arg);
+   }
+
+   public double compute(double arg1, double arg2) {
+      return delegate.compute(arg1, arg2);
+   }
+
+   /**
+    * @see DelegateFunction#compute(double[], int)
+    */
+   public double compute(double[] args, int offset) {
+      return delegate.compute(args, offset);
+   }
+
 }
@@ -0,0 +1,109 @@
+package org.bm.utils;
+
+/**
+ * Copyright 2012 B. MORIN
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * 
+ * An operator or a function known by a {@link FunctionRegistry}, either
+ * built-in or registered by the application.
+ * 
+ * @author morinb
+ */
+public final class Symbol {
+
+   private final int id;
+
+   private final String name;
+
+   private final boolean pure;
+
+   private final Operator operator;
+
+   private final Function function;
+
+   private final DelegateFunction delegate;
+
+   Symbol(int id, String name, boolean pure, Operator operator, Function function, DelegateFunction delegate) {
+      this.id = id;
+      this.name = name;
+      this.pure = pure;
+      this.operator = operator;
+      this.function = function;
+      this.delegate = delegate;
+   }
+
+   /**
+    * @return the id of the symbol, which is also its opcode in the compiled
+    *         formulas.
+    */
+   public int getId() {
+      return id;
+   }
+
+   public String getName() {
+      return name;
+   }
+
+   public int getNbArgs() {
+      return delegate.getNbArgs();
+   }
+
+   /**
+    * @return true if the result only depends on the arguments, so that it can
+    *         be computed once for constant arguments.
+    */
+   public boolean isPure() {
+      return pure;
+   }
+
+   public boolean isOperator() {
+      return null != operator;
+   }
+
+   public boolean isFunction() {
+      return null == operator;
+   }
+
+   /**
+    * @return the built-in operator, or null.
+    */
+   public Operator getOperator() {
+      return operator;
+   }
+
+   /**
+    * @return the built-in function, or null for the operators and the
+    *         functions registered by the application.
+    */
+   public Function getFunction() {
+      return function;
+   }
+
+   public DelegateFunction getDelegate() {
+      return delegate;
+   }
+
+   /**
+    * @see DelegateFunction#compute(double[], int)
+    */
+   public double compute(double[] args, int offset) {
+      return delegate.compute(args, offset);
+   }
+
+   @Override
+   public String toString() {
+      return name;
+   }
+}
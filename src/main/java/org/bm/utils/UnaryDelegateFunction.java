@@ -0,0 +1,36 @@
+package org.bm.utils;
+
+/**
+ * Copyright 2012 B. MORIN
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * 
+ * A function taking exactly one argument, computed on a primitive double.
+ * 
+ * @author morinb
+ */
+public abstract class UnaryDelegateFunction extends DelegateFunction {
+
+   public UnaryDelegateFunction(String name) {
+      super(name, 1);
+   }
+
+   @Override
+   public abstract double compute(double arg);
+
+   @Override
+   public double compute(double[] args, int offset) {
+      return compute(args[offset]);
+   }
+}
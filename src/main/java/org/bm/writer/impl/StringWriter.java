@@ -19,6 +19,8 @@ import java.util.List;
  * License for the specific language governing permissions and limitations under
  * the License.
  *
+ * The writer has no state: it can be shared between threads.
+ *
  * @author morinb
  */
 public class StringWriter implements Writer<String> {
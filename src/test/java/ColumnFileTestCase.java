@@ -0,0 +1,222 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.bm.FormulaCompute;
+import org.bm.compiler.CompiledFormula;
+import org.bm.pipeline.ColumnFileReader;
+import org.bm.pipeline.ColumnFileWriter;
+import org.bm.pipeline.ColumnFilter;
+import org.bm.pipeline.CsvPipeline;
+import org.bm.utils.FunctionRegistry;
+
+import junit.framework.TestCase;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * @author morinb
+ *
+ */
+public class ColumnFileTestCase extends TestCase {
+
+   private Path directory;
+
+   @Override
+   protected void setUp() throws IOException {
+      directory = Files.createTempDirectory("columns");
+   }
+
+   @Override
+   protected void tearDown() throws IOException {
+      for (Path file : Files.newDirectoryStream(directory)) {
+         Files.delete(file);
+      }
+      Files.delete(directory);
+   }
+
+   public void testWriteAndRead() throws IOException {
+      int rows = 1000;
+      int blockSize = 64;
+      Random random = new Random(5);
+      double[][] columns = new double[3][rows];
+      for (double[] column : columns) {
+         for (int row = 0; row < rows; row++) {
+            column[row] = random.nextGaussian();
+         }
+      }
+      columns[2][130] = Double.NaN;
+
+      Path file = directory.resolve("table.col");
+      try (ColumnFileWriter writer = new ColumnFileWriter(file, new String[] { "x", "y", "\u00e9t\u00e9" }, blockSize)) {
+         writer.write(columns, 0, 100);
+         writer.writeRow(new double[] { columns[0][100], columns[1][100], columns[2][100] });
+         writer.write(columns, 101, rows);
+      }
+
+      try (ColumnFileReader reader = new ColumnFileReader(file)) {
+         assertTrue(Arrays.equals(new String[] { "x", "y", "\u00e9t\u00e9" }, reader.getNames()));
+         assertEquals(2, reader.getColumn("\u00e9t\u00e9"));
+         assertEquals(rows, reader.getRowCount());
+         assertEquals(blockSize, reader.getBlockSize());
+         assertEquals(16, reader.getBlockCount());
+         assertEquals(rows - 15 * blockSize, reader.getRowCount(15));
+
+         double[][] block = new double[3][blockSize];
+         for (int b = 0; b < reader.getBlockCount(); b++) {
+            int size = reader.read(b, block);
+            for (int column = 0; column < 3; column++) {
+               double[] expected = Arrays.copyOfRange(columns[column], b * blockSize, b * blockSize + size);
+               assertTrue(Arrays.equals(expected, Arrays.copyOf(block[column], size)));
+
+               DoubleBuffer values = reader.getValues(b, column);
+               assertEquals(size, values.remaining());
+               assertEquals(expected[size - 1], values.get(size - 1));
+
+               Arrays.sort(expected);
+               if (column == 2 && b == 2) {
+                  assertTrue(Double.isNaN(reader.getMin(b, column)));
+                  assertTrue(Double.isNaN(reader.getMax(b, column)));
+               } else {
+                  assertEquals(expected[0], reader.getMin(b, column));
+                  assertEquals(expected[size - 1], reader.getMax(b, column));
+               }
+            }
+         }
+      }
+   }
+
+   public void testFromCsv() throws Exception {
+      StringBuilder csv = new StringBuilder("a,b\n");
+      Random random = new Random(9);
+      for (int i = 0; i < 10000; i++) {
+         csv.append(random.nextInt(100)).append(',').append(random.nextDouble()).append('\n');
+      }
+      Path in = Files.write(directory.resolve("in.csv"), csv.toString().getBytes(StandardCharsets.UTF_8));
+      Path columns = directory.resolve("in.col");
+      assertEquals(10000, ColumnFileWriter.fromCsv(in, columns, ',', 1000));
+
+      String[] formulas = { "a*b + sqrt(a)", "exp(b) % a" };
+      CsvPipeline pipeline = new CsvPipeline(formulas);
+      pipeline.run(in, directory.resolve("out.csv"));
+      assertEquals(10000, pipeline.runColumns(columns, directory.resolve("out.col")));
+
+      List<String> lines = Files.readAllLines(directory.resolve("out.csv"), StandardCharsets.UTF_8);
+      try (ColumnFileReader reader = new ColumnFileReader(directory.resolve("out.col"))) {
+         assertTrue(Arrays.equals(formulas, reader.getNames()));
+         double[][] block = new double[2][reader.getBlockSize()];
+         for (int b = 0; b < reader.getBlockCount(); b++) {
+            int size = reader.read(b, block);
+            for (int row = 0; row < size; row++) {
+               String[] fields = lines.get(1 + b * reader.getBlockSize() + row).split(",");
+               assertEquals(fields[0], Double.toString(block[0][row]));
+               assertEquals(fields[1], Double.toString(block[1][row]));
+            }
+         }
+      }
+   }
+
+   public void testFilter() throws Exception {
+      // x grows with the rows, so that most blocks are out of the range.
+      int rows = 20000;
+      Random random = new Random(13);
+      double[][] columns = new double[2][rows];
+      for (int row = 0; row < rows; row++) {
+         columns[0][row] = row / 1000.0;
+         columns[1][row] = 1 + random.nextDouble();
+      }
+      columns[1][7] = Double.NaN;
+
+      String[] names = { "x", "y" };
+      Path file = directory.resolve("table.col");
+      try (ColumnFileWriter writer = new ColumnFileWriter(file, names, 500)) {
+         writer.write(columns, 0, rows);
+      }
+
+      CompiledFormula formula = FormulaCompute.compile("exp(x)*y", FunctionRegistry.getDefault(), names, false);
+      double low = Math.nextUp(100.0);
+      double high = 1000;
+      long expected = 0;
+      for (int row = 0; row < rows; row++) {
+         double value = formula.evaluate(new double[] { columns[0][row], columns[1][row] });
+         if (low <= value && value <= high) {
+            expected++;
+         }
+      }
+      assertTrue(expected > 0);
+
+      ColumnFilter filter = new ColumnFilter(formula, low, high);
+      Path selected = directory.resolve("selected.col");
+      try (ColumnFileReader reader = new ColumnFileReader(file)) {
+         int skipped = 0;
+         for (int block = 0; block < reader.getBlockCount(); block++) {
+            if (!filter.mayMatch(reader, block)) {
+               skipped++;
+            }
+         }
+         assertTrue(skipped + " blocks skipped", skipped > reader.getBlockCount() / 2);
+         assertEquals(expected, filter.count(reader));
+
+         try (ColumnFileWriter writer = new ColumnFileWriter(selected, names, 500)) {
+            assertEquals(expected, filter.filter(reader, writer));
+         }
+      }
+
+      try (ColumnFileReader reader = new ColumnFileReader(selected)) {
+         assertEquals(expected, reader.getRowCount());
+         double[][] block = new double[2][reader.getBlockSize()];
+         for (int b = 0; b < reader.getBlockCount(); b++) {
+            int size = reader.read(b, block);
+            for (int row = 0; row < size; row++) {
+               double value = Math.exp(block[0][row]) * block[1][row];
+               assertTrue(low <= value && value <= high);
+            }
+         }
+      }
+   }
+
+   public void testNotAColumnFile() throws IOException {
+      Path file = Files.write(directory.resolve("in.csv"), "a,b\n1,2\n".getBytes(StandardCharsets.UTF_8));
+      try {
+         new ColumnFileReader(file).close();
+         fail(file + " is not a column file");
+      } catch (IOException e) {
+         assertTrue(e.getMessage(), e.getMessage().contains("is not a column file"));
+      }
+   }
+
+   public void testBlocksLargerThanAMapping() throws IOException {
+      // Two columns of 2^28 rows make blocks of 4 GB.
+      ByteBuffer header = ByteBuffer.allocate(48).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(ColumnFileWriter.MAGIC).putInt(ColumnFileWriter.VERSION).putInt(2).putInt(1 << 28).putLong(0)
+         .putLong(48);
+      header.putInt(1).put((byte) 'x').putInt(1).put((byte) 'y');
+      Path file = Files.write(directory.resolve("large.col"), header.array());
+      try {
+         new ColumnFileReader(file).close();
+         fail("The blocks of " + file + " cannot be mapped");
+      } catch (IOException e) {
+         assertTrue(e.getMessage(), e.getMessage().contains("larger than 2 GB"));
+      }
+   }
+}
@@ -0,0 +1,428 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.log4j.Logger;
+import org.bm.FormulaCompute;
+import org.bm.analysis.exception.MathematicalAnalysisException;
+import org.bm.analysis.impl.AnalyzerDefaultImpl;
+import org.bm.compiler.BatchKernels;
+import org.bm.compiler.BatchKernelsFactory;
+import org.bm.compiler.Bindings;
+import org.bm.compiler.CompiledFormula;
+import org.bm.compiler.EvaluationContext;
+import org.bm.compiler.OpCode;
+import org.bm.compiler.impl.BatchKernelsDefaultImpl;
+import org.bm.parser.RPNParserFactory;
+import org.bm.utils.BinaryDelegateFunction;
+import org.bm.utils.DelegateFunction;
+import org.bm.utils.Function;
+import org.bm.utils.FunctionRegistry;
+import org.bm.utils.Operator;
+import org.bm.utils.UnaryDelegateFunction;
+import org.bm.writer.impl.StringWriter;
+
+import junit.framework.TestCase;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * @author morinb
+ *
+ */
+public class CompiledFormulaTestCase extends TestCase {
+   private static final Logger logger = Logger.getLogger(CompiledFormulaTestCase.class);
+
+   private static final String[] FORMULAS = { "sqrt(a^2+b^2)", "sqrt((1/4)*(m*g)^2) + log(10) - exp(0)", "3^10^2",
+      "(3^10)^2", "(-1) + (-2)", "x^2-x-1", "5+((1+2)*4)-3", "sqrt((1/2)*(m*g)^2+log(m) + exp(g))", "(-3)+x*2/(Z0-5 )^2^y'",
+      "a % b - (-a)" };
+
+   private static Map<String, String> variables() {
+      Map<String, String> variables = new HashMap<>();
+      variables.put("a", "3");
+      variables.put("b", "4");
+      variables.put("m", "3");
+      variables.put("g", "4");
+      variables.put("x", "(sqrt(5)+1)/2");
+      variables.put("y'", "3");
+      variables.put("Z0", "7");
+      return variables;
+   }
+
+   public void testSameResultsAsCompute() throws MathematicalAnalysisException {
+      Map<String, String> variables = variables();
+
+      for (String formula : FORMULAS) {
+         CompiledFormula compiled = FormulaCompute.compile(formula);
+         String expected = FormulaCompute.interpret(formula, variables, FunctionRegistry.getDefault(), false);
+         String actual = compiled.evaluate(variables);
+
+         assertEquals(formula, expected, actual);
+         if (logger.isInfoEnabled()) {
+            logger.info("Formula : '" + formula + "' = '" + actual + "'");
+         }
+      }
+   }
+
+   public void testEvaluateMany() throws MathematicalAnalysisException {
+      CompiledFormula compiled = FormulaCompute.compile("sqrt(a^2+b^2)");
+      assertEquals(2, compiled.getVariables().length);
+
+      Map<String, String> variables = new HashMap<>();
+      for (int i = 1; i < 10; i++) {
+         variables.put("a", Integer.toString(3 * i));
+         variables.put("b", Integer.toString(4 * i));
+
+         assertEquals(Double.toString(5.0 * i), compiled.evaluate(variables));
+      }
+   }
+
+   public void testUnboundVariable() throws MathematicalAnalysisException {
+      CompiledFormula compiled = FormulaCompute.compile("a+b");
+      Map<String, String> variables = new HashMap<>();
+      variables.put("a", "1");
+
+      try {
+         compiled.evaluate(variables);
+         fail("b has no value");
+      } catch (MathematicalAnalysisException e) {
+         if (logger.isInfoEnabled()) {
+            logger.info(e.getMessage());
+         }
+      }
+   }
+
+   public void testBindings() throws MathematicalAnalysisException {
+      CompiledFormula compiled = FormulaCompute.compile("sqrt(a^2+b^2) + c^0");
+      assertEquals(3, compiled.getSlotCount());
+      assertEquals(1, compiled.getSlot("b"));
+      assertEquals(-1, compiled.getSlot("d"));
+      // c^0 is 1, c is not read.
+      assertTrue(Arrays.equals(new int[] { 0, 1 }, compiled.getUsedSlots()));
+
+      Bindings bindings = compiled.newBindings();
+      int a = bindings.getSlot("a");
+      int b = bindings.getSlot("b");
+      try {
+         compiled.evaluate(bindings);
+         fail("a and b have no value");
+      } catch (MathematicalAnalysisException e) {
+         assertEquals("The variable a has no value.", e.getMessage());
+      }
+      for (int i = 1; i < 10; i++) {
+         bindings.set(a, 3 * i).set(b, 4 * i);
+         assertEquals(5.0 * i + 1, compiled.evaluate(bindings));
+      }
+   }
+
+   public void testSharedSlots() throws MathematicalAnalysisException {
+      String[] slots = { "x", "y", "z" };
+      CompiledFormula sum = FormulaCompute.compile("x + z", FunctionRegistry.getDefault(), slots, false);
+      CompiledFormula product = FormulaCompute.compile("y * z", FunctionRegistry.getDefault(), slots, false);
+      assertTrue(Arrays.equals(slots, sum.getVariables()));
+      assertTrue(Arrays.equals(new int[] { 0, 2 }, sum.getUsedSlots()));
+
+      Bindings row = new Bindings(slots).set("x", 1).set("y", 2).set("z", 3);
+      assertEquals(4.0, sum.evaluate(row));
+      assertEquals(6.0, product.evaluate(row));
+      assertEquals(6.0, product.evaluate(row.getValues()));
+
+      try {
+         FormulaCompute.compile("x + w", FunctionRegistry.getDefault(), slots, false);
+         fail("w has no slot");
+      } catch (MathematicalAnalysisException e) {
+         assertEquals("The variable w has no slot.", e.getMessage());
+      }
+      try {
+         FormulaCompute.compile("a + b").evaluate(row);
+         fail("The bindings are for other variables");
+      } catch (IllegalArgumentException e) {
+         if (logger.isInfoEnabled()) {
+            logger.info(e.getMessage());
+         }
+      }
+   }
+
+   public void testDerivedVariables() throws MathematicalAnalysisException {
+      final int[] calls = new int[1];
+      FunctionRegistry registry = FunctionRegistry.getDefault().register("count", new UnaryDelegateFunction("COUNT") {
+         @Override
+         public double compute(double arg) {
+            calls[0]++;
+            return arg;
+         }
+      }, false);
+
+      Map<String, String> variables = new HashMap<>();
+      variables.put("a", "2");
+      variables.put("d", "count(a)");
+      variables.put("e", "d + d");
+      variables.put("f", "d * e + e");
+
+      CompiledFormula compiled = FormulaCompute.compile("d + e * f + d", registry, false);
+      assertEquals(2 + 4 * 12 + 2.0, compiled.evaluateAsDouble(variables));
+      assertEquals(1, calls[0]);
+
+      // A chain too long for a recursive resolution.
+      variables.clear();
+      variables.put("v0", "1");
+      for (int i = 1; i < 5000; i++) {
+         variables.put("v" + i, "v" + (i - 1) + " + 1");
+      }
+      assertEquals("5000.0", FormulaCompute.compile("v4999").evaluate(variables));
+   }
+
+   public void testCyclicVariables() throws MathematicalAnalysisException {
+      Map<String, String> variables = new HashMap<>();
+      variables.put("x", "y + 1");
+      variables.put("y", "2 * z");
+      variables.put("z", "sqrt(x)");
+      variables.put("w", "w");
+
+      CompiledFormula compiled = FormulaCompute.compile("1 + x");
+      try {
+         compiled.evaluate(variables);
+         fail("x depends on itself");
+      } catch (MathematicalAnalysisException e) {
+         assertTrue(e.getMessage(), e.getMessage().contains("x -> y -> z -> x"));
+      }
+
+      String[] formulas = { "1 + x", "w" };
+      for (String formula : formulas) {
+         try {
+            FormulaCompute.compute(formula, variables, false);
+            fail(formula + " depends on itself");
+         } catch (MathematicalAnalysisException e) {
+            if (logger.isInfoEnabled()) {
+               logger.info(e.getMessage());
+            }
+         }
+      }
+   }
+
+   public void testCustomFunctions() throws MathematicalAnalysisException {
+      FunctionRegistry registry = FunctionRegistry.getDefault().register("max", new BinaryDelegateFunction("MAX") {
+         @Override
+         public double compute(double arg1, double arg2) {
+            return Math.max(arg1, arg2);
+         }
+      }).register("clamp", new DelegateFunction("CLAMP", 3) {
+         @Override
+         public double compute(double[] args, int offset) {
+            return Math.max(args[offset + 1], Math.min(args[offset + 2], args[offset]));
+         }
+      });
+
+      String formula = "clamp(x, 0, max(a,b)) * 2";
+      Map<String, String> variables = new HashMap<>();
+      variables.put("a", "3");
+      variables.put("b", "4");
+      variables.put("x", "max(a, 10)");
+
+      CompiledFormula compiled = FormulaCompute.compile(formula, registry, false);
+      assertEquals("8.0", compiled.evaluate(variables));
+      variables.put("x", "-1");
+      assertEquals("0.0", compiled.evaluate(variables));
+
+      String rpn = new StringWriter().write(RPNParserFactory.getParser(false, variables, registry).parse(formula));
+      assertEquals("-1.0 0 3 4 max clamp 2 *", rpn);
+      assertEquals("0.0", new AnalyzerDefaultImpl(registry).compute(rpn));
+
+      // The default registry is left untouched.
+      assertNull(FunctionRegistry.getDefault().get("max"));
+      assertTrue(registry.get("clamp").getId() >= OpCode.FIRST_CUSTOM);
+   }
+
+   public void testEvaluateColumns() throws MathematicalAnalysisException {
+      FunctionRegistry registry = FunctionRegistry.getDefault().register("clamp", new DelegateFunction("CLAMP", 3) {
+         @Override
+         public double compute(double[] args, int offset) {
+            return Math.max(args[offset + 1], Math.min(args[offset + 2], args[offset]));
+         }
+      });
+      String[] formulas = Arrays.copyOf(FORMULAS, FORMULAS.length + 2);
+      formulas[FORMULAS.length] = "exp(a/b)*a + exp(a/b)*b + (a+b)^2";
+      formulas[FORMULAS.length + 1] = "clamp(a*b, 1, b) - a";
+
+      int rows = 1500;
+      Random random = new Random(42);
+      for (String formula : formulas) {
+         CompiledFormula compiled = FormulaCompute.compile(formula, registry, false);
+         double[][] columns = new double[compiled.getSlotCount()][rows];
+         for (double[] column : columns) {
+            for (int row = 0; row < rows; row++) {
+               column[row] = 10 * random.nextDouble() - 2;
+            }
+         }
+
+         int[][] ranges = { { 0, rows }, { 3, 3 }, { 7, 519 }, { 1000, 1001 } };
+         for (int[] range : ranges) {
+            double[] out = new double[rows];
+            Arrays.fill(out, -42);
+            compiled.evaluate(columns, out, range[0], range[1]);
+
+            double[] values = new double[columns.length];
+            for (int row = 0; row < rows; row++) {
+               double expected = -42;
+               if (row >= range[0] && row < range[1]) {
+                  for (int slot = 0; slot < values.length; slot++) {
+                     values[slot] = columns[slot][row];
+                  }
+                  expected = compiled.evaluate(values);
+               }
+               assertEquals(formula + " at " + row, Double.doubleToLongBits(expected), Double.doubleToLongBits(out[row]));
+            }
+         }
+      }
+   }
+
+   public void testKernels() throws MathematicalAnalysisException {
+      assertTrue(BatchKernelsFactory.getKernels() instanceof BatchKernelsDefaultImpl);
+
+      final int[] calls = new int[1];
+      BatchKernels kernels = new BatchKernelsDefaultImpl() {
+         @Override
+         public void binary(int opcode, double[] a, int aOffset, double[] b, int bOffset, double[] result, int length) {
+            calls[0]++;
+            super.binary(opcode, a, aOffset, b, bOffset, result, length);
+         }
+      };
+
+      CompiledFormula compiled = FormulaCompute.compile("sqrt(a^2+b^2)");
+      double[][] columns = { { 3, 6, 9 }, { 4, 8, 12 } };
+      double[] out = new double[3];
+      compiled.evaluate(columns, out, 0, 3, kernels);
+
+      assertEquals(3, calls[0]);
+      assertTrue(Arrays.equals(new double[] { 5, 10, 15 }, out));
+   }
+
+   public void testEvaluateColumnsInParallel() throws Exception {
+      CompiledFormula compiled = FormulaCompute.compile("exp(a/b)*a + exp(a/b)*b + (a+b)^2 % sqrt(b)");
+      int rows = 100003;
+      Random random = new Random(7);
+      double[][] columns = new double[2][rows];
+      for (double[] column : columns) {
+         for (int row = 0; row < rows; row++) {
+            column[row] = 4 * random.nextDouble() - 1;
+         }
+      }
+      double[] expected = new double[rows];
+      compiled.evaluate(columns, expected, 0, rows);
+
+      ForkJoinPool pool = new ForkJoinPool(4);
+      ExecutorService executor = Executors.newFixedThreadPool(3);
+      try {
+         double[] out = new double[rows];
+         compiled.evaluate(columns, out, 0, rows, pool);
+         assertTrue(Arrays.equals(expected, out));
+
+         out = new double[rows];
+         compiled.evaluate(columns, out, 5, rows - 5, executor, 8);
+         assertEquals(0.0, out[4]);
+         assertEquals(0.0, out[rows - 5]);
+         assertTrue(Arrays.equals(Arrays.copyOfRange(expected, 5, rows - 5), Arrays.copyOfRange(out, 5, rows - 5)));
+
+         // Two chunks, split at row 8192.
+         out = new double[rows];
+         compiled.evaluate(columns, out, 8000, 9000, executor, 8);
+         assertEquals(0.0, out[7999]);
+         assertEquals(0.0, out[9000]);
+         assertTrue(Arrays.equals(Arrays.copyOfRange(expected, 8000, 9000), Arrays.copyOfRange(out, 8000, 9000)));
+      } finally {
+         pool.shutdown();
+         executor.shutdown();
+      }
+   }
+
+   public void testNoAllocation() throws MathematicalAnalysisException {
+      ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+      if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+         return;
+      }
+      com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+      long thread = Thread.currentThread().getId();
+
+      CompiledFormula compiled = FormulaCompute.compile("exp(a/b)*a + exp(a/b)*b + (a+b)^2 % sqrt(b)");
+      Bindings bindings = compiled.newBindings().set("a", 3).set("b", 4);
+      double[] values = { 3, 4 };
+      double expected = compiled.evaluate(values);
+
+      int evaluations = 100000;
+      double sum = 0;
+      for (int i = 0; i < evaluations; i++) {
+         sum += compiled.evaluate(values);
+      }
+      allocations.getThreadAllocatedBytes(thread);
+
+      long before = allocations.getThreadAllocatedBytes(thread);
+      for (int i = 0; i < evaluations; i++) {
+         sum += compiled.evaluate(values) + compiled.evaluate(bindings);
+      }
+      long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+
+      assertEquals(expected * (3 * evaluations), sum, 1e-6 * Math.abs(sum));
+      // Not even a byte per evaluation, whatever the cost of the measure.
+      assertTrue(allocated + " bytes allocated", allocated < evaluations);
+   }
+
+   public void testNestedEvaluation() throws MathematicalAnalysisException {
+      final CompiledFormula inner = FormulaCompute.compile("a*a + 1");
+      FunctionRegistry registry = FunctionRegistry.getDefault().register("inner", new UnaryDelegateFunction("INNER") {
+         @Override
+         public double compute(double arg) {
+            // Evaluated while the outer formula holds the stack of the thread.
+            return inner.evaluate(new double[] { arg });
+         }
+      });
+      CompiledFormula outer = FormulaCompute.compile("(a + 1) * inner(a + 2) - a", registry, false);
+      assertEquals(3 * 17.0 - 2, outer.evaluate(new double[] { 2 }));
+      assertEquals(3 * 17.0 - 2, outer.evaluate(new double[] { 2 }, EvaluationContext.current()));
+   }
+
+   public void testRegistry() {
+      FunctionRegistry registry = FunctionRegistry.getDefault();
+
+      for (Operator operator : Operator.values()) {
+         assertEquals(operator, registry.get(operator.getValue()).getOperator());
+         assertEquals(OpCode.ADDITION + operator.ordinal(), registry.get(operator.getValue()).getId());
+      }
+      for (Function function : Function.values()) {
+         assertEquals(function, registry.get(function.getName()).getFunction());
+         assertEquals(OpCode.SQRT + function.ordinal(), registry.get(function.getName()).getId());
+      }
+      assertEquals(Function.EXP, registry.get("1+exp(2)", 2, 5).getFunction());
+      assertNull(registry.get("expo"));
+
+      String[] invalidNames = { "log", "2x", "a-b", "f(x)", "", "NaN" };
+      for (String name : invalidNames) {
+         try {
+            registry.register(name, registry.get("sqrt").getDelegate());
+            fail(name + " is not a valid name");
+         } catch (IllegalArgumentException e) {
+            if (logger.isInfoEnabled()) {
+               logger.info(e.getMessage());
+            }
+         }
+      }
+   }
+}
@@ -0,0 +1,182 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CyclicBarrier;
+
+import org.bm.FormulaCompute;
+import org.bm.analysis.Analyzer;
+import org.bm.analysis.impl.AnalyzerDefaultImpl;
+import org.bm.parser.ParseContext;
+import org.bm.parser.RPNParser;
+import org.bm.parser.RPNParserFactory;
+import org.bm.parser.impl.TableParseTracer;
+import org.bm.utils.FunctionRegistry;
+import org.bm.writer.Writer;
+import org.bm.writer.impl.StringWriter;
+
+import junit.framework.TestCase;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * @author morinb
+ *
+ */
+public class ConcurrencyStressTestCase extends TestCase {
+
+   private static final String[] FORMULAS = { "sqrt(a^2+b^2)", "exp(a/10)*b", "a*b - a/b", "(a+b)^2 % b", "a^b",
+      "log(a*b) - sqrt(b)", "sqrt(a) + log(b) * c", "(-a) + b*(c - 5)/(a + 1)^2" };
+
+   private static final int THREADS = 8;
+
+   private static final int ITERATIONS = 3000;
+
+   private static final int VALUES = 7;
+
+   /**
+    * Parse, write and analyze the formulas with one parser, writer and
+    * analyzer shared by all the threads, each one with its own variables, and
+    * compare the results with the ones of a parser per call.
+    */
+   public void testSharedParser() throws Exception {
+      final FunctionRegistry registry = FunctionRegistry.getDefault();
+      final String[][][] expected = new String[FORMULAS.length][VALUES][VALUES];
+      for (int f = 0; f < FORMULAS.length; f++) {
+         for (int a = 0; a < VALUES; a++) {
+            for (int b = 0; b < VALUES; b++) {
+               Map<String, String> variables = variables(a, b);
+               RPNParser parser = RPNParserFactory.getParser(false, variables, registry);
+               expected[f][a][b] = new AnalyzerDefaultImpl(registry).compute(new StringWriter().write(parser
+                  .parse(FORMULAS[f])));
+            }
+         }
+      }
+
+      final RPNParser parser = RPNParserFactory.getParser(registry);
+      final Writer<String> writer = new StringWriter();
+      final Analyzer analyzer = new AnalyzerDefaultImpl(registry);
+
+      run(new Work() {
+         @Override
+         public void run(int thread, int iteration) throws Exception {
+            int f = (thread + iteration) % FORMULAS.length;
+            int a = iteration % VALUES;
+            int b = (iteration / VALUES + thread) % VALUES;
+            TableParseTracer tracer = iteration % 10 == 0 ? new TableParseTracer() : null;
+
+            List<String> tokens = parser.parse(FORMULAS[f], new ParseContext(variables(a, b), tracer));
+            String postfix = writer.write(tokens);
+            assertEquals(FORMULAS[f], expected[f][a][b], analyzer.compute(postfix));
+            if (null != tracer) {
+               List<TableParseTracer.Row> rows = tracer.getRows();
+               assertEquals(postfix, rows.get(rows.size() - 1).getOutput());
+            }
+         }
+      });
+   }
+
+   /**
+    * Compute the formulas with {@link FormulaCompute}, from the cache and by
+    * interpretation, from all the threads.
+    */
+   public void testFormulaCompute() throws Exception {
+      final FunctionRegistry registry = FunctionRegistry.getDefault();
+      final String[][][] interpreted = new String[FORMULAS.length][VALUES][VALUES];
+      final String[][][] compiled = new String[FORMULAS.length][VALUES][VALUES];
+      for (int f = 0; f < FORMULAS.length; f++) {
+         for (int a = 0; a < VALUES; a++) {
+            for (int b = 0; b < VALUES; b++) {
+               interpreted[f][a][b] = FormulaCompute.interpret(FORMULAS[f], variables(a, b), registry, false);
+               compiled[f][a][b] = FormulaCompute.compile(FORMULAS[f]).evaluate(variables(a, b));
+            }
+         }
+      }
+      FormulaCompute.getCache().clear();
+
+      run(new Work() {
+         @Override
+         public void run(int thread, int iteration) throws Exception {
+            int f = (thread * 3 + iteration) % FORMULAS.length;
+            int a = (iteration + thread) % VALUES;
+            int b = (iteration / VALUES) % VALUES;
+            Map<String, String> variables = variables(a, b);
+            if (iteration % 2 == 0) {
+               assertEquals(FORMULAS[f], interpreted[f][a][b],
+                  FormulaCompute.interpret(FORMULAS[f], variables, registry, false));
+            } else {
+               assertEquals(FORMULAS[f], compiled[f][a][b], FormulaCompute.compute(FORMULAS[f], variables, false));
+            }
+         }
+      });
+   }
+
+   /**
+    * @return the variables a, b and c, c being a formula itself.
+    */
+   private static Map<String, String> variables(int a, int b) {
+      Map<String, String> variables = new HashMap<>();
+      variables.put("a", Integer.toString(a + 1));
+      variables.put("b", Integer.toString(b + 2));
+      variables.put("c", "a * 2 - b");
+      return variables;
+   }
+
+   /**
+    * Run the work from all the threads at once, and fail with the first
+    * failure of any of them.
+    */
+   private static void run(final Work work) throws Exception {
+      final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+      final ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+      List<Thread> threads = new ArrayList<>();
+      for (int t = 0; t < THREADS; t++) {
+         final int thread = t;
+         threads.add(new Thread("stress-" + t) {
+            @Override
+            public void run() {
+               try {
+                  barrier.await();
+                  for (int i = 0; i < ITERATIONS; i++) {
+                     work.run(thread, i);
+                  }
+               } catch (Throwable e) {
+                  failures.add(e);
+               }
+            }
+         });
+      }
+      for (Thread thread : threads) {
+         thread.start();
+      }
+      for (Thread thread : threads) {
+         thread.join();
+      }
+
+      Throwable failure = failures.peek();
+      if (failure instanceof Error) {
+         throw (Error) failure;
+      }
+      if (failure instanceof Exception) {
+         throw (Exception) failure;
+      }
+   }
+
+   private interface Work {
+      void run(int thread, int iteration) throws Exception;
+   }
+}
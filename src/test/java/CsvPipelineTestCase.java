@@ -0,0 +1,155 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+import org.bm.FormulaCompute;
+import org.bm.analysis.exception.MathematicalAnalysisException;
+import org.bm.compiler.CompiledFormula;
+import org.bm.pipeline.CsvPipeline;
+import org.bm.utils.FunctionRegistry;
+
+import junit.framework.TestCase;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * @author morinb
+ *
+ */
+public class CsvPipelineTestCase extends TestCase {
+   private static final Logger logger = Logger.getLogger(CsvPipelineTestCase.class);
+
+   private Path directory;
+
+   @Override
+   protected void setUp() throws IOException {
+      directory = Files.createTempDirectory("pipeline");
+   }
+
+   @Override
+   protected void tearDown() throws IOException {
+      for (Path file : Files.newDirectoryStream(directory)) {
+         Files.delete(file);
+      }
+      Files.delete(directory);
+   }
+
+   public void testRun() throws Exception {
+      String[] formulas = { "a+b", "sqrt(a^2+b^2)*c", "(a+b)^2 - exp(a/b)" };
+      String[] slots = { "a", "b", "c" };
+      Random random = new Random(3);
+
+      StringBuilder input = new StringBuilder("a, b ,\"c\"\r\n");
+      List<double[]> rows = new ArrayList<>();
+      for (int i = 0; i < 10000; i++) {
+         double[] row = { random.nextInt(1000) / 100.0, random.nextDouble(), random.nextGaussian() };
+         rows.add(row);
+         input.append(row[0]).append(',').append(row[1]).append(", ").append(row[2]);
+         input.append(i % 3 == 0 ? "\r\n" : "\n");
+         if (i % 1000 == 0) {
+            input.append('\n');
+         }
+      }
+      Path in = write("in.csv", input.toString());
+      Path out = directory.resolve("out.csv");
+
+      assertEquals(rows.size(), new CsvPipeline(formulas).run(in, out));
+      List<String> lines = Files.readAllLines(out, StandardCharsets.UTF_8);
+      assertEquals(rows.size() + 1, lines.size());
+      assertEquals("a+b,sqrt(a^2+b^2)*c,(a+b)^2 - exp(a/b)", lines.get(0));
+
+      CompiledFormula[] compiled = new CompiledFormula[formulas.length];
+      for (int i = 0; i < formulas.length; i++) {
+         compiled[i] = FormulaCompute.compile(formulas[i], FunctionRegistry.getDefault(), slots, false);
+      }
+      for (int row = 0; row < rows.size(); row++) {
+         String[] fields = lines.get(row + 1).split(",");
+         for (int i = 0; i < formulas.length; i++) {
+            assertEquals(Double.toString(compiled[i].evaluate(rows.get(row))), fields[i]);
+         }
+      }
+   }
+
+   public void testNumbers() throws Exception {
+      List<String> numbers = new ArrayList<>();
+      String[] special = { "0", "-0", "+1", "007", "1.", ".5", "-.5e-3", "1E3", "1e400", "-1e-400", "NaN", "-Infinity",
+         "0x1p3", "1d", "123456789012345", "1234567890123456789", "0.1", "0.30000000000000004", "4.9e-324",
+         "1.7976931348623157e308", "9007199254740993", " 42 ", "1e22", "1e23", "123456789012345e-22" };
+      for (String number : special) {
+         numbers.add(number);
+      }
+      Random random = new Random(11);
+      for (int i = 0; i < 2000; i++) {
+         numbers.add(Double.toString(Double.longBitsToDouble(random.nextLong())));
+         numbers.add(Double.toString(random.nextDouble() * 1000));
+         numbers.add(random.nextInt() + "." + random.nextInt(1000000) + "e" + (random.nextInt(60) - 30));
+      }
+
+      StringBuilder input = new StringBuilder("x\n");
+      for (String number : numbers) {
+         input.append(number).append('\n');
+      }
+      Path in = write("in.csv", input.toString());
+      Path out = directory.resolve("out.csv");
+
+      // A small window, so that the lines cross its end.
+      new CsvPipeline(new String[] { "x" }, FunctionRegistry.getDefault(), ',', 100).run(in, out);
+      List<String> lines = Files.readAllLines(out, StandardCharsets.UTF_8);
+      for (int i = 0; i < numbers.size(); i++) {
+         double expected = Double.parseDouble(numbers.get(i));
+         assertEquals(numbers.get(i), Double.doubleToLongBits(expected),
+            Double.doubleToLongBits(Double.parseDouble(lines.get(i + 1))));
+      }
+   }
+
+   public void testSeparator() throws Exception {
+      Path in = write("in.csv", "x;y\n1;2\n3;4");
+      Path out = directory.resolve("out.csv");
+      String[] formulas = { "x*y", "y" };
+
+      assertEquals(2, new CsvPipeline(formulas, FunctionRegistry.getDefault(), ';', 1024).run(in, out));
+      List<String> lines = Files.readAllLines(out, StandardCharsets.UTF_8);
+      assertEquals("x*y;y", lines.get(0));
+      assertEquals("2.0;2.0", lines.get(1));
+      assertEquals("12.0;4.0", lines.get(2));
+   }
+
+   public void testInvalidInput() throws IOException {
+      String[][] cases = { { "", "x" }, { "x,y\n1,2\n3\n", "x+y" }, { "x,y\n1,2\n3,a\n", "x+y" },
+         { "x,y\n1,2\n", "x+z" }, { "x,y\n1,2\n" + "1234567890,1234567890\n", "x+y" } };
+      for (String[] invalid : cases) {
+         Path in = write("in.csv", invalid[0]);
+         try {
+            new CsvPipeline(new String[] { invalid[1] }, FunctionRegistry.getDefault(), ',', 16).run(in,
+               directory.resolve("out.csv"));
+            fail(invalid[0] + " is not a valid input for " + invalid[1]);
+         } catch (MathematicalAnalysisException e) {
+            if (logger.isInfoEnabled()) {
+               logger.info(e.getMessage());
+            }
+         }
+      }
+   }
+
+   private Path write(String name, String content) throws IOException {
+      return Files.write(directory.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+   }
+}
@@ -0,0 +1,295 @@
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bm.FormulaCompute;
+import org.bm.analysis.exception.MathematicalAnalysisException;
+import org.bm.compiler.CompiledFormula;
+import org.bm.compiler.DoubleEvaluator;
+import org.bm.compiler.EvaluationStrategy;
+import org.bm.compiler.EvaluatorFactory;
+import org.bm.compiler.bytecode.BytecodeGenerator;
+import org.bm.compiler.handle.MethodHandleGenerator;
+import org.bm.utils.BinaryDelegateFunction;
+import org.bm.utils.DelegateFunction;
+import org.bm.utils.FunctionRegistry;
+import org.bm.utils.UnaryDelegateFunction;
+
+import junit.framework.TestCase;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * @author morinb
+ *
+ */
+public class EvaluatorTestCase extends TestCase {
+
+   /**
+    * The formulas of the RPNParserTestCase, and a few more.
+    */
+   private static final String[] FORMULAS = { "sqrt(a^2+b^2)", "sqrt((1/4)*(m*g)^2) + log(10) - exp(0)", "3^10^2",
+      "(3^10)^2", "(-1) + (-2)", "x^2-x-1", "5+((1+2)*4)-3", "sqrt((1/2)*(m*g)^2+log(m) + exp(g))",
+      "(-3)+x*2/(Z0-5 )^2^y'", "2^35", "a % b - (-a)", "0*a+1*b-0.5", "1e300*1e300-a", "a/0",
+      "exp(a/b)*a + exp(a/b)*b + (a+b)^2" };
+
+   private static Map<String, String> variables() {
+      Map<String, String> variables = new HashMap<>();
+      variables.put("a", "3");
+      variables.put("b", "4");
+      variables.put("m", "3");
+      variables.put("g", "4");
+      variables.put("x", "(sqrt(5)+1)/2");
+      variables.put("y'", "3");
+      variables.put("Z0", "7");
+      return variables;
+   }
+
+   public void testSameResultsAsCompute() throws MathematicalAnalysisException {
+      Map<String, String> variables = variables();
+
+      for (String formula : FORMULAS) {
+         CompiledFormula compiled = FormulaCompute.compile(formula);
+         double[] values = compiled.bind(variables);
+         String expected = FormulaCompute.interpret(formula, variables, FunctionRegistry.getDefault(), false);
+
+         for (EvaluationStrategy strategy : EvaluationStrategy.values()) {
+            DoubleEvaluator evaluator = EvaluatorFactory.getEvaluator(compiled, strategy);
+            assertEquals(strategy + " " + formula, expected, Double.toString(evaluator.evaluate(values)));
+         }
+      }
+   }
+
+   public void testCustomFunctions() throws MathematicalAnalysisException {
+      FunctionRegistry registry = FunctionRegistry.getDefault().register("neg", new UnaryDelegateFunction("NEG") {
+         @Override
+         public double compute(double arg) {
+            return -arg;
+         }
+      }).register("max", new BinaryDelegateFunction("MAX") {
+         @Override
+         public double compute(double arg1, double arg2) {
+            return Math.max(arg1, arg2);
+         }
+      }).register("clamp", new DelegateFunction("CLAMP", 3) {
+         @Override
+         public double compute(double[] args, int offset) {
+            return Math.max(args[offset + 1], Math.min(args[offset + 2], args[offset]));
+         }
+      });
+
+      CompiledFormula compiled = FormulaCompute.compile("clamp(neg(x), 0, max(a, b)) * 2 - max(x, neg(a))", registry,
+         false);
+      DoubleEvaluator bytecode = EvaluatorFactory.getEvaluator(compiled, EvaluationStrategy.BYTECODE);
+      DoubleEvaluator methodHandle = EvaluatorFactory.getEvaluator(compiled, EvaluationStrategy.METHOD_HANDLE);
+
+      Map<String, String> variables = new HashMap<>();
+      variables.put("a", "3");
+      variables.put("b", "4");
+      for (int x = -10; x <= 10; x++) {
+         variables.put("x", Integer.toString(x));
+         double[] values = compiled.bind(variables);
+         assertEquals(compiled.evaluate(values), bytecode.evaluate(values));
+         assertEquals(compiled.evaluate(values), methodHandle.evaluate(values));
+      }
+   }
+
+   /**
+    * The functions which only compute an array of arguments are called with
+    * one, even if they take one or two arguments.
+    */
+   public void testPlainDelegateFunctions() throws MathematicalAnalysisException {
+      FunctionRegistry registry = FunctionRegistry.getDefault().register("twice", new DelegateFunction("TWICE", 1) {
+         @Override
+         public double compute(double[] args, int offset) {
+            return 2 * args[offset];
+         }
+      }).register("diff", new DelegateFunction("DIFF", 2) {
+         @Override
+         public double compute(double[] args, int offset) {
+            return args[offset] - args[offset + 1];
+         }
+      });
+
+      CompiledFormula compiled = FormulaCompute.compile("twice(x) + 1 + diff(x, 1)", registry, false);
+      double[] values = { 3 };
+      assertEquals(9.0, compiled.evaluate(values));
+      for (EvaluationStrategy strategy : EvaluationStrategy.values()) {
+         DoubleEvaluator evaluator = EvaluatorFactory.getEvaluator(compiled, strategy);
+         assertEquals(strategy.toString(), 9.0, evaluator.evaluate(values));
+      }
+   }
+
+   /**
+    * The functions written before the array contract only compute Strings.
+    */
+   public void testStringDelegateFunctions() throws MathematicalAnalysisException {
+      FunctionRegistry registry = FunctionRegistry.getDefault().register("diff", new DelegateFunction("DIFF", 2) {
+         @Override
+         public String compute(String... args) throws MathematicalAnalysisException {
+            // The last argument comes first.
+            return Double.toString(Double.parseDouble(args[1]) - Double.parseDouble(args[0]));
+         }
+      });
+
+      CompiledFormula compiled = FormulaCompute.compile("diff(x, 1) * 2", registry, false);
+      double[] values = { 3 };
+      assertEquals(4.0, compiled.evaluate(values));
+      for (EvaluationStrategy strategy : EvaluationStrategy.values()) {
+         DoubleEvaluator evaluator = EvaluatorFactory.getEvaluator(compiled, strategy);
+         assertEquals(strategy.toString(), 4.0, evaluator.evaluate(values));
+      }
+   }
+
+   public void testManyVariablesAndConstants() throws MathematicalAnalysisException {
+      StringBuilder formula = new StringBuilder("0");
+      for (int i = 0; i < 300; i++) {
+         formula.append("+v").append(i).append("*").append(i + 0.5);
+      }
+      CompiledFormula compiled = FormulaCompute.compile(formula.toString());
+
+      double[] values = new double[compiled.getVariables().length];
+      for (int i = 0; i < values.length; i++) {
+         values[i] = i;
+      }
+      for (EvaluationStrategy strategy : EvaluationStrategy.values()) {
+         DoubleEvaluator evaluator = EvaluatorFactory.getEvaluator(compiled, strategy);
+         assertEquals(strategy.toString(), compiled.evaluate(values), evaluator.evaluate(values));
+      }
+   }
+
+   /**
+    * The stored sub formulas are computed once, instead of being copied where
+    * they are loaded: the tree of the formula grows with its program.
+    */
+   public void testSharedSubFormulas() throws MathematicalAnalysisException {
+      StringBuilder formula = new StringBuilder("(a+1)");
+      for (int i = 0; i < 26; i++) {
+         formula.insert(0, '(').append("^2)");
+      }
+      CompiledFormula compiled = FormulaCompute.compile(formula.toString());
+      assertEquals(26, compiled.getScratchSlots());
+
+      long start = System.nanoTime();
+      DoubleEvaluator evaluator = MethodHandleGenerator.generate(compiled);
+      assertTrue((System.nanoTime() - start) / 1000000 + " ms", System.nanoTime() - start < 1000000000L);
+      assertNotSame(compiled, evaluator);
+
+      for (double a = -2.0; a <= 0.0; a += 0.125) {
+         double[] values = { a };
+         assertEquals(Double.doubleToLongBits(compiled.evaluate(values)),
+            Double.doubleToLongBits(evaluator.evaluate(values)));
+      }
+   }
+
+   public void testTooLargeForMethodHandles() throws MathematicalAnalysisException {
+      StringBuilder formula = new StringBuilder("a");
+      for (int i = 1; i < 20001; i++) {
+         formula.append("+a");
+      }
+      CompiledFormula compiled = FormulaCompute.compile(formula.toString());
+      DoubleEvaluator evaluator = EvaluatorFactory.getEvaluator(compiled, EvaluationStrategy.METHOD_HANDLE);
+      assertSame(compiled, evaluator);
+      assertEquals(20001 * 0.5, evaluator.evaluate(new double[] { 0.5 }));
+
+      CompiledFormula deep = FormulaCompute.compile(formula.substring(0, 2 * 200 - 1));
+      assertSame(deep, MethodHandleGenerator.generate(deep));
+      assertEquals(200 * 0.5, deep.evaluate(new double[] { 0.5 }));
+   }
+
+   /**
+    * The method handles are run where the classes of the formulas cannot be
+    * generated: the classes of the bytecode generator are not found at all.
+    */
+   public void testMethodHandlesWithoutBytecode() throws Exception {
+      URL classes = EvaluatorFactory.class.getProtectionDomain().getCodeSource().getLocation();
+      try (URLClassLoader loader = new WithoutBytecodeClassLoader(classes)) {
+         try {
+            loader.loadClass(BytecodeGenerator.class.getName());
+            fail();
+         } catch (ClassNotFoundException e) {
+            // Expected.
+         }
+
+         Method compile = loader.loadClass(FormulaCompute.class.getName()).getMethod("compile", String.class);
+         Object compiled = compile.invoke(null, "sqrt(a^2+b^2) + (a+b)^2");
+         Class<?> generator = loader.loadClass(MethodHandleGenerator.class.getName());
+         Object evaluator = generator.getMethod("generate", compiled.getClass()).invoke(null, compiled);
+         assertEquals("org.bm.compiler.handle.MethodHandleEvaluator", evaluator.getClass().getName());
+
+         Method evaluate = evaluator.getClass().getMethod("evaluate", double[].class);
+         evaluate.setAccessible(true);
+         assertEquals(5.0 + 49.0, evaluate.invoke(evaluator, new double[] { 3, 4 }));
+      }
+   }
+
+   /**
+    * Load the classes of the library again, except the bytecode generator.
+    */
+   private static final class WithoutBytecodeClassLoader extends URLClassLoader {
+
+      WithoutBytecodeClassLoader(URL classes) {
+         super(new URL[] { classes }, EvaluatorTestCase.class.getClassLoader());
+      }
+
+      @Override
+      protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+         if (name.startsWith("org.bm.compiler.bytecode.")) {
+            throw new ClassNotFoundException(name);
+         }
+         if (!name.startsWith("org.bm.")) {
+            return super.loadClass(name, resolve);
+         }
+         synchronized (getClassLoadingLock(name)) {
+            Class<?> loaded = findLoadedClass(name);
+            if (null == loaded) {
+               loaded = findClass(name);
+            }
+            if (resolve) {
+               resolveClass(loaded);
+            }
+            return loaded;
+         }
+      }
+   }
+
+   public void testDefaultStrategy() throws MathematicalAnalysisException {
+      CompiledFormula compiled = FormulaCompute.compile("a*2+1");
+      assertEquals(EvaluationStrategy.BYTECODE, EvaluatorFactory.getDefaultStrategy());
+
+      System.setProperty(EvaluatorFactory.STRATEGY_PROPERTY, "INTERPRETER");
+      try {
+         assertSame(compiled, EvaluatorFactory.getEvaluator(compiled));
+      } finally {
+         System.clearProperty(EvaluatorFactory.STRATEGY_PROPERTY);
+      }
+   }
+
+   public void testUnloaded() throws MathematicalAnalysisException {
+      DoubleEvaluator evaluator = BytecodeGenerator.generate(FormulaCompute.compile("a*2+1"));
+      assertEquals(7.0, evaluator.evaluate(new double[] { 3 }));
+
+      WeakReference<Class<?>> generated = new WeakReference<Class<?>>(evaluator.getClass());
+      evaluator = null;
+      for (int i = 0; i < 50 && null != generated.get(); i++) {
+         System.gc();
+      }
+      assertNull(generated.get());
+   }
+}
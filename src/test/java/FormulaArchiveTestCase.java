@@ -0,0 +1,185 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.bm.FormulaCompute;
+import org.bm.analysis.exception.MathematicalAnalysisException;
+import org.bm.compiler.CompiledFormula;
+import org.bm.compiler.archive.FormulaArchive;
+import org.bm.compiler.archive.FormulaArchiveWriter;
+import org.bm.utils.BinaryDelegateFunction;
+import org.bm.utils.DelegateFunction;
+import org.bm.utils.FunctionRegistry;
+import org.bm.utils.UnaryDelegateFunction;
+
+import junit.framework.TestCase;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * @author morinb
+ *
+ */
+public class FormulaArchiveTestCase extends TestCase {
+
+   private static final String[] FORMULAS = { "sqrt(a^2+b^2)", "sqrt((1/4)*(m*g)^2) + log(10) - exp(0)", "3^10^2",
+      "(-1) + (-2)", "x^2-x-1", "(-3)+x*2/(Z0-5 )^2^y'", "a % b - (-a)", "exp(a/b)*a + exp(a/b)*b + (a+b)^2",
+      "max(a, b) * twice(x)" };
+
+   private static final DelegateFunction MAX = new BinaryDelegateFunction("MAX") {
+      @Override
+      public double compute(double arg1, double arg2) {
+         return Math.max(arg1, arg2);
+      }
+   };
+
+   private static final DelegateFunction TWICE = new UnaryDelegateFunction("TWICE") {
+      @Override
+      public double compute(double arg) {
+         return 2 * arg;
+      }
+   };
+
+   private Path file;
+
+   @Override
+   protected void setUp() throws IOException {
+      file = Files.createTempFile("formulas", ".bin");
+   }
+
+   @Override
+   protected void tearDown() throws IOException {
+      Files.delete(file);
+   }
+
+   public void testWriteAndLoad() throws Exception {
+      FunctionRegistry registry = FunctionRegistry.getDefault().register("max", MAX).register("twice", TWICE);
+      int count = 5000;
+      Random random = new Random(23);
+      try (FormulaArchiveWriter writer = new FormulaArchiveWriter(file)) {
+         for (int i = 0; i < FORMULAS.length; i++) {
+            writer.add("rule" + i, FormulaCompute.compile(FORMULAS[i], registry, false));
+         }
+         for (int i = 0; i < count; i++) {
+            writer.add("generated" + i, FormulaCompute.compile("a*" + i + " + b^" + (i % 7), registry, false));
+         }
+      }
+
+      // The functions are registered in another order, with other opcodes.
+      FunctionRegistry other = FunctionRegistry.getDefault().register("twice", TWICE).register("max", MAX);
+      try (FormulaArchive archive = new FormulaArchive(file, other)) {
+         assertEquals(FORMULAS.length + count, archive.size());
+         assertNull(archive.get("unknown"));
+         assertFalse(archive.contains("rule" + FORMULAS.length));
+
+         for (int i = 0; i < FORMULAS.length; i++) {
+            CompiledFormula expected = FormulaCompute.compile(FORMULAS[i], registry, false);
+            CompiledFormula loaded = archive.get("rule" + i);
+            assertSame(loaded, archive.get("rule" + i));
+            assertEquals(FORMULAS[i], archive.getSource("rule" + i));
+            assertEquals(FORMULAS[i], loaded.getFormula());
+            assertSame(other, loaded.getRegistry());
+            assertEquals(expected.getMaxDepth(), loaded.getMaxDepth());
+            assertEquals(expected.getScratchSlots(), loaded.getScratchSlots());
+
+            double[] values = new double[expected.getSlotCount()];
+            for (int sample = 0; sample < 10; sample++) {
+               for (int slot = 0; slot < values.length; slot++) {
+                  values[slot] = 1 + 5 * random.nextDouble();
+               }
+               assertEquals(FORMULAS[i], Double.doubleToLongBits(expected.evaluate(values)),
+                  Double.doubleToLongBits(loaded.evaluate(values)));
+            }
+         }
+
+         for (int i = 0; i < count; i += 97) {
+            CompiledFormula loaded = archive.get("generated" + i, "a*" + i + " + b^" + (i % 7));
+            assertEquals(3 * i + Math.pow(2, i % 7), loaded.evaluate(new double[] { 3, 2 }));
+            assertNull(archive.get("generated" + i, "a*" + i + " - b^" + (i % 7)));
+         }
+      }
+
+      // A registry without the functions.
+      try (FormulaArchive archive = new FormulaArchive(file, FunctionRegistry.getDefault())) {
+         assertNotNull(archive.get("rule0"));
+         try {
+            archive.get("rule" + (FORMULAS.length - 1));
+            fail("max is not registered");
+         } catch (MathematicalAnalysisException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("not registered"));
+         }
+      }
+   }
+
+   public void testTwoRegistries() throws Exception {
+      // twice and half have the same opcode, in two registries.
+      DelegateFunction half = new UnaryDelegateFunction("HALF") {
+         @Override
+         public double compute(double arg) {
+            return arg / 2;
+         }
+      };
+      FunctionRegistry first = FunctionRegistry.getDefault().register("twice", TWICE);
+      FunctionRegistry second = FunctionRegistry.getDefault().register("half", half);
+      assertEquals(first.get("twice").getId(), second.get("half").getId());
+
+      try (FormulaArchiveWriter writer = new FormulaArchiveWriter(file)) {
+         writer.add("twice", FormulaCompute.compile("twice(x) + 1", first, false));
+         writer.add("half", FormulaCompute.compile("half(x) + 1", second, false));
+         writer.add("both", FormulaCompute.compile("twice(x) + 1", first, false));
+         try {
+            writer.add("max", FormulaCompute.compile("twice(x, y)",
+               FunctionRegistry.getDefault().register("twice", MAX), false));
+            fail("twice has one argument in the archive");
+         } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("another definition"));
+         }
+      }
+
+      FunctionRegistry both = FunctionRegistry.getDefault().register("half", half).register("twice", TWICE);
+      try (FormulaArchive archive = new FormulaArchive(file, both)) {
+         assertEquals(3, archive.size());
+         assertFalse(archive.contains("max"));
+         assertEquals(9.0, archive.get("twice").evaluate(new double[] { 4 }));
+         assertEquals(3.0, archive.get("half").evaluate(new double[] { 4 }));
+         assertEquals(9.0, archive.get("both").evaluate(new double[] { 4 }));
+      }
+   }
+
+   public void testDuplicateName() throws Exception {
+      try (FormulaArchiveWriter writer = new FormulaArchiveWriter(file)) {
+         writer.add("rule", FormulaCompute.compile("a+b"));
+         try {
+            writer.add("rule", FormulaCompute.compile("a-b"));
+            fail("rule is already in the archive");
+         } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("already"));
+         }
+      }
+   }
+
+   public void testNotAnArchive() throws IOException {
+      Files.write(file, "a,b\n1,2\n".getBytes(StandardCharsets.UTF_8));
+      try {
+         new FormulaArchive(file, FunctionRegistry.getDefault()).close();
+         fail(file + " is not an archive");
+      } catch (IOException e) {
+         assertTrue(e.getMessage(), e.getMessage().contains("is not a formula archive"));
+      }
+   }
+}
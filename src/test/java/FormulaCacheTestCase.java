@@ -0,0 +1,180 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bm.FormulaCompute;
+import org.bm.analysis.exception.MathematicalAnalysisException;
+import org.bm.cache.CacheStatistics;
+import org.bm.cache.FormulaCache;
+import org.bm.cache.impl.FormulaCacheDefaultImpl;
+import org.bm.compiler.CompiledFormula;
+import org.bm.utils.FunctionRegistry;
+
+import junit.framework.TestCase;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * @author morinb
+ *
+ */
+public class FormulaCacheTestCase extends TestCase {
+
+   public void testHitsAndMisses() throws MathematicalAnalysisException {
+      FormulaCache cache = new FormulaCacheDefaultImpl(100, Long.MAX_VALUE);
+      FunctionRegistry registry = FunctionRegistry.getDefault();
+
+      CompiledFormula compiled = cache.get("sqrt(a^2+b^2)", registry);
+      assertSame(compiled, cache.get("sqrt(a^2+b^2)", registry));
+      assertSame(compiled, cache.get(" sqrt( a ^ 2 + b^2 )", registry));
+      assertNotSame(compiled, cache.get("sqrt(a^2+b^3)", registry));
+
+      CacheStatistics statistics = cache.getStatistics();
+      assertEquals(2, statistics.getHitCount());
+      assertEquals(2, statistics.getMissCount());
+      assertEquals(0, statistics.getEvictionCount());
+      assertEquals(2, statistics.getSize());
+      assertTrue(statistics.getWeight() > 0);
+
+      cache.clear();
+      assertEquals(0, cache.getStatistics().getSize());
+      assertNotSame(compiled, cache.get("sqrt(a^2+b^2)", registry));
+   }
+
+   public void testVariantsKeepTheFirstText() throws MathematicalAnalysisException {
+      FormulaCache cache = new FormulaCacheDefaultImpl(10, Long.MAX_VALUE);
+      FunctionRegistry registry = FunctionRegistry.getDefault();
+
+      CompiledFormula compiled = cache.get("a+b", registry);
+      assertSame(compiled, cache.get("a + b", registry));
+      assertSame(compiled, cache.get("a  +b", registry));
+      assertEquals("a+b", cache.get("a + b", registry).getFormula());
+      assertEquals(3, cache.getStatistics().getHitCount());
+
+      // The variants go away with their formula.
+      CompiledFormula once = cache.get("c+d", registry);
+      for (int i = 0; i < 100; i++) {
+         cache.get("x+" + i, registry);
+      }
+      long misses = cache.getStatistics().getMissCount();
+      assertNotSame(once, cache.get("c+d", registry));
+      assertEquals(misses + 1, cache.getStatistics().getMissCount());
+   }
+
+   public void testErrorsAreNotCached() {
+      FormulaCache cache = new FormulaCacheDefaultImpl(100, Long.MAX_VALUE);
+      for (int i = 0; i < 2; i++) {
+         try {
+            cache.get("1 +", FunctionRegistry.getDefault());
+            fail("+ needs two arguments");
+         } catch (MathematicalAnalysisException e) {
+            assertEquals(i + 1, cache.getStatistics().getMissCount());
+         }
+      }
+      assertEquals(0, cache.getStatistics().getSize());
+   }
+
+   public void testEvictionBySize() throws MathematicalAnalysisException {
+      FormulaCache cache = new FormulaCacheDefaultImpl(10, Long.MAX_VALUE);
+      FunctionRegistry registry = FunctionRegistry.getDefault();
+
+      CompiledFormula frequent = cache.get("x*2", registry);
+      for (int i = 0; i < 100; i++) {
+         // Used again, x*2 is protected from the formulas used once.
+         assertSame(frequent, cache.get("x*2", registry));
+         cache.get("x+" + i, registry);
+      }
+
+      CacheStatistics statistics = cache.getStatistics();
+      assertEquals(10, statistics.getSize());
+      assertEquals(91, statistics.getEvictionCount());
+      assertSame(frequent, cache.get("x*2", registry));
+   }
+
+   public void testEvictionByWeight() throws MathematicalAnalysisException {
+      FormulaCache cache = new FormulaCacheDefaultImpl(1000, 4096);
+      for (int i = 0; i < 100; i++) {
+         cache.get("a+b*" + i, FunctionRegistry.getDefault());
+      }
+
+      CacheStatistics statistics = cache.getStatistics();
+      assertTrue(statistics.toString(), statistics.getWeight() <= 4096);
+      assertTrue(statistics.toString(), statistics.getEvictionCount() > 0);
+      assertEquals(100, statistics.getSize() + statistics.getEvictionCount());
+   }
+
+   public void testConcurrentCompilesAreCollapsed() throws Exception {
+      final FormulaCache cache = new FormulaCacheDefaultImpl(1000, Long.MAX_VALUE);
+      final int nbThreads = 64;
+      final CountDownLatch start = new CountDownLatch(1);
+      ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+
+      try {
+         Future<?>[] futures = new Future<?>[nbThreads];
+         for (int i = 0; i < nbThreads; i++) {
+            futures[i] = executor.submit(new Callable<CompiledFormula>() {
+               @Override
+               public CompiledFormula call() throws Exception {
+                  start.await();
+                  CompiledFormula compiled = null;
+                  for (int j = 0; j < 1000; j++) {
+                     compiled = cache.get("sqrt((1/2)*(m*g)^2+log(m) + exp(g))", FunctionRegistry.getDefault());
+                  }
+                  return compiled;
+               }
+            });
+         }
+         start.countDown();
+
+         Object first = futures[0].get();
+         for (Future<?> future : futures) {
+            assertSame(first, future.get());
+         }
+      } finally {
+         executor.shutdown();
+      }
+
+      CacheStatistics statistics = cache.getStatistics();
+      assertEquals(1, statistics.getMissCount());
+      assertEquals(nbThreads * 1000 - 1, statistics.getHitCount());
+   }
+
+   public void testCompute() throws MathematicalAnalysisException {
+      Map<String, String> variables = new HashMap<>();
+      variables.put("a", "3");
+      variables.put("b", "4");
+
+      long misses = FormulaCompute.getCache().getStatistics().getMissCount();
+      assertEquals("5.0", FormulaCompute.compute("sqrt(a^2+b^2+0*a*b)", variables, false));
+      variables.put("a", "6");
+      variables.put("b", "8");
+      assertEquals("10.0", FormulaCompute.compute("sqrt(a^2 + b^2 + 0*a*b)", variables, false));
+      assertEquals(misses + 1, FormulaCompute.getCache().getStatistics().getMissCount());
+
+      // A single token is not compiled.
+      assertEquals("3", FormulaCompute.compute("3", variables, false));
+
+      // A variable of the name of a function is read as the variable.
+      variables.put("exp", "2");
+      assertEquals(FormulaCompute.interpret("exp + 1", variables, FunctionRegistry.getDefault(), false),
+         FormulaCompute.compute("exp + 1", variables, false));
+      assertEquals("3.0", FormulaCompute.compute("exp + 1", variables, false));
+   }
+}
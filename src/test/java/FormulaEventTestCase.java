@@ -0,0 +1,128 @@
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bm.FormulaCompute;
+import org.bm.compiler.CompiledFormula;
+import org.bm.compiler.archive.FormulaArchiveWriter;
+import org.bm.events.FormulaEventType;
+import org.bm.utils.FunctionRegistry;
+
+import junit.framework.TestCase;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * @author morinb
+ *
+ */
+public class FormulaEventTestCase extends TestCase {
+
+   public void testNotRecording() {
+      for (FormulaEventType type : FormulaEventType.values()) {
+         assertNull(type.getName(), type.begin());
+      }
+   }
+
+   /**
+    * Record the events with the Flight Recorder, by reflection as for the
+    * events themselves, if it is available.
+    */
+   public void testRecording() throws Exception {
+      Class<?> recordingClass;
+      try {
+         recordingClass = Class.forName("jdk.jfr.Recording");
+      } catch (ClassNotFoundException e) {
+         return;
+      }
+      Class<?> settingsClass = Class.forName("jdk.jfr.EventSettings");
+      Object recording = recordingClass.getDeclaredConstructor().newInstance();
+      for (FormulaEventType type : FormulaEventType.values()) {
+         Object settings = recordingClass.getMethod("enable", String.class).invoke(recording, type.getName());
+         settingsClass.getMethod("with", String.class, String.class).invoke(settings, "threshold", "0 ns");
+      }
+
+      Path file = Files.createTempFile("formulas", ".jfr");
+      String formula = "a * 2 + b";
+      try {
+         recordingClass.getMethod("start").invoke(recording);
+         assertNotNull(FormulaEventType.EVALUATE.begin());
+
+         Map<String, String> variables = new HashMap<>();
+         variables.put("a", "3");
+         variables.put("b", "4");
+         FormulaCompute.interpret(formula, variables, FunctionRegistry.getDefault(), false);
+         CompiledFormula compiled = FormulaCompute.compile(formula);
+         assertEquals(10.0, compiled.evaluateAsDouble(variables));
+
+         recordingClass.getMethod("stop").invoke(recording);
+         recordingClass.getMethod("dump", Path.class).invoke(recording, file);
+      } finally {
+         recordingClass.getMethod("close").invoke(recording);
+      }
+      assertNull(FormulaEventType.EVALUATE.begin());
+
+      // The types not recorded are not begun, even while recording.
+      recording = recordingClass.getDeclaredConstructor().newInstance();
+      recordingClass.getMethod("enable", String.class).invoke(recording, FormulaEventType.EVALUATE.getName());
+      recordingClass.getMethod("disable", String.class).invoke(recording, FormulaEventType.PARSE.getName());
+      try {
+         recordingClass.getMethod("start").invoke(recording);
+         assertNotNull(FormulaEventType.EVALUATE.begin());
+         assertNull(FormulaEventType.PARSE.begin());
+      } finally {
+         recordingClass.getMethod("close").invoke(recording);
+      }
+      assertNull(FormulaEventType.EVALUATE.begin());
+
+      Class<?> recordedEventClass = Class.forName("jdk.jfr.consumer.RecordedEvent");
+      Class<?> eventTypeClass = Class.forName("jdk.jfr.EventType");
+      Method getEventType = recordedEventClass.getMethod("getEventType");
+      Method getName = eventTypeClass.getMethod("getName");
+      Method getString = recordedEventClass.getMethod("getString", String.class);
+      Method getLong = recordedEventClass.getMethod("getLong", String.class);
+      Method getInt = recordedEventClass.getMethod("getInt", String.class);
+
+      Map<String, Integer> counts = new HashMap<>();
+      List<?> events = (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile")
+         .getMethod("readAllEvents", Path.class).invoke(null, file);
+      Files.delete(file);
+      for (Object event : events) {
+         String name = (String) getName.invoke(getEventType.invoke(event));
+         Object source = name.startsWith("org.bm.") ? getString.invoke(event, "formula") : null;
+         // The analyzer is given the formula in postfix notation, with the
+         // values of the variables.
+         if (formula.equals(source) || "3 2 * 4 +".equals(source)) {
+            assertEquals(FormulaArchiveWriter.hash((String) source), getLong.invoke(event, "formulaHash"));
+            Integer count = counts.get(name);
+            counts.put(name, null == count ? 1 : count + 1);
+            if (name.equals(FormulaEventType.COMPILE.getName())) {
+               assertEquals(5, getInt.invoke(event, "tokenCount"));
+               assertEquals(2, getInt.invoke(event, "variableCount"));
+            }
+         }
+      }
+
+      // Parsed to be interpreted, then to be compiled.
+      assertEquals(Integer.valueOf(2), counts.get(FormulaEventType.PARSE.getName()));
+      assertEquals(Integer.valueOf(1), counts.get(FormulaEventType.COMPILE.getName()));
+      // Interpreted, then evaluated once compiled.
+      assertEquals(Integer.valueOf(2), counts.get(FormulaEventType.EVALUATE.getName()));
+   }
+}
@@ -0,0 +1,148 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bm.analysis.exception.MathematicalAnalysisException;
+import org.bm.graph.FormulaGraph;
+import org.bm.utils.FunctionRegistry;
+import org.bm.utils.UnaryDelegateFunction;
+
+import junit.framework.TestCase;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * @author morinb
+ *
+ */
+public class FormulaGraphTestCase extends TestCase {
+
+   public void testIncrementalRecomputation() throws MathematicalAnalysisException {
+      final int[] calls = new int[1];
+      FunctionRegistry registry = FunctionRegistry.getDefault().register("count", new UnaryDelegateFunction("COUNT") {
+         @Override
+         public double compute(double arg) {
+            calls[0]++;
+            return arg;
+         }
+      }, false);
+
+      FormulaGraph graph = new FormulaGraph(registry);
+      Map<String, String> values = new HashMap<>();
+      values.put("spot", "100");
+      values.put("rate", "0.05");
+      values.put("vol", "0.2");
+      values.put("forward", "count(spot * exp(rate))");
+      values.put("variance", "count(vol^2)");
+      values.put("price", "count(forward + variance)");
+      graph.setAll(values);
+
+      assertEquals(3, graph.getDirtyCount());
+      assertEquals(100 * Math.exp(0.05) + 0.2 * 0.2, graph.get("price"), 1e-12);
+      assertEquals(3, calls[0]);
+      assertEquals(0, graph.getDirtyCount());
+
+      // Only forward and price depend on spot.
+      graph.set("spot", 101);
+      assertEquals(2, graph.getDirtyCount());
+      assertTrue(graph.isDirty("forward"));
+      assertFalse(graph.isDirty("variance"));
+      graph.recompute();
+      assertEquals(5, calls[0]);
+      assertEquals(101 * Math.exp(0.05) + 0.2 * 0.2, graph.get("price"), 1e-12);
+
+      // The same value changes nothing.
+      graph.set("spot", 101);
+      assertEquals(0, graph.getDirtyCount());
+
+      // A formula depending on another name.
+      graph.set("variance", "count(vol^2 * 2)");
+      assertEquals(2, graph.getDirtyCount());
+      assertEquals(0.08, graph.get("variance"), 1e-12);
+      assertTrue(graph.isDirty("price"));
+
+      // An input replacing a formula.
+      graph.set("forward", 100);
+      assertTrue(graph.getDependencies("forward").isEmpty());
+      assertEquals(100.08, graph.get("price"), 1e-12);
+   }
+
+   public void testParallelRecomputation() throws MathematicalAnalysisException {
+      FormulaGraph graph = new FormulaGraph();
+      FormulaGraph expected = new FormulaGraph();
+      for (FormulaGraph g : new FormulaGraph[] { graph, expected }) {
+         g.set("x", 1);
+         for (int i = 0; i < 100; i++) {
+            g.set("a" + i, "x * " + i);
+            g.set("b" + i, "sqrt(a" + i + " + x) + a" + (99 - i));
+         }
+         g.set("sum", "b0 + b50 + b99");
+      }
+
+      ExecutorService executor = Executors.newFixedThreadPool(4);
+      try {
+         for (int tick = 2; tick < 10; tick++) {
+            graph.set("x", tick);
+            expected.set("x", tick);
+            graph.recompute(executor);
+            assertEquals(0, graph.getDirtyCount());
+            expected.recompute();
+            for (int i = 0; i < 100; i++) {
+               assertEquals(expected.get("b" + i), graph.get("b" + i));
+            }
+            assertEquals(expected.get("sum"), graph.get("sum"));
+         }
+      } finally {
+         executor.shutdown();
+      }
+   }
+
+   public void testCycle() throws MathematicalAnalysisException {
+      FormulaGraph graph = new FormulaGraph();
+      graph.set("x", "1");
+      graph.set("y", "x + 1");
+      graph.set("z", "y * 2");
+
+      try {
+         graph.set("x", "z - 1");
+         fail("x would depend on itself");
+      } catch (MathematicalAnalysisException e) {
+         assertEquals("The variables x -> z -> y -> x are defined in a cycle.", e.getMessage());
+      }
+      assertEquals(4.0, graph.get("z"));
+
+      try {
+         graph.set("w", "w + 1");
+         fail("w would depend on itself");
+      } catch (MathematicalAnalysisException e) {
+         assertEquals("The variables w -> w are defined in a cycle.", e.getMessage());
+      }
+   }
+
+   public void testUndefined() throws MathematicalAnalysisException {
+      FormulaGraph graph = new FormulaGraph();
+      graph.set("y", "x + 1");
+      try {
+         graph.get("y");
+         fail("x has no value");
+      } catch (MathematicalAnalysisException e) {
+         assertEquals("The variable x has no value.", e.getMessage());
+      }
+      graph.set("x", 1);
+      assertEquals(2.0, graph.get("y"));
+   }
+}
@@ -0,0 +1,194 @@
+import java.util.HashMap;
+
+import org.bm.FormulaCompute;
+import org.bm.analysis.exception.MathematicalAnalysisException;
+import org.bm.compiler.CompiledFormula;
+import org.bm.compiler.FormulaCompiler;
+import org.bm.compiler.FormulaOptimizer;
+import org.bm.compiler.OpCode;
+import org.bm.compiler.impl.FormulaCompilerDefaultImpl;
+import org.bm.compiler.impl.FormulaOptimizerDefaultImpl;
+import org.bm.parser.RPNParserFactory;
+import org.bm.utils.DelegateFunction;
+import org.bm.utils.FunctionRegistry;
+import org.bm.utils.UnaryDelegateFunction;
+
+import junit.framework.TestCase;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * @author morinb
+ *
+ */
+public class FormulaOptimizerTestCase extends TestCase {
+
+   private static final double[] VALUES = { 0.0, -0.0, 1.0, -1.0, 0.1, -2.5, 3.0, 1e308, -1e-308, Double.MIN_VALUE,
+      Double.MAX_VALUE, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NaN };
+
+   private static CompiledFormula compile(String formula, FunctionRegistry registry)
+      throws MathematicalAnalysisException {
+      FormulaCompiler compiler = new FormulaCompilerDefaultImpl(registry);
+      return compiler.compile(formula,
+         RPNParserFactory.getParser(false, new HashMap<String, String>(), registry).parse(formula));
+   }
+
+   private static int countOperations(CompiledFormula formula) {
+      int count = 0;
+      for (int opcode : formula.getOpcodes()) {
+         if (opcode != OpCode.CONSTANT && opcode != OpCode.VARIABLE && opcode != OpCode.LOAD
+            && opcode != OpCode.STORE) {
+            count++;
+         }
+      }
+      return count;
+   }
+
+   /**
+    * Check the optimized formula gives the same double as the original one for
+    * every pair of special values, telling -0 from 0 but not a NaN from
+    * another.
+    */
+   private static void assertSameResults(CompiledFormula original, CompiledFormula optimized) {
+      assertEquals(original.getVariables().length, optimized.getVariables().length);
+      double[] values = new double[original.getVariables().length];
+      for (double x : VALUES) {
+         for (double y : VALUES) {
+            for (int i = 0; i < values.length; i++) {
+               values[i] = i % 2 == 0 ? x : y;
+            }
+            assertEquals(original.getFormula() + " " + x + " " + y,
+               Double.doubleToLongBits(original.evaluate(values)),
+               Double.doubleToLongBits(optimized.evaluate(values)));
+         }
+      }
+   }
+
+   private static void assertOptimized(String formula, int expectedOperations) throws MathematicalAnalysisException {
+      CompiledFormula original = compile(formula, FunctionRegistry.getDefault());
+      CompiledFormula optimized = new FormulaOptimizerDefaultImpl(true).optimize(original);
+
+      assertEquals(formula, expectedOperations, countOperations(optimized));
+      assertSameResults(original, optimized);
+   }
+
+   public void testConstantFolding() throws MathematicalAnalysisException {
+      assertOptimized("2*3.14159*r", 1);
+      assertOptimized("r*2*3.14159", 2);
+      assertOptimized("r*(2*3.14159)", 1);
+      assertOptimized("exp(0)+log(100)*sqrt(16)", 0);
+      assertOptimized("x*exp(0)", 0);
+      assertOptimized("(1/3)*x", 1);
+   }
+
+   public void testStrengthReduction() throws MathematicalAnalysisException {
+      assertOptimized("x^2", 1);
+      assertOptimized("x^1", 0);
+      assertOptimized("x^0", 0);
+      assertOptimized("(x+y)^2", 2);
+      assertOptimized("x^3", 1);
+      assertOptimized("y/4", 1);
+      assertOptimized("y/0.125", 1);
+      assertOptimized("y/3", 1);
+      assertOptimized("y/0", 1);
+
+      CompiledFormula optimized = new FormulaOptimizerDefaultImpl().optimize(compile("y/4",
+         FunctionRegistry.getDefault()));
+      assertEquals(OpCode.MULTIPLICATION, optimized.getOpcodes()[2]);
+      optimized = new FormulaOptimizerDefaultImpl().optimize(compile("y/3", FunctionRegistry.getDefault()));
+      assertEquals(OpCode.DIVISION, optimized.getOpcodes()[2]);
+   }
+
+   public void testIdentities() throws MathematicalAnalysisException {
+      assertOptimized("x*1", 0);
+      assertOptimized("1*x", 0);
+      assertOptimized("x/1", 0);
+      assertOptimized("x-0", 0);
+      assertOptimized("x*(-1)", 1);
+      assertOptimized("-(-x)", 0);
+      assertOptimized("x-(-y)", 1);
+      // -0 + 0 is 0, and 0 * Infinity is NaN.
+      assertOptimized("x+0", 1);
+      assertOptimized("0*x", 1);
+   }
+
+   public void testImpureFunctions() throws MathematicalAnalysisException {
+      FunctionRegistry registry = FunctionRegistry.getDefault().register("twice", new UnaryDelegateFunction("TWICE") {
+         @Override
+         public double compute(double arg) {
+            return 2 * arg;
+         }
+      }).register("rand", new DelegateFunction("RAND", 1) {
+         @Override
+         public double compute(double[] args, int offset) {
+            return Math.random() * args[offset];
+         }
+      }, false);
+
+      FormulaOptimizer optimizer = new FormulaOptimizerDefaultImpl();
+      assertEquals(0, countOperations(optimizer.optimize(compile("twice(3)", registry))));
+      assertEquals(1, countOperations(optimizer.optimize(compile("rand(3)", registry))));
+   }
+
+   public void testCommonSubExpressions() throws MathematicalAnalysisException {
+      assertOptimized("exp(k*t)*a + exp(k*t)*b + exp(k*t)*c + exp(k*t)*d + exp(k*t)*e", 11);
+      assertOptimized("sqrt(a^2+b^2) / (sqrt(a^2+b^2) + 1)", 6);
+      assertOptimized("(x+y)^2", 2);
+      assertOptimized("x*y + y*x", 3);
+
+      CompiledFormula optimized = new FormulaOptimizerDefaultImpl().optimize(compile(
+         "exp(k*t)*a + exp(k*t)*b + exp(k*t)*c + exp(k*t)*d + exp(k*t)*e", FunctionRegistry.getDefault()));
+      assertEquals(1, optimized.getScratchSlots());
+      assertEquals(optimized.getOpcodes().length, new FormulaOptimizerDefaultImpl().optimize(optimized)
+         .getOpcodes().length);
+   }
+
+   public void testImpureFunctionsNotMerged() throws MathematicalAnalysisException {
+      final int[] calls = new int[1];
+      FunctionRegistry registry = FunctionRegistry.getDefault().register("next", new UnaryDelegateFunction("NEXT") {
+         @Override
+         public double compute(double arg) {
+            return arg + calls[0]++;
+         }
+      }, false);
+
+      CompiledFormula optimized = new FormulaOptimizerDefaultImpl().optimize(compile("next(x) - next(x) + next(y)^2",
+         registry));
+      assertEquals(6, countOperations(optimized));
+      assertEquals(-1.0 + 4.0, optimized.evaluate(new double[] { 0, 0 }));
+      assertEquals(3, calls[0]);
+   }
+
+   public void testLongChain() throws MathematicalAnalysisException {
+      StringBuilder formula = new StringBuilder("a");
+      for (int i = 1; i < 20001; i++) {
+         formula.append("+a");
+      }
+      HashMap<String, String> variables = new HashMap<>();
+      variables.put("a", "0.5");
+      assertEquals(20001 * 0.5, Double.parseDouble(FormulaCompute.compute(formula.toString(), variables, false)));
+
+      CompiledFormula original = compile(formula.toString(), FunctionRegistry.getDefault());
+      CompiledFormula optimized = new FormulaOptimizerDefaultImpl().optimize(original);
+      assertEquals(original.evaluate(new double[] { 0.1 }), optimized.evaluate(new double[] { 0.1 }));
+   }
+
+   public void testCompile() throws MathematicalAnalysisException {
+      CompiledFormula compiled = FormulaCompute.compile("2*3.14159*r");
+      assertEquals(1, countOperations(compiled));
+      assertEquals(2 * 3.14159 * 3, compiled.evaluate(new double[] { 3 }));
+   }
+}
@@ -0,0 +1,108 @@
+import java.util.Random;
+
+import org.bm.FormulaCompute;
+import org.bm.analysis.exception.MathematicalAnalysisException;
+import org.bm.compiler.CompiledFormula;
+import org.bm.compiler.Interval;
+import org.bm.utils.BinaryDelegateFunction;
+import org.bm.utils.FunctionRegistry;
+
+import junit.framework.TestCase;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * @author morinb
+ *
+ */
+public class IntervalTestCase extends TestCase {
+
+   private static final String[] FORMULAS = { "sqrt(a^2+b^2)", "exp(a)*b", "a*b - a/b", "(a+b)^2 % b", "a^b",
+      "(-a)^3 + b^(-2)", "log(a*b) - sqrt(b - a)", "a^0.5 * b^(-1.5)", "exp(a/b)*a + exp(a/b)*b + (a+b)^2", "a % b - (-a)",
+      "(a - b)^4", "a*a*a" };
+
+   public void testOperations() {
+      Interval positive = Interval.of(1, 4);
+      Interval around = Interval.of(-2, 3);
+
+      assertEquals(Interval.of(-1, 7), positive.add(around));
+      assertEquals(Interval.of(-2, 6), positive.subtract(around));
+      assertEquals(Interval.of(-8, 12), positive.multiply(around));
+      assertEquals(Interval.ENTIRE, positive.divide(around));
+      assertEquals(Interval.of(-2.5, 0), around.divide(Interval.of(2, 4)).add(Interval.of(-1.5)));
+      assertEquals(Interval.of(1, 2), positive.sqrt());
+      assertEquals(Interval.of(-0.0, Math.sqrt(3)), around.sqrt());
+      assertTrue(Interval.of(-3, -1).sqrt().isEmpty());
+      assertTrue(Interval.of(-3, -1).log10().isEmpty());
+      assertEquals(Interval.of(0, 9), around.pow(Interval.of(2)));
+      assertEquals(Interval.of(-8, 27), around.pow(Interval.of(3)));
+      assertEquals(Interval.ENTIRE, around.pow(Interval.of(-1)));
+      assertEquals(Interval.of(1, 16), positive.pow(Interval.of(0, 2)));
+      assertEquals(Interval.of(-2, 3), around.modulo(positive));
+      assertEquals(Interval.of(-1, 0), Interval.of(-4, -1).modulo(Interval.of(1)));
+      assertTrue(Interval.of(Double.NaN).isEmpty());
+      assertEquals(Interval.ENTIRE, Interval.of(Double.NEGATIVE_INFINITY, 0).add(Interval.of(Double.POSITIVE_INFINITY)));
+   }
+
+   public void testSoundness() throws MathematicalAnalysisException {
+      Random random = new Random(17);
+      double[] values = new double[2];
+      for (String formula : FORMULAS) {
+         CompiledFormula compiled = FormulaCompute.compile(formula);
+         for (int i = 0; i < 200; i++) {
+            Interval[] ranges = new Interval[compiled.getSlotCount()];
+            for (int slot = 0; slot < ranges.length; slot++) {
+               double low = random.nextInt(3) == 0 ? random.nextInt(5) - 2 : 8 * random.nextDouble() - 4;
+               ranges[slot] = Interval.of(low, low + (random.nextBoolean() ? 0 : 6 * random.nextDouble()));
+            }
+            Interval bounds = compiled.evaluate(ranges);
+
+            for (int sample = 0; sample < 50; sample++) {
+               for (int slot = 0; slot < ranges.length; slot++) {
+                  Interval range = ranges[slot];
+                  switch (sample % 3) {
+                     case 0:
+                        values[slot] = range.getLow();
+                        break;
+                     case 1:
+                        values[slot] = range.getHigh();
+                        break;
+                     default:
+                        values[slot] = range.getLow() + random.nextDouble() * (range.getHigh() - range.getLow());
+                        break;
+                  }
+               }
+               double result = compiled.evaluate(values);
+               if (!Double.isNaN(result)) {
+                  assertTrue(formula + " = " + result + " out of " + bounds, bounds.contains(result));
+               }
+            }
+         }
+      }
+   }
+
+   public void testCustomFunctions() throws MathematicalAnalysisException {
+      FunctionRegistry registry = FunctionRegistry.getDefault().register("max", new BinaryDelegateFunction("MAX") {
+         @Override
+         public double compute(double arg1, double arg2) {
+            return Math.max(arg1, arg2);
+         }
+      });
+      CompiledFormula compiled = FormulaCompute.compile("max(a, 1) + exp(b)", registry, false);
+      Interval bounds = compiled.evaluate(new Interval[] { Interval.of(0, 1), Interval.of(0, 1) });
+      assertEquals(Interval.ENTIRE, bounds);
+   }
+}
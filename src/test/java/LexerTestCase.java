@@ -0,0 +1,93 @@
+import org.bm.parser.lexer.Lexer;
+import org.bm.parser.lexer.TokenType;
+import org.bm.utils.Function;
+import org.bm.utils.Operator;
+
+import junit.framework.TestCase;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * @author morinb
+ *
+ */
+public class LexerTestCase extends TestCase {
+
+   public void testTokens() {
+      Lexer lexer = new Lexer("(-3)+x*2/(Z0-5 )^2^y'");
+      TokenType[] expected = { TokenType.LEFT_PARENTHESIS, TokenType.OPERATOR, TokenType.NUMBER,
+         TokenType.RIGHT_PARENTHESIS, TokenType.OPERATOR, TokenType.IDENTIFIER, TokenType.OPERATOR, TokenType.NUMBER,
+         TokenType.OPERATOR, TokenType.LEFT_PARENTHESIS, TokenType.IDENTIFIER, TokenType.OPERATOR, TokenType.NUMBER,
+         TokenType.RIGHT_PARENTHESIS, TokenType.OPERATOR, TokenType.NUMBER, TokenType.OPERATOR, TokenType.IDENTIFIER,
+         TokenType.END };
+
+      for (TokenType type : expected) {
+         assertEquals(type, lexer.next());
+         if (TokenType.IDENTIFIER == type) {
+            assertTrue(lexer.getText(), lexer.getText().matches("x|Z0|y'"));
+         }
+      }
+   }
+
+   public void testOffsets() {
+      Lexer lexer = new Lexer("  sqrt( ab ,2)");
+
+      assertEquals(TokenType.FUNCTION, lexer.next());
+      assertEquals(Function.SQRT, lexer.getSymbol().getFunction());
+      assertEquals(2, lexer.getStart());
+      assertEquals(6, lexer.getEnd());
+
+      assertEquals(TokenType.LEFT_PARENTHESIS, lexer.next());
+      assertEquals(TokenType.IDENTIFIER, lexer.next());
+      assertEquals("ab", lexer.getText());
+      assertEquals(8, lexer.getStart());
+      assertEquals(10, lexer.getEnd());
+
+      assertEquals(TokenType.SEPARATOR, lexer.next());
+      assertEquals(TokenType.NUMBER, lexer.next());
+      assertEquals(TokenType.RIGHT_PARENTHESIS, lexer.next());
+      assertEquals(TokenType.END, lexer.next());
+   }
+
+   public void testNumbers() {
+      String[] numbers = { "0", "3", "35", "2.5", ".5", "1.", "0.05", "1e3", "1E-3", "2.5e+2", "123456789012345678901",
+         "0.1234567890123456789", "1e300", "4.9e-324", "NaN", "Infinity" };
+
+      for (String number : numbers) {
+         Lexer lexer = new Lexer(number);
+         assertEquals(number, TokenType.NUMBER, lexer.next());
+         assertEquals(number, Double.parseDouble(number), lexer.getNumber());
+         assertEquals(TokenType.END, lexer.next());
+      }
+   }
+
+   public void testNotNumbers() {
+      Lexer lexer = new Lexer("3x 2e 1e-3");
+
+      assertEquals(TokenType.IDENTIFIER, lexer.next());
+      assertEquals("3x", lexer.getText());
+      assertEquals(TokenType.IDENTIFIER, lexer.next());
+      assertEquals("2e", lexer.getText());
+      assertEquals(TokenType.NUMBER, lexer.next());
+      assertEquals(1e-3, lexer.getNumber());
+
+      lexer = new Lexer("1e-x");
+      assertEquals(TokenType.IDENTIFIER, lexer.next());
+      assertEquals("1e", lexer.getText());
+      assertEquals(TokenType.OPERATOR, lexer.next());
+      assertEquals(Operator.SUBSTRACTION, lexer.getOperator());
+   }
+}
@@ -0,0 +1,181 @@
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.bm.FormulaCompute;
+import org.bm.analysis.exception.MathematicalAnalysisException;
+import org.bm.compiler.CompiledFormula;
+import org.bm.metrics.HistogramSnapshot;
+import org.bm.metrics.LatencyHistogram;
+import org.bm.metrics.Metrics;
+import org.bm.metrics.MetricsSnapshot;
+import org.bm.metrics.Stage;
+import org.bm.metrics.StripedCounter;
+import org.bm.utils.FunctionRegistry;
+
+import junit.framework.TestCase;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * @author morinb
+ *
+ */
+public class MetricsTestCase extends TestCase {
+
+   public void testHistogram() {
+      LatencyHistogram histogram = new LatencyHistogram(true);
+      for (long nanos = 1; nanos <= 100000; nanos++) {
+         histogram.record(nanos);
+      }
+      HistogramSnapshot snapshot = histogram.snapshot();
+
+      assertEquals(100000, snapshot.getCount());
+      assertEquals(50000.5, snapshot.getMean(), 50000.5 / 32);
+      assertEquals(50000, snapshot.getValueAtPercentile(50), 50000 / 32);
+      assertEquals(99000, snapshot.getValueAtPercentile(99), 99000 / 32);
+      assertEquals(100000, snapshot.getMax(), 100000 / 32);
+
+      histogram.reset();
+      assertEquals(0, histogram.snapshot().getCount());
+   }
+
+   public void testCounterInParallel() throws InterruptedException {
+      final StripedCounter counter = new StripedCounter();
+      Thread[] threads = new Thread[8];
+      for (int i = 0; i < threads.length; i++) {
+         threads[i] = new Thread() {
+            @Override
+            public void run() {
+               for (int j = 0; j < 100000; j++) {
+                  counter.increment();
+               }
+            }
+         };
+         threads[i].start();
+      }
+      for (Thread thread : threads) {
+         thread.join();
+      }
+      assertEquals(800000, counter.sum());
+   }
+
+   public void testStages() throws MathematicalAnalysisException {
+      Metrics metrics = Metrics.getDefault();
+      boolean perFormula = metrics.isPerFormula();
+      metrics.reset();
+      metrics.setPerFormula(true);
+      try {
+         Map<String, String> variables = new HashMap<>();
+         variables.put("a", "3");
+         FormulaCompute.interpret("a * 2 + 1", variables, FunctionRegistry.getDefault(), false);
+
+         CompiledFormula compiled = FormulaCompute.compile("a^2 + b");
+         variables.put("b", "a + 1");
+         for (int i = 0; i < 10; i++) {
+            assertEquals(13.0, compiled.evaluateAsDouble(variables));
+         }
+         try {
+            compiled.evaluateAsDouble(new HashMap<String, String>());
+            fail("The variables have no value.");
+         } catch (MathematicalAnalysisException e) {
+            // Expected.
+         }
+
+         MetricsSnapshot snapshot = metrics.snapshot();
+         assertEquals(1, snapshot.getStage(Stage.WRITE).getCount());
+         assertEquals(1, snapshot.getStage(Stage.ANALYZE).getCount());
+         // The value of b is itself a formula, compiled unless already in
+         // the cache.
+         assertTrue(snapshot.getStage(Stage.COMPILE).getCount() >= 1);
+         assertTrue(snapshot.getStage(Stage.PARSE).getCount() >= 2);
+         assertEquals(10, snapshot.getStage(Stage.EVALUATE).getCount());
+         // The count includes the failures, the latency does not.
+         assertEquals(11, snapshot.getStage(Stage.RESOLVE).getCount());
+         assertEquals(1, snapshot.getStage(Stage.RESOLVE).getErrorCount());
+         assertEquals(10, snapshot.getStage(Stage.RESOLVE).getLatency().getCount());
+         assertEquals(10, snapshot.getStage(Stage.EVALUATE).getLatency().getCount());
+
+         Map<Stage, ?> formula = snapshot.getFormulas().get("a^2 + b");
+         assertNotNull(formula);
+         assertTrue(formula.containsKey(Stage.COMPILE));
+         assertTrue(formula.containsKey(Stage.EVALUATE));
+         assertFalse(formula.containsKey(Stage.ANALYZE));
+      } finally {
+         metrics.setPerFormula(perFormula);
+         metrics.reset();
+      }
+   }
+
+   public void testDisabled() {
+      Metrics metrics = new Metrics(false, true);
+      metrics.record(Stage.EVALUATE, "a", metrics.start());
+      metrics.recordError(Stage.EVALUATE, "a", new MathematicalAnalysisException("error"));
+      assertEquals(0, metrics.snapshot().getStage(Stage.EVALUATE).getCount());
+      assertEquals(0, metrics.snapshot().getStage(Stage.EVALUATE).getErrorCount());
+      assertTrue(metrics.snapshot().getFormulas().isEmpty());
+
+      metrics.setEnabled(true);
+      metrics.record(Stage.EVALUATE, "a", metrics.start());
+      assertEquals(1, metrics.snapshot().getStage(Stage.EVALUATE).getCount());
+      assertEquals(1, metrics.snapshot().getFormulas().size());
+   }
+
+   public void testPerFormulaLimit() {
+      Metrics metrics = new Metrics(true, true);
+      for (int i = 0; i < Metrics.MAX_FORMULAS * 2; i++) {
+         metrics.record(Stage.COMPILE, "a + " + i, metrics.start());
+      }
+      assertEquals(Metrics.MAX_FORMULAS, metrics.snapshot().getFormulas().size());
+      assertEquals(Metrics.MAX_FORMULAS * 2, metrics.snapshot().getStage(Stage.COMPILE).getCount());
+   }
+
+   public void testMBean() throws Exception {
+      Metrics metrics = new Metrics(true, false);
+      metrics.record(Stage.PARSE, "a", metrics.start());
+      metrics.recordError(Stage.PARSE, "b", new MathematicalAnalysisException("error"));
+
+      ObjectName name = new ObjectName("org.bm:type=Metrics,name=test");
+      metrics.registerMBean(name);
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      try {
+         Map<?, ?> counts = toMap(server.getAttribute(name, "Counts"));
+         assertEquals(Long.valueOf(2), counts.get("PARSE"));
+         Map<?, ?> errors = toMap(server.getAttribute(name, "ErrorCounts"));
+         assertEquals(Long.valueOf(1), errors.get("PARSE MathematicalAnalysisException"));
+
+         server.invoke(name, "reset", new Object[0], new String[0]);
+         assertEquals(0, metrics.snapshot().getStage(Stage.PARSE).getCount());
+      } finally {
+         server.unregisterMBean(name);
+      }
+   }
+
+   /**
+    * An MXBean gives its maps as tabular data, of key and value rows.
+    */
+   private static Map<?, ?> toMap(Object attribute) {
+      Map<Object, Object> map = new HashMap<>();
+      for (Object row : ((javax.management.openmbean.TabularData) attribute).values()) {
+         javax.management.openmbean.CompositeData data = (javax.management.openmbean.CompositeData) row;
+         map.put(data.get("key"), data.get("value"));
+      }
+      return map;
+   }
+}
@@ -1,4 +1,5 @@
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
@@ -8,8 +9,11 @@ import org.bm.analysis.exception.MathematicalAnalysisException;
 import org.bm.analysis.impl.AnalyzerDefaultImpl;
 import org.bm.parser.RPNParser;
 import org.bm.parser.RPNParserFactory;
+import org.bm.parser.impl.TableParseTracer;
 import org.bm.utils.ComputeUtils;
+import org.bm.utils.DelegateFunction;
 import org.bm.utils.Function;
+import org.bm.utils.FunctionRegistry;
 import org.bm.utils.Operator;
 import org.bm.writer.Writer;
 import org.bm.writer.impl.StringWriter;
@@ -120,6 +124,54 @@ public class RPNParserTestCase extends TestCase {
 
    }
 
+   public void testPrimitiveFunctions() throws MathematicalAnalysisException {
+      assertEquals(Math.sqrt(2), Function.SQRT.compute(2.0));
+      assertEquals(Math.pow(2, 10), Operator.POWER.compute(2.0, 10.0));
+      assertEquals(-5.0, Operator.OPPOSITE.compute(5.0));
+
+      // The arguments are read in their natural order from the offset.
+      double[] stack = { 1.0, 8.0, 2.0 };
+      assertEquals(4.0, Operator.DIVISION.compute(stack, 1));
+      assertEquals(6.0, Operator.SUBSTRACTION.compute(stack, 1));
+
+      // A function overriding only the array contract still computes scalars.
+      DelegateFunction difference = new DelegateFunction("DIFFERENCE", 2) {
+         @Override
+         public double compute(double[] args, int offset) {
+            return args[offset] - args[offset + 1];
+         }
+      };
+      assertEquals(6.0, difference.compute(8.0, 2.0));
+      try {
+         difference.compute(8.0);
+         fail("DIFFERENCE takes two arguments");
+      } catch (IllegalArgumentException e) {
+         // Expected.
+      }
+
+      // A function implementing only the String contract computes doubles.
+      DelegateFunction quotient = new DelegateFunction("QUOTIENT", 2) {
+         @Override
+         public String compute(String... args) throws MathematicalAnalysisException {
+            return Double.toString(Double.parseDouble(args[1]) / Double.parseDouble(args[0]));
+         }
+      };
+      assertEquals(4.0, quotient.compute(stack, 1));
+      assertEquals(4.0, quotient.compute(8.0, 2.0));
+
+      // The String contract pops the last argument first.
+      assertEquals(Operator.DIVISION.compute("2", "8"), Double.toString(Operator.DIVISION.compute(stack, 1)));
+
+      try {
+         Operator.ADDITION.compute("1", "a");
+         fail("a is not a number");
+      } catch (MathematicalAnalysisException e) {
+         if (logger.isInfoEnabled()) {
+            logger.info(e.getMessage());
+         }
+      }
+   }
+
    public void testAnalyzer() throws MathematicalAnalysisException {
       String formula = "3 4 -";
       Analyzer analyzer = new AnalyzerDefaultImpl();
@@ -242,4 +294,53 @@ public class RPNParserTestCase extends TestCase {
          logger.info("With : " + ComputeUtils.concat(ComputeUtils.displayVariables(variables), ", "));
       }
    }
+
+   /**
+    * The steps of the example of the Shunting-Yard Algorithm on Wikipedia.
+    */
+   public void testTrace() throws MathematicalAnalysisException {
+      TableParseTracer tracer = new TableParseTracer();
+      RPNParser parser = RPNParserFactory.getParser(tracer, new HashMap<String, String>(), FunctionRegistry.getDefault());
+      parser.parse("3 + 4 * 2 / ( 1 - 5 ) ^ 2 ^ 3");
+
+      String[][] expected = { { "3", "Add token to output", "3", "", null },
+         { "+", "Push token to stack", "3", "+", null }, { "4", "Add token to output", "3 4", "+", null },
+         { "*", "Push token to stack", "3 4", "* +", "* has higher precedence than +" },
+         { "2", "Add token to output", "3 4 2", "* +", null },
+         { "/", "Pop stack to output", "3 4 2 *", "+", "/ and * have same precedence" },
+         { "/", "Push token to stack", "3 4 2 *", "/ +", "/ has higher precedence than +" },
+         { "(", "Push token to stack", "3 4 2 *", "( / +", null },
+         { "1", "Add token to output", "3 4 2 * 1", "( / +", null },
+         { "-", "Push token to stack", "3 4 2 * 1", "- ( / +", null },
+         { "5", "Add token to output", "3 4 2 * 1 5", "- ( / +", null },
+         { ")", "Pop stack to output", "3 4 2 * 1 5 -", "( / +", "Repeated until \"(\" found" },
+         { ")", "Pop stack", "3 4 2 * 1 5 -", "/ +", "Discard matching parenthesis" },
+         { "^", "Push token to stack", "3 4 2 * 1 5 -", "^ / +", "^ has higher precedence than /" },
+         { "2", "Add token to output", "3 4 2 * 1 5 - 2", "^ / +", null },
+         { "^", "Push token to stack", "3 4 2 * 1 5 - 2", "^ ^ / +", "^ is evaluated right-to-left" },
+         { "3", "Add token to output", "3 4 2 * 1 5 - 2 3", "^ ^ / +", null },
+         { null, "Pop entire stack to output", "3 4 2 * 1 5 - 2 3 ^ ^ / +", "", null } };
+
+      List<TableParseTracer.Row> rows = tracer.getRows();
+      assertEquals(expected.length, rows.size());
+      for (int i = 0; i < expected.length; i++) {
+         TableParseTracer.Row row = rows.get(i);
+         assertEquals(expected[i][0], row.getToken());
+         assertEquals(expected[i][1], row.getAction().getLabel());
+         assertEquals(expected[i][2], row.getOutput());
+         assertEquals(expected[i][3], row.getStack());
+         assertEquals(expected[i][4], row.getNote());
+      }
+
+      String table = tracer.toString();
+      if (logger.isInfoEnabled()) {
+         logger.info("\n" + table);
+      }
+      String[] lines = table.split("\n");
+      assertEquals(expected.length + 2, lines.length);
+      assertTrue(lines[0].startsWith("Token | Action"));
+      // The second step of a token does not repeat it.
+      assertTrue(lines[8].startsWith("      | Push token to stack "));
+      assertTrue(lines[19].startsWith("end   | Pop entire stack to output"));
+   }
 }
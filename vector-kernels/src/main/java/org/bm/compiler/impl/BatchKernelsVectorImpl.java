@@ -0,0 +1,121 @@
+package org.bm.compiler.impl;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import org.bm.compiler.BatchKernels;
+import org.bm.compiler.OpCode;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * The kernels on the Vector API: the rows are computed by vectors of the
+ * widest size of the processor, the last ones one by one. Only the operations
+ * giving exactly the same doubles as the scalar ones are vectorized: the
+ * modulo has no vector operation, and the power, logarithm and exponential of
+ * the Vector API are not always equal to those of {@link Math}, which the
+ * compiled formulas and the bounds of the intervals rely on. They are
+ * computed by {@link BatchKernelsDefaultImpl}.
+ *
+ * @author morinb
+ */
+public class BatchKernelsVectorImpl implements BatchKernels {
+
+   private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+   private final BatchKernels scalar = new BatchKernelsDefaultImpl();
+
+   @Override
+   public void binary(int opcode, double[] a, int aOffset, double[] b, int bOffset, double[] result, int length) {
+      VectorOperators.Binary operator;
+      switch (opcode) {
+         case OpCode.ADDITION:
+            operator = VectorOperators.ADD;
+            break;
+         case OpCode.SUBSTRACTION:
+            operator = VectorOperators.SUB;
+            break;
+         case OpCode.MULTIPLICATION:
+            operator = VectorOperators.MUL;
+            break;
+         case OpCode.DIVISION:
+            operator = VectorOperators.DIV;
+            break;
+         default:
+            scalar.binary(opcode, a, aOffset, b, bOffset, result, length);
+            return;
+      }
+
+      int bound = SPECIES.loopBound(length);
+      int i = 0;
+      for (; i < bound; i += SPECIES.length()) {
+         DoubleVector x = DoubleVector.fromArray(SPECIES, a, aOffset + i);
+         DoubleVector y = DoubleVector.fromArray(SPECIES, b, bOffset + i);
+         x.lanewise(operator, y).intoArray(result, i);
+      }
+      for (; i < length; i++) {
+         result[i] = binary(opcode, a[aOffset + i], b[bOffset + i]);
+      }
+   }
+
+   @Override
+   public void unary(int opcode, double[] a, int aOffset, double[] result, int length) {
+      VectorOperators.Unary operator;
+      switch (opcode) {
+         case OpCode.OPPOSITE:
+            operator = VectorOperators.NEG;
+            break;
+         case OpCode.SQRT:
+            operator = VectorOperators.SQRT;
+            break;
+         default:
+            scalar.unary(opcode, a, aOffset, result, length);
+            return;
+      }
+
+      int bound = SPECIES.loopBound(length);
+      int i = 0;
+      for (; i < bound; i += SPECIES.length()) {
+         DoubleVector.fromArray(SPECIES, a, aOffset + i).lanewise(operator).intoArray(result, i);
+      }
+      for (; i < length; i++) {
+         result[i] = unary(opcode, a[aOffset + i]);
+      }
+   }
+
+   private static double binary(int opcode, double a, double b) {
+      switch (opcode) {
+         case OpCode.ADDITION:
+            return a + b;
+         case OpCode.SUBSTRACTION:
+            return a - b;
+         case OpCode.MULTIPLICATION:
+            return a * b;
+         default:
+            return a / b;
+      }
+   }
+
+   private static double unary(int opcode, double a) {
+      switch (opcode) {
+         case OpCode.OPPOSITE:
+            return -a;
+         default:
+            return Math.sqrt(a);
+      }
+   }
+}
@@ -0,0 +1,106 @@
+import java.util.Random;
+
+import org.bm.compiler.BatchKernels;
+import org.bm.compiler.BatchKernelsFactory;
+import org.bm.compiler.OpCode;
+import org.bm.compiler.impl.BatchKernelsDefaultImpl;
+import org.bm.compiler.impl.BatchKernelsVectorImpl;
+
+import junit.framework.TestCase;
+
+/**
+ * Copyright 2012 B. MORIN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ *
+ * @author morinb
+ *
+ */
+public class BatchKernelsVectorTestCase extends TestCase {
+
+   /**
+    * Not a multiple of the vector size, so that the last rows are computed
+    * one by one.
+    */
+   private static final int LENGTH = 1003;
+
+   private static final int OFFSET = 5;
+
+   private final BatchKernels vector = new BatchKernelsVectorImpl();
+
+   private final BatchKernels scalar = new BatchKernelsDefaultImpl();
+
+   private final double[] a = new double[OFFSET + LENGTH];
+
+   private final double[] b = new double[OFFSET + LENGTH];
+
+   @Override
+   protected void setUp() {
+      Random random = new Random(42);
+      for (int i = 0; i < a.length; i++) {
+         a[i] = 1 + 10 * random.nextDouble();
+         b[i] = 0.5 + 2 * random.nextDouble();
+      }
+   }
+
+   public void testFound() {
+      assertTrue(BatchKernelsFactory.getKernels() instanceof BatchKernelsVectorImpl);
+   }
+
+   public void testBinary() {
+      int[] opcodes = { OpCode.ADDITION, OpCode.SUBSTRACTION, OpCode.MULTIPLICATION, OpCode.MODULO,
+         OpCode.DIVISION, OpCode.POWER };
+      for (int opcode : opcodes) {
+         double[] expected = new double[LENGTH];
+         double[] actual = new double[LENGTH];
+         scalar.binary(opcode, a, OFFSET, b, 0, expected, LENGTH);
+         vector.binary(opcode, a, OFFSET, b, 0, actual, LENGTH);
+         assertSameBits(opcode, expected, actual);
+      }
+   }
+
+   public void testUnary() {
+      int[] opcodes = { OpCode.OPPOSITE, OpCode.SQRT, OpCode.LOG, OpCode.EXP };
+      for (int opcode : opcodes) {
+         double[] expected = new double[LENGTH];
+         double[] actual = new double[LENGTH];
+         scalar.unary(opcode, a, OFFSET, expected, LENGTH);
+         vector.unary(opcode, a, OFFSET, actual, LENGTH);
+         assertSameBits(opcode, expected, actual);
+      }
+   }
+
+   public void testResultIsTheOperand() {
+      double[] expected = new double[LENGTH];
+      scalar.binary(OpCode.ADDITION, a, 0, b, OFFSET, expected, LENGTH);
+      vector.binary(OpCode.ADDITION, a, 0, b, OFFSET, a, LENGTH);
+      assertSameBits(OpCode.ADDITION, expected, a);
+   }
+
+   public void testNotAnOperator() {
+      try {
+         vector.unary(OpCode.ADDITION, a, 0, a, LENGTH);
+         fail("+ is not a unary operator");
+      } catch (IllegalArgumentException e) {
+         assertEquals("The opcode 2 is not a unary operator.", e.getMessage());
+      }
+   }
+
+   private static void assertSameBits(int opcode, double[] expected, double[] actual) {
+      for (int i = 0; i < expected.length; i++) {
+         assertEquals("opcode " + opcode + ", row " + i, Double.doubleToLongBits(expected[i]),
+            Double.doubleToLongBits(actual[i]));
+      }
+   }
+}